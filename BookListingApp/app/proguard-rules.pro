@@ -18,4 +18,20 @@
 
 # If you keep the line number information, uncomment this to
 # hide the original source file name.
-#-renamesourcefileattribute SourceFile
\ No newline at end of file
+#-renamesourcefileattribute SourceFile
+# Verbose, debug and info logging is stripped from minified builds, the debug logging
+# in the code is also behind BuildConfig.DEBUG
+-assumenosideeffects class android.util.Log {
+    public static int v(...);
+    public static int d(...);
+    public static int i(...);
+}
+
+# Nothing in the app is reached by reflection, so classes and members are all shrunk, inlined
+# and renamed; log tags are string constants. Book and QueryUtils need no rules, the responses
+# are read with a streaming JsonReader (no reflective Gson binding) and the caches are written
+# field by field.
+
+# Readable stack traces in crash reports, without the original file names
+-keepattributes SourceFile,LineNumberTable
+-renamesourcefileattribute SourceFile
@@ -0,0 +1,115 @@
+package com.example.booklistingapp;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Latency of {@link BookCatalog#search} on a device, over a catalog seeded with as many books
+ * as it keeps, the way pages arrive. A search is answered from the catalog before the network
+ * result, so it has to come back well under 50 ms. SQLite and its FTS4 index only exist on the
+ * device, so this runs as an instrumented test rather than in :benchmark:
+ * {@code ./gradlew :app:connectedAndroidTest
+ * -Pandroid.testInstrumentationRunnerArguments.class=com.example.booklistingapp.CatalogQueryBenchmark}
+ * and prints to {@code adb logcat -s CatalogQueryBenchmark}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CatalogQueryBenchmark {
+
+    private static final String LOG_TAG = "CatalogQueryBenchmark";
+
+    private static final int PAGE = 40;
+    private static final int WARMUP = 20;
+    private static final int RUNS = 200;
+    private static final long MAX_P95_MILLIS = 50;
+
+    private static final String[] WORDS = {
+            "android", "garden", "history", "kotlin", "ocean", "winter", "letters", "empire",
+            "silent", "river", "machine", "learning", "city", "night", "stories", "journey",
+            "mountain", "island", "music", "secret", "summer", "stone", "glass", "harbor"
+    };
+    private static final String[] NAMES = {
+            "Maria Ivanova", "John Smith", "Elena Petrova", "Stefan Dimitrov",
+            "Anna M\u00fcller", "Kenji Sato", "Laura Garc\u00eda", "Peter O'Neil"
+    };
+
+    // Broad and narrow, free and field words, prefixes as they are typed, and a miss
+    private static final String[] QUERIES = {
+            "garden", "ga", "silent river", "night inauthor:smith", "intitle:mountain inauthor:ivan",
+            "ocean stories journey", "m", "zzzz", ""
+    };
+
+    private BookCatalog mCatalog;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mCatalog = new BookCatalog(context, null);
+        Random random = new Random(1);
+        for (int page = 0; page < BookCatalog.MAX_BOOKS / PAGE; page++) {
+            List<Book> books = new ArrayList<Book>(PAGE);
+            for (int i = 0; i < PAGE; i++) {
+                books.add(book(page * PAGE + i, random));
+            }
+            mCatalog.putAll(books);
+        }
+        assertEquals(BookCatalog.MAX_BOOKS, mCatalog.count());
+    }
+
+    @After
+    public void tearDown() {
+        mCatalog.close();
+    }
+
+    @Test
+    public void searchesAreWellUnderFiftyMillis() {
+        for (String text : QUERIES) {
+            BookQuery query = BookQuery.parse(text);
+            for (int i = 0; i < WARMUP; i++) {
+                mCatalog.search(query, BookPager.PAGE_SIZE);
+            }
+            LatencyTracker latencies = new LatencyTracker(RUNS);
+            int found = 0;
+            for (int i = 0; i < RUNS; i++) {
+                long start = System.nanoTime();
+                found = mCatalog.search(query, BookPager.PAGE_SIZE).size();
+                latencies.record((System.nanoTime() - start) / 1000000);
+            }
+
+            Log.i(LOG_TAG, String.format(Locale.ROOT, "\"%s\" over %d books: %d found, p50 %d ms, p95 %d ms, p99 %d ms",
+                    text, BookCatalog.MAX_BOOKS, found, latencies.percentile(50), latencies.percentile(95),
+                    latencies.percentile(99)));
+            assertTrue(text + ": " + latencies.percentile(95) + " ms", latencies.percentile(95) < MAX_P95_MILLIS);
+        }
+    }
+
+    private static Book book(int index, Random random)
+    {
+        String volumeId = String.format(Locale.ROOT, "vol%07d", index);
+        StringBuilder title = new StringBuilder();
+        for (int i = 2 + random.nextInt(3); i > 0; i--) {
+            if (title.length() > 0) {
+                title.append(' ');
+            }
+            String word = WORDS[random.nextInt(WORDS.length)];
+            title.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+        }
+        return new Book(volumeId, title.toString(), NAMES[random.nextInt(NAMES.length)],
+                "https://books.google.com/books/content/images/frontcover/" + volumeId + "?fife=w300",
+                "https://play.google.com/store/books/details?id=" + volumeId);
+    }
+}
@@ -1,59 +1,169 @@
 package com.example.booklistingapp;
 
-import android.app.Activity;
-import android.app.DownloadManager;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.media.Image;
+import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
-import android.widget.ListView;
-import android.widget.TextClock;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
 
-import com.squareup.picasso.Picasso;
+import java.util.List;
 
-import java.util.ArrayList;
+/**
+ * RecyclerView adapter for the list of books.
+ * New lists are handed over with {@link #submitList}, the differences to the current list
+ * are computed on a background thread so only the rows that really changed are rebound.
+ */
+public class BookAdapter extends ListAdapter<Book, BookAdapter.BookViewHolder> {
 
-public class BookAdapter extends ArrayAdapter<Book> {
+    /**
+     * Receives a click on a row of the list.
+     */
+    public interface OnBookClickListener {
+        void onBookClick(Book book);
+    }
+
+    private static final DiffUtil.ItemCallback<Book> DIFF_CALLBACK = new DiffUtil.ItemCallback<Book>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Book oldBook, @NonNull Book newBook) {
+            return oldBook.getVolumeId().equals(newBook.getVolumeId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Book oldBook, @NonNull Book newBook) {
+            return oldBook.equals(newBook);
+        }
+    };
+
+    // Sampled, binding runs for every row that scrolls in
+    private static final Metrics.Histogram sBindTime = Metrics.histogram("list.bind", 4);
+
+    private final Context mContext;
+    private final OnBookClickListener mClickListener;
+    // Created for the first row, not while the activity starts
+    private CoverLoader mCoverLoader;
+    // The rows before this one had their covers prefetched since the list last changed
+    private int mCoversPrefetchedTo;
+
+    public BookAdapter(Context context, OnBookClickListener clickListener)
+    {
+        super(DIFF_CALLBACK);
+        mContext = context.getApplicationContext();
+        mClickListener = clickListener;
+        setHasStableIds(true);
+    }
 
-    public BookAdapter(Activity context, ArrayList<Book> books)
+    private CoverLoader coverLoader()
     {
-        super(context, 0,books);
+        if (mCoverLoader == null) {
+            mCoverLoader = CoverLoader.getInstance(mContext);
+        }
+        return mCoverLoader;
     }
 
     @NonNull
     @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
+    public BookViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View listItemView = LayoutInflater.from(parent.getContext()).inflate(R.layout.book_list_item, parent, false);
+        return new BookViewHolder(listItemView);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull BookViewHolder holder, int position) {
+        //get current position of the book
+        long start = System.nanoTime();
+        Book currentBook = getItem(position);
+        holder.bind(currentBook);
+        sBindTime.recordSince(start);
+    }
 
-        View listItemView = convertView;
+    /**
+     * The row scrolled out and will be reused for another book, its cover load is not needed anymore.
+     */
+    @Override
+    public void onViewRecycled(@NonNull BookViewHolder holder) {
+        coverLoader().cancel(holder.mBookImage);
+    }
 
-        if(listItemView == null)
-        {
-            listItemView = LayoutInflater.from(getContext()).inflate(R.layout.book_list_item,parent,false);
+    /**
+     * Warm the cover caches for the rows after the given position. Called on every scroll frame,
+     * so only the rows that were not in reach of an earlier call are prefetched.
+     */
+    public void prefetchCovers(int fromPosition, int count)
+    {
+        int end = Math.min(getItemCount(), fromPosition + count);
+        for (int position = Math.max(fromPosition, mCoversPrefetchedTo); position < end; position++) {
+            coverLoader().prefetch(getItem(position));
         }
+        mCoversPrefetchedTo = Math.max(mCoversPrefetchedTo, end);
+    }
 
-        //get current position of the book
-        Book currentBook = getItem(position);
+    @Override
+    public void onCurrentListChanged(@NonNull List<Book> previousList, @NonNull List<Book> currentList) {
+        // Rows may have moved, e.g. a page was dropped above them
+        mCoversPrefetchedTo = 0;
+    }
+
+    /**
+     * The volume id is stable for a book across searches and pages.
+     */
+    @Override
+    public long getItemId(int position) {
+        return stableId(getItem(position).getVolumeId());
+    }
+
+    // 64-bit string hash, String.hashCode() collides too easily for a list key
+    private static long stableId(String volumeId)
+    {
+        long hash = 1125899906842597L;
+        for (int i = 0; i < volumeId.length(); i++) {
+            hash = 31 * hash + volumeId.charAt(i);
+        }
+        return hash;
+    }
+
+    /**
+     * Holds the views of a single row, so they are looked up only once per row.
+     */
+    class BookViewHolder extends RecyclerView.ViewHolder {
+
+        private final TextView mBookTitle;
+        private final TextView mBookAuthor;
+        private final ImageView mBookImage;
 
-        //set book title
-        TextView bookTitle = (TextView) listItemView.findViewById(R.id.book_title);
-        bookTitle.setText(currentBook.getTitle());
+        BookViewHolder(View itemView)
+        {
+            super(itemView);
+            mBookTitle = (TextView) itemView.findViewById(R.id.book_title);
+            mBookAuthor = (TextView) itemView.findViewById(R.id.book_author);
+            mBookImage = (ImageView) itemView.findViewById(R.id.book_image);
 
-        //set book author
-        TextView bookAuthor = (TextView) listItemView.findViewById(R.id.book_author);
-        bookAuthor.setText(currentBook.getAuthor());
+            itemView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    int position = getAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION) {
+                        mClickListener.onBookClick(getItem(position));
+                    }
+                }
+            });
+        }
 
-        ImageView bookImage = (ImageView) listItemView.findViewById(R.id.book_image);
-        //using picasso library we load the image from Url
-        Picasso.with(getContext()).load(currentBook.getUrlImage()).into(bookImage);
+        void bind(Book book)
+        {
+            //set book title
+            mBookTitle.setText(book.getTitle());
 
-        return listItemView;
+            //set book author
+            mBookAuthor.setText(book.getAuthor());
+
+            // The cover is loaded at the size of the image view, from the caches if possible
+            coverLoader().load(book, mBookImage);
+        }
     }
 }
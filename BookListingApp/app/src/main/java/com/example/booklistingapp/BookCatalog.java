@@ -0,0 +1,331 @@
+package com.example.booklistingapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Local catalog of every book the API has returned.
+ * Books are stored in SQLite with an FTS4 index over title and author, so a search can be
+ * answered from the device right away (and without a connection) before the network result
+ * arrives. Every field of a {@link Book} is stored, so the books it returns can be filtered
+ * and sorted like the ones from the network. The catalog is capped at {@link #MAX_BOOKS};
+ * the least recently seen books are evicted first. Must not be used from the main thread.
+ */
+public final class BookCatalog extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "catalog.db";
+    // 2: price, currency, language, published date, categories, rating and ISBN
+    private static final int DATABASE_VERSION = 2;
+
+    static final int MAX_BOOKS = 20000;
+
+    private static final String TABLE_BOOKS = "books";
+    private static final String TABLE_FTS = "books_fts";
+
+    private static final String COLUMN_ID = "_id";
+    private static final String COLUMN_VOLUME_ID = "volume_id";
+    private static final String COLUMN_TITLE = "title";
+    private static final String COLUMN_AUTHOR = "author";
+    private static final String COLUMN_URL_IMAGE = "url_image";
+    private static final String COLUMN_URL_BOOK = "url_book";
+    private static final String COLUMN_PRICE_MICROS = "price_micros";
+    private static final String COLUMN_CURRENCY = "currency";
+    private static final String COLUMN_LANGUAGE = "language";
+    private static final String COLUMN_PUBLISHED_DATE = "published_date";
+    // Joined with CATEGORY_SEPARATOR, empty for none
+    private static final String COLUMN_CATEGORIES = "categories";
+    private static final String COLUMN_RATING = "rating";
+    // Canonical ISBN-13, empty if there is none
+    private static final String COLUMN_ISBN = "isbn";
+    private static final String COLUMN_LAST_ACCESS = "last_access";
+
+    private static final String CATEGORY_SEPARATOR = "\n";
+
+    // The columns of version 2, each with a default for the books of version 1
+    private static final String[] DETAIL_COLUMNS = {
+            COLUMN_PRICE_MICROS + " INTEGER NOT NULL DEFAULT " + Book.NO_PRICE,
+            COLUMN_CURRENCY + " TEXT NOT NULL DEFAULT ''",
+            COLUMN_LANGUAGE + " TEXT NOT NULL DEFAULT ''",
+            COLUMN_PUBLISHED_DATE + " INTEGER NOT NULL DEFAULT " + Book.NO_DATE,
+            COLUMN_CATEGORIES + " TEXT NOT NULL DEFAULT ''",
+            COLUMN_RATING + " REAL NOT NULL DEFAULT 0",
+            COLUMN_ISBN + " TEXT NOT NULL DEFAULT ''"
+    };
+    private static final String CREATE_ISBN_INDEX =
+            "CREATE INDEX books_isbn ON " + TABLE_BOOKS + " (" + COLUMN_ISBN + ")";
+
+    private static BookCatalog sInstance;
+
+    private BookCatalog(Context context)
+    {
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * A catalog in a database of its own, in memory if the name is null, for tests.
+     */
+    BookCatalog(Context context, String databaseName)
+    {
+        super(context, databaseName, null, DATABASE_VERSION);
+    }
+
+    public static synchronized BookCatalog getInstance(Context context)
+    {
+        if (sInstance == null) {
+            sInstance = new BookCatalog(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        StringBuilder details = new StringBuilder();
+        for (String column : DETAIL_COLUMNS) {
+            details.append(", ").append(column);
+        }
+        db.execSQL("CREATE TABLE " + TABLE_BOOKS + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_VOLUME_ID + " TEXT NOT NULL UNIQUE, "
+                + COLUMN_TITLE + " TEXT NOT NULL, "
+                + COLUMN_AUTHOR + " TEXT NOT NULL, "
+                + COLUMN_URL_IMAGE + " TEXT NOT NULL, "
+                + COLUMN_URL_BOOK + " TEXT NOT NULL, "
+                + COLUMN_LAST_ACCESS + " INTEGER NOT NULL" + details + ")");
+        db.execSQL("CREATE INDEX books_last_access ON " + TABLE_BOOKS + " (" + COLUMN_LAST_ACCESS + ")");
+        db.execSQL(CREATE_ISBN_INDEX);
+
+        // External content FTS table, the text is stored only once in the books table
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_FTS + " USING fts4(content=\"" + TABLE_BOOKS + "\", "
+                + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ")");
+
+        // Keep the index in sync, touching last_access does not re-index the row
+        db.execSQL("CREATE TRIGGER books_ai AFTER INSERT ON " + TABLE_BOOKS + " BEGIN "
+                + "INSERT INTO " + TABLE_FTS + "(docid, " + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ") "
+                + "VALUES (new." + COLUMN_ID + ", new." + COLUMN_TITLE + ", new." + COLUMN_AUTHOR + "); END");
+        db.execSQL("CREATE TRIGGER books_bu BEFORE UPDATE OF " + COLUMN_TITLE + ", " + COLUMN_AUTHOR
+                + " ON " + TABLE_BOOKS + " BEGIN "
+                + "DELETE FROM " + TABLE_FTS + " WHERE docid = old." + COLUMN_ID + "; END");
+        db.execSQL("CREATE TRIGGER books_au AFTER UPDATE OF " + COLUMN_TITLE + ", " + COLUMN_AUTHOR
+                + " ON " + TABLE_BOOKS + " BEGIN "
+                + "INSERT INTO " + TABLE_FTS + "(docid, " + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ") "
+                + "VALUES (new." + COLUMN_ID + ", new." + COLUMN_TITLE + ", new." + COLUMN_AUTHOR + "); END");
+        db.execSQL("CREATE TRIGGER books_bd BEFORE DELETE ON " + TABLE_BOOKS + " BEGIN "
+                + "DELETE FROM " + TABLE_FTS + " WHERE docid = old." + COLUMN_ID + "; END");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion == 1) {
+            // The books are kept without details until they are seen again
+            for (String column : DETAIL_COLUMNS) {
+                db.execSQL("ALTER TABLE " + TABLE_BOOKS + " ADD COLUMN " + column);
+            }
+            db.execSQL(CREATE_ISBN_INDEX);
+            return;
+        }
+        // The catalog is only a cache of API results, it can be rebuilt
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FTS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BOOKS);
+        onCreate(db);
+    }
+
+    /**
+     * Insert or refresh the books and mark them as recently seen.
+     */
+    public void putAll(List<Book> books)
+    {
+        if (books == null || books.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase db = getWritableDatabase();
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            // The volume id comes last in both, the other columns are bound the same way
+            SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_BOOKS + " SET "
+                    + COLUMN_TITLE + " = ?, " + COLUMN_AUTHOR + " = ?, " + COLUMN_URL_IMAGE + " = ?, "
+                    + COLUMN_URL_BOOK + " = ?, " + COLUMN_PRICE_MICROS + " = ?, " + COLUMN_CURRENCY + " = ?, "
+                    + COLUMN_LANGUAGE + " = ?, " + COLUMN_PUBLISHED_DATE + " = ?, " + COLUMN_CATEGORIES + " = ?, "
+                    + COLUMN_RATING + " = ?, " + COLUMN_ISBN + " = ?, " + COLUMN_LAST_ACCESS + " = ? WHERE "
+                    + COLUMN_VOLUME_ID + " = ?");
+            SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE_BOOKS + " ("
+                    + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ", " + COLUMN_URL_IMAGE + ", " + COLUMN_URL_BOOK + ", "
+                    + COLUMN_PRICE_MICROS + ", " + COLUMN_CURRENCY + ", " + COLUMN_LANGUAGE + ", "
+                    + COLUMN_PUBLISHED_DATE + ", " + COLUMN_CATEGORIES + ", " + COLUMN_RATING + ", " + COLUMN_ISBN + ", "
+                    + COLUMN_LAST_ACCESS + ", " + COLUMN_VOLUME_ID + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            for (Book book : books) {
+                // No INSERT OR REPLACE: its implicit delete would not run the FTS triggers
+                bind(update, book, now);
+                if (update.executeUpdateDelete() == 0) {
+                    bind(insert, book, now);
+                    insert.executeInsert();
+                }
+            }
+            evict(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Bind the book to a statement of putAll
+    private static void bind(SQLiteStatement statement, Book book, long now)
+    {
+        statement.bindString(1, book.getTitle());
+        statement.bindString(2, book.getAuthor());
+        statement.bindString(3, book.getUrlImage());
+        statement.bindString(4, book.getUrlBook());
+        statement.bindLong(5, book.getPriceMicros());
+        statement.bindString(6, book.getCurrency());
+        statement.bindString(7, book.getLanguage());
+        statement.bindLong(8, book.getPublishedDate());
+        statement.bindString(9, join(book.getCategories()));
+        statement.bindDouble(10, book.getRating());
+        statement.bindString(11, book.getIsbn());
+        statement.bindLong(12, now);
+        statement.bindString(13, book.getVolumeId());
+    }
+
+    /**
+     * Books whose title or author contain words starting with every word of the query,
+     * most recently seen first. Title and author words of the query only match their column,
+     * an ISBN matches the book's ISBN in either form. An empty query returns the most recently
+     * seen books. The catalog knows no subjects, so a query for those finds nothing here.
+     */
+    public List<Book> search(BookQuery query, int limit)
+    {
+        if (!query.getWords(BookQuery.Field.SUBJECT).isEmpty()) {
+            return new ArrayList<Book>();
+        }
+        String isbn = null;
+        for (String word : query.getWords(BookQuery.Field.ISBN)) {
+            String canonical = Isbn.canonical(word);
+            // A book has one ISBN here, it cannot match two different ones
+            if (canonical == null || (isbn != null && !isbn.equals(canonical))) {
+                return new ArrayList<Book>();
+            }
+            isbn = canonical;
+        }
+        String match = toMatchExpression(query);
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor;
+        if (match.isEmpty()) {
+            cursor = db.query(TABLE_BOOKS, null, isbn != null ? COLUMN_ISBN + " = ?" : null,
+                    isbn != null ? new String[]{isbn} : null, null, null,
+                    COLUMN_LAST_ACCESS + " DESC", String.valueOf(limit));
+        } else {
+            cursor = db.rawQuery("SELECT b.* FROM " + TABLE_BOOKS + " b JOIN " + TABLE_FTS + " f"
+                    + " ON b." + COLUMN_ID + " = f.docid WHERE " + TABLE_FTS + " MATCH ?"
+                    + (isbn != null ? " AND b." + COLUMN_ISBN + " = ?" : "")
+                    + " ORDER BY b." + COLUMN_LAST_ACCESS + " DESC LIMIT " + limit,
+                    isbn != null ? new String[]{match, isbn} : new String[]{match});
+        }
+
+        List<Book> books = new ArrayList<Book>(cursor.getCount());
+        try {
+            int volumeIdIndex = cursor.getColumnIndexOrThrow(COLUMN_VOLUME_ID);
+            int titleIndex = cursor.getColumnIndexOrThrow(COLUMN_TITLE);
+            int authorIndex = cursor.getColumnIndexOrThrow(COLUMN_AUTHOR);
+            int urlImageIndex = cursor.getColumnIndexOrThrow(COLUMN_URL_IMAGE);
+            int urlBookIndex = cursor.getColumnIndexOrThrow(COLUMN_URL_BOOK);
+            int priceMicrosIndex = cursor.getColumnIndexOrThrow(COLUMN_PRICE_MICROS);
+            int currencyIndex = cursor.getColumnIndexOrThrow(COLUMN_CURRENCY);
+            int languageIndex = cursor.getColumnIndexOrThrow(COLUMN_LANGUAGE);
+            int publishedDateIndex = cursor.getColumnIndexOrThrow(COLUMN_PUBLISHED_DATE);
+            int categoriesIndex = cursor.getColumnIndexOrThrow(COLUMN_CATEGORIES);
+            int ratingIndex = cursor.getColumnIndexOrThrow(COLUMN_RATING);
+            int isbnIndex = cursor.getColumnIndexOrThrow(COLUMN_ISBN);
+            while (cursor.moveToNext()) {
+                books.add(new Book(cursor.getString(volumeIdIndex), cursor.getString(titleIndex),
+                        cursor.getString(authorIndex), cursor.getString(urlImageIndex), cursor.getString(urlBookIndex),
+                        cursor.getLong(priceMicrosIndex), cursor.getString(currencyIndex),
+                        cursor.getString(languageIndex), cursor.getInt(publishedDateIndex),
+                        split(cursor.getString(categoriesIndex)), cursor.getFloat(ratingIndex),
+                        cursor.getString(isbnIndex)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return books;
+    }
+
+    /**
+     * Number of books in the catalog.
+     */
+    public long count()
+    {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_BOOKS);
+    }
+
+    private static String join(List<String> categories)
+    {
+        StringBuilder joined = new StringBuilder();
+        for (String category : categories) {
+            if (joined.length() > 0) {
+                joined.append(CATEGORY_SEPARATOR);
+            }
+            joined.append(category);
+        }
+        return joined.toString();
+    }
+
+    private static List<String> split(String categories)
+    {
+        if (categories.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.asList(categories.split(CATEGORY_SEPARATOR)));
+    }
+
+    // Remove the least recently seen books above the cap
+    private static void evict(SQLiteDatabase db)
+    {
+        long count = DatabaseUtils.queryNumEntries(db, TABLE_BOOKS);
+        if (count <= MAX_BOOKS) {
+            return;
+        }
+        db.execSQL("DELETE FROM " + TABLE_BOOKS + " WHERE " + COLUMN_ID + " IN (SELECT " + COLUMN_ID
+                + " FROM " + TABLE_BOOKS + " ORDER BY " + COLUMN_LAST_ACCESS + " ASC LIMIT " + (count - MAX_BOOKS) + ")");
+    }
+
+    /**
+     * Turn the query into an FTS prefix query, e.g. "harry pot inauthor:rowl" into
+     * "harry* pot* author:rowl*". Characters with a meaning in the MATCH syntax are dropped.
+     */
+    static String toMatchExpression(BookQuery query)
+    {
+        StringBuilder match = new StringBuilder();
+        appendPrefixTerms(match, null, query.getWords());
+        appendPrefixTerms(match, COLUMN_TITLE, query.getWords(BookQuery.Field.TITLE));
+        appendPrefixTerms(match, COLUMN_AUTHOR, query.getWords(BookQuery.Field.AUTHOR));
+        return match.toString();
+    }
+
+    private static void appendPrefixTerms(StringBuilder match, String column, List<String> words)
+    {
+        for (String text : words) {
+            for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+                if (word.isEmpty()) {
+                    continue;
+                }
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                if (column != null) {
+                    match.append(column).append(':');
+                }
+                match.append(word).append('*');
+            }
+        }
+    }
+}
@@ -0,0 +1,816 @@
+package com.example.booklistingapp;
+
+import android.app.Application;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Holds the current search and its loaded pages for {@link MainActivity}.
+ * It outlives configuration changes, so a rotated activity gets the books it already had
+ * without another request, and results that arrive while the activity is stopped are
+ * delivered once it is visible again.
+ * A search is answered from the local {@link BookCatalog} first, also without a connection,
+ * and the first network page replaces those rows when it arrives. Every page is asked of all
+ * {@link BookSource}s through the {@link FederatedSearch}, and grows as they answer.
+ * On a cold start the last search is restored from the sources' disk caches instead, without
+ * a request, see {@link #restore}.
+ * The {@link ConnectivityMonitor} decides how much is fetched: smaller pages on a metered or slow
+ * network, larger ones loaded earlier on Wi-Fi. A page that could not be fetched for want of
+ * a network is fetched again as soon as one is back.
+ * The loaded books can be filtered and sorted without a request through a {@link BookIndex},
+ * see {@link #setView}.
+ * Instead of a search the list can also show the books of a list of ISBNs, which are added
+ * as the {@link IsbnBatchLookup} finds them, see {@link #lookUpIsbns}.
+ * The loaded pages count against the {@link MemoryBudget}; when it shrinks, the pages farthest
+ * from the screen are dropped and loaded again if the user scrolls back to them.
+ */
+public class BookViewModel extends AndroidViewModel {
+
+    // Room for the fetches of every source of a visible page and a prefetch
+    private static final int FETCH_THREADS = 4;
+    private static final int MAX_QUEUED_FETCHES = 8;
+    // Rows answered from the local catalog before the network result arrives
+    private static final int LOCAL_RESULTS = BookPager.PAGE_SIZE;
+
+    private static final Metrics.Histogram sCatalogQueryTime = Metrics.histogram("catalog.query");
+    private static final Metrics.Histogram sRestoreTime = Metrics.histogram("startup.restore");
+
+    private static final String ISBN_CHECKPOINT_DIR_NAME = "isbn_lookups";
+
+    private static BookCache sCache;
+    private static FederatedSearch sSearch;
+    private static IsbnBatchLookup sIsbnLookup;
+    // Catalog queries and writes run one at a time, off the fetch threads
+    private static final ExecutorService sCatalogExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * What the list shows. A new instance is published for every change.
+     */
+    public static final class ListState {
+
+        final List<Book> books;
+        // How far the rows that were on screen moved because rows before them were added or removed
+        final int anchorShift;
+        final boolean loading;
+        // String resource of the empty view text, or 0 for none
+        final int emptyMessage;
+
+        ListState(List<Book> books, int anchorShift, boolean loading, int emptyMessage)
+        {
+            this.books = books;
+            this.anchorShift = anchorShift;
+            this.loading = loading;
+            this.emptyMessage = emptyMessage;
+        }
+    }
+
+    /**
+     * Fetch phase of the first page of a search.
+     */
+    public static final class LoadProgress {
+
+        final QueryUtils.ProgressListener.Phase phase;
+        final long bytesRead;
+
+        LoadProgress(QueryUtils.ProgressListener.Phase phase, long bytesRead)
+        {
+            this.phase = phase;
+            this.bytesRead = bytesRead;
+        }
+    }
+
+    private final MutableLiveData<ListState> mState = new MutableLiveData<ListState>();
+    private final MutableLiveData<LoadProgress> mProgress = new MutableLiveData<LoadProgress>();
+    private final MutableLiveData<IsbnBatchLookup.Progress> mIsbnProgress = new MutableLiveData<IsbnBatchLookup.Progress>();
+
+    private final FederatedSearch mSearch;
+    private final BookCatalog mCatalog;
+    private final Executor mMainExecutor;
+    private final BookPager mPager = new BookPager();
+    // The books of the loaded pages, in list order
+    private final ArrayList<Book> mBooks = new ArrayList<Book>();
+    private BookQuery mQuery;
+    private CancellationToken mPendingFetch;
+    // Last reported first visible row, rows inserted above it move the rows on screen
+    private int mFirstVisible;
+    // Incremented for every search, so a late catalog answer for an older one is dropped
+    private int mSearchGeneration;
+    // Null until the first search or restored page, nothing is fetched before
+    private ConnectivityMonitor mConnectivity;
+    private boolean mOnline;
+    // Page to fetch when the network is back, or -1
+    private int mWaitingPage = -1;
+    // How the loaded books are shown, and the index over them, null once they changed
+    private BookIndex.Filter mFilter = BookIndex.Filter.NONE;
+    private BookIndex.Sort mSort = BookIndex.Sort.RELEVANCE;
+    private BookIndex mIndex;
+    // The ISBN lookup the list shows, or null for a search; kept after it finished
+    private CancellationToken mIsbnLookup;
+    // The books the lookup added, by FederatedSearch.keyOf(Book)
+    private final HashSet<String> mIsbnBookKeys = new HashSet<String>();
+    private final MemoryBudget mMemoryBudget;
+    // Bytes the loaded books and the pager may take, see MemoryBudget.Component.PAGES
+    private long mPagesBudget = Long.MAX_VALUE;
+
+    // Called on the main thread, like everything else that touches the loaded books
+    private final Trimmable mPagesTrimmable = new Trimmable() {
+        @Override
+        public long getRetainedBytes() {
+            return retainedBytes() + mPager.estimatedBytes();
+        }
+
+        @Override
+        public void setBudget(long maxBytes) {
+            mPagesBudget = maxBytes;
+            int loaded = mBooks.size();
+            int anchorShift = trimPages(0, -1);
+            if (mBooks.size() != loaded) {
+                ListState current = mState.getValue();
+                mState.setValue(listState(anchorShift, current != null && current.loading,
+                        current != null ? current.emptyMessage : R.string.no_books));
+            }
+        }
+    };
+
+    private final Observer<ConnectivityMonitor.NetworkState> mNetworkObserver =
+            new Observer<ConnectivityMonitor.NetworkState>() {
+                @Override
+                public void onChanged(ConnectivityMonitor.NetworkState state) {
+                    onNetworkChanged(state);
+                }
+            };
+
+    public BookViewModel(@NonNull Application application)
+    {
+        super(application);
+        mSearch = getSearch(application);
+        mCatalog = BookCatalog.getInstance(application);
+        mMainExecutor = ContextCompat.getMainExecutor(application);
+        mMemoryBudget = MemoryBudget.getInstance(application);
+        mMemoryBudget.register(MemoryBudget.Component.PAGES, mPagesTrimmable);
+    }
+
+    /**
+     * The results cache of the whole app, in its cache dir and within the memory budget.
+     */
+    static synchronized BookCache getCache(Context context)
+    {
+        if (sCache == null) {
+            sCache = new BookCache(context.getApplicationContext().getCacheDir());
+            MemoryBudget.getInstance(context).register(MemoryBudget.Component.RESULTS, sCache);
+        }
+        return sCache;
+    }
+
+    /**
+     * The search and its engine are shared by the whole app, so the engine's thread pool
+     * bounds all fetches. Google Books is the main source, Open Library adds to it.
+     */
+    static synchronized FederatedSearch getSearch(Context context)
+    {
+        if (sSearch == null) {
+            BookCache cache = getCache(context);
+            Executor mainExecutor = ContextCompat.getMainExecutor(context);
+            BookFetchEngine engine = new BookFetchEngine(FETCH_THREADS, MAX_QUEUED_FETCHES, mainExecutor);
+            List<BookSource> sources = Arrays.<BookSource>asList(
+                    new GoogleBooksSource(cache, BookCatalog.getInstance(context), sCatalogExecutor),
+                    new OpenLibrarySource(cache));
+            sSearch = new FederatedSearch(engine, sources, mainExecutor);
+        }
+        return sSearch;
+    }
+
+    /**
+     * Shared like the search, so there is one pool and one rate limit for all lookups.
+     * Checkpoints are kept in the files dir, the system does not clear it under storage pressure.
+     */
+    static synchronized IsbnBatchLookup getIsbnLookup(Context context)
+    {
+        if (sIsbnLookup == null) {
+            sIsbnLookup = new IsbnBatchLookup(getCache(context),
+                    new File(context.getFilesDir(), ISBN_CHECKPOINT_DIR_NAME),
+                    ContextCompat.getMainExecutor(context));
+        }
+        return sIsbnLookup;
+    }
+
+    public LiveData<ListState> getState()
+    {
+        return mState;
+    }
+
+    public LiveData<LoadProgress> getProgress()
+    {
+        return mProgress;
+    }
+
+    /**
+     * Progress of the ISBN lookup, see {@link #lookUpIsbns}.
+     */
+    public LiveData<IsbnBatchLookup.Progress> getIsbnProgress()
+    {
+        return mIsbnProgress;
+    }
+
+    /**
+     * True once a search or an ISBN lookup has been started, i.e. the view model has something to show.
+     */
+    public boolean hasQuery()
+    {
+        return mQuery != null || mIsbnLookup != null;
+    }
+
+    /**
+     * True while the list shows the books of an ISBN lookup rather than of a search.
+     */
+    public boolean isShowingIsbnLookup()
+    {
+        return mIsbnLookup != null;
+    }
+
+    /**
+     * Show the books of the ISBNs instead of a search, adding them as they are found.
+     * A lookup of a list that was looked up before resumes from its checkpoint.
+     */
+    public void lookUpIsbns(List<String> isbns)
+    {
+        cancelPendingFetch();
+        cancelIsbnLookup();
+        mQuery = null;
+        mPager.reset();
+        mFirstVisible = 0;
+        mWaitingPage = -1;
+        mFilter = BookIndex.Filter.NONE;
+        mSearchGeneration++;
+        mBooks.clear();
+        mIsbnBookKeys.clear();
+        mIndex = null;
+        mState.setValue(listState(0, true, 0));
+        mIsbnProgress.setValue(null);
+        // Nothing is delivered once the lookup is cancelled by the next one or a search
+        mIsbnLookup = getIsbnLookup(getApplication()).start(isbns, new IsbnBatchLookup.Listener() {
+            @Override
+            public void onResolved(List<Book> books, IsbnBatchLookup.Progress progress) {
+                onIsbnsResolved(books, progress);
+            }
+
+            @Override
+            public void onFinished(IsbnBatchLookup.Progress progress) {
+                onIsbnLookupFinished(progress);
+            }
+        });
+    }
+
+    private void onIsbnsResolved(List<Book> books, IsbnBatchLookup.Progress progress)
+    {
+        // Two ISBNs of one book, e.g. its ISBN-10 and ISBN-13, would be two rows with one stable id
+        int added = 0;
+        for (Book book : books) {
+            if (mIsbnBookKeys.add(FederatedSearch.keyOf(book))) {
+                mBooks.add(book);
+                added++;
+            }
+        }
+        if (added > 0) {
+            mIndex = null;
+            mState.setValue(listState(0, true, 0));
+        }
+        mIsbnProgress.setValue(progress);
+    }
+
+    private void onIsbnLookupFinished(IsbnBatchLookup.Progress progress)
+    {
+        int emptyMessage = progress.getFailed() > 0 ? R.string.error_network : R.string.no_books;
+        mState.setValue(listState(0, false, emptyMessage));
+        mIsbnProgress.setValue(progress);
+    }
+
+    /**
+     * Start a new search. The matching books of the local catalog are shown first; when online,
+     * the first page is also fetched and replaces them. The fetch still running for the
+     * previous search is cancelled.
+     */
+    public void search(BookQuery query)
+    {
+        boolean online = connectivity().getState().isConnected();
+        cancelPendingFetch();
+        cancelIsbnLookup();
+        mQuery = query;
+        mPager.reset();
+        mFirstVisible = 0;
+        mWaitingPage = -1;
+        // The facets of the new results are others, the sort order stays
+        mFilter = BookIndex.Filter.NONE;
+        // The rows of the previous search or lookup are not part of this one
+        mBooks.clear();
+        mIndex = null;
+        mState.setValue(listState(0, online, 0));
+        searchCatalog(query, ++mSearchGeneration, online);
+        if (online) {
+            loadPage(0, BookFetchEngine.Priority.VISIBLE);
+        } else {
+            mWaitingPage = 0;
+        }
+    }
+
+    /**
+     * The loaded books, unfiltered, e.g. for the saved instance state.
+     */
+    public List<Book> getBooks()
+    {
+        return snapshot();
+    }
+
+    /**
+     * Like {@link #restore(BookQuery)}, but the books saved before the process was killed are
+     * shown until the cached first page replaces them.
+     */
+    public void restore(BookQuery query, List<Book> savedBooks)
+    {
+        mBooks.clear();
+        mBooks.addAll(savedBooks);
+        mIndex = null;
+        restore(query);
+    }
+
+    /**
+     * Show the first page of the search as the sources cached it, fresh or not, without asking
+     * the network; the {@link PrefetchWorker} keeps it current. Scrolling loads the following
+     * pages as usual. If nothing is cached this is a normal {@link #search}.
+     */
+    public void restore(final BookQuery query)
+    {
+        cancelPendingFetch();
+        cancelIsbnLookup();
+        mQuery = query;
+        mPager.reset();
+        mFirstVisible = 0;
+        mWaitingPage = -1;
+        mFilter = BookIndex.Filter.NONE;
+        final int generation = ++mSearchGeneration;
+        final int[] startIndexes = mPager.startIndexes(0, mSearch.getSourceCount());
+        mState.setValue(listState(0, true, 0));
+        sCatalogExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                final List<List<Book>> pages = mSearch.getCached(query, startIndexes, BookPager.FIRST_PAGE_SIZE);
+                sRestoreTime.recordSince(start);
+                mMainExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRestored(generation, pages);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onRestored(int generation, List<List<Book>> pages)
+    {
+        if (generation != mSearchGeneration) {
+            return;
+        }
+        // Merged like the answers of a live search, in source order
+        ArrayList<Book> books = new ArrayList<Book>();
+        boolean cached = false;
+        for (int source = 0; source < pages.size(); source++) {
+            List<Book> page = pages.get(source);
+            if (page == null) {
+                continue;
+            }
+            cached = true;
+            mPager.onSourceLoaded(0, source, BookPager.FIRST_PAGE_SIZE);
+            books.addAll(mPager.withoutDuplicates(0, source, page));
+        }
+        if (!cached) {
+            search(mQuery);
+            return;
+        }
+        onPageLoaded(0, books);
+        // The restored rows are on screen, what is fetched next can follow the network
+        connectivity();
+    }
+
+    private void searchCatalog(final BookQuery query, final int generation, final boolean online)
+    {
+        sCatalogExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                final List<Book> books = mCatalog.search(query, LOCAL_RESULTS);
+                sCatalogQueryTime.recordSince(start);
+                mMainExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onCatalogResult(generation, books, online);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onCatalogResult(int generation, List<Book> books, boolean online)
+    {
+        // A newer search was started, or the network already answered this one
+        if (generation != mSearchGeneration || !mPager.isEmpty()) {
+            return;
+        }
+        mBooks.clear();
+        mBooks.addAll(books);
+        mIndex = null;
+        int emptyMessage = online ? R.string.no_books : R.string.no_internet_connection;
+        mState.setValue(listState(0, mPendingFetch != null, emptyMessage));
+    }
+
+    /**
+     * The list was scrolled, prefetch the neighbouring page if it is close.
+     */
+    public void onScrolled(int firstVisible, int lastVisible, int itemCount)
+    {
+        mFirstVisible = firstVisible;
+        if (mQuery == null) {
+            // An ISBN lookup has no further pages
+            return;
+        }
+        int page = mPager.pageToLoad(firstVisible, lastVisible, itemCount);
+        if (page >= 0) {
+            loadPage(page, BookFetchEngine.Priority.PREFETCH);
+        }
+    }
+
+    private void loadPage(final int page, BookFetchEngine.Priority priority)
+    {
+        mWaitingPage = -1;
+        mPager.setLoading(true);
+        int[] startIndexes = mPager.startIndexes(page, mSearch.getSourceCount());
+        mPendingFetch = mSearch.search(mQuery, startIndexes, mPager.sizeOf(page), priority,
+                new QueryUtils.ProgressListener() {
+                    @Override
+                    public void onProgress(Phase phase, long bytesRead) {
+                        // Only the first page has a progress indicator
+                        if (page == 0) {
+                            mProgress.postValue(new LoadProgress(phase, bytesRead));
+                        }
+                    }
+                }, new FederatedSearch.Listener() {
+                    // Whether the page is in the list yet, and whether any source answered
+                    private boolean mPlaced;
+                    private boolean mAnswered;
+                    // Why the most important source that failed did so
+                    private QueryUtils.FetchException mFailure;
+                    private int mFailedSource = Integer.MAX_VALUE;
+
+                    @Override
+                    public void onSourceResult(int source, List<Book> books, int consumedCount) {
+                        if (books == null) {
+                            return;
+                        }
+                        mAnswered = true;
+                        mPager.onSourceLoaded(page, source, consumedCount);
+                        List<Book> distinct = mPager.withoutDuplicates(page, source, books);
+                        if (distinct.isEmpty()) {
+                            // An empty page would end the list, wait for the other sources
+                            return;
+                        }
+                        if (mPlaced) {
+                            onPageExtended(page, distinct);
+                        } else {
+                            mPlaced = true;
+                            onPageLoaded(page, distinct);
+                        }
+                    }
+
+                    @Override
+                    public void onSourceFailed(int source, QueryUtils.FetchException failure) {
+                        if (source < mFailedSource) {
+                            mFailedSource = source;
+                            mFailure = failure;
+                        }
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        mPendingFetch = null;
+                        mPager.setLoading(false);
+                        if (!mPlaced) {
+                            if (mAnswered) {
+                                onPageLoaded(page, Collections.<Book>emptyList());
+                            } else {
+                                // Every source failed
+                                onPageFailed(page, mFailure);
+                            }
+                        }
+                    }
+                });
+    }
+
+    /**
+     * No source brought the page, scrolling will try it again, and so does a network that comes
+     * back if the network was the problem. An empty list says why.
+     *
+     * @param failure the reason of the main source that failed, null if all of them timed out
+     */
+    private void onPageFailed(int page, QueryUtils.FetchException failure)
+    {
+        mPager.setLoading(false);
+        if (failure != null && failure.getReason() == QueryUtils.FetchException.Reason.NETWORK) {
+            mWaitingPage = page;
+        }
+        mState.setValue(listState(0, false, mBooks.isEmpty() ? messageOf(failure) : 0));
+    }
+
+    private static int messageOf(QueryUtils.FetchException failure)
+    {
+        if (failure == null) {
+            return R.string.no_books;
+        }
+        switch (failure.getReason()) {
+            case NETWORK:
+                return R.string.error_network;
+            case RATE_LIMITED:
+                return R.string.error_rate_limited;
+            case UNAVAILABLE:
+                return R.string.error_unavailable;
+            default:
+                return R.string.error_search_failed;
+        }
+    }
+
+    private void onPageLoaded(int page, List<Book> books)
+    {
+        BookPager.Placement placement = mPager.onPageLoaded(page, books);
+        if (placement.mode == BookPager.Placement.IGNORE) {
+            return;
+        }
+        // A page that does not fit the budget pushes out the pages farthest from the screen
+        int anchorShift = trimPages(place(placement, books), page);
+        mState.setValue(listState(anchorShift, false, R.string.no_books));
+    }
+
+    /**
+     * Put the books of a REPLACE, APPEND or PREPEND into the list and drop the rows it removes.
+     * Returns how far the rows on screen moved.
+     */
+    private int place(BookPager.Placement placement, List<Book> books)
+    {
+        int anchorShift = 0;
+        switch (placement.mode) {
+            case BookPager.Placement.REPLACE:
+                mBooks.clear();
+                mBooks.addAll(books);
+                break;
+            case BookPager.Placement.APPEND:
+                // Drop the rows of the page that fell out of the window at the start
+                mBooks.subList(0, placement.droppedCount).clear();
+                mBooks.addAll(books);
+                anchorShift = -placement.droppedCount;
+                break;
+            case BookPager.Placement.PREPEND:
+                // Drop the rows of the page that fell out of the window at the end
+                mBooks.subList(mBooks.size() - placement.droppedCount, mBooks.size()).clear();
+                mBooks.addAll(0, books);
+                anchorShift = books.size();
+                break;
+            default:
+                throw new IllegalArgumentException("Not placed: " + placement.mode);
+        }
+        mIndex = null;
+        return anchorShift;
+    }
+
+    /**
+     * Drop loaded pages, the one farthest from the screen first, until the books fit into
+     * their budget. The page on screen and {@code keepPage} always stay, and so do the books
+     * of an ISBN lookup, which cannot be loaded again page by page. The rows on screen already
+     * moved by {@code anchorShift}; returns how far they moved in all.
+     */
+    private int trimPages(int anchorShift, int keepPage)
+    {
+        // Counted once, then only the dropped rows are, this runs on the main thread
+        long retained = retainedBytes() + mPager.estimatedBytes();
+        while (retained > mPagesBudget) {
+            long pagerBytes = mPager.estimatedBytes();
+            BookPager.Placement placement = mPager.dropFarthestPage(visibleRow(anchorShift), keepPage);
+            if (placement.mode == BookPager.Placement.IGNORE) {
+                break;
+            }
+            // Dropping a page also forgets the books of the pages far from the ones left
+            retained -= retainedBytes(droppedBooks(placement)) + pagerBytes - mPager.estimatedBytes();
+            anchorShift += place(placement, Collections.<Book>emptyList());
+        }
+        return anchorShift;
+    }
+
+    /**
+     * The rows that {@link #place} removes for the placement of a dropped page.
+     */
+    private List<Book> droppedBooks(BookPager.Placement placement)
+    {
+        switch (placement.mode) {
+            case BookPager.Placement.APPEND:
+                return mBooks.subList(0, placement.droppedCount);
+            case BookPager.Placement.PREPEND:
+                return mBooks.subList(mBooks.size() - placement.droppedCount, mBooks.size());
+            default:
+                return mBooks;
+        }
+    }
+
+    private long retainedBytes()
+    {
+        return retainedBytes(mBooks);
+    }
+
+    private static long retainedBytes(List<Book> books)
+    {
+        long bytes = 0;
+        for (Book book : books) {
+            bytes += book.estimatedRetainedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Index in the loaded books of the first visible row, once the rows moved by {@code anchorShift}.
+     * While a filter is set the row is one of the filtered list, and its book is looked up.
+     */
+    private int visibleRow(int anchorShift)
+    {
+        ListState current = mState.getValue();
+        if (!isFiltered() || current == null || mFirstVisible >= current.books.size()) {
+            return mFirstVisible + anchorShift;
+        }
+        return Math.max(0, mBooks.indexOf(current.books.get(mFirstVisible)));
+    }
+
+    private void onPageExtended(int page, List<Book> books)
+    {
+        BookPager.Placement placement = mPager.onPageExtended(page, books);
+        if (placement.mode != BookPager.Placement.INSERT) {
+            return;
+        }
+        mBooks.addAll(placement.position, books);
+        mIndex = null;
+        int anchorShift = placement.position <= mFirstVisible ? books.size() : 0;
+        mState.setValue(listState(anchorShift, false, R.string.no_books));
+    }
+
+    /**
+     * The monitor, which starts watching the network on first use. Not needed before the
+     * first search, a restored search is shown without it.
+     */
+    private ConnectivityMonitor connectivity()
+    {
+        if (mConnectivity == null) {
+            mConnectivity = ConnectivityMonitor.getInstance(getApplication());
+            mOnline = mConnectivity.getState().isConnected();
+            // Called right away with the current state
+            mConnectivity.getLiveState().observeForever(mNetworkObserver);
+        }
+        return mConnectivity;
+    }
+
+    private void onNetworkChanged(ConnectivityMonitor.NetworkState state)
+    {
+        if (state.isConstrained()) {
+            mPager.setPageSize(BookPager.SMALL_PAGE_SIZE, BookPager.PREFETCH_DISTANCE);
+        } else if (state.isUnconstrained()) {
+            mPager.setPageSize(BookPager.LARGE_PAGE_SIZE, BookPager.LARGE_PREFETCH_DISTANCE);
+        } else {
+            mPager.setPageSize(BookPager.PAGE_SIZE, BookPager.PREFETCH_DISTANCE);
+        }
+        // A hedged request is a second download of the page, not worth paying for
+        QueryUtils.setHedgingEnabled(!state.isMetered());
+
+        boolean wasOnline = mOnline;
+        mOnline = state.isConnected();
+        if (!mOnline) {
+            if (mQuery != null && mPendingFetch == null && mBooks.isEmpty()) {
+                // Whatever the empty list said before, the network is the reason now
+                mState.setValue(listState(0, false, R.string.no_internet_connection));
+            }
+            return;
+        }
+        // Back online: fetch the page that was asked for without a network
+        if (wasOnline || mWaitingPage < 0 || mQuery == null || mPendingFetch != null) {
+            return;
+        }
+        boolean firstPage = mWaitingPage == 0 && mPager.isEmpty();
+        if (firstPage) {
+            mState.setValue(listState(0, true, 0));
+        }
+        loadPage(mWaitingPage, firstPage ? BookFetchEngine.Priority.VISIBLE : BookFetchEngine.Priority.PREFETCH);
+    }
+
+    /**
+     * Show only the loaded books that match the filter, in the order of the sort. Applied at
+     * once, nothing is fetched; the pages loaded later are shown the same way.
+     */
+    public void setView(BookIndex.Filter filter, BookIndex.Sort sort)
+    {
+        mFilter = filter;
+        mSort = sort;
+        ListState current = mState.getValue();
+        mState.setValue(listState(0, current != null && current.loading,
+                current != null ? current.emptyMessage : R.string.no_books));
+    }
+
+    public BookIndex.Filter getFilter()
+    {
+        return mFilter;
+    }
+
+    public BookIndex.Sort getSort()
+    {
+        return mSort;
+    }
+
+    /**
+     * The values of the facet among the loaded books, and how many books each would show
+     * with the current filter, see {@link BookIndex#facetCounts}.
+     */
+    public Map<String, Integer> getFacetCounts(BookIndex.Facet facet)
+    {
+        return index().facetCounts(facet, mFilter);
+    }
+
+    private BookIndex index()
+    {
+        if (mIndex == null) {
+            mIndex = new BookIndex(new ArrayList<Book>(mBooks));
+        }
+        return mIndex;
+    }
+
+    private boolean isFiltered()
+    {
+        return !mFilter.isEmpty() || mSort != BookIndex.Sort.RELEVANCE;
+    }
+
+    /**
+     * The list state with the books as they are shown. Rows that moved do not keep their place
+     * in a filtered or sorted list.
+     */
+    private ListState listState(int anchorShift, boolean loading, int emptyMessage)
+    {
+        if (!isFiltered()) {
+            return new ListState(snapshot(), anchorShift, loading, emptyMessage);
+        }
+        List<Book> books = index().query(mFilter, mSort);
+        if (books.isEmpty() && !mBooks.isEmpty()) {
+            emptyMessage = R.string.no_matching_books;
+        }
+        return new ListState(Collections.unmodifiableList(books), 0, loading, emptyMessage);
+    }
+
+    private List<Book> snapshot()
+    {
+        return Collections.unmodifiableList(new ArrayList<Book>(mBooks));
+    }
+
+    private void cancelPendingFetch()
+    {
+        if (mPendingFetch != null) {
+            mPendingFetch.cancel();
+            mPendingFetch = null;
+        }
+    }
+
+    private void cancelIsbnLookup()
+    {
+        if (mIsbnLookup != null) {
+            // The lookup can be started again from its checkpoint
+            mIsbnLookup.cancel();
+            mIsbnLookup = null;
+        }
+    }
+
+    @Override
+    protected void onCleared() {
+        if (mConnectivity != null) {
+            mConnectivity.getLiveState().removeObserver(mNetworkObserver);
+        }
+        cancelPendingFetch();
+        cancelIsbnLookup();
+        mSearchGeneration++;
+        mMemoryBudget.unregister(mPagesTrimmable);
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.booklistingapp;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.telephony.TelephonyManager;
+
+import androidx.core.net.ConnectivityManagerCompat;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+/**
+ * Watches the default network and publishes its {@link NetworkState} whenever it changes, so
+ * nobody has to ask the system before every request. From API 24 it follows the default network
+ * callback, which also reports the link's estimated bandwidth; older versions listen for the
+ * connectivity broadcast and only know the network type and whether it is metered.
+ */
+public final class ConnectivityMonitor {
+
+    /**
+     * The kind of network, as far as the app cares.
+     */
+    public enum NetworkType {
+        NONE,
+        WIFI,
+        CELLULAR,
+        ETHERNET,
+        OTHER
+    }
+
+    /**
+     * The default network at one point in time. Immutable.
+     */
+    public static final class NetworkState {
+
+        // Below this a page of results or a cover takes long enough to be noticed
+        static final int SLOW_KBPS = 1500;
+
+        static final NetworkState DISCONNECTED = new NetworkState(NetworkType.NONE, false, 0);
+
+        private final NetworkType mType;
+        private final boolean mMetered;
+        // 0 if not known
+        private final int mDownstreamKbps;
+
+        NetworkState(NetworkType type, boolean metered, int downstreamKbps)
+        {
+            mType = type;
+            mMetered = metered;
+            mDownstreamKbps = downstreamKbps;
+        }
+
+        public boolean isConnected()
+        {
+            return mType != NetworkType.NONE;
+        }
+
+        public NetworkType getType()
+        {
+            return mType;
+        }
+
+        /**
+         * Whether the user may pay for the data, see {@link NetworkCapabilities#NET_CAPABILITY_NOT_METERED}.
+         */
+        public boolean isMetered()
+        {
+            return mMetered;
+        }
+
+        /**
+         * The bandwidth the system estimates for the link, 0 if it does not know.
+         */
+        public int getDownstreamKbps()
+        {
+            return mDownstreamKbps;
+        }
+
+        public boolean isSlow()
+        {
+            return mDownstreamKbps > 0 && mDownstreamKbps < SLOW_KBPS;
+        }
+
+        /**
+         * Metered or slow: fetch less and smaller.
+         */
+        public boolean isConstrained()
+        {
+            return mMetered || isSlow();
+        }
+
+        /**
+         * Wi-Fi (or a cable) that costs nothing and is not slow: fetch ahead generously.
+         */
+        public boolean isUnconstrained()
+        {
+            return (mType == NetworkType.WIFI || mType == NetworkType.ETHERNET) && !isConstrained();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof NetworkState)) {
+                return false;
+            }
+            NetworkState state = (NetworkState) other;
+            return mType == state.mType && mMetered == state.mMetered && mDownstreamKbps == state.mDownstreamKbps;
+        }
+
+        @Override
+        public int hashCode() {
+            return (mType.hashCode() * 31 + (mMetered ? 1 : 0)) * 31 + mDownstreamKbps;
+        }
+
+        @Override
+        public String toString() {
+            return mType + (mMetered ? " metered" : "") + (mDownstreamKbps > 0 ? " " + mDownstreamKbps + " kbps" : "");
+        }
+    }
+
+    // Legacy estimate for 2G links, which the broadcast path cannot measure
+    private static final int SLOW_MOBILE_KBPS = 100;
+
+    private static ConnectivityMonitor sInstance;
+
+    private final ConnectivityManager mConnectivityManager;
+    private final MutableLiveData<NetworkState> mLiveState;
+    private volatile NetworkState mState;
+
+    private ConnectivityMonitor(Context context)
+    {
+        mConnectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        mState = readState();
+        mLiveState = new MutableLiveData<NetworkState>(mState);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            mConnectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    // Before API 26 the capabilities do not always follow on their own
+                    publish(stateOf(mConnectivityManager.getNetworkCapabilities(network)));
+                }
+
+                @Override
+                public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                    publish(stateOf(capabilities));
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    // If another network takes over, its onAvailable follows
+                    publish(NetworkState.DISCONNECTED);
+                }
+            });
+        } else {
+            // Registered for the life of the process, like the singleton
+            context.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    publish(readState());
+                }
+            }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+    }
+
+    public static synchronized ConnectivityMonitor getInstance(Context context)
+    {
+        if (sInstance == null) {
+            sInstance = new ConnectivityMonitor(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * The current state of the default network, on any thread.
+     */
+    public NetworkState getState()
+    {
+        return mState;
+    }
+
+    /**
+     * The state of the default network, for observers on the main thread. Only changes are published.
+     */
+    public LiveData<NetworkState> getLiveState()
+    {
+        return mLiveState;
+    }
+
+    // On a binder thread for callbacks, on the main thread for the broadcast
+    private void publish(NetworkState state)
+    {
+        if (state.equals(mState)) {
+            return;
+        }
+        mState = state;
+        mLiveState.postValue(state);
+    }
+
+    private NetworkState readState()
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            Network network = mConnectivityManager.getActiveNetwork();
+            return network != null ? stateOf(mConnectivityManager.getNetworkCapabilities(network)) : NetworkState.DISCONNECTED;
+        }
+
+        NetworkInfo info = mConnectivityManager.getActiveNetworkInfo();
+        if (info == null || !info.isConnected()) {
+            return NetworkState.DISCONNECTED;
+        }
+        boolean metered = ConnectivityManagerCompat.isActiveNetworkMetered(mConnectivityManager);
+        switch (info.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+                return new NetworkState(NetworkType.WIFI, metered, 0);
+            case ConnectivityManager.TYPE_ETHERNET:
+                return new NetworkState(NetworkType.ETHERNET, metered, 0);
+            case ConnectivityManager.TYPE_MOBILE:
+                return new NetworkState(NetworkType.CELLULAR, metered, isSlowMobile(info.getSubtype()) ? SLOW_MOBILE_KBPS : 0);
+            default:
+                return new NetworkState(NetworkType.OTHER, metered, 0);
+        }
+    }
+
+    private static NetworkState stateOf(NetworkCapabilities capabilities)
+    {
+        if (capabilities == null || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+            return NetworkState.DISCONNECTED;
+        }
+        NetworkType type;
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            type = NetworkType.WIFI;
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            type = NetworkType.CELLULAR;
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            type = NetworkType.ETHERNET;
+        } else {
+            type = NetworkType.OTHER;
+        }
+        boolean metered = !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+        return new NetworkState(type, metered, capabilities.getLinkDownstreamBandwidthKbps());
+    }
+
+    private static boolean isSlowMobile(int subtype)
+    {
+        switch (subtype) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
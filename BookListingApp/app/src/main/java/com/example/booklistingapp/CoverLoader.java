@@ -0,0 +1,418 @@
+package com.example.booklistingapp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.ImageView;
+
+import androidx.collection.LruCache;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads book covers into the list rows.
+ * Google covers are requested from the server at the width of the row's image view, decoded with
+ * {@code inSampleSize} as RGB_565 and kept in a memory LRU bounded by bitmap bytes, on top of
+ * a disk cache of the downloaded files; the {@link MemoryBudget} sizes the LRU. A row that is recycled cancels the load of its old
+ * cover, and covers of the rows just below the screen can be prefetched into the caches.
+ * On a metered or slow network covers are downloaded at half the width and scaled up by the
+ * view; one that was loaded small stays small until it leaves the caches.
+ */
+public final class CoverLoader implements Trimmable {
+
+    private static final String LOG_TAG = "CoverLoader";
+
+    private static final String COVER_URL_PREFIX = "https://books.google.com/books/content/images/frontcover/";
+
+    private static final String DISK_DIR_NAME = "covers";
+    private static final long DISK_BUDGET_BYTES = 20 * 1024 * 1024;
+
+    private static final int LOAD_THREADS = 2;
+
+    private static CoverLoader sInstance;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final File mDiskDir;
+    private final int mTargetWidth;
+    private final ConnectivityMonitor mConnectivity;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mTaskSequence = new AtomicLong();
+    // Volume ids of the prefetches queued or running, a cover is prefetched once at a time
+    private final Set<String> mPrefetching = new HashSet<String>();
+
+    private static final Metrics.Counter sMemoryHits = Metrics.counter("covers.memory.hits");
+    private static final Metrics.Counter sDiskHits = Metrics.counter("covers.disk.hits");
+    private static final Metrics.Counter sNetworkLoads = Metrics.counter("covers.network.loads");
+    private static final Metrics.Histogram sDecodeTime = Metrics.histogram("covers.decode");
+
+    static {
+        Metrics.ratio("covers.memory.hitRatio", sMemoryHits, sMemoryHits, sDiskHits, sNetworkLoads);
+        Metrics.ratio("covers.disk.hitRatio", sDiskHits, sMemoryHits, sDiskHits, sNetworkLoads);
+    }
+
+    private CoverLoader(Context context)
+    {
+        // Sized by setBudget() once registered
+        mMemoryCache = new LruCache<String, Bitmap>(1) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        mDiskDir = new File(context.getCacheDir(), DISK_DIR_NAME);
+        mTargetWidth = context.getResources().getDimensionPixelSize(R.dimen.image_view_width);
+        mConnectivity = ConnectivityMonitor.getInstance(context);
+        mExecutor = new ThreadPoolExecutor(LOAD_THREADS, LOAD_THREADS, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized CoverLoader getInstance(Context context)
+    {
+        if (sInstance == null) {
+            sInstance = new CoverLoader(context.getApplicationContext());
+            MemoryBudget.getInstance(context).register(MemoryBudget.Component.COVERS, sInstance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Front cover URL of the volume, scaled by the server to the given width.
+     */
+    static String coverUrl(String volumeId, int widthPx)
+    {
+        return COVER_URL_PREFIX + volumeId + "?fife=w" + widthPx;
+    }
+
+    /**
+     * Cover URL of the book at the given width. Google covers are scaled by the server,
+     * the covers of other sources are loaded as they are. Null if the book has no cover.
+     */
+    static String coverUrl(Book book, int widthPx)
+    {
+        String url = book.getUrlImage();
+        if (url.startsWith(COVER_URL_PREFIX)) {
+            return coverUrl(book.getVolumeId(), widthPx);
+        }
+        return url.isEmpty() ? null : url;
+    }
+
+    /**
+     * Show the cover of the book in the image view. Any load still running for
+     * a previous cover of the same view is cancelled.
+     */
+    public void load(Book book, ImageView imageView)
+    {
+        String volumeId = book.getVolumeId();
+        LoadTask previous = (LoadTask) imageView.getTag(R.id.book_image);
+        if (previous != null) {
+            if (previous.mVolumeId.equals(volumeId) && !previous.mCancelled) {
+                return;
+            }
+            previous.cancel();
+        }
+
+        Bitmap bitmap = mMemoryCache.get(volumeId);
+        if (bitmap != null) {
+            sMemoryHits.increment();
+            imageView.setTag(R.id.book_image, null);
+            imageView.setImageBitmap(bitmap);
+            return;
+        }
+
+        imageView.setImageDrawable(null);
+        String url = coverUrl(book, downloadWidth());
+        if (url == null) {
+            imageView.setTag(R.id.book_image, null);
+            return;
+        }
+        LoadTask task = new LoadTask(volumeId, url, imageView);
+        imageView.setTag(R.id.book_image, task);
+        mExecutor.execute(task);
+    }
+
+    /**
+     * The view's row was recycled, its pending cover is not needed anymore.
+     */
+    public void cancel(ImageView imageView)
+    {
+        LoadTask previous = (LoadTask) imageView.getTag(R.id.book_image);
+        if (previous != null) {
+            previous.cancel();
+            imageView.setTag(R.id.book_image, null);
+        }
+    }
+
+    /**
+     * Warm the caches with the cover of a row that is about to scroll into view.
+     * Prefetches wait behind every cover that is needed on screen. A cover that is in memory
+     * or already being prefetched is not asked for again.
+     */
+    public void prefetch(Book book)
+    {
+        String volumeId = book.getVolumeId();
+        String url = coverUrl(book, downloadWidth());
+        if (url == null || mMemoryCache.get(volumeId) != null) {
+            return;
+        }
+        synchronized (mPrefetching) {
+            if (!mPrefetching.add(volumeId)) {
+                return;
+            }
+        }
+        mExecutor.execute(new LoadTask(volumeId, url, null));
+    }
+
+    // Width covers are asked of the server at
+    private int downloadWidth()
+    {
+        return mConnectivity.getState().isConstrained() ? mTargetWidth / 2 : mTargetWidth;
+    }
+
+    public int getBitmapBytesInUse()
+    {
+        return mMemoryCache.size();
+    }
+
+    @Override
+    public long getRetainedBytes() {
+        return mMemoryCache.size();
+    }
+
+    @Override
+    public void setBudget(long maxBytes) {
+        // Covers on screen stay drawn, their views hold on to the bitmaps
+        mMemoryCache.resize((int) Math.max(1, Math.min(maxBytes, Integer.MAX_VALUE)));
+    }
+
+    private Bitmap loadBitmap(String volumeId, String url, LoadTask task)
+    {
+        Bitmap bitmap = mMemoryCache.get(volumeId);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        File file = new File(mDiskDir, volumeId + ".img");
+        if (file.exists()) {
+            sDiskHits.increment();
+            // Mark the file as recently used for the disk LRU
+            file.setLastModified(System.currentTimeMillis());
+        } else {
+            if (task.mCancelled || !download(url, file)) {
+                return null;
+            }
+            sNetworkLoads.increment();
+            trimDisk();
+        }
+
+        if (task.mCancelled) {
+            return null;
+        }
+        long decodeStart = System.nanoTime();
+        bitmap = decode(file);
+        sDecodeTime.recordSince(decodeStart);
+        if (bitmap != null) {
+            mMemoryCache.put(volumeId, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decode the file at the smallest power-of-two sample size that still covers the target width.
+     */
+    private Bitmap decode(File file)
+    {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0) {
+            file.delete();
+            return null;
+        }
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= mTargetWidth) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        // Covers have no alpha, half the bytes per pixel of ARGB_8888
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    private boolean download(String coverUrl, File file)
+    {
+        if (!mDiskDir.exists() && !mDiskDir.mkdirs()) {
+            return false;
+        }
+
+        // One temp file per thread, a prefetch and a visible load of the same cover may overlap
+        File tempFile = new File(mDiskDir, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        HttpURLConnection urlConnection = null;
+        InputStream inputStream = null;
+        OutputStream outputStream = null;
+        try {
+            urlConnection = (HttpURLConnection) new URL(coverUrl).openConnection();
+            urlConnection.setReadTimeout(10000 /* milliseconds */);
+            urlConnection.setConnectTimeout(15000 /* milliseconds */);
+            if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                // Closed below, the error body holds the connection too
+                inputStream = urlConnection.getErrorStream();
+                return false;
+            }
+            inputStream = urlConnection.getInputStream();
+            outputStream = new BufferedOutputStream(new FileOutputStream(tempFile));
+            byte[] buffer = new byte[8 * 1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            outputStream.close();
+            outputStream = null;
+            // The rename makes a complete file appear at once, a half written one is never decoded
+            return tempFile.renameTo(file);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem downloading the cover.", e);
+            return false;
+        } finally {
+            closeQuietly(inputStream);
+            closeQuietly(outputStream);
+            // A connection whose body was read to the end has already gone back to the pool
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            tempFile.delete();
+        }
+    }
+
+    // Drop least recently used files until the directory fits the disk budget
+    private void trimDisk()
+    {
+        File[] files = mDiskDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= DISK_BUDGET_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (int i = 0; i < files.length && total > DISK_BUDGET_BYTES; i++) {
+            total -= files[i].length();
+            files[i].delete();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable)
+    {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // Nothing useful can be done here
+            }
+        }
+    }
+
+    /**
+     * Loads one cover. Covers for a view go before prefetches, newer before older,
+     * because the newest rows are the ones on screen.
+     */
+    private final class LoadTask implements Runnable, Comparable<LoadTask> {
+
+        private final String mVolumeId;
+        private final String mUrl;
+        // Null for a prefetch
+        private final ImageView mImageView;
+        private final long mSequence = mTaskSequence.getAndIncrement();
+        private volatile boolean mCancelled;
+
+        LoadTask(String volumeId, String url, ImageView imageView)
+        {
+            mVolumeId = volumeId;
+            mUrl = url;
+            mImageView = imageView;
+        }
+
+        void cancel()
+        {
+            mCancelled = true;
+            mExecutor.remove(this);
+        }
+
+        @Override
+        public void run() {
+            if (mImageView == null) {
+                // Prefetches are never cancelled
+                try {
+                    loadBitmap(mVolumeId, mUrl, this);
+                } finally {
+                    synchronized (mPrefetching) {
+                        mPrefetching.remove(mVolumeId);
+                    }
+                }
+                return;
+            }
+            if (mCancelled) {
+                return;
+            }
+            final Bitmap bitmap = loadBitmap(mVolumeId, mUrl, this);
+            if (bitmap == null) {
+                return;
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // The view may have been rebound to another book in the meantime
+                    if (!mCancelled && mImageView.getTag(R.id.book_image) == LoadTask.this) {
+                        mImageView.setTag(R.id.book_image, null);
+                        mImageView.setImageBitmap(bitmap);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(LoadTask other) {
+            boolean visible = mImageView != null;
+            boolean otherVisible = other.mImageView != null;
+            if (visible != otherVisible) {
+                return visible ? -1 : 1;
+            }
+            return Long.compare(other.mSequence, mSequence);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.booklistingapp;
+
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measures frame times while the book list is scrolling.
+ * Between {@link #start()} and {@link #stop()} it records the interval between consecutive
+ * frames from {@link Choreographer} into the {@link Metrics}, and in debug builds logs a
+ * summary with the frame time percentiles and the number of janky frames on stop, so
+ * scrolling can be compared before and after a change.
+ */
+public final class FrameTimeMonitor implements Choreographer.FrameCallback {
+
+    private static final String LOG_TAG = "FrameTimeMonitor";
+
+    private static final int MAX_FRAMES = 1024;
+
+    private static final Metrics.Histogram sFrameTime = Metrics.histogram("ui.scroll.frame");
+    private static final Metrics.Counter sJankyFrames = Metrics.counter("ui.scroll.jankyFrames");
+
+    private final long mFrameBudgetNanos;
+    private final long[] mFrameNanos = new long[MAX_FRAMES];
+    private int mFrameCount;
+    private long mLastFrameTimeNanos;
+    private boolean mRunning;
+
+    /**
+     * @param refreshRate refresh rate of the display in frames per second
+     */
+    public FrameTimeMonitor(float refreshRate)
+    {
+        mFrameBudgetNanos = (long) (1000000000L / (refreshRate > 0 ? refreshRate : 60f));
+    }
+
+    public void start()
+    {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mFrameCount = 0;
+        mLastFrameTimeNanos = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    public void stop()
+    {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+        if (BuildConfig.DEBUG && mFrameCount > 0) {
+            Log.d(LOG_TAG, summary());
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        if (mLastFrameTimeNanos != 0) {
+            long frameNanos = frameTimeNanos - mLastFrameTimeNanos;
+            if (mFrameCount < MAX_FRAMES) {
+                mFrameNanos[mFrameCount++] = frameNanos;
+            }
+            sFrameTime.recordNanos(frameNanos);
+            if (isJanky(frameNanos)) {
+                sJankyFrames.increment();
+            }
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Frame count, janky frames (longer than one frame budget) and frame time percentiles in ms.
+     */
+    public String summary()
+    {
+        long[] sorted = Arrays.copyOf(mFrameNanos, mFrameCount);
+        Arrays.sort(sorted);
+
+        int janky = 0;
+        for (long frame : sorted) {
+            if (isJanky(frame)) {
+                janky++;
+            }
+        }
+
+        return "frames=" + mFrameCount
+                + " janky=" + janky
+                + " p50=" + millis(percentile(sorted, 50))
+                + " p90=" + millis(percentile(sorted, 90))
+                + " p99=" + millis(percentile(sorted, 99))
+                + " max=" + millis(sorted.length > 0 ? sorted[sorted.length - 1] : 0);
+    }
+
+    // A frame that took longer than 1.5 budgets means at least one vsync was missed
+    private boolean isJanky(long frameNanos)
+    {
+        return frameNanos > mFrameBudgetNanos + mFrameBudgetNanos / 2;
+    }
+
+    private static long percentile(long[] sorted, int percent)
+    {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static String millis(long nanos)
+    {
+        return String.format(Locale.ROOT, "%.1fms", nanos / 1000000.0);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.booklistingapp;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * The Google Books volumes API, the main source of the app.
+ * Pages go through {@link QueryUtils#fetchBookData} and its {@link BookCache}, and every book
+ * that arrives from the server is also stored in the local {@link BookCatalog} for offline
+ * searches, on the catalog's executor so the page does not wait for the write.
+ */
+public final class GoogleBooksSource implements BookSource {
+
+    // Every search waits for this source, the connection's own timeouts end it before this
+    private static final long DEADLINE_MILLIS = 30000;
+
+    private final BookCache mCache;
+    private final BookCatalog mCatalog;
+    private final Executor mCatalogExecutor;
+
+    public GoogleBooksSource(BookCache cache, BookCatalog catalog, Executor catalogExecutor)
+    {
+        mCache = cache;
+        mCatalog = catalog;
+        mCatalogExecutor = catalogExecutor;
+    }
+
+    @Override
+    public String getName() {
+        return "google";
+    }
+
+    @Override
+    public long getDeadlineMillis() {
+        return DEADLINE_MILLIS;
+    }
+
+    @Override
+    public List<Book> search(BookQuery query, QueryUtils.ProgressListener listener, CancellationToken token)
+            throws QueryUtils.FetchException {
+        String url = BooksApi.buildQueryUrl(query);
+        RequestListener request = new RequestListener(listener);
+        final List<Book> books = QueryUtils.fetchBookData(mCache, url, request, token);
+        // A cached page is in the catalog already, a shared request is stored by its owner
+        if (request.mConnected && books != null && !books.isEmpty()) {
+            mCatalogExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCatalog.putAll(books);
+                }
+            });
+        }
+        return books;
+    }
+
+    @Override
+    public List<Book> getCached(BookQuery query) {
+        BookCache.Entry entry = mCache.get(BooksApi.buildQueryUrl(query));
+        return entry != null ? entry.getBooks() : null;
+    }
+
+    /**
+     * Passes the progress on and notes whether a request went out. A page served from the
+     * cache, or by a request of another caller, is {@link Phase#DONE} without connecting.
+     */
+    private static final class RequestListener implements QueryUtils.ProgressListener {
+
+        private final QueryUtils.ProgressListener mListener;
+        private volatile boolean mConnected;
+
+        RequestListener(QueryUtils.ProgressListener listener)
+        {
+            mListener = listener;
+        }
+
+        @Override
+        public void onProgress(Phase phase, long bytesRead) {
+            if (phase == Phase.CONNECTING) {
+                mConnected = true;
+            }
+            mListener.onProgress(phase, bytesRead);
+        }
+    }
+}
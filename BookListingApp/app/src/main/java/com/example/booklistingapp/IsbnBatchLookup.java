@@ -0,0 +1,518 @@
+package com.example.booklistingapp;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Looks up a list of ISBNs, possibly thousands of them, e.g. a shared reading list.
+ * The Google Books volumes API ANDs the terms of a query, so it cannot answer for several ISBNs at once;
+ * the ISBNs are grouped into batches for Open Library's books API instead, and only those it does not
+ * know are asked from Google Books one by one. Requests run on a small pool of their own, each host
+ * limited by a {@link TokenBucket} to its quota, and go through {@link QueryUtils#fetchBookData} like
+ * any search, so they are cached, retried and circuit broken the same way.
+ * Every answered ISBN is appended to an {@link IsbnCheckpoint}; a lookup of the same list started again,
+ * e.g. after the process was killed, delivers the checkpointed books and only asks for the rest.
+ * ISBNs that failed are not checkpointed, so they are tried again the next time.
+ */
+public final class IsbnBatchLookup {
+
+    private static final String LOG_TAG = "IsbnBatchLookup";
+
+    /**
+     * Called on the delivery executor, never after the lookup was cancelled.
+     */
+    public interface Listener {
+        void onResolved(List<Book> books, Progress progress);
+
+        void onFinished(Progress progress);
+    }
+
+    /**
+     * Where a lookup stands. Books read back from the checkpoint count as done
+     * but not towards the throughput.
+     */
+    public static final class Progress {
+
+        private final int mTotal;
+        private final int mResolved;
+        private final int mNotFound;
+        private final int mFailed;
+        private final float mLookupsPerSecond;
+
+        Progress(int total, int resolved, int notFound, int failed, float lookupsPerSecond)
+        {
+            mTotal = total;
+            mResolved = resolved;
+            mNotFound = notFound;
+            mFailed = failed;
+            mLookupsPerSecond = lookupsPerSecond;
+        }
+
+        public int getTotal()
+        {
+            return mTotal;
+        }
+
+        public int getDone()
+        {
+            return mResolved + mNotFound + mFailed;
+        }
+
+        public int getResolved()
+        {
+            return mResolved;
+        }
+
+        public int getNotFound()
+        {
+            return mNotFound;
+        }
+
+        public int getFailed()
+        {
+            return mFailed;
+        }
+
+        public float getLookupsPerSecond()
+        {
+            return mLookupsPerSecond;
+        }
+
+        @Override
+        public String toString()
+        {
+            return getDone() + "/" + mTotal + " (" + mResolved + " found, " + mNotFound + " not found, "
+                    + mFailed + " failed, " + mLookupsPerSecond + "/s)";
+        }
+    }
+
+    // The most ISBNs Open Library is asked for in one request, the URL stays below 1 KB
+    static final int BATCH_SIZE = 50;
+    private static final int THREADS = 4;
+
+    // Open Library asks API clients to keep to about one request a second
+    private static final TokenBucket OPEN_LIBRARY_LIMIT = new TokenBucket(3, 1);
+    // Google's default per-user quota is 100 requests per 100 seconds; a full burst and the
+    // refill after it never go above that in any 100 second window
+    private static final TokenBucket GOOGLE_BOOKS_LIMIT = new TokenBucket(5, 0.95);
+
+    private static final String CHECKPOINT_PREFIX = "isbn_lookup_";
+
+    private static final QueryUtils.ResponseParser OPEN_LIBRARY_PARSER = new QueryUtils.ResponseParser() {
+        @Override
+        public BookResultSet parse(InputStream inputStream) throws IOException {
+            return OpenLibraryJsonParser.parseBooksApi(inputStream);
+        }
+    };
+
+    private static final QueryUtils.ProgressListener NO_PROGRESS = new QueryUtils.ProgressListener() {
+        @Override
+        public void onProgress(Phase phase, long bytesRead) {
+            // Progress is counted in ISBNs, not bytes
+        }
+    };
+
+    private static final Metrics.Counter sResolved = Metrics.counter("isbn.lookups.resolved");
+    private static final Metrics.Counter sNotFound = Metrics.counter("isbn.lookups.notFound");
+    private static final Metrics.Counter sFailed = Metrics.counter("isbn.lookups.failed");
+
+    private final BookCache mCache;
+    private final File mCheckpointDir;
+    private final Executor mDeliveryExecutor;
+    private final ThreadPoolExecutor mExecutor;
+
+    public IsbnBatchLookup(BookCache cache, File checkpointDir, Executor deliveryExecutor)
+    {
+        mCache = cache;
+        mCheckpointDir = checkpointDir;
+        mDeliveryExecutor = deliveryExecutor;
+        mExecutor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "IsbnLookup-" + mCount.incrementAndGet());
+                // A batch in the background must not slow down the searches of the user
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Look up the ISBNs, in any form {@link Isbn#canonical(String)} accepts; invalid ones and duplicates
+     * are dropped. Books are delivered to the listener as they land. Returns the token that cancels
+     * the lookup, which can be started again later from its checkpoint.
+     */
+    public CancellationToken start(List<String> isbns, Listener listener)
+    {
+        LinkedHashSet<String> canonical = new LinkedHashSet<String>();
+        for (String isbn : isbns) {
+            String value = Isbn.canonical(isbn);
+            if (value != null) {
+                canonical.add(value);
+            }
+        }
+        final Run run = new Run(new ArrayList<String>(canonical), listener);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                run.start();
+            }
+        });
+        return run.mToken;
+    }
+
+    /**
+     * Stop the workers. Lookups that are running should be cancelled with their tokens first.
+     */
+    public void shutdown()
+    {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * A single lookup of a list of ISBNs, from reading its checkpoint to the last answer.
+     */
+    private final class Run {
+
+        private final List<String> mIsbns;
+        private final Listener mListener;
+        private final CancellationToken mToken = new CancellationToken();
+        // The requests in flight, each with a token of its own, all cancelled with the lookup
+        private final Set<CancellationToken> mFetches = new HashSet<CancellationToken>();
+
+        private final AtomicInteger mResolved = new AtomicInteger();
+        private final AtomicInteger mNotFound = new AtomicInteger();
+        private final AtomicInteger mFailed = new AtomicInteger();
+        // Answered in this run, for the throughput
+        private final AtomicInteger mLookedUp = new AtomicInteger();
+        // Tasks submitted and not finished yet, the run is over when it drops to 0
+        private final AtomicInteger mPending = new AtomicInteger();
+
+        // Null once closed, or if it could not be opened
+        private IsbnCheckpoint mCheckpoint;
+        private long mStartNanos;
+
+        Run(List<String> isbns, Listener listener)
+        {
+            mIsbns = isbns;
+            mListener = listener;
+            mCheckpoint = new IsbnCheckpoint(
+                    new File(mCheckpointDir, CHECKPOINT_PREFIX + Long.toHexString(hash(isbns)) + ".bin"), isbns.size());
+
+            mToken.setOnCancelListener(new CancellationToken.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    List<CancellationToken> fetches;
+                    synchronized (mFetches) {
+                        fetches = new ArrayList<CancellationToken>(mFetches);
+                        mFetches.clear();
+                    }
+                    // Outside the lock, cancelling closes connections
+                    for (CancellationToken fetch : fetches) {
+                        fetch.cancel();
+                    }
+                }
+            });
+        }
+
+        void start()
+        {
+            Set<String> answered = Collections.emptySet();
+            List<Book> restored = Collections.emptyList();
+            try {
+                IsbnCheckpoint.Contents contents = mCheckpoint.open();
+                answered = contents.getAnswered();
+                restored = contents.getBooks();
+                mNotFound.set(contents.getNotFoundCount());
+            } catch (IOException e) {
+                // The lookup still works, it just cannot be resumed
+                Log.e(LOG_TAG, "Problem opening the checkpoint.", e);
+                closeCheckpoint(false);
+            }
+            mResolved.set(restored.size());
+            mStartNanos = System.nanoTime();
+            if (!restored.isEmpty()) {
+                deliver(restored);
+            }
+
+            List<String> batch = new ArrayList<String>(BATCH_SIZE);
+            mPending.incrementAndGet();
+            for (String isbn : mIsbns) {
+                if (answered.contains(isbn)) {
+                    continue;
+                }
+                batch.add(isbn);
+                if (batch.size() == BATCH_SIZE) {
+                    submitBatch(batch);
+                    batch = new ArrayList<String>(BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) {
+                submitBatch(batch);
+            }
+            finishTask();
+        }
+
+        private void submitBatch(final List<String> isbns)
+        {
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    lookUpBatch(isbns);
+                }
+            });
+        }
+
+        private void submit(Runnable task)
+        {
+            mPending.incrementAndGet();
+            try {
+                mExecutor.execute(task);
+            } catch (RuntimeException e) {
+                // Shut down
+                mToken.cancel();
+                finishTask();
+            }
+        }
+
+        private void lookUpBatch(List<String> isbns)
+        {
+            try {
+                if (mToken.isCanceled() || !OPEN_LIBRARY_LIMIT.acquire(mToken)) {
+                    return;
+                }
+                List<Book> books;
+                CancellationToken fetch = startFetch();
+                try {
+                    books = QueryUtils.fetchBookData(mCache, BooksApi.buildOpenLibraryIsbnUrl(isbns),
+                            OPEN_LIBRARY_PARSER, NO_PROGRESS, fetch);
+                } catch (QueryUtils.FetchException e) {
+                    Log.w(LOG_TAG, "Batch of " + isbns.size() + " ISBNs failed: " + e.getMessage());
+                    books = null;
+                } finally {
+                    endFetch(fetch);
+                }
+                if (mToken.isCanceled()) {
+                    return;
+                }
+                if (books == null) {
+                    failed(isbns.size());
+                    return;
+                }
+
+                Set<String> found = new HashSet<String>();
+                List<String> resolvedIsbns = new ArrayList<String>(books.size());
+                List<Book> resolved = new ArrayList<Book>(books.size());
+                for (Book book : books) {
+                    if (found.add(book.getIsbn())) {
+                        resolvedIsbns.add(book.getIsbn());
+                        resolved.add(book);
+                    }
+                }
+                checkpoint(resolvedIsbns, resolved);
+                mResolved.addAndGet(resolved.size());
+                mLookedUp.addAndGet(resolved.size());
+                sResolved.add(resolved.size());
+                if (!resolved.isEmpty()) {
+                    deliver(resolved);
+                }
+
+                for (final String isbn : isbns) {
+                    if (!found.contains(isbn)) {
+                        submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                lookUpSingle(isbn);
+                            }
+                        });
+                    }
+                }
+            } finally {
+                finishTask();
+            }
+        }
+
+        // Google Books for an ISBN that Open Library does not know
+        private void lookUpSingle(String isbn)
+        {
+            try {
+                if (mToken.isCanceled() || !GOOGLE_BOOKS_LIMIT.acquire(mToken)) {
+                    return;
+                }
+                BookQuery query = new BookQuery.Builder()
+                        .addWords(BookQuery.Field.ISBN, isbn)
+                        .setPage(0, 1)
+                        .build();
+                List<Book> books;
+                CancellationToken fetch = startFetch();
+                try {
+                    books = QueryUtils.fetchBookData(mCache, BooksApi.buildQueryUrl(query), NO_PROGRESS, fetch);
+                } catch (QueryUtils.FetchException e) {
+                    Log.w(LOG_TAG, "Lookup of " + isbn + " failed: " + e.getMessage());
+                    books = null;
+                } finally {
+                    endFetch(fetch);
+                }
+                if (mToken.isCanceled()) {
+                    return;
+                }
+                if (books == null) {
+                    failed(1);
+                } else if (books.isEmpty()) {
+                    checkpoint(Collections.singletonList(isbn), Collections.<Book>singletonList(null));
+                    mNotFound.incrementAndGet();
+                    mLookedUp.incrementAndGet();
+                    sNotFound.increment();
+                    deliver(Collections.<Book>emptyList());
+                } else {
+                    Book book = books.get(0);
+                    // Keyed by the ISBN asked for, the volume may list another one first
+                    checkpoint(Collections.singletonList(isbn), Collections.singletonList(book));
+                    mResolved.incrementAndGet();
+                    mLookedUp.incrementAndGet();
+                    sResolved.increment();
+                    deliver(Collections.singletonList(book));
+                }
+            } finally {
+                finishTask();
+            }
+        }
+
+        /**
+         * A token for one request, cancelled along with the lookup.
+         */
+        private CancellationToken startFetch()
+        {
+            CancellationToken fetch = new CancellationToken();
+            synchronized (mFetches) {
+                mFetches.add(fetch);
+            }
+            // The lookup may have been cancelled before the token was added
+            if (mToken.isCanceled()) {
+                fetch.cancel();
+            }
+            return fetch;
+        }
+
+        private void endFetch(CancellationToken fetch)
+        {
+            synchronized (mFetches) {
+                mFetches.remove(fetch);
+            }
+        }
+
+        private void failed(int count)
+        {
+            mFailed.addAndGet(count);
+            mLookedUp.addAndGet(count);
+            sFailed.add(count);
+            deliver(Collections.<Book>emptyList());
+        }
+
+        private void finishTask()
+        {
+            if (mPending.decrementAndGet() != 0) {
+                return;
+            }
+            closeCheckpoint(mFailed.get() == 0 && !mToken.isCanceled());
+            deliver(null);
+        }
+
+        /**
+         * Hand the books to the listener, or finish the lookup if they are null.
+         * Synchronized, so the listener sees the progress in the order it was made.
+         */
+        private synchronized void deliver(final List<Book> books)
+        {
+            final Progress progress = progress();
+            mDeliveryExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mToken.isCanceled()) {
+                        return;
+                    }
+                    if (books != null) {
+                        mListener.onResolved(books, progress);
+                    } else {
+                        mListener.onFinished(progress);
+                    }
+                }
+            });
+        }
+
+        private Progress progress()
+        {
+            long elapsedNanos = System.nanoTime() - mStartNanos;
+            float lookupsPerSecond = elapsedNanos > 0 ? mLookedUp.get() * 1e9f / elapsedNanos : 0;
+            return new Progress(mIsbns.size(), mResolved.get(), mNotFound.get(), mFailed.get(), lookupsPerSecond);
+        }
+
+        /**
+         * Append the answers for the ISBNs, a null book means it was not found.
+         */
+        private synchronized void checkpoint(List<String> isbns, List<Book> books)
+        {
+            if (mCheckpoint == null) {
+                return;
+            }
+            try {
+                mCheckpoint.append(isbns, books);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem writing the checkpoint.", e);
+                closeCheckpoint(false);
+            }
+        }
+
+        /**
+         * Close the file, and delete it once every ISBN has an answer.
+         */
+        private synchronized void closeCheckpoint(boolean complete)
+        {
+            if (mCheckpoint == null) {
+                return;
+            }
+            if (complete) {
+                mCheckpoint.delete();
+            } else {
+                try {
+                    mCheckpoint.close();
+                } catch (IOException ignored) {
+                    // The records written so far are in the file
+                }
+            }
+            mCheckpoint = null;
+        }
+    }
+
+    // 64-bit FNV-1a of the list, so each list has its own checkpoint
+    private static long hash(List<String> isbns)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (String isbn : isbns) {
+            for (int i = 0; i < isbn.length(); i++) {
+                hash = (hash ^ isbn.charAt(i)) * 0x100000001b3L;
+            }
+            hash = (hash ^ ',') * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -1,94 +1,191 @@
 package com.example.booklistingapp;
 
 
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.widget.ContentLoadingProgressBar;
+import androidx.lifecycle.Observer;
+import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
-import android.app.LoaderManager;
-import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
 import android.widget.Button;
-import android.widget.ListView;
-import android.widget.ProgressBar;
 import android.widget.SearchView;
 import android.widget.TextView;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.EmptyStackException;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
-public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<Book>>
+public class MainActivity extends AppCompatActivity implements BookAdapter.OnBookClickListener
 {
 
     //Tag for the log message
-    public static final String LOG_TAG = MainActivity.class.getSimpleName();
-
-    //Id for initLoader
-    private static final int BOOK_LOAD_ID = 1;
-
-    private String mUrlRequestGoogle = "";
-    private ListView mBookListView;
-    private ProgressBar mLoadingBar;
+    public static final String LOG_TAG = "MainActivity";
+
+    // Number of rows below the screen whose covers are loaded ahead, by network, see coverPrefetchRows()
+    private static final int COVER_PREFETCH_ROWS = 6;
+    private static final int COVER_PREFETCH_ROWS_CONSTRAINED = 2;
+    private static final int COVER_PREFETCH_ROWS_UNCONSTRAINED = 12;
+
+    // The rating the filter dialog offers as a minimum
+    private static final int FILTER_MIN_STARS = 4;
+
+    // Saved state key of the current search
+    private static final String STATE_QUERY = "query";
+    // Saved state key of whether the list shows the ISBNs shared with the app rather than a search
+    private static final String STATE_ISBN_LOOKUP = "isbnLookup";
+    // Saved state key of the loaded books, encoded with BookCodec
+    private static final String STATE_BOOKS = "books";
+    // At about 60 bytes a book that is 12 KB, the whole saved state should stay well below 100 KB
+    private static final int MAX_SAVED_BOOKS = 200;
+
+    // From the start of the process until the first rows (or the empty search screen) are shown
+    private static final Metrics.Histogram sStartupTime = Metrics.histogram("startup.firstRow");
+
+    private RecyclerView mBookListView;
+    private LinearLayoutManager mLayoutManager;
+    // Shows itself only if a load takes longer than a short delay and then stays up for a minimum
+    // time, both measured while the fetch runs, so fast (cached) searches never flash the spinner
+    private ContentLoadingProgressBar mLoadingBar;
+    private TextView mLoadingStatus;
     private TextView mEmptyTextView;
 
     private BookAdapter mAdapter;
+    // Holds the loaded pages and runs the fetches, it survives rotation
+    private BookViewModel mViewModel;
+    // Whether this activity has already shown a list state, see renderState()
+    private boolean mHasRendered;
+    private FrameTimeMonitor mFrameTimeMonitor;
+    private SearchHistory mHistory;
+    // Whether reportFullyDrawn() was called, it only counts once per launch
+    private boolean mReportedFullyDrawn;
+    // The search the pages are loaded for, it stays the same while the user types a new one
+    private BookQuery mQuery = toQuery("");
 
     private Button mSearchButton;
     private SearchView mSearchBar;
-    private boolean isConnected;
+
+    private final Handler mSearchHandler = new Handler(Looper.getMainLooper());
+    // Runs the search for the text in the search bar once typing has paused
+    private final Runnable mLiveSearch = new Runnable() {
+        @Override
+        public void run() {
+            search(mSearchBar.getQuery().toString(), false);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Hot path metrics are only collected in debug builds, in release they cost a volatile read
+        Metrics.setEnabled(BuildConfig.DEBUG);
         setContentView(R.layout.activity_main);
 
         mEmptyTextView = (TextView) findViewById(R.id.empty_view);
-        mLoadingBar = (ProgressBar) findViewById(R.id.loading_spinner);
+        mLoadingBar = (ContentLoadingProgressBar) findViewById(R.id.loading_spinner);
+        mLoadingStatus = (TextView) findViewById(R.id.loading_status);
         mSearchButton = (Button) findViewById(R.id.search_button);
         mSearchBar = (SearchView) findViewById(R.id.search_bar);
 
-        mBookListView = (ListView) findViewById(R.id.book_list);
-        mBookListView.setEmptyView(mEmptyTextView);
+        mBookListView = (RecyclerView) findViewById(R.id.book_list);
+        mLayoutManager = new LinearLayoutManager(this);
+        mBookListView.setLayoutManager(mLayoutManager);
+        mBookListView.setHasFixedSize(true);
 
-        //
-        ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        isConnected = checkInternetConnection(connectivityManager);
-        Log.i(LOG_TAG, "INTERNET connection status: " + String.valueOf(isConnected) + ". It's time to play with LoaderManager :)");
-        // Create a new adapter that takes an empty list of books as input
-        mAdapter = new BookAdapter(this,new ArrayList<Book>());
-        // Set the adapter on the {@link ListView}
+        mHistory = SearchHistory.getInstance(this);
+        // A recreated activity is not a launch
+        mReportedFullyDrawn = savedInstanceState != null;
+        if (savedInstanceState != null) {
+            mQuery = toQuery(savedInstanceState.getString(STATE_QUERY, ""));
+        }
+
+        // Create a new adapter, rows are opened in a web browser on click.
+        // The cover loader is only created when the first row is bound, after the first frame.
+        mAdapter = new BookAdapter(this, this);
+        // Set the adapter on the {@link RecyclerView}
         // so the list can be populated in the user interface
         mBookListView.setAdapter(mAdapter);
 
-        if(isConnected)
-        {
-            mSearchBar.setVisibility(View.VISIBLE);
-            mSearchButton.setVisibility(View.VISIBLE);
-
-            // Get a reference to the LoaderManager, in order to interact with loaders.
+        // The view model delivers the list and the progress only while this activity is started,
+        // and hands the last state to a new instance after a configuration change
+        mViewModel = new ViewModelProvider(this).get(BookViewModel.class);
+        mViewModel.getState().observe(this, new Observer<BookViewModel.ListState>() {
+            @Override
+            public void onChanged(BookViewModel.ListState state) {
+                renderState(state);
+            }
+        });
+        mViewModel.getProgress().observe(this, new Observer<BookViewModel.LoadProgress>() {
+            @Override
+            public void onChanged(BookViewModel.LoadProgress progress) {
+                onLoadProgress(progress.phase, progress.bytesRead);
+            }
+        });
+        mViewModel.getIsbnProgress().observe(this, new Observer<IsbnBatchLookup.Progress>() {
+            @Override
+            public void onChanged(IsbnBatchLookup.Progress progress) {
+                onIsbnProgress(progress);
+            }
+        });
 
-            // Initialize the loader. Pass in the int ID constant defined above and pass in null for
-            // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
-            // because this activity implements the LoaderCallbacks interface).
-            getLoaderManager().initLoader(BOOK_LOAD_ID, null, this);
+        // Start the first search, unless the view model still has one from before a rotation.
+        // A cold start shows the last search from the disk cache without a request; there is
+        // nothing to search for before the user's first search.
+        // Without a connection the books found earlier are still searchable.
+        // A list of ISBNs shared with the app is looked up instead; after the process was killed
+        // the lookup starts again and continues from its checkpoint.
+        if (!mViewModel.hasQuery()) {
+            List<String> sharedIsbns = sharedIsbns(getIntent());
+            boolean lookUp = !sharedIsbns.isEmpty()
+                    && (savedInstanceState == null || savedInstanceState.getBoolean(STATE_ISBN_LOOKUP));
+            BookQuery lastQuery = savedInstanceState == null ? mHistory.getLastQuery() : null;
+            if (lookUp) {
+                mViewModel.lookUpIsbns(sharedIsbns);
+            } else if (lastQuery != null) {
+                mQuery = lastQuery;
+                // Before the text listener is set, so this does not start a live search
+                mSearchBar.setQuery(lastQuery.getTerms(), false);
+                mViewModel.restore(lastQuery);
+            } else if (!mQuery.isEmpty()) {
+                // The process was killed: the saved rows are shown right away, then the cached
+                // first page; only if nothing is cached is the search sent again
+                List<Book> savedBooks = savedBooks(savedInstanceState);
+                if (!savedBooks.isEmpty()) {
+                    mViewModel.restore(mQuery, savedBooks);
+                } else {
+                    mViewModel.search(mQuery);
+                }
+            } else {
+                onStartupDone();
+            }
         }
-        else
-        {
-
-            Log.i(LOG_TAG, "INTERNET connection status: " + String.valueOf(isConnected) + ". Sorry dude, no internet - no data :(");
-            //hide loading bar
-            mLoadingBar.setVisibility(View.GONE);
-            mSearchBar.setVisibility(View.INVISIBLE);
-            mSearchButton.setVisibility(View.INVISIBLE);
-            //set empty view "No internet connection." text
-            mEmptyTextView.setText(R.string.no_internet_connection);
+        if (savedInstanceState == null) {
+            // After the first frame, WorkManager reads its database when it starts
+            mBookListView.post(new Runnable() {
+                @Override
+                public void run() {
+                    PrefetchWorker.schedule(getApplicationContext());
+                }
+            });
         }
 
         // Set an item click listener on the Search Button, which sends a request to
@@ -98,109 +195,411 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             @Override
             public void onClick(View v)
             {
-                 //Check connection status
-                isConnected = checkInternetConnection(connectivityManager);
-
-                if(isConnected)
-                {
-                    // Update URL and restart loader to displaying new result of searching
-                    updateQueryUrl(mSearchBar.getQuery().toString());
-                    resetQueryLoader();
-                    Log.i(LOG_TAG, "Search value: " + mSearchBar.getQuery().toString());
-                }else
-                {
-                    // Clear the adapter of previous book data
-                    mAdapter.clear();
-                    // Set mEmpty visible
-                    mEmptyTextView.setVisibility(View.VISIBLE);
-                    // ...and display message: "No internet connection."
-                    mEmptyTextView.setText(R.string.no_internet_connection);
-                }
+                mSearchHandler.removeCallbacks(mLiveSearch);
+                search(mSearchBar.getQuery().toString(), true);
             }
         });
 
-        // Set an item click listener on the ListView, which sends an intent to a web browser
-        // to open a website with more information about the selected book.
-        mBookListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Search as you type: every change restarts the debounce timer, the search runs once
+        // the user pauses typing. Submitting from the keyboard searches right away.
+        mSearchBar.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                // Find the current book that was clicked on
-                Book currentBook = mAdapter.getItem(position);
+            public boolean onQueryTextSubmit(String query) {
+                mSearchHandler.removeCallbacks(mLiveSearch);
+                search(query, true);
+                return false;
+            }
 
-                // Convert the String URL into a URI object (to pass into the Intent constructor)
-                assert currentBook != null;
-                Uri buyBookUri = Uri.parse(currentBook.getUrlBook());
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mSearchHandler.removeCallbacks(mLiveSearch);
+                if (!newText.trim().isEmpty()) {
+                    mSearchHandler.postDelayed(mLiveSearch, getResources().getInteger(R.integer.search_debounce_millis));
+                }
+                return true;
+            }
+        });
 
-                // Create a new intent to view buy the book URI
-                Intent websiteIntent = new Intent(Intent.ACTION_VIEW, buyBookUri);
+        // Load neighbouring pages when the list is scrolled close to either end of the loaded window,
+        // prefetch the covers of the next rows, and measure frame times while the list is moving
+        mBookListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    if (mFrameTimeMonitor != null) {
+                        mFrameTimeMonitor.stop();
+                    }
+                } else {
+                    if (mFrameTimeMonitor == null) {
+                        // Created on the first scroll, reading the refresh rate is not needed for startup
+                        mFrameTimeMonitor = new FrameTimeMonitor(getWindowManager().getDefaultDisplay().getRefreshRate());
+                    }
+                    mFrameTimeMonitor.start();
+                }
+            }
 
-                // Send the intent to launch a new activity
-                startActivity(websiteIntent);
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int lastVisible = mLayoutManager.findLastVisibleItemPosition();
+                mViewModel.onScrolled(mLayoutManager.findFirstVisibleItemPosition(), lastVisible, mAdapter.getItemCount());
+                if (dy > 0) {
+                    mAdapter.prefetchCovers(lastVisible + 1, coverPrefetchRows());
+                }
             }
         });
     }
 
-    private String updateQueryUrl(String searchValue)
-    {
-        if(searchValue.contains(" "))
-        {
-            searchValue = searchValue.replace(" ", "+");
-        }
+    /**
+     * Sends an intent to a web browser to open a website with more information
+     * about the clicked book.
+     */
+    @Override
+    public void onBookClick(Book currentBook) {
+        // Convert the String URL into a URI object (to pass into the Intent constructor)
+        Uri buyBookUri = Uri.parse(currentBook.getUrlBook());
+
+        // Create a new intent to view buy the book URI
+        Intent websiteIntent = new Intent(Intent.ACTION_VIEW, buyBookUri);
 
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("https://www.googleapis.com/books/v1/volumes?q=").append(searchValue).append("&filter=paid-ebooks&maxResults=40");
-        mUrlRequestGoogle = stringBuilder.toString();
-        return mUrlRequestGoogle;
+        // Send the intent to launch a new activity
+        startActivity(websiteIntent);
     }
 
-    //the return status of internet connection
-    private boolean checkInternetConnection(ConnectivityManager connectivityManager)
+    /**
+     * The search for the text of the search bar. The app sells books, so only
+     * volumes that can be bought are asked for.
+     */
+    private static BookQuery toQuery(String text)
     {
+        return BookQuery.parse(text).buildUpon().setFilter(BookQuery.Filter.PAID_EBOOKS).build();
+    }
 
-        NetworkInfo activeNetwork = connectivityManager.getActiveNetworkInfo();
+    /**
+     * Start a new search from the first page. A live search is skipped if the canonical
+     * query did not change, the explicit search button always reloads.
+     */
+    private void search(String text, boolean force)
+    {
+        BookQuery query = toQuery(text);
+        if (!force && query.equals(mQuery)) {
+            return;
+        }
 
-        return activeNetwork != null && activeNetwork.isConnectedOrConnecting();
+        // Show the matching books of the local catalog, then load the first page to display
+        // the new result of searching. A fetch that is still running for the previous query is cancelled.
+        mQuery = query;
+        mViewModel.search(query);
+        mHistory.onSearch(query, force);
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "Search value: " + query);
+        }
     }
 
+    // Few covers ahead when every byte counts, many when they cost nothing
+    private int coverPrefetchRows()
+    {
+        ConnectivityMonitor.NetworkState network = ConnectivityMonitor.getInstance(this).getState();
+        if (network.isConstrained()) {
+            return COVER_PREFETCH_ROWS_CONSTRAINED;
+        }
+        return network.isUnconstrained() ? COVER_PREFETCH_ROWS_UNCONSTRAINED : COVER_PREFETCH_ROWS;
+    }
+
+    /**
+     * The metrics screen is only offered in debug builds.
+     */
     @Override
-    public Loader<List<Book>> onCreateLoader(int id, Bundle args) {
-        Log.i("There is no instance", ": Created new one loader at the beginning!");
-        // Create a new loader for the given URL
-        updateQueryUrl(mSearchBar.getQuery().toString());
-        return new BookLoader(this, mUrlRequestGoogle);
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.results, menu);
+        if (BuildConfig.DEBUG) {
+            getMenuInflater().inflate(R.menu.main, menu);
+        }
+        return super.onCreateOptionsMenu(menu);
     }
 
     @Override
-    public void onLoadFinished(android.content.Loader<List<Book>> loader, List<Book> books) {
-        // Progress bar mapping
-        View circleProgressBar = findViewById(R.id.loading_spinner);
-        circleProgressBar.setVisibility(View.GONE);
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_metrics) {
+            showMetrics();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_sort) {
+            showSortOrders();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_filter) {
+            showFilter();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Sorts the loaded books, see {@link BookViewModel#setView}.
+     */
+    private void showSortOrders()
+    {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_sort)
+                .setSingleChoiceItems(R.array.sort_orders, mViewModel.getSort().ordinal(), new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mViewModel.setView(mViewModel.getFilter(), BookIndex.Sort.values()[which]);
+                        dialog.dismiss();
+                    }
+                })
+                .show();
+    }
 
-        // Set empty state text to display "No books found."
-        mEmptyTextView.setText(R.string.no_books);
-        Log.i(LOG_TAG, ": Books has been moved to adapter's data set. This will trigger the ListView to update!");
+    /**
+     * Filters the loaded books by the values of their facets, each with the number of books
+     * it would show, and by rating. Values of the same facet add up, facets narrow each other.
+     */
+    private void showFilter()
+    {
+        final BookIndex.Filter filter = mViewModel.getFilter();
+        final List<BookIndex.Facet> facets = new ArrayList<BookIndex.Facet>();
+        final List<String> values = new ArrayList<String>();
+        List<String> labels = new ArrayList<String>();
+        String[] priceBands = getResources().getStringArray(R.array.price_bands);
+        for (BookIndex.Facet facet : BookIndex.Facet.values()) {
+            for (Map.Entry<String, Integer> value : mViewModel.getFacetCounts(facet).entrySet()) {
+                facets.add(facet);
+                values.add(value.getKey());
+                switch (facet) {
+                    case CATEGORY:
+                        labels.add(getString(R.string.filter_category, value.getKey(), value.getValue()));
+                        break;
+                    case LANGUAGE:
+                        labels.add(getString(R.string.filter_language,
+                                new Locale(value.getKey()).getDisplayLanguage(), value.getValue()));
+                        break;
+                    default:
+                        labels.add(getString(R.string.filter_price,
+                                priceBands[BookIndex.PriceBand.valueOf(value.getKey()).ordinal()], value.getValue()));
+                        break;
+                }
+            }
+        }
+        labels.add(getString(R.string.filter_min_stars, FILTER_MIN_STARS));
+
+        final boolean[] checked = new boolean[labels.size()];
+        for (int i = 0; i < values.size(); i++) {
+            checked[i] = filter.getSelected(facets.get(i)).contains(values.get(i));
+        }
+        checked[values.size()] = filter.getMinStars() > 0;
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_filter)
+                .setMultiChoiceItems(labels.toArray(new String[0]), checked, new DialogInterface.OnMultiChoiceClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+                        checked[which] = isChecked;
+                    }
+                })
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        BookIndex.Filter newFilter = BookIndex.Filter.NONE;
+                        for (BookIndex.Facet facet : BookIndex.Facet.values()) {
+                            Set<String> selected = new HashSet<String>();
+                            for (int i = 0; i < values.size(); i++) {
+                                if (checked[i] && facets.get(i) == facet) {
+                                    selected.add(values.get(i));
+                                }
+                            }
+                            newFilter = newFilter.with(facet, selected);
+                        }
+                        newFilter = newFilter.withMinStars(checked[values.size()] ? FILTER_MIN_STARS : 0);
+                        mViewModel.setView(newFilter, mViewModel.getSort());
+                    }
+                })
+                .setNeutralButton(R.string.filter_clear, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mViewModel.setView(BookIndex.Filter.NONE, mViewModel.getSort());
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Show the plain text dump of the metrics, it can be shared (e.g. mailed or saved) as it is.
+     */
+    private void showMetrics()
+    {
+        final String dump = Metrics.dump();
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_metrics)
+                .setMessage(dump)
+                .setPositiveButton(R.string.metrics_share, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Intent shareIntent = new Intent(Intent.ACTION_SEND);
+                        shareIntent.setType("text/plain");
+                        shareIntent.putExtra(Intent.EXTRA_TEXT, dump);
+                        startActivity(Intent.createChooser(shareIntent, getString(R.string.metrics_share)));
+                    }
+                })
+                .setNeutralButton(R.string.metrics_reset, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Metrics.reset();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * The ISBNs in the text of a share intent, e.g. a reading list sent from another app.
+     */
+    private static List<String> sharedIsbns(Intent intent)
+    {
+        if (!Intent.ACTION_SEND.equals(intent.getAction()) || !"text/plain".equals(intent.getType())) {
+            return new ArrayList<String>();
+        }
+        CharSequence text = intent.getCharSequenceExtra(Intent.EXTRA_TEXT);
+        return text != null ? Isbn.findAll(text.toString()) : new ArrayList<String>();
+    }
 
-        // Clear the adapter of previous book data
-        mAdapter.clear();
+    private void onIsbnProgress(IsbnBatchLookup.Progress progress)
+    {
+        if (progress == null) {
+            return;
+        }
+        // Hidden along with the spinner once the lookup is done
+        mLoadingStatus.setText(getString(R.string.status_isbn_lookup,
+                progress.getDone(), progress.getTotal(), progress.getLookupsPerSecond()));
+    }
 
-        // If there is a valid list of {@link Book}s, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
-        if (books != null && !books.isEmpty()) {
-            mAdapter.addAll(books);
+    private void onLoadProgress(QueryUtils.ProgressListener.Phase phase, long bytesRead) {
+        switch (phase) {
+            case CONNECTING:
+                mLoadingStatus.setText(R.string.status_connecting);
+                break;
+            case DOWNLOADING:
+                mLoadingStatus.setText(getString(R.string.status_downloading, (int) (bytesRead / 1024)));
+                break;
+            case PARSING:
+                mLoadingStatus.setText(R.string.status_parsing);
+                break;
+            case DONE:
+                mLoadingStatus.setText(null);
+                break;
         }
     }
 
+    /**
+     * Show a list state of the view model. The difference to the shown list is computed in
+     * the background; once it is applied, the row that was at the top of the screen is moved
+     * back there if rows before it were added or removed. A new activity after rotation
+     * restores its scroll position itself, so the shift is only applied to an existing list.
+     */
+    private void renderState(final BookViewModel.ListState state)
+    {
+        if (state.loading) {
+            mEmptyTextView.setVisibility(View.GONE);
+            showLoading();
+        } else {
+            // The spinner can go (after its minimum display time, if it is showing)
+            hideLoading();
+        }
+        if (state.emptyMessage != 0) {
+            mEmptyTextView.setText(state.emptyMessage);
+        }
+
+        final int anchorPosition = mHasRendered && state.anchorShift != 0
+                ? mLayoutManager.findFirstVisibleItemPosition() : RecyclerView.NO_POSITION;
+        View anchorView = anchorPosition != RecyclerView.NO_POSITION ? mLayoutManager.findViewByPosition(anchorPosition) : null;
+        final int anchorTop = anchorView != null ? anchorView.getTop() : 0;
+        mHasRendered = true;
+
+        mAdapter.submitList(state.books, new Runnable() {
+            @Override
+            public void run() {
+                if (!state.loading) {
+                    mEmptyTextView.setVisibility(state.books.isEmpty() ? View.VISIBLE : View.GONE);
+                }
+                if (!state.loading || !state.books.isEmpty()) {
+                    onStartupDone();
+                }
+                if (anchorPosition != RecyclerView.NO_POSITION) {
+                    mLayoutManager.scrollToPositionWithOffset(Math.max(0, anchorPosition + state.anchorShift), anchorTop);
+                }
+            }
+        });
+    }
+
+    /**
+     * The first content is on screen: tell the system (which logs it as "Fully drawn", the
+     * time startup benchmarks measure) and record the time since the process started.
+     */
+    private void onStartupDone()
+    {
+        if (mReportedFullyDrawn) {
+            return;
+        }
+        mReportedFullyDrawn = true;
+        reportFullyDrawn();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            sStartupTime.recordNanos((SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime()) * 1000000);
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // The list is shown again, what was trimmed in the background may come back
+        MemoryBudget.getInstance(this).restore();
+    }
+
     @Override
-    public void onLoaderReset(android.content.Loader<List<Book>> loader) {
-        Log.i(LOG_TAG, ": Loader reset, so we can clear out our existing data!");
-        // Loader reset, so we can clear out our existing data.
-        mAdapter.clear();
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_QUERY, mQuery.getTerms());
+        outState.putBoolean(STATE_ISBN_LOOKUP, mViewModel.isShowingIsbnLookup());
+        // Not needed after a rotation, the view model keeps the books, but after the process was killed
+        if (!mViewModel.isShowingIsbnLookup()) {
+            List<Book> books = mViewModel.getBooks();
+            outState.putByteArray(STATE_BOOKS, BookCodec.encode(books.subList(0, Math.min(books.size(), MAX_SAVED_BOOKS))));
+        }
     }
 
-    private void resetQueryLoader()
+    private static List<Book> savedBooks(Bundle savedInstanceState)
     {
-        mEmptyTextView.setVisibility(View.GONE);
-        mLoadingBar.setVisibility(View.VISIBLE);
-        getLoaderManager().restartLoader(BOOK_LOAD_ID, null, MainActivity.this);
+        byte[] books = savedInstanceState != null ? savedInstanceState.getByteArray(STATE_BOOKS) : null;
+        if (books != null) {
+            try {
+                return BookCodec.decode(books);
+            } catch (IOException e) {
+                // Saved by another version of the app
+                Log.w(LOG_TAG, "Saved books could not be read.", e);
+            }
+        }
+        return new ArrayList<Book>();
+    }
+
+    private void showLoading()
+    {
+        mLoadingStatus.setText(null);
+        mLoadingStatus.setVisibility(View.VISIBLE);
+        mLoadingBar.show();
+    }
+
+    private void hideLoading()
+    {
+        mLoadingStatus.setVisibility(View.GONE);
+        mLoadingBar.hide();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mSearchHandler.removeCallbacks(mLiveSearch);
+        if (mFrameTimeMonitor != null) {
+            mFrameTimeMonitor.stop();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+package com.example.booklistingapp;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import androidx.core.app.ActivityManagerCompat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The memory the app keeps only to save time, shared by the results of {@link BookCache},
+ * the covers of {@link CoverLoader} and the loaded pages of the book list. Each
+ * {@link Component} gets a share of the heap the system gives the app
+ * ({@link ActivityManager#getMemoryClass()}), half of it on a low-RAM device.
+ * <p>
+ * When the system runs short ({@link #onTrimMemory}, {@link #onLowMemory}) the total shrinks
+ * by the level, and what has to go is taken from the components in their order: all of the
+ * results before any cover, all of the covers before any page. The budgets stay that small
+ * until the list is shown again, see {@link #restore()}; the system does not say when
+ * the pressure is over.
+ */
+public final class MemoryBudget implements ComponentCallbacks2 {
+
+    private static final String LOG_TAG = "MemoryBudget";
+
+    /**
+     * What keeps memory, in the order it gives memory back.
+     */
+    public enum Component {
+        // Parsed again from the disk tier in about a millisecond
+        RESULTS("results", 128),
+        // Decoded again from the disk cache
+        COVERS("covers", 8),
+        // Rows of the list, downloaded again when the user scrolls back
+        PAGES("pages", 64);
+
+        final String label;
+        // The budget is this part of the heap
+        final int heapDivisor;
+
+        Component(String label, int heapDivisor)
+        {
+            this.label = label;
+            this.heapDivisor = heapDivisor;
+        }
+    }
+
+    private static MemoryBudget sInstance;
+
+    private static final Metrics.Counter sTrims = Metrics.counter("memory.trims");
+
+    private final long mHeapBytes;
+    private final List<Registration> mRegistrations = new ArrayList<Registration>();
+    // Per Component.ordinal()
+    private final long[] mBudgets = new long[Component.values().length];
+    private int mPercent = 100;
+
+    private static final class Registration {
+
+        final Component component;
+        final Trimmable trimmable;
+
+        Registration(Component component, Trimmable trimmable)
+        {
+            this.component = component;
+            this.trimmable = trimmable;
+        }
+    }
+
+    /**
+     * Budgets for a heap of the given size. The app shares one instance, see
+     * {@link #getInstance(Context)}; tests make their own and call {@link #onTrimMemory} themselves.
+     */
+    MemoryBudget(long heapBytes)
+    {
+        mHeapBytes = heapBytes;
+        distribute();
+    }
+
+    public static synchronized MemoryBudget getInstance(Context context)
+    {
+        if (sInstance == null) {
+            Context application = context.getApplicationContext();
+            ActivityManager activityManager = (ActivityManager) application.getSystemService(Context.ACTIVITY_SERVICE);
+            long heapBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+            if (ActivityManagerCompat.isLowRamDevice(activityManager)) {
+                heapBytes /= 2;
+            }
+            sInstance = new MemoryBudget(heapBytes);
+            application.registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Start telling the trimmable its budget, right away on this thread and on the main thread
+     * whenever it changes. Each component has one trimmable, e.g. the view model of the list.
+     */
+    public synchronized void register(Component component, Trimmable trimmable)
+    {
+        mRegistrations.add(new Registration(component, trimmable));
+        trimmable.setBudget(mBudgets[component.ordinal()]);
+    }
+
+    public synchronized void unregister(Trimmable trimmable)
+    {
+        for (int i = mRegistrations.size() - 1; i >= 0; i--) {
+            if (mRegistrations.get(i).trimmable == trimmable) {
+                mRegistrations.remove(i);
+            }
+        }
+    }
+
+    /**
+     * The bytes the component may keep now.
+     */
+    public synchronized long getBudget(Component component)
+    {
+        return mBudgets[component.ordinal()];
+    }
+
+    /**
+     * The bytes the trimmables of the component keep now.
+     */
+    public synchronized long getRetainedBytes(Component component)
+    {
+        long retained = 0;
+        for (Registration registration : mRegistrations) {
+            if (registration.component == component) {
+                retained += registration.trimmable.getRetainedBytes();
+            }
+        }
+        return retained;
+    }
+
+    /**
+     * Retained bytes and budget of every component, e.g. "results 96 KB of 512 KB, ...".
+     */
+    public synchronized String report()
+    {
+        StringBuilder report = new StringBuilder();
+        for (Component component : Component.values()) {
+            if (report.length() > 0) {
+                report.append(", ");
+            }
+            report.append(String.format(Locale.ROOT, "%s %d KB of %d KB", component.label,
+                    getRetainedBytes(component) / 1024, getBudget(component) / 1024));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public synchronized void onTrimMemory(int level) {
+        // UI_HIDDEN is a higher level than RUNNING_CRITICAL but less pressing, the smaller budget stays
+        int percent = Math.min(mPercent, percentOf(level));
+        sTrims.increment();
+        if (percent != mPercent) {
+            mPercent = percent;
+            distribute();
+            dispatch();
+        }
+        if (Metrics.isEnabled()) {
+            Log.d(LOG_TAG, "Trim level " + level + ": " + report());
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        // Only sent on versions without onTrimMemory levels, or when it is worst
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+
+    }
+
+    /**
+     * The user is looking at the app again, give every component its full budget back.
+     */
+    public synchronized void restore()
+    {
+        if (mPercent != 100) {
+            mPercent = 100;
+            distribute();
+            dispatch();
+        }
+    }
+
+    /**
+     * The share of the full budget that is left at the trim level.
+     */
+    static int percentOf(int level)
+    {
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            return 0;
+        }
+        if (level >= TRIM_MEMORY_MODERATE) {
+            return 10;
+        }
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            return 25;
+        }
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            return 50;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 25;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            return 50;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            return 75;
+        }
+        return 100;
+    }
+
+    // Take what is over the total from the components in their order
+    private void distribute()
+    {
+        long total = 0;
+        for (Component component : Component.values()) {
+            total += mHeapBytes / component.heapDivisor;
+        }
+        long excess = total - total * mPercent / 100;
+        for (Component component : Component.values()) {
+            long full = mHeapBytes / component.heapDivisor;
+            long cut = Math.min(full, excess);
+            excess -= cut;
+            mBudgets[component.ordinal()] = full - cut;
+        }
+    }
+
+    private void dispatch()
+    {
+        for (Registration registration : mRegistrations) {
+            registration.trimmable.setBudget(mBudgets[registration.component.ordinal()]);
+        }
+    }
+}
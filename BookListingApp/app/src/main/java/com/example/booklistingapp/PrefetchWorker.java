@@ -0,0 +1,96 @@
+package com.example.booklistingapp;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes the first page of the user's recent and frequent searches (see {@link SearchHistory})
+ * in the {@link BookCache} of every source, so the app starts with current results and answers
+ * those searches without waiting for the network. Runs a few times a day, only on an unmetered
+ * network while the device is charging. Fresh entries are not fetched again, and expired ones
+ * are revalidated with their ETag, so a run where nothing changed costs little.
+ */
+public final class PrefetchWorker extends Worker {
+
+    private static final String LOG_TAG = "PrefetchWorker";
+
+    private static final String WORK_NAME = "prefetch";
+    private static final long INTERVAL_HOURS = 6;
+    private static final int MAX_QUERIES = 6;
+
+    private static final QueryUtils.ProgressListener NO_PROGRESS = new QueryUtils.ProgressListener() {
+        @Override
+        public void onProgress(Phase phase, long bytesRead) {
+            // Nobody is watching
+        }
+    };
+
+    private static final Metrics.Counter sPagesRefreshed = Metrics.counter("prefetch.pages.refreshed");
+    private static final Metrics.Counter sPagesFailed = Metrics.counter("prefetch.pages.failed");
+
+    private final CancellationToken mToken = new CancellationToken();
+
+    public PrefetchWorker(@NonNull Context context, @NonNull WorkerParameters parameters)
+    {
+        super(context, parameters);
+    }
+
+    /**
+     * Schedule the periodic refresh, unless it is already scheduled.
+     */
+    public static void schedule(Context context)
+    {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.UNMETERED)
+                .setRequiresCharging(true)
+                .build();
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(PrefetchWorker.class,
+                INTERVAL_HOURS, TimeUnit.HOURS)
+                .setConstraints(constraints)
+                .build();
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        List<BookQuery> queries = SearchHistory.getInstance(context).getQueriesToPrefetch(MAX_QUERIES);
+        FederatedSearch search = BookViewModel.getSearch(context);
+        // One source after the other, on this thread; the user's own searches keep the fetch engine
+        for (BookQuery query : queries) {
+            BookQuery firstPage = query.withPage(0, BookPager.FIRST_PAGE_SIZE);
+            for (int i = 0; i < search.getSourceCount(); i++) {
+                if (isStopped()) {
+                    return Result.success();
+                }
+                try {
+                    search.getSource(i).search(firstPage, NO_PROGRESS, mToken);
+                    sPagesRefreshed.increment();
+                } catch (QueryUtils.FetchException e) {
+                    // The next run tries again, the circuit breaker keeps a failing source quiet
+                    sPagesFailed.increment();
+                    Log.w(LOG_TAG, "Could not refresh " + query + ": " + e.getMessage());
+                }
+            }
+        }
+        return Result.success();
+    }
+
+    @Override
+    public void onStopped() {
+        mToken.cancel();
+    }
+}
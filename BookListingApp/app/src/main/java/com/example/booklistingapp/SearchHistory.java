@@ -0,0 +1,191 @@
+package com.example.booklistingapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The searches the user ran, for the warm start and the {@link PrefetchWorker}.
+ * Remembers the last search shown and, for submitted searches, how often and how recently
+ * each was run. Queries are stored by their canonical key (see {@link BookQuery#getKey()}),
+ * so different spellings of a search count as one. Kept in the shared preferences.
+ */
+public final class SearchHistory {
+
+    private static final String PREFS_NAME = "search_history";
+    private static final String KEY_LAST = "last";
+    private static final String KEY_ENTRIES = "entries";
+
+    private static final int MAX_ENTRIES = 20;
+
+    private static SearchHistory sInstance;
+
+    private final SharedPreferences mPrefs;
+    // By key, loaded on first use
+    private LinkedHashMap<String, Entry> mEntries;
+
+    private static final class Entry {
+
+        final String key;
+        int count;
+        long lastUsed;
+
+        Entry(String key, int count, long lastUsed)
+        {
+            this.key = key;
+            this.count = count;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private SearchHistory(Context context)
+    {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized SearchHistory getInstance(Context context)
+    {
+        if (sInstance == null) {
+            sInstance = new SearchHistory(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * A search was shown. Only submitted searches count towards the frequent ones, the
+     * searches of every pause while typing would crowd them out.
+     */
+    public synchronized void onSearch(BookQuery query, boolean submitted)
+    {
+        if (query.isEmpty()) {
+            return;
+        }
+        String key = keyOf(query);
+        SharedPreferences.Editor editor = mPrefs.edit().putString(KEY_LAST, key);
+        if (submitted) {
+            LinkedHashMap<String, Entry> entries = entries();
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                if (entries.size() == MAX_ENTRIES) {
+                    entries.remove(leastValuable(entries.values()).key);
+                }
+                entry = new Entry(key, 0, 0);
+                entries.put(key, entry);
+            }
+            entry.count++;
+            entry.lastUsed = System.currentTimeMillis();
+            editor.putString(KEY_ENTRIES, serialize(entries));
+        }
+        editor.apply();
+    }
+
+    /**
+     * The search that was shown last, or null before the first one.
+     */
+    public synchronized BookQuery getLastQuery()
+    {
+        String key = mPrefs.getString(KEY_LAST, null);
+        return key != null ? BooksApi.parseQueryUrl(key) : null;
+    }
+
+    /**
+     * The searches worth keeping fresh: the last one, then the most recent and the most
+     * frequent submitted ones in turn, at most {@code max} of them.
+     */
+    public synchronized List<BookQuery> getQueriesToPrefetch(int max)
+    {
+        List<Entry> recent = new ArrayList<Entry>(entries().values());
+        List<Entry> frequent = new ArrayList<Entry>(recent);
+        Collections.sort(recent, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Long.compare(b.lastUsed, a.lastUsed);
+            }
+        });
+        Collections.sort(frequent, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.count != b.count ? Integer.compare(b.count, a.count) : Long.compare(b.lastUsed, a.lastUsed);
+            }
+        });
+
+        LinkedHashMap<String, BookQuery> queries = new LinkedHashMap<String, BookQuery>();
+        String last = mPrefs.getString(KEY_LAST, null);
+        if (last != null) {
+            queries.put(last, BooksApi.parseQueryUrl(last));
+        }
+        for (int i = 0; i < recent.size() && queries.size() < max; i++) {
+            addQuery(queries, recent.get(i).key);
+            if (queries.size() < max) {
+                addQuery(queries, frequent.get(i).key);
+            }
+        }
+        return new ArrayList<BookQuery>(queries.values()).subList(0, Math.min(max, queries.size()));
+    }
+
+    private static void addQuery(LinkedHashMap<String, BookQuery> queries, String key)
+    {
+        if (!queries.containsKey(key)) {
+            queries.put(key, BooksApi.parseQueryUrl(key));
+        }
+    }
+
+    // The page does not belong to the search
+    private static String keyOf(BookQuery query)
+    {
+        return query.withPage(0, BookPager.FIRST_PAGE_SIZE).getKey();
+    }
+
+    // Ran least often, and of those the longest ago
+    private static Entry leastValuable(Iterable<Entry> entries)
+    {
+        Entry least = null;
+        for (Entry entry : entries) {
+            if (least == null || entry.count < least.count
+                    || (entry.count == least.count && entry.lastUsed < least.lastUsed)) {
+                least = entry;
+            }
+        }
+        return least;
+    }
+
+    private LinkedHashMap<String, Entry> entries()
+    {
+        if (mEntries == null) {
+            mEntries = parse(mPrefs.getString(KEY_ENTRIES, ""));
+        }
+        return mEntries;
+    }
+
+    // One entry per line: count, last use and key, separated by spaces. Keys are encoded, without spaces.
+    private static String serialize(LinkedHashMap<String, Entry> entries)
+    {
+        StringBuilder text = new StringBuilder();
+        for (Entry entry : entries.values()) {
+            text.append(entry.count).append(' ').append(entry.lastUsed).append(' ').append(entry.key).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static LinkedHashMap<String, Entry> parse(String text)
+    {
+        LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        for (String line : text.split("\n")) {
+            String[] parts = line.split(" ");
+            if (parts.length != 3) {
+                continue;
+            }
+            try {
+                entries.put(parts[2], new Entry(parts[2], Integer.parseInt(parts[0]), Long.parseLong(parts[1])));
+            } catch (NumberFormatException e) {
+                // A broken line only loses its entry
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.booklistingapp;
+
+import android.content.ComponentCallbacks2;
+
+import androidx.collection.LruCache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Trim levels as the system sends them, against a {@link MemoryBudget} for a 64 MB heap with
+ * a real {@link BookCache} and a cover cache of plain byte arrays registered.
+ */
+public class MemoryBudgetTest {
+
+    private static final long HEAP_BYTES = 64 * 1024 * 1024;
+
+    // From the mildest to the worst, as a running app and then a cached one gets them
+    private static final int[] LEVELS = {
+            ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE,
+            ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW,
+            ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL,
+            ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN,
+            ComponentCallbacks2.TRIM_MEMORY_BACKGROUND,
+            ComponentCallbacks2.TRIM_MEMORY_MODERATE,
+            ComponentCallbacks2.TRIM_MEMORY_COMPLETE
+    };
+
+    @Rule
+    public final TemporaryFolder mCacheDir = new TemporaryFolder();
+
+    @Test
+    public void budgetsAreSharesOfTheHeap() {
+        MemoryBudget budget = new MemoryBudget(HEAP_BYTES);
+
+        assertEquals(512 * 1024, budget.getBudget(MemoryBudget.Component.RESULTS));
+        assertEquals(8 * 1024 * 1024, budget.getBudget(MemoryBudget.Component.COVERS));
+        assertEquals(1024 * 1024, budget.getBudget(MemoryBudget.Component.PAGES));
+    }
+
+    @Test
+    public void trimLevelsAreEnforcedInOrder() {
+        MemoryBudget budget = new MemoryBudget(HEAP_BYTES);
+        long full = total(budget);
+        BookCache results = new BookCache(mCacheDir.getRoot());
+        CoverCache covers = new CoverCache();
+        budget.register(MemoryBudget.Component.RESULTS, results);
+        budget.register(MemoryBudget.Component.COVERS, covers);
+
+        int percent = 100;
+        for (int level : LEVELS) {
+            fill(results, covers);
+            budget.onTrimMemory(level);
+
+            // The smallest budget so far stays, UI_HIDDEN after RUNNING_CRITICAL gives nothing back
+            percent = Math.min(percent, MemoryBudget.percentOf(level));
+            assertEquals(full * percent / 100, total(budget));
+            for (MemoryBudget.Component component : MemoryBudget.Component.values()) {
+                assertTrue(budget.report(), budget.getRetainedBytes(component) <= budget.getBudget(component));
+            }
+            // Nothing of a component is taken while the one before it still has a budget
+            MemoryBudget.Component[] components = MemoryBudget.Component.values();
+            for (int i = 1; i < components.length; i++) {
+                if (budget.getBudget(components[i]) < HEAP_BYTES / components[i].heapDivisor) {
+                    assertEquals(0, budget.getBudget(components[i - 1]));
+                }
+            }
+        }
+        assertEquals(0, results.getRetainedBytes());
+        assertEquals(0, covers.getRetainedBytes());
+    }
+
+    @Test
+    public void budgetsComeBackOnRestore() {
+        MemoryBudget budget = new MemoryBudget(HEAP_BYTES);
+        long full = total(budget);
+        CoverCache covers = new CoverCache();
+        budget.register(MemoryBudget.Component.COVERS, covers);
+
+        budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+        // A milder level afterwards does not give anything back
+        budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(full / 4, total(budget));
+
+        budget.restore();
+        assertEquals(full, total(budget));
+        assertEquals(8 * 1024 * 1024, covers.mCache.maxSize());
+    }
+
+    @Test
+    public void revalidatingWithoutAResultsBudgetKeepsTheBooks() {
+        MemoryBudget budget = new MemoryBudget(HEAP_BYTES);
+        BookCache results = new BookCache(mCacheDir.getRoot());
+        budget.register(MemoryBudget.Component.RESULTS, results);
+        String key = "https://example.com/revalidated";
+        BookCache.Entry cached = results.put(key, books(10), "\"etag\"", null);
+
+        budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        // As on a 304 Not Modified, the memory tier has no room for the entry anymore
+        BookCache.Entry revalidated = results.revalidate(key, cached);
+
+        assertNotNull(revalidated);
+        assertEquals(books(10), revalidated.getBooks());
+        assertEquals("\"etag\"", revalidated.getETag());
+        assertTrue(revalidated.isFresh());
+        assertEquals(0, results.getRetainedBytes());
+        // Still there on disk
+        assertEquals(books(10), results.get(key).getBooks());
+    }
+
+    @Test
+    public void sharedAuthorNamesCountAgainstTheResultsBudget() {
+        MemoryBudget budget = new MemoryBudget(HEAP_BYTES);
+        BookCache results = new BookCache(mCacheDir.getRoot());
+        budget.register(MemoryBudget.Component.RESULTS, results);
+        long resultsBudget = budget.getBudget(MemoryBudget.Component.RESULTS);
+
+        // A new author on every book, ten times what the budget can hold in names alone
+        for (int page = 0; page < 1000; page++) {
+            List<Book> books = new ArrayList<Book>(40);
+            for (int i = 0; i < 40; i++) {
+                String volumeId = "volume" + i;
+                books.add(new Book(volumeId, "Title " + i, "Author " + page + "-" + i, BooksApi.coverUrl(volumeId),
+                        BooksApi.buyUrl(volumeId)));
+            }
+            results.put("https://example.com/" + page, books, null, null);
+
+            assertTrue(page + ": " + budget.report(), results.getRetainedBytes() <= resultsBudget);
+            assertTrue(BookResultSet.estimatedDictionaryBytes() <= resultsBudget / 2);
+        }
+    }
+
+    @Test
+    public void pagerDropsThePageFarthestFromTheScreen() {
+        BookPager pager = new BookPager();
+        for (int page = 0; page < BookPager.MAX_PAGES_IN_MEMORY; page++) {
+            pager.onPageLoaded(page, books(page == 0 ? BookPager.FIRST_PAGE_SIZE : BookPager.PAGE_SIZE));
+        }
+
+        // Rows 70-89 are the last page, so the first one goes
+        BookPager.Placement placement = pager.dropFarthestPage(75, -1);
+        assertEquals(BookPager.Placement.APPEND, placement.mode);
+        assertEquals(BookPager.FIRST_PAGE_SIZE, placement.droppedCount);
+        // Row 5 is on the first page now, pages 1 to 4 are left and page 4 goes
+        placement = pager.dropFarthestPage(5, -1);
+        assertEquals(BookPager.Placement.PREPEND, placement.mode);
+        assertEquals(BookPager.PAGE_SIZE, placement.droppedCount);
+        // The page to keep stays, and so does the page on screen
+        assertEquals(BookPager.Placement.IGNORE, pager.dropFarthestPage(5, 3).mode);
+        assertEquals(BookPager.Placement.PREPEND, pager.dropFarthestPage(5, -1).mode);
+        assertEquals(BookPager.Placement.PREPEND, pager.dropFarthestPage(5, -1).mode);
+        assertEquals(BookPager.Placement.IGNORE, pager.dropFarthestPage(5, -1).mode);
+    }
+
+    private static long total(MemoryBudget budget)
+    {
+        long total = 0;
+        for (MemoryBudget.Component component : MemoryBudget.Component.values()) {
+            total += budget.getBudget(component);
+        }
+        return total;
+    }
+
+    // More than the full budgets of both caches
+    private static void fill(BookCache results, CoverCache covers)
+    {
+        for (int i = 0; i < 150; i++) {
+            results.put("https://example.com/" + i, books(40), null, null);
+        }
+        for (int i = 0; i < 200; i++) {
+            covers.mCache.put("cover" + i, new byte[64 * 1024]);
+        }
+    }
+
+    private static List<Book> books(int count)
+    {
+        List<Book> books = new ArrayList<Book>(count);
+        for (int i = 0; i < count; i++) {
+            String volumeId = "volume" + i;
+            books.add(new Book(volumeId, "Title of book " + i, "Author " + i, BooksApi.coverUrl(volumeId),
+                    BooksApi.buyUrl(volumeId), Book.NO_PRICE, "", "en", Book.NO_DATE,
+                    Collections.singletonList("Fiction"), 0, ""));
+        }
+        return books;
+    }
+
+    /**
+     * Covers as {@link CoverLoader} keeps them, byte arrays instead of bitmaps.
+     */
+    private static final class CoverCache implements Trimmable {
+
+        final LruCache<String, byte[]> mCache = new LruCache<String, byte[]>(1) {
+            @Override
+            protected int sizeOf(String key, byte[] cover) {
+                return cover.length;
+            }
+        };
+
+        @Override
+        public long getRetainedBytes() {
+            return mCache.size();
+        }
+
+        @Override
+        public void setBudget(long maxBytes) {
+            mCache.resize((int) Math.max(1, maxBytes));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.booklistingapp;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding a list of books with {@link BookCodec}, against Gson's JSON and Java
+ * serialization of the same books, as a disk cache entry or the saved instance state would.
+ * The codec reads and writes the {@link BookResultSet} the caches keep; JSON and Java
+ * serialization work on a list of objects. {@link Book} is not serializable, so Java
+ * serialization gets a copy of the books in a serializable class, made outside the measurement.
+ * The encoded sizes are printed by {@link EncodedSizeReport}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    public enum Format {
+        CODEC,
+        JSON,
+        JAVA
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Gson GSON = new Gson();
+    private static final Type BOOK_LIST = new TypeToken<List<Book>>() { }.getType();
+
+    @Param({"40", "400", "4000"})
+    public int books;
+
+    @Param({"CODEC", "JSON", "JAVA"})
+    public Format format;
+
+    private BookResultSet mResultSet;
+    private List<Book> mBooks;
+    private ArrayList<SerializableBook> mSerializableBooks;
+    private byte[] mEncoded;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        mBooks = ResponseCorpus.books(books, books);
+        mResultSet = BookResultSet.of(mBooks);
+        mSerializableBooks = SerializableBook.copyOf(mBooks);
+        mEncoded = encode();
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        switch (format) {
+            case CODEC:
+                return BookCodec.encode(mResultSet);
+            case JSON:
+                return GSON.toJson(mBooks, BOOK_LIST).getBytes(UTF_8);
+            default:
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream output = new ObjectOutputStream(bytes);
+                output.writeObject(mSerializableBooks);
+                output.close();
+                return bytes.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public Object decode() throws IOException, ClassNotFoundException {
+        switch (format) {
+            case CODEC:
+                return BookCodec.decode(mEncoded);
+            case JSON:
+                return GSON.fromJson(new String(mEncoded, UTF_8), BOOK_LIST);
+            default:
+                ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(mEncoded));
+                try {
+                    return input.readObject();
+                } finally {
+                    input.close();
+                }
+        }
+    }
+
+    /**
+     * The fields of a {@link Book}, for Java serialization.
+     */
+    static final class SerializableBook implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final String volumeId;
+        final String title;
+        final String author;
+        final String urlImage;
+        final String urlBook;
+        final long priceMicros;
+        final String currency;
+        final String language;
+        final int publishedDate;
+        final ArrayList<String> categories;
+        final float rating;
+        final String isbn;
+
+        SerializableBook(Book book)
+        {
+            volumeId = book.getVolumeId();
+            title = book.getTitle();
+            author = book.getAuthor();
+            urlImage = book.getUrlImage();
+            urlBook = book.getUrlBook();
+            priceMicros = book.getPriceMicros();
+            currency = book.getCurrency();
+            language = book.getLanguage();
+            publishedDate = book.getPublishedDate();
+            categories = new ArrayList<String>(book.getCategories());
+            rating = book.getRating();
+            isbn = book.getIsbn();
+        }
+
+        static ArrayList<SerializableBook> copyOf(List<Book> books)
+        {
+            ArrayList<SerializableBook> copy = new ArrayList<SerializableBook>(books.size());
+            for (Book book : books) {
+                copy.add(new SerializableBook(book));
+            }
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.booklistingapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Bytes of 40, 400 and 4,000 books encoded in each {@link CodecBenchmark.Format}, and how much
+ * gzip takes off. Not a JMH benchmark, the sizes do not vary between runs.
+ * Run with {@code ./gradlew :benchmark:encodedSize}.
+ */
+public final class EncodedSizeReport {
+
+    private static final int[] BOOKS = {40, 400, 4000};
+
+    private EncodedSizeReport()
+    {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.out.println(String.format("%-7s %6s %10s %10s %10s", "format", "books", "bytes", "per book", "gzipped"));
+        for (CodecBenchmark.Format format : CodecBenchmark.Format.values()) {
+            for (int books : BOOKS) {
+                CodecBenchmark benchmark = new CodecBenchmark();
+                benchmark.books = books;
+                benchmark.format = format;
+                benchmark.setUp();
+                byte[] encoded = benchmark.encode();
+                System.out.println(String.format("%-7s %6d %10d %10d %10d", format, books, encoded.length,
+                        encoded.length / books, gzippedSize(encoded)));
+            }
+        }
+    }
+
+    private static int gzippedSize(byte[] bytes) throws IOException
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(bytes);
+        gzip.close();
+        return compressed.size();
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.booklistingapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtering, sorting and counting facets with a {@link BookIndex}, what the list does when a
+ * filter or the sort order changes. A change has to be applied within a frame (16 ms), also
+ * for 10,000 books, far more than the app ever keeps loaded. Building the index is measured
+ * as well, it is paid once every time pages arrive.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class IndexBenchmark {
+
+    /**
+     * Filters from none to one value of every facet and a minimum rating.
+     */
+    public enum FilterKind {
+        NONE,
+        LANGUAGE,
+        LANGUAGE_AND_PRICE,
+        ALL
+    }
+
+    @Param({"200", "10000"})
+    public int books;
+
+    @Param({"RELEVANCE", "TITLE", "PRICE_LOW"})
+    public BookIndex.Sort sort;
+
+    @Param({"NONE", "LANGUAGE", "LANGUAGE_AND_PRICE", "ALL"})
+    public FilterKind filter;
+
+    private List<Book> mBooks;
+    private BookIndex mIndex;
+    private BookIndex.Filter mFilter;
+
+    @Setup
+    public void setUp()
+    {
+        mBooks = ResponseCorpus.books(books, books);
+        mIndex = new BookIndex(mBooks);
+        mFilter = BookIndex.Filter.NONE;
+        if (filter != FilterKind.NONE) {
+            mFilter = mFilter.with(BookIndex.Facet.LANGUAGE, new HashSet<String>(Arrays.asList("en", "de")));
+        }
+        if (filter == FilterKind.LANGUAGE_AND_PRICE || filter == FilterKind.ALL) {
+            mFilter = mFilter.with(BookIndex.Facet.PRICE, Collections.singleton(BookIndex.PriceBand.UNDER_15.name()));
+        }
+        if (filter == FilterKind.ALL) {
+            mFilter = mFilter.with(BookIndex.Facet.CATEGORY, Collections.singleton("Fiction")).withMinStars(3);
+        }
+    }
+
+    @Benchmark
+    public List<Book> query() {
+        return mIndex.query(mFilter, sort);
+    }
+
+    /**
+     * The counts of every facet, shown next to the filter values after every change.
+     */
+    @Benchmark
+    public void facetCounts(Blackhole blackhole) {
+        for (BookIndex.Facet facet : BookIndex.Facet.values()) {
+            blackhole.consume(mIndex.facetCounts(facet, mFilter));
+        }
+    }
+
+    /**
+     * A filter change as the list sees it: the new rows and the new counts.
+     */
+    @Benchmark
+    public void applyFilter(Blackhole blackhole) {
+        blackhole.consume(mIndex.query(mFilter, sort));
+        for (BookIndex.Facet facet : BookIndex.Facet.values()) {
+            blackhole.consume(mIndex.facetCounts(facet, mFilter));
+        }
+    }
+
+    @Benchmark
+    public BookIndex build() {
+        return new BookIndex(mBooks);
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.booklistingapp;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a whole volumes response into {@link Book}s with {@link BookJsonParser}.
+ * The stream is read from memory, so only the parser itself is measured.
+ * {@link #parseTree()} is the baseline, the whole document is built as a tree first the way
+ * the org.json code did before the streaming parser.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({"1", "10", "20", "40"})
+    public int items;
+
+    // Full volume resources, or only the fields the app requests
+    @Param({"false", "true"})
+    public boolean projected;
+
+    private byte[] mResponse;
+
+    @Setup
+    public void setUp()
+    {
+        mResponse = ResponseCorpus.response(items, projected);
+    }
+
+    @Benchmark
+    public List<Book> parseList() throws IOException {
+        return BookJsonParser.parse(new ByteArrayInputStream(mResponse));
+    }
+
+    @Benchmark
+    public int parseStreaming(final Blackhole blackhole) throws IOException {
+        return BookJsonParser.parse(new ByteArrayInputStream(mResponse), new BookJsonParser.OnBookParsedListener() {
+            @Override
+            public void onBookParsed(Book book) {
+                blackhole.consume(book);
+            }
+        });
+    }
+
+    @Benchmark
+    public List<Book> parseTree() {
+        JsonObject response = JsonParser.parseReader(new InputStreamReader(
+                new ByteArrayInputStream(mResponse), StandardCharsets.UTF_8)).getAsJsonObject();
+        JsonArray items = response.getAsJsonArray("items");
+        List<Book> books = new ArrayList<Book>(items.size());
+        for (JsonElement item : items) {
+            books.add(toBook(item.getAsJsonObject()));
+        }
+        return books;
+    }
+
+    /**
+     * The same fields and defaults as the streaming parser, read from the tree of one item.
+     */
+    private static Book toBook(JsonObject item)
+    {
+        String volumeId = item.get("id").getAsString();
+        JsonObject volumeInfo = item.getAsJsonObject("volumeInfo");
+        String title = volumeInfo.has("title") ? volumeInfo.get("title").getAsString() : BookJsonParser.DEFAULT_TITLE;
+
+        String author = BookJsonParser.DEFAULT_AUTHOR;
+        if (volumeInfo.has("authors")) {
+            StringBuilder authors = new StringBuilder();
+            for (JsonElement name : volumeInfo.getAsJsonArray("authors")) {
+                if (authors.length() > 0) {
+                    authors.append(", ");
+                }
+                authors.append(name.getAsString());
+            }
+            author = authors.toString();
+        }
+
+        String imageUrl = BooksApi.coverUrl(volumeId);
+        if (volumeInfo.has("imageLinks")) {
+            imageUrl = BookJsonParser.toCoverUrl(
+                    volumeInfo.getAsJsonObject("imageLinks").get("smallThumbnail").getAsString());
+        }
+        String language = volumeInfo.has("language") ? volumeInfo.get("language").getAsString() : "";
+        int publishedDate = volumeInfo.has("publishedDate")
+                ? Book.parseDate(volumeInfo.get("publishedDate").getAsString()) : Book.NO_DATE;
+        float rating = volumeInfo.has("averageRating") ? volumeInfo.get("averageRating").getAsFloat() : 0;
+
+        List<String> categories = Collections.emptyList();
+        if (volumeInfo.has("categories")) {
+            categories = new ArrayList<String>();
+            for (JsonElement category : volumeInfo.getAsJsonArray("categories")) {
+                categories.add(category.getAsString());
+            }
+        }
+
+        String isbn = "";
+        if (volumeInfo.has("industryIdentifiers")) {
+            for (JsonElement identifier : volumeInfo.getAsJsonArray("industryIdentifiers")) {
+                String canonical = Isbn.canonical(identifier.getAsJsonObject().get("identifier").getAsString());
+                if (canonical != null) {
+                    isbn = canonical;
+                    break;
+                }
+            }
+        }
+
+        String buyLink = BooksApi.infoUrl(volumeId);
+        long priceMicros = Book.NO_PRICE;
+        String currency = "";
+        JsonObject saleInfo = item.getAsJsonObject("saleInfo");
+        if (saleInfo != null) {
+            if (saleInfo.has("buyLink")) {
+                buyLink = saleInfo.get("buyLink").getAsString();
+            }
+            JsonObject retailPrice = saleInfo.getAsJsonObject("retailPrice");
+            if (retailPrice != null) {
+                priceMicros = Math.round(retailPrice.get("amount").getAsDouble() * 1000000);
+                currency = retailPrice.get("currencyCode").getAsString();
+            }
+        }
+        return new Book(volumeId, title, author, imageUrl, buyLink,
+                priceMicros, currency, language, publishedDate, categories, rating, isbn);
+    }
+
+    /**
+     * Broken responses, the cost of failing (or skipping the bad items) matters as well.
+     */
+    @State(Scope.Benchmark)
+    public static class MalformedResponse {
+
+        @Param({"TRUNCATED", "MISSING_FIELDS", "WRONG_TYPES", "NO_ITEMS"})
+        public ResponseCorpus.Malformed kind;
+
+        byte[] mResponse;
+
+        @Setup
+        public void setUp()
+        {
+            mResponse = ResponseCorpus.malformed(kind);
+        }
+    }
+
+    @Benchmark
+    public Object parseMalformed(MalformedResponse response) {
+        try {
+            return BookJsonParser.parse(new ByteArrayInputStream(response.mResponse));
+        } catch (IOException | IllegalStateException e) {
+            return e;
+        }
+    }
+}
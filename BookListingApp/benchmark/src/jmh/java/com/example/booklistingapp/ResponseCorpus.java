@@ -0,0 +1,112 @@
+package com.example.booklistingapp;
+
+import com.google.gson.JsonElement;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Google Books volumes responses for the benchmarks, of the {@link GeneratedVolume}s the tests
+ * of :core use as well: a full volume resource per item, or only the projected fields the app
+ * asks for with {@code fields=}. They are generated from a fixed seed, so every run measures
+ * the same bytes. The same goes for the lists of parsed books, see {@link #books}.
+ */
+public final class ResponseCorpus {
+
+    /**
+     * Ways a response can be broken.
+     */
+    public enum Malformed {
+        // The connection dropped in the middle of the body
+        TRUNCATED,
+        // Items without a volume id, cover or buy link
+        MISSING_FIELDS,
+        // Fields with another JSON type than expected, e.g. "authors" as a string
+        WRONG_TYPES,
+        // A search without results, there is no "items" array at all
+        NO_ITEMS
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ResponseCorpus()
+    {
+
+    }
+
+    /**
+     * A response with the given number of items, as full volume resources or projected.
+     */
+    static byte[] response(int items, boolean projected)
+    {
+        return response(items, projected, items * 31L + (projected ? 1 : 0));
+    }
+
+    /**
+     * Another response of the same size for every seed, e.g. the next pages of a search.
+     */
+    static byte[] response(int items, boolean projected, long seed)
+    {
+        List<GeneratedVolume> volumes = new ArrayList<GeneratedVolume>(items);
+        for (int i = 0; i < items; i++) {
+            volumes.add(new GeneratedVolume(seed * 1000003L + i));
+        }
+        JsonElement response = GeneratedVolume.response(volumes, items * 25);
+        if (projected) {
+            response = FieldMask.parse(BooksApi.BOOK_FIELDS).apply(response);
+        }
+        return response.toString().getBytes(UTF_8);
+    }
+
+    static byte[] malformed(Malformed kind)
+    {
+        Random random = new Random(kind.ordinal());
+        switch (kind) {
+            case TRUNCATED: {
+                byte[] full = response(20, false);
+                byte[] truncated = new byte[full.length * 2 / 3];
+                System.arraycopy(full, 0, truncated, 0, truncated.length);
+                return truncated;
+            }
+            case MISSING_FIELDS: {
+                String json = new String(response(20, false), UTF_8);
+                json = json.replace("\"buyLink\"", "\"noBuyLink\"").replace("\"imageLinks\"", "\"noImageLinks\"");
+                return json.getBytes(UTF_8);
+            }
+            case WRONG_TYPES: {
+                StringBuilder json = new StringBuilder();
+                json.append("{\"kind\":\"books#volumes\",\"totalItems\":\"many\",\"items\":[");
+                for (int i = 0; i < 20; i++) {
+                    if (i > 0) {
+                        json.append(',');
+                    }
+                    json.append("{\"id\":").append(random.nextInt(100000))
+                            .append(",\"volumeInfo\":{\"title\":[\"").append(GeneratedVolume.words(random, 3))
+                            .append("\"],\"authors\":\"").append(GeneratedVolume.NAMES[random.nextInt(GeneratedVolume.NAMES.length)])
+                            .append("\",\"imageLinks\":[]},\"saleInfo\":\"FOR_SALE\"}");
+                }
+                json.append("]}");
+                return json.toString().getBytes(UTF_8);
+            }
+            default:
+                return "{\"kind\":\"books#volumes\",\"totalItems\":0}".getBytes(UTF_8);
+        }
+    }
+
+    /**
+     * Books with every detail filled in as the parser would, for the benchmarks of {@link BookIndex}
+     * and {@link BookCodec}: the parsed projected response. Some have no price or rating.
+     */
+    static List<Book> books(int count, long seed)
+    {
+        try {
+            return new ArrayList<Book>(BookJsonParser.parse(new ByteArrayInputStream(response(count, true, seed))));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
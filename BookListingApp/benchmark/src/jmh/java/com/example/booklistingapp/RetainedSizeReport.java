@@ -0,0 +1,77 @@
+package com.example.booklistingapp;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Heap retained by 1,000 cached books, as a list of {@link Book} objects and as
+ * {@link BookResultSet}s of 40 books each. Not a JMH benchmark: JMH measures allocation,
+ * this measures what stays reachable. Run with {@code ./gradlew :benchmark:retainedSize}.
+ */
+public final class RetainedSizeReport {
+
+    private static final int BOOKS = 1000;
+    private static final int PAGE_SIZE = 40;
+
+    private RetainedSizeReport()
+    {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<byte[]> responses = new ArrayList<byte[]>();
+        for (int page = 0; page < BOOKS / PAGE_SIZE; page++) {
+            responses.add(ResponseCorpus.response(PAGE_SIZE, true, page));
+        }
+
+        long before = usedMemory();
+        final List<Book> books = new ArrayList<Book>(BOOKS);
+        for (byte[] response : responses) {
+            BookJsonParser.parse(new ByteArrayInputStream(response), new BookJsonParser.OnBookParsedListener() {
+                @Override
+                public void onBookParsed(Book book) {
+                    books.add(book);
+                }
+            });
+        }
+        long bookBytes = usedMemory() - before;
+
+        before = usedMemory();
+        List<BookResultSet> resultSets = new ArrayList<BookResultSet>();
+        for (byte[] response : responses) {
+            resultSets.add(BookJsonParser.parse(new ByteArrayInputStream(response)));
+        }
+        long resultSetBytes = usedMemory() - before;
+
+        int estimated = BookResultSet.estimatedDictionaryBytes();
+        for (BookResultSet resultSet : resultSets) {
+            estimated += resultSet.estimatedRetainedBytes();
+        }
+
+        System.out.println("Retained by " + books.size() + " books:");
+        System.out.println("  List<Book>      " + bookBytes + " B");
+        System.out.println("  BookResultSet   " + resultSetBytes + " B (estimated " + estimated + " B)");
+        System.out.println("  ratio           " + String.format("%.1fx", (double) bookBytes / resultSetBytes));
+
+        // Keep both alive until they have been measured
+        if (books.isEmpty() || resultSets.isEmpty()) {
+            throw new IllegalStateException("No books parsed");
+        }
+    }
+
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
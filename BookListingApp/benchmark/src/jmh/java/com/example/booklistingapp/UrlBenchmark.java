@@ -0,0 +1,64 @@
+package com.example.booklistingapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a search into its canonical {@link BookQuery}, building the request URL from it,
+ * reading the query back from the URL, and rewriting thumbnail links into cover URLs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class UrlBenchmark {
+
+    // Page size of the app's list, BookPager itself lives in the Android module
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"android", "  The Lord   of the RINGS  ", "harry potter and the half blood prince illustrated edition",
+            "intitle:\"caf\u00e9 & cr\u00e8me\" inauthor:o'brien isbn:978-0-14-044913-6 #1 c++"})
+    public String query;
+
+    private final String mThumbnailUrl = "http://books.google.com/books/content?id=zyTCAlFPjgYC"
+            + "&printsec=frontcover&img=1&zoom=5&edge=curl&source=gbs_api";
+
+    private BookQuery mBookQuery;
+    private String mQueryUrl;
+
+    @Setup
+    public void setUp() {
+        mBookQuery = BookQuery.parse(query).buildUpon()
+                .setFilter(BookQuery.Filter.PAID_EBOOKS)
+                .setPage(40, PAGE_SIZE)
+                .build();
+        mQueryUrl = BooksApi.buildQueryUrl(mBookQuery);
+    }
+
+    @Benchmark
+    public BookQuery parseQuery() {
+        return BookQuery.parse(query);
+    }
+
+    @Benchmark
+    public String buildQueryUrl() {
+        return BooksApi.buildQueryUrl(mBookQuery.withPage(60, PAGE_SIZE));
+    }
+
+    @Benchmark
+    public BookQuery parseQueryUrl() {
+        return BooksApi.parseQueryUrl(mQueryUrl);
+    }
+
+    @Benchmark
+    public String toCoverUrl() {
+        return BookJsonParser.toCoverUrl(mThumbnailUrl);
+    }
+}
@@ -0,0 +1,53 @@
+#!/bin/sh
+# Cold start benchmark of the installed app on the connected device, e.g.
+#   ./gradlew :app:installBenchmark && benchmark/startup.sh 20 profile
+# The second argument is the compilation of the app, like Macrobenchmark's CompilationMode:
+#   none    - everything interpreted/JIT, the first start after an install without a profile
+#   profile - the methods of the app's profile compiled ahead of time (the default): what the
+#             runtime collected in earlier runs, the app ships no baseline profile
+#   full    - everything compiled ahead of time, the best case
+# Every run force-stops the app, so the process starts from scratch, and starts
+# MainActivity. It reports the time until the first frame ("TotalTime" of am start -W) and
+# until the first rows, which MainActivity reports with reportFullyDrawn() ("Fully drawn" in
+# the log). Run one search in the app first, so the starts restore it from disk.
+set -e
+
+RUNS=${1:-10}
+MODE=${2:-profile}
+PACKAGE=com.example.booklistingapp
+ACTIVITY=$PACKAGE/.MainActivity
+
+case "$MODE" in
+    none) adb shell cmd package compile --reset "$PACKAGE" ;;
+    profile) adb shell cmd package compile -f -m speed-profile "$PACKAGE" ;;
+    full) adb shell cmd package compile -f -m speed "$PACKAGE" ;;
+    *) echo "unknown compilation mode: $MODE" >&2; exit 1 ;;
+esac
+echo "compilation: $MODE"
+
+first_frame=""
+fully_drawn=""
+i=0
+while [ "$i" -lt "$RUNS" ]; do
+    adb shell am force-stop "$PACKAGE"
+    adb logcat -c
+    sleep 1
+    total=$(adb shell am start -S -W -n "$ACTIVITY" | tr -d '\r' | sed -n 's/^TotalTime: //p')
+    # The rows arrive after the first frame, give them time to be drawn
+    sleep 3
+    drawn=$(adb logcat -d -s ActivityTaskManager:I ActivityManager:I | tr -d '\r' \
+        | sed -n "s/.*Fully drawn $ACTIVITY: +\(.*\)ms.*/\1/p" | tail -1 \
+        | awk -F 's' '{ if (NF > 1) print $1 * 1000 + $2; else print $1 }')
+    echo "run $((i + 1)): first frame ${total} ms, first rows ${drawn:-?} ms"
+    first_frame="$first_frame $total"
+    fully_drawn="$fully_drawn $drawn"
+    i=$((i + 1))
+done
+
+summary() {
+    echo "$2" | tr ' ' '\n' | grep -v '^$' | sort -n | awk -v name="$1" '
+        { v[NR] = $1 }
+        END { if (NR) printf "%s: median %d ms, p90 %d ms, n=%d\n", name, v[int((NR + 1) / 2)], v[int(NR * 0.9 + 0.5)], NR }'
+}
+summary "first frame" "$first_frame"
+summary "first rows" "$fully_drawn"
@@ -0,0 +1,221 @@
+package com.example.booklistingapp;
+
+import java.util.Collections;
+import java.util.List;
+
+public class Book {
+
+    // Price of a book that is not for sale, or whose price the source does not give
+    public static final long NO_PRICE = -1;
+    // Published date of a book without one
+    public static final int NO_DATE = 0;
+
+    private final String mVolumeId;
+    private final String mTitle;
+    private final String mAuthor;
+    private final String mUrlImage;
+    private final String mUrlBook;
+    private final long mPriceMicros;
+    private final String mCurrency;
+    private final String mLanguage;
+    private final int mPublishedDate;
+    private final List<String> mCategories;
+    private final float mRating;
+    private final String mIsbn;
+
+    /**
+     * A book without details, only what a row of the list shows.
+     */
+    public Book(String volumeId, String title, String author, String urlImage, String urlBook)
+    {
+        this(volumeId, title, author, urlImage, urlBook, NO_PRICE, "", "", NO_DATE,
+                Collections.<String>emptyList(), 0, "");
+    }
+
+    /**
+     * @param priceMicros   the price in millionths of the currency unit, or {@link #NO_PRICE}
+     * @param currency      ISO 4217 code of the price, empty without one
+     * @param language      ISO 639-1 code, empty if not known
+     * @param publishedDate see {@link #getPublishedDate()}
+     * @param rating        average rating from 1 to 5, 0 if not rated
+     * @param isbn          canonical ISBN-13 (see {@link Isbn}), empty if not known
+     */
+    public Book(String volumeId, String title, String author, String urlImage, String urlBook,
+                long priceMicros, String currency, String language, int publishedDate,
+                List<String> categories, float rating, String isbn)
+    {
+        mVolumeId = volumeId;
+        mTitle = title;
+        mAuthor = author;
+        mUrlImage = urlImage;
+        mUrlBook = urlBook;
+        mPriceMicros = priceMicros;
+        mCurrency = currency;
+        mLanguage = language;
+        mPublishedDate = publishedDate;
+        mCategories = categories;
+        mRating = rating;
+        mIsbn = isbn;
+    }
+
+    public String getVolumeId()
+    {
+        return mVolumeId;
+    }
+
+    public String getTitle()
+    {
+        return mTitle;
+    }
+
+    public String getAuthor()
+    {
+        return mAuthor;
+    }
+
+    public String getUrlImage()
+    {
+        return mUrlImage;
+    }
+
+    public String getUrlBook()
+    {
+        return mUrlBook;
+    }
+
+    public boolean hasPrice()
+    {
+        return mPriceMicros != NO_PRICE;
+    }
+
+    public long getPriceMicros()
+    {
+        return mPriceMicros;
+    }
+
+    public String getCurrency()
+    {
+        return mCurrency;
+    }
+
+    public String getLanguage()
+    {
+        return mLanguage;
+    }
+
+    /**
+     * The published date as the number yyyymmdd, month and day are 00 if only the year
+     * (or year and month) is known. {@link #NO_DATE} if there is none. Sorts like the date.
+     */
+    public int getPublishedDate()
+    {
+        return mPublishedDate;
+    }
+
+    /**
+     * The categories or subjects, unmodifiable, empty if there are none.
+     */
+    public List<String> getCategories()
+    {
+        return mCategories;
+    }
+
+    public float getRating()
+    {
+        return mRating;
+    }
+
+    public String getIsbn()
+    {
+        return mIsbn;
+    }
+
+    /**
+     * Estimated heap size of the book and its strings. Strings it shares with other books,
+     * such as the currency, are counted for each of them.
+     */
+    public int estimatedRetainedBytes()
+    {
+        // The object, then its strings and the list of categories
+        int size = 64 + stringBytes(mVolumeId) + stringBytes(mTitle) + stringBytes(mAuthor)
+                + stringBytes(mUrlImage) + stringBytes(mUrlBook) + stringBytes(mCurrency)
+                + stringBytes(mLanguage) + stringBytes(mIsbn);
+        size += 16 + 4 * mCategories.size();
+        for (String category : mCategories) {
+            size += stringBytes(category);
+        }
+        return size;
+    }
+
+    private static int stringBytes(String text)
+    {
+        return text == null ? 0 : 40 + 2 * text.length();
+    }
+
+    /**
+     * Turn a date as the APIs give it ("2004", "2004-05" or "2004-05-12", possibly followed
+     * by a time) into the number of {@link #getPublishedDate()}. {@link #NO_DATE} if it is not a date.
+     */
+    public static int parseDate(String text)
+    {
+        int length = text.length();
+        if (length < 4) {
+            return NO_DATE;
+        }
+        int year = digits(text, 0, 4);
+        int month = length >= 7 && text.charAt(4) == '-' ? digits(text, 5, 7) : 0;
+        int day = month > 0 && length >= 10 && text.charAt(7) == '-' ? digits(text, 8, 10) : 0;
+        if (year <= 0 || month < 0 || month > 12 || day < 0 || day > 31) {
+            return NO_DATE;
+        }
+        return year * 10000 + month * 100 + day;
+    }
+
+    // The number in text[start, end), -1 if it is not all digits
+    private static int digits(String text, int start, int end)
+    {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    /**
+     * Books are equal when they show the same content, used to find the rows that changed.
+     */
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Book)) {
+            return false;
+        }
+        Book other = (Book) o;
+        return mVolumeId.equals(other.mVolumeId)
+                && mTitle.equals(other.mTitle)
+                && mAuthor.equals(other.mAuthor)
+                && mUrlImage.equals(other.mUrlImage)
+                && mUrlBook.equals(other.mUrlBook)
+                && mPriceMicros == other.mPriceMicros
+                && mCurrency.equals(other.mCurrency)
+                && mLanguage.equals(other.mLanguage)
+                && mPublishedDate == other.mPublishedDate
+                && mCategories.equals(other.mCategories)
+                && mRating == other.mRating
+                && mIsbn.equals(other.mIsbn);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return mVolumeId.hashCode();
+    }
+
+}
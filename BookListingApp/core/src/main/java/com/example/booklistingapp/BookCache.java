@@ -0,0 +1,328 @@
+package com.example.booklistingapp;
+
+import androidx.collection.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Two-tier cache of parsed search results.
+ * The first tier is an in-memory LRU of {@link Book} lists sized by the app's memory budget, the second
+ * tier is a directory of results in the app's cache dir, encoded with {@link BookCodec}. Entries are keyed by the request URL,
+ * which is built from the canonical {@link BookQuery} (see {@link BooksApi#buildQueryUrl(BookQuery)}),
+ * so different spellings of the same search share one entry.
+ * <p>
+ * The author names and terms that the cached {@link BookResultSet}s share count against the
+ * budget of the memory tier as well. When they take more than half of it, new results start a new
+ * dictionary and the memory tier is emptied, so the old dictionary is freed with its entries.
+ * <p>
+ * The memory tier is thread-safe on its own, so memory hits and budget changes never wait
+ * for a file. Reads and writes of the disk tier, and the memory updates that go with them,
+ * are serialized by a lock of their own.
+ */
+public final class BookCache implements Trimmable {
+
+    private static final String LOG_TAG = "BookCache";
+    private static final Logger LOG = Logger.getLogger(LOG_TAG);
+
+    // How long an entry is served without asking the server
+    private static final long TTL_MILLIS = 10 * 60 * 1000;
+
+    // Until a MemoryBudget sets another
+    private static final int MEMORY_BUDGET_BYTES = 512 * 1024;
+    private static final long DISK_BUDGET_BYTES = 4 * 1024 * 1024;
+
+    private static final String DISK_DIR_NAME = "book_results";
+    private static final int DISK_FORMAT_VERSION = 6;
+
+    private final LruCache<String, Entry> mMemoryCache;
+    private volatile long mBudgetBytes = MEMORY_BUDGET_BYTES;
+    private final File mDiskDir;
+    // Held for every file access, so a disk read cannot bring back an entry that was just replaced
+    private final Object mDiskLock = new Object();
+
+    private static final Metrics.Counter sMemoryHits = Metrics.counter("bookcache.memory.hits");
+    private static final Metrics.Counter sDiskHits = Metrics.counter("bookcache.disk.hits");
+    private static final Metrics.Counter sMisses = Metrics.counter("bookcache.misses");
+    private static final Metrics.Counter sRevalidations = Metrics.counter("bookcache.revalidations");
+
+    static {
+        Metrics.ratio("bookcache.memory.hitRatio", sMemoryHits, sMemoryHits, sDiskHits, sMisses);
+        Metrics.ratio("bookcache.disk.hitRatio", sDiskHits, sMemoryHits, sDiskHits, sMisses);
+    }
+
+    /**
+     * Cached result of a single request together with its HTTP validators.
+     */
+    public static final class Entry {
+
+        private final BookResultSet mBooks;
+        private final long mFetchedAt;
+        private final String mETag;
+        private final String mLastModified;
+        private final int mByteSize;
+
+        Entry(List<Book> books, long fetchedAt, String eTag, String lastModified)
+        {
+            // Kept in columnar form, several times smaller than a list of Book objects
+            mBooks = BookResultSet.of(books);
+            mFetchedAt = fetchedAt;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mByteSize = mBooks.estimatedRetainedBytes();
+        }
+
+        public List<Book> getBooks()
+        {
+            return mBooks;
+        }
+
+        public String getETag()
+        {
+            return mETag;
+        }
+
+        public String getLastModified()
+        {
+            return mLastModified;
+        }
+
+        public boolean isFresh()
+        {
+            return System.currentTimeMillis() - mFetchedAt < TTL_MILLIS;
+        }
+
+        // An expired entry is still useful if the server can confirm it has not changed
+        public boolean canRevalidate()
+        {
+            return mETag != null || mLastModified != null;
+        }
+    }
+
+    /**
+     * A cache that keeps its second tier in the given directory. The app shares one instance,
+     * tests make their own.
+     */
+    public BookCache(File cacheDir)
+    {
+        mMemoryCache = new LruCache<String, Entry>(MEMORY_BUDGET_BYTES) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.mByteSize;
+            }
+        };
+        mDiskDir = new File(cacheDir, DISK_DIR_NAME);
+    }
+
+    /**
+     * Bytes of the memory tier and of the dictionary its entries share. The disk tier is not counted,
+     * it is what the memory tier falls back to.
+     */
+    @Override
+    public long getRetainedBytes() {
+        return mMemoryCache.size() + BookResultSet.estimatedDictionaryBytes();
+    }
+
+    @Override
+    public void setBudget(long maxBytes) {
+        mBudgetBytes = maxBytes;
+        fitBudget();
+    }
+
+    /**
+     * Return the cached entry for the key, fresh or not, or null if there is none.
+     */
+    public Entry get(String key)
+    {
+        Entry entry = mMemoryCache.get(key);
+        if (entry != null) {
+            sMemoryHits.increment();
+            return entry;
+        }
+
+        synchronized (mDiskLock) {
+            // Another thread may have read or stored it while we waited
+            entry = mMemoryCache.get(key);
+            if (entry != null) {
+                sMemoryHits.increment();
+                return entry;
+            }
+            entry = readFromDisk(key);
+            if (entry != null) {
+                sDiskHits.increment();
+                mMemoryCache.put(key, entry);
+                fitBudget();
+                return entry;
+            }
+        }
+
+        sMisses.increment();
+        return null;
+    }
+
+    /**
+     * Store a freshly downloaded result in both tiers. Returns the new entry, which the memory
+     * tier may already have dropped again when its budget is small.
+     */
+    public Entry put(String key, List<Book> books, String eTag, String lastModified)
+    {
+        Entry entry = new Entry(books, System.currentTimeMillis(), eTag, lastModified);
+        synchronized (mDiskLock) {
+            mMemoryCache.put(key, entry);
+            writeToDisk(key, entry);
+        }
+        fitBudget();
+        return entry;
+    }
+
+    /**
+     * Size the memory tier to what the budget leaves next to the dictionary, or start a new
+     * dictionary if it takes more than half of the budget. Results parsed since the last call
+     * may have added to it.
+     */
+    private void fitBudget()
+    {
+        long budget = mBudgetBytes;
+        long dictionaryBytes = BookResultSet.estimatedDictionaryBytes();
+        if (dictionaryBytes > budget / 2) {
+            BookResultSet.startNewDictionary();
+            // The entries are what keeps the old dictionary alive, they are read back from disk
+            mMemoryCache.evictAll();
+            dictionaryBytes = 0;
+        }
+        // Evicts the least recently used entries that no longer fit
+        mMemoryCache.resize((int) Math.max(1, Math.min(budget - dictionaryBytes, Integer.MAX_VALUE)));
+    }
+
+    /**
+     * The server answered 304 Not Modified, so the entry starts a new TTL period.
+     */
+    public Entry revalidate(String key, Entry entry)
+    {
+        sRevalidations.increment();
+        return put(key, entry.mBooks, entry.mETag, entry.mLastModified);
+    }
+
+    private File fileForKey(String key)
+    {
+        return new File(mDiskDir, Integer.toHexString(key.hashCode()) + ".bin");
+    }
+
+    private Entry readFromDisk(String key)
+    {
+        File file = fileForKey(key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (input.readInt() != DISK_FORMAT_VERSION || !key.equals(input.readUTF())) {
+                // Old format or a hash collision with another query
+                return null;
+            }
+            long fetchedAt = input.readLong();
+            String eTag = input.readBoolean() ? input.readUTF() : null;
+            String lastModified = input.readBoolean() ? input.readUTF() : null;
+            byte[] books = new byte[input.readInt()];
+            input.readFully(books);
+            // Mark the file as recently used for the disk LRU
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(BookCodec.decode(books), fetchedAt, eTag, lastModified);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Problem reading cached results.", e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    private void writeToDisk(String key, Entry entry)
+    {
+        if (!mDiskDir.exists() && !mDiskDir.mkdirs()) {
+            return;
+        }
+
+        File file = fileForKey(key);
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            output.writeInt(DISK_FORMAT_VERSION);
+            output.writeUTF(key);
+            output.writeLong(entry.mFetchedAt);
+            writeOptional(output, entry.mETag);
+            writeOptional(output, entry.mLastModified);
+            byte[] books = BookCodec.encode(entry.mBooks);
+            output.writeInt(books.length);
+            output.write(books);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Problem writing cached results.", e);
+            file.delete();
+        } finally {
+            closeQuietly(output);
+        }
+
+        trimDisk();
+    }
+
+    // Drop least recently used files until the directory fits the disk budget
+    private void trimDisk()
+    {
+        File[] files = mDiskDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= DISK_BUDGET_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (int i = 0; i < files.length && total > DISK_BUDGET_BYTES; i++) {
+            total -= files[i].length();
+            files[i].delete();
+        }
+    }
+
+    private static void writeOptional(DataOutputStream output, String value) throws IOException
+    {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable)
+    {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // Nothing useful can be done here
+            }
+        }
+    }
+}
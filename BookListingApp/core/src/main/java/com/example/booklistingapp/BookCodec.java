@@ -0,0 +1,364 @@
+package com.example.booklistingapp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compact, versioned binary form of a list of books, for the disk caches, the saved instance
+ * state and handing results from one component to another. It is written from and read into
+ * the columns of a {@link BookResultSet}, without building {@link Book}s in between.
+ * <p>
+ * All numbers are unsigned varints (7 bits a byte, low bits first), strings are a varint byte
+ * length and UTF-8. Authors, currencies, languages and categories repeat, they are written once
+ * and then referred to by their index in a string table that grows as the books are read.
+ * Cover and buy URLs are left out when they can be rebuilt from the volume id.
+ * <pre>
+ * list:   version count skipped book*
+ * book:   id title author flags [imageUrl] [bookUrl] [price] currency language [date]
+ *         categoryCount category* [rating] [isbn]
+ * shared: 0 string (added to the table) | index + 1
+ * </pre>
+ * The rating is the four bytes of the float, big endian.
+ */
+public final class BookCodec {
+
+    // Incremented with every change of the format, a list of another version is not read
+    static final int VERSION = 1;
+
+    private static final int FLAG_IMAGE_URL = 1;
+    private static final int FLAG_BOOK_URL = 1 << 1;
+    private static final int FLAG_PRICE = 1 << 2;
+    private static final int FLAG_DATE = 1 << 3;
+    private static final int FLAG_RATING = 1 << 4;
+    private static final int FLAG_ISBN = 1 << 5;
+
+    private BookCodec()
+    {
+
+    }
+
+    /**
+     * Encode the books, a {@link BookResultSet} is read as it is, other lists are turned into one first.
+     */
+    public static byte[] encode(List<Book> books)
+    {
+        BookResultSet resultSet = BookResultSet.of(books);
+        int size = resultSet.size();
+        // About what an average book takes, most of it the title
+        Writer writer = new Writer(16 + 64 * size);
+        writer.writeVarint(VERSION);
+        writer.writeVarint(size);
+        writer.writeVarint(resultSet.getSkippedCount());
+        for (int i = 0; i < size; i++) {
+            String imageUrl = resultSet.getImageUrlOverride(i);
+            String bookUrl = resultSet.getBookUrlOverride(i);
+            long priceMicros = resultSet.getPriceMicros(i);
+            int publishedDate = resultSet.getPublishedDate(i);
+            float rating = resultSet.getRating(i);
+            long isbn = resultSet.getIsbnNumber(i);
+            int flags = (imageUrl != null ? FLAG_IMAGE_URL : 0)
+                    | (bookUrl != null ? FLAG_BOOK_URL : 0)
+                    | (priceMicros != Book.NO_PRICE ? FLAG_PRICE : 0)
+                    | (publishedDate != Book.NO_DATE ? FLAG_DATE : 0)
+                    | (rating != 0 ? FLAG_RATING : 0)
+                    | (isbn != 0 ? FLAG_ISBN : 0);
+
+            writer.writeString(resultSet.getVolumeId(i));
+            writer.writeString(resultSet.getTitle(i));
+            writer.writeShared(resultSet.getAuthor(i));
+            writer.writeVarint(flags);
+            if (imageUrl != null) {
+                writer.writeString(imageUrl);
+            }
+            if (bookUrl != null) {
+                writer.writeString(bookUrl);
+            }
+            if (priceMicros != Book.NO_PRICE) {
+                writer.writeVarint(priceMicros);
+            }
+            writer.writeShared(resultSet.getCurrency(i));
+            writer.writeShared(resultSet.getLanguage(i));
+            if (publishedDate != Book.NO_DATE) {
+                writer.writeVarint(publishedDate);
+            }
+            int categoryCount = resultSet.getCategoryCount(i);
+            writer.writeVarint(categoryCount);
+            for (int category = 0; category < categoryCount; category++) {
+                writer.writeShared(resultSet.getCategory(i, category));
+            }
+            if (rating != 0) {
+                writer.writeInt(Float.floatToIntBits(rating));
+            }
+            if (isbn != 0) {
+                writer.writeVarint(isbn);
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    public static BookResultSet decode(byte[] bytes) throws IOException
+    {
+        return decode(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Decode the books encoded in the range of the array.
+     *
+     * @throws IOException if the bytes are of another version, cut off or broken
+     */
+    public static BookResultSet decode(byte[] bytes, int offset, int length) throws IOException
+    {
+        Reader reader = new Reader(bytes, offset, offset + length);
+        int version = reader.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported book list version " + version);
+        }
+        int size = reader.readInt();
+        int skipped = reader.readInt();
+        // A broken count must not allocate more than the bytes could hold
+        BookResultSet.Builder books = new BookResultSet.Builder(Math.min(size, length / 4));
+        books.setSkippedCount(skipped);
+        // The builder interns the categories, the list is reused for every book
+        List<String> categories = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            String volumeId = reader.readString();
+            String title = reader.readString();
+            String author = reader.readShared();
+            int flags = reader.readInt();
+            String imageUrl = (flags & FLAG_IMAGE_URL) != 0 ? reader.readString() : null;
+            String bookUrl = (flags & FLAG_BOOK_URL) != 0 ? reader.readString() : null;
+            long priceMicros = (flags & FLAG_PRICE) != 0 ? reader.readLong() : Book.NO_PRICE;
+            String currency = reader.readShared();
+            String language = reader.readShared();
+            int publishedDate = (flags & FLAG_DATE) != 0 ? reader.readInt() : Book.NO_DATE;
+            int categoryCount = reader.readInt();
+            categories.clear();
+            for (int category = 0; category < categoryCount; category++) {
+                categories.add(reader.readShared());
+            }
+            float rating = (flags & FLAG_RATING) != 0 ? Float.intBitsToFloat(reader.readFixedInt()) : 0;
+            long isbn = (flags & FLAG_ISBN) != 0 ? reader.readLong() : 0;
+            books.addRow(volumeId, title, author, imageUrl, bookUrl, priceMicros, currency, language,
+                    publishedDate, categories, rating, isbn);
+        }
+        return books.build();
+    }
+
+    /**
+     * Appends to a growing byte array.
+     */
+    private static final class Writer {
+
+        private byte[] mBuffer;
+        private int mLength;
+        private final HashMap<String, Integer> mTable = new HashMap<String, Integer>();
+
+        Writer(int capacity)
+        {
+            mBuffer = new byte[capacity];
+        }
+
+        void writeVarint(long value)
+        {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                mBuffer[mLength++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mBuffer[mLength++] = (byte) value;
+        }
+
+        void writeInt(int value)
+        {
+            ensure(4);
+            mBuffer[mLength++] = (byte) (value >>> 24);
+            mBuffer[mLength++] = (byte) (value >>> 16);
+            mBuffer[mLength++] = (byte) (value >>> 8);
+            mBuffer[mLength++] = (byte) value;
+        }
+
+        void writeShared(String value)
+        {
+            Integer index = mTable.get(value);
+            if (index != null) {
+                writeVarint(index + 1);
+            } else {
+                mTable.put(value, mTable.size());
+                writeVarint(0);
+                writeString(value);
+            }
+        }
+
+        // UTF-8 straight into the buffer, without a byte array per string
+        void writeString(String value)
+        {
+            int length = value.length();
+            int byteLength = 0;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    byteLength++;
+                } else if (c < 0x800) {
+                    byteLength += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    byteLength += 4;
+                    i++;
+                } else {
+                    byteLength += 3;
+                }
+            }
+            writeVarint(byteLength);
+            ensure(byteLength);
+            byte[] buffer = mBuffer;
+            int position = mLength;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    // A lone surrogate is written as is, the string is read back the same
+                    buffer[position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            mLength = position;
+        }
+
+        byte[] toByteArray()
+        {
+            return Arrays.copyOf(mBuffer, mLength);
+        }
+
+        private void ensure(int count)
+        {
+            if (mLength + count > mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, Math.max(mLength + count, mBuffer.length * 2));
+            }
+        }
+    }
+
+    /**
+     * Reads from a range of a byte array, every read checks the end of the range.
+     */
+    private static final class Reader {
+
+        private final byte[] mBuffer;
+        private int mPosition;
+        private final int mEnd;
+        private final ArrayList<String> mTable = new ArrayList<String>();
+        // Decoded characters of the current string, grows to the longest one
+        private char[] mChars = new char[64];
+
+        Reader(byte[] buffer, int start, int end)
+        {
+            mBuffer = buffer;
+            mPosition = start;
+            mEnd = end;
+        }
+
+        long readLong() throws IOException
+        {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (mPosition == mEnd) {
+                    throw new EOFException();
+                }
+                byte b = mBuffer[mPosition++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        int readInt() throws IOException
+        {
+            long value = readLong();
+            // A ten byte varint is negative, as a length it would move back
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IOException("Malformed length " + value);
+            }
+            return (int) value;
+        }
+
+        int readFixedInt() throws IOException
+        {
+            if (mEnd - mPosition < 4) {
+                throw new EOFException();
+            }
+            byte[] buffer = mBuffer;
+            int value = (buffer[mPosition] & 0xFF) << 24 | (buffer[mPosition + 1] & 0xFF) << 16
+                    | (buffer[mPosition + 2] & 0xFF) << 8 | (buffer[mPosition + 3] & 0xFF);
+            mPosition += 4;
+            return value;
+        }
+
+        String readShared() throws IOException
+        {
+            int index = readInt();
+            if (index == 0) {
+                String value = readString();
+                mTable.add(value);
+                return value;
+            }
+            if (index > mTable.size()) {
+                throw new IOException("Malformed string reference " + index);
+            }
+            return mTable.get(index - 1);
+        }
+
+        String readString() throws IOException
+        {
+            int byteLength = readInt();
+            if (byteLength > mEnd - mPosition) {
+                throw new EOFException();
+            }
+            if (byteLength > mChars.length) {
+                mChars = new char[Math.max(byteLength, mChars.length * 2)];
+            }
+            byte[] buffer = mBuffer;
+            char[] chars = mChars;
+            int position = mPosition;
+            int end = position + byteLength;
+            int count = 0;
+            while (position < end) {
+                int b = buffer[position++];
+                if (b >= 0) {
+                    chars[count++] = (char) b;
+                } else if ((b & 0xE0) == 0xC0 && position < end) {
+                    chars[count++] = (char) ((b & 0x1F) << 6 | (buffer[position++] & 0x3F));
+                } else if ((b & 0xF0) == 0xE0 && position + 1 < end) {
+                    chars[count++] = (char) ((b & 0x0F) << 12 | (buffer[position] & 0x3F) << 6
+                            | (buffer[position + 1] & 0x3F));
+                    position += 2;
+                } else if ((b & 0xF8) == 0xF0 && position + 2 < end) {
+                    int codePoint = (b & 0x07) << 18 | (buffer[position] & 0x3F) << 12
+                            | (buffer[position + 1] & 0x3F) << 6 | (buffer[position + 2] & 0x3F);
+                    position += 3;
+                    // Character.highSurrogate() and lowSurrogate() need API 19
+                    chars[count++] = (char) (0xD800 + ((codePoint - 0x10000) >>> 10));
+                    chars[count++] = (char) (0xDC00 + (codePoint & 0x3FF));
+                } else {
+                    throw new IOException("Malformed UTF-8");
+                }
+            }
+            mPosition = end;
+            return new String(chars, 0, count);
+        }
+    }
+}
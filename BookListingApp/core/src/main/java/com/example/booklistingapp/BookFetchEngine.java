@@ -0,0 +1,277 @@
+package com.example.booklistingapp;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs book fetches, searches of a {@link BookSource} for one page, on a bounded pool of worker threads.
+ * Waiting fetches are ordered by {@link Priority}, so the page the user is looking at
+ * overtakes prefetches of neighbouring pages. Every fetch gets a {@link CancellationToken};
+ * cancelling it removes a waiting fetch from the queue or aborts a running one. When
+ * {@code maxQueued} fetches are waiting, new prefetches are rejected and a visible
+ * fetch pushes out the newest waiting prefetch. Visible fetches are never rejected, the
+ * user is waiting for them; if no prefetch is left to push out they are queued beyond the bound.
+ * Results are handed to the callback on the delivery executor (the main thread in the app,
+ * the calling thread in tests). Nothing in here depends on Android.
+ */
+public final class BookFetchEngine {
+
+    public enum Priority {
+        // Declaration order is the queue order
+        VISIBLE,
+        PREFETCH
+    }
+
+    /**
+     * Receives progress on the worker thread and the result on the delivery executor.
+     * {@link #onResult} gets null if the fetch was rejected, a failed fetch calls {@link #onFailure}
+     * instead. Neither is called once the fetch was cancelled.
+     */
+    public interface Callback extends QueryUtils.ProgressListener {
+        void onResult(List<Book> books);
+
+        void onFailure(QueryUtils.FetchException failure);
+    }
+
+    private final Executor mDeliveryExecutor;
+    private final ThreadPoolExecutor mExecutor;
+    private final PriorityBlockingQueue<Runnable> mQueue = new PriorityBlockingQueue<Runnable>();
+    private final int mMaxQueued;
+    // Makes checking the bound and queueing one step
+    private final Object mSubmitLock = new Object();
+    // Fetches a worker has taken from the queue, guarded by itself
+    private final Set<FetchTask> mRunning = new HashSet<FetchTask>();
+    private boolean mShutdown;
+
+    private final AtomicLong mSequence = new AtomicLong();
+    private final AtomicInteger mCompleted = new AtomicInteger();
+    private final AtomicInteger mCancelled = new AtomicInteger();
+    private final AtomicInteger mRejected = new AtomicInteger();
+
+    public BookFetchEngine(int threads, int maxQueued, Executor deliveryExecutor)
+    {
+        mDeliveryExecutor = deliveryExecutor;
+        mMaxQueued = maxQueued;
+        mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, mQueue, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "BookFetch-" + mCount.incrementAndGet());
+                // Below the UI thread, like the old AsyncTask pool
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue a search of the source for the page of results the query asks for.
+     * Returns the token that cancels it.
+     */
+    public CancellationToken submit(BookSource source, BookQuery query, Priority priority, Callback callback)
+    {
+        FetchTask task = new FetchTask(source, query, priority, callback, mSequence.getAndIncrement());
+
+        FetchTask rejected = null;
+        synchronized (mSubmitLock) {
+            // Workers only ever make the queue shorter, so the size cannot pass the bound in between
+            if (mQueue.size() >= mMaxQueued) {
+                if (priority == Priority.PREFETCH) {
+                    // Backpressure: prefetches are the first thing to give up
+                    rejected = task;
+                } else {
+                    FetchTask evicted = newestQueuedPrefetch();
+                    if (evicted != null && mExecutor.remove(evicted)) {
+                        rejected = evicted;
+                    }
+                }
+            }
+            if (rejected != task) {
+                mExecutor.execute(task);
+            }
+        }
+
+        // Delivered outside the lock, a callback may submit again
+        if (rejected != null) {
+            reject(rejected);
+        }
+        return task.mToken;
+    }
+
+    public int getCompletedCount()
+    {
+        return mCompleted.get();
+    }
+
+    public int getCancelledCount()
+    {
+        return mCancelled.get();
+    }
+
+    public int getRejectedCount()
+    {
+        return mRejected.get();
+    }
+
+    public int getQueuedCount()
+    {
+        return mQueue.size();
+    }
+
+    /**
+     * Stop the workers, waiting and running fetches are cancelled.
+     */
+    public void shutdown()
+    {
+        List<FetchTask> running;
+        synchronized (mRunning) {
+            mShutdown = true;
+            running = new ArrayList<FetchTask>(mRunning);
+        }
+        // Before the workers are interrupted, so a fetch that ends early on the interrupt
+        // does not deliver. Outside the lock, cancel listeners of the sources run on this thread.
+        for (FetchTask task : running) {
+            task.mToken.cancel();
+        }
+        for (Runnable runnable : mExecutor.shutdownNow()) {
+            ((FetchTask) runnable).mToken.cancel();
+        }
+    }
+
+    private FetchTask newestQueuedPrefetch()
+    {
+        FetchTask newest = null;
+        for (Runnable runnable : new ArrayList<Runnable>(mQueue)) {
+            FetchTask task = (FetchTask) runnable;
+            if (task.mPriority == Priority.PREFETCH && (newest == null || task.mSequence > newest.mSequence)) {
+                newest = task;
+            }
+        }
+        return newest;
+    }
+
+    private void reject(final FetchTask task)
+    {
+        mRejected.incrementAndGet();
+        deliver(task, null);
+    }
+
+    private void deliver(final FetchTask task, final List<Book> books)
+    {
+        mDeliveryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // The owner may have cancelled while the result was on its way
+                if (!task.mToken.isCanceled()) {
+                    task.mCallback.onResult(books);
+                }
+            }
+        });
+    }
+
+    private void deliverFailure(final FetchTask task, final QueryUtils.FetchException failure)
+    {
+        mDeliveryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!task.mToken.isCanceled()) {
+                    task.mCallback.onFailure(failure);
+                }
+            }
+        });
+    }
+
+    private final class FetchTask implements Runnable, Comparable<FetchTask> {
+
+        private final BookSource mSource;
+        private final BookQuery mQuery;
+        private final Priority mPriority;
+        private final Callback mCallback;
+        private final long mSequence;
+        private final CancellationToken mToken = new CancellationToken();
+
+        FetchTask(BookSource source, BookQuery query, Priority priority, Callback callback, long sequence)
+        {
+            mSource = source;
+            mQuery = query;
+            mPriority = priority;
+            mCallback = callback;
+            mSequence = sequence;
+
+            // A fetch that is still waiting leaves the queue as soon as it is cancelled
+            mToken.setOnCancelListener(new CancellationToken.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    if (mExecutor.remove(FetchTask.this)) {
+                        mCancelled.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            synchronized (mRunning) {
+                if (mShutdown) {
+                    // Taken from the queue just before the engine was shut down
+                    mToken.cancel();
+                } else {
+                    mRunning.add(this);
+                }
+            }
+            try {
+                fetch();
+            } finally {
+                synchronized (mRunning) {
+                    mRunning.remove(this);
+                }
+            }
+        }
+
+        private void fetch()
+        {
+            if (mToken.isCanceled()) {
+                mCancelled.incrementAndGet();
+                return;
+            }
+            List<Book> books;
+            try {
+                books = mSource.search(mQuery, mCallback, mToken);
+            } catch (QueryUtils.FetchException e) {
+                if (mToken.isCanceled()) {
+                    mCancelled.incrementAndGet();
+                    return;
+                }
+                mCompleted.incrementAndGet();
+                deliverFailure(this, e);
+                return;
+            }
+            if (mToken.isCanceled()) {
+                mCancelled.incrementAndGet();
+                return;
+            }
+            mCompleted.incrementAndGet();
+            deliver(this, books);
+        }
+
+        @Override
+        public int compareTo(FetchTask other) {
+            if (mPriority != other.mPriority) {
+                return mPriority.compareTo(other.mPriority);
+            }
+            // First in, first out within the same priority
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+}
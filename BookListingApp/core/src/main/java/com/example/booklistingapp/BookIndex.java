@@ -0,0 +1,424 @@
+package com.example.booklistingapp;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Filters, sorts and counts facets over a list of books that is already loaded, without
+ * another request. Everything a query needs is prepared when the index is built: every
+ * facet value (see {@link Facet}) has a bitset of the books that have it, and every
+ * {@link Sort} has a key per book. The order of a sort is made from its keys on first use and
+ * kept. A query ANDs the bitsets of the facets, ORing the selected values of each one, and walks
+ * the order of the sort, so it costs a few passes over n / 64 words plus one over the books.
+ * Thread safe; a changed list needs a new index.
+ */
+public final class BookIndex {
+
+    public enum Sort {
+        // The order of the list, as the sources ranked it
+        RELEVANCE,
+        TITLE,
+        PRICE_LOW,
+        PRICE_HIGH,
+        NEWEST,
+        RATING
+    }
+
+    public enum Facet {
+        // The main category, the part before the first " / " of e.g. "Fiction / Science Fiction"
+        CATEGORY,
+        // ISO 639-1 code
+        LANGUAGE,
+        // PriceBand name, regardless of the currency
+        PRICE
+    }
+
+    /**
+     * Price bands of the {@link Facet#PRICE} facet, by upper bound in currency units.
+     */
+    public enum PriceBand {
+        FREE(0),
+        UNDER_5(5),
+        UNDER_15(15),
+        UNDER_30(30),
+        OVER_30(-1),
+        // Not for sale, or no price given
+        NONE(-1);
+
+        // Prices below this (and above the band before) are in the band, -1 for the bands without one
+        private final long mLimitMicros;
+
+        PriceBand(long limit)
+        {
+            mLimitMicros = limit * 1000000;
+        }
+
+        public static PriceBand of(Book book)
+        {
+            if (!book.hasPrice()) {
+                return NONE;
+            }
+            long price = book.getPriceMicros();
+            if (price <= 0) {
+                return FREE;
+            }
+            for (PriceBand band : values()) {
+                if (band.mLimitMicros > 0 && price < band.mLimitMicros) {
+                    return band;
+                }
+            }
+            return OVER_30;
+        }
+    }
+
+    /**
+     * The selected values of each facet and the minimum rating. Books match if they have one
+     * of the selected values of every facet that has a selection. Immutable, changed with the
+     * {@code with} methods.
+     */
+    public static final class Filter {
+
+        public static final Filter NONE = new Filter(new EnumMap<Facet, Set<String>>(Facet.class), 0);
+
+        private final EnumMap<Facet, Set<String>> mSelected;
+        private final int mMinStars;
+
+        private Filter(EnumMap<Facet, Set<String>> selected, int minStars)
+        {
+            mSelected = selected;
+            mMinStars = minStars;
+        }
+
+        public Set<String> getSelected(Facet facet)
+        {
+            Set<String> values = mSelected.get(facet);
+            return values != null ? values : Collections.<String>emptySet();
+        }
+
+        public int getMinStars()
+        {
+            return mMinStars;
+        }
+
+        public boolean isEmpty()
+        {
+            return mSelected.isEmpty() && mMinStars == 0;
+        }
+
+        /**
+         * The filter with only the given values selected for the facet, none to drop its selection.
+         */
+        public Filter with(Facet facet, Set<String> values)
+        {
+            EnumMap<Facet, Set<String>> selected = new EnumMap<Facet, Set<String>>(mSelected);
+            if (values.isEmpty()) {
+                selected.remove(facet);
+            } else {
+                selected.put(facet, Collections.unmodifiableSet(new HashSet<String>(values)));
+            }
+            return new Filter(selected, mMinStars);
+        }
+
+        /**
+         * The filter with a minimum rating from 1 to 5 stars, 0 for none.
+         */
+        public Filter withMinStars(int minStars)
+        {
+            return new Filter(mSelected, Math.max(0, Math.min(minStars, MAX_STARS)));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Filter && mSelected.equals(((Filter) other).mSelected)
+                    && mMinStars == ((Filter) other).mMinStars;
+        }
+
+        @Override
+        public int hashCode() {
+            return mSelected.hashCode() * 31 + mMinStars;
+        }
+    }
+
+    private static final int MAX_STARS = 5;
+    private static final String CATEGORY_SEPARATOR = " / ";
+
+    private final List<Book> mBooks;
+    private final int mWords;
+    // Every book, the start of every filter
+    private final long[] mAll;
+    // Bitset of every value of each facet, values in the order they first appear (price bands in band order)
+    private final EnumMap<Facet, LinkedHashMap<String, long[]>> mFacets =
+            new EnumMap<Facet, LinkedHashMap<String, long[]>>(Facet.class);
+    // Books rated at least i stars, for i from 1 to MAX_STARS
+    private final long[][] mStarsAtLeast = new long[MAX_STARS + 1][];
+    // Sort keys of the books by Sort ordinal, ascending; the titles have their own
+    private final int[][] mKeys = new int[Sort.values().length][];
+    private final String[] mTitleKeys;
+    // Book positions in the order of each sort, made on first use
+    private final int[][] mOrders = new int[Sort.values().length][];
+
+    public BookIndex(List<Book> books)
+    {
+        mBooks = books;
+        int count = books.size();
+        mWords = (count + 63) >>> 6;
+        mAll = new long[mWords];
+        for (int i = 0; i < count; i++) {
+            set(mAll, i);
+        }
+
+        for (Facet facet : Facet.values()) {
+            mFacets.put(facet, new LinkedHashMap<String, long[]>());
+        }
+        for (PriceBand band : PriceBand.values()) {
+            mFacets.get(Facet.PRICE).put(band.name(), new long[mWords]);
+        }
+        for (int stars = 1; stars <= MAX_STARS; stars++) {
+            mStarsAtLeast[stars] = new long[mWords];
+        }
+
+        // One pass for the facets and the sort keys
+        int[] prices = new int[count];
+        int[] highPrices = new int[count];
+        int[] dates = new int[count];
+        int[] ratings = new int[count];
+        mTitleKeys = new String[count];
+        for (int i = 0; i < count; i++) {
+            Book book = books.get(i);
+            for (String category : book.getCategories()) {
+                int end = category.indexOf(CATEGORY_SEPARATOR);
+                set(valueBits(Facet.CATEGORY, end > 0 ? category.substring(0, end) : category), i);
+            }
+            if (!book.getLanguage().isEmpty()) {
+                set(valueBits(Facet.LANGUAGE, book.getLanguage()), i);
+            }
+            set(valueBits(Facet.PRICE, PriceBand.of(book).name()), i);
+            for (int stars = 1; stars <= book.getRating() && stars <= MAX_STARS; stars++) {
+                set(mStarsAtLeast[stars], i);
+            }
+
+            // Keys sort ascending, books without the value go last
+            mTitleKeys[i] = foldTitle(book.getTitle());
+            // Cents fit in an int, so their negation does too
+            prices[i] = book.hasPrice() ? (int) Math.min(book.getPriceMicros() / 10000, Integer.MAX_VALUE - 1) : Integer.MAX_VALUE;
+            highPrices[i] = book.hasPrice() ? -prices[i] : Integer.MAX_VALUE;
+            dates[i] = book.getPublishedDate() != Book.NO_DATE ? -book.getPublishedDate() : Integer.MAX_VALUE;
+            ratings[i] = book.getRating() > 0 ? -Math.round(book.getRating() * 100) : Integer.MAX_VALUE;
+        }
+
+        mKeys[Sort.PRICE_LOW.ordinal()] = prices;
+        mKeys[Sort.PRICE_HIGH.ordinal()] = highPrices;
+        mKeys[Sort.NEWEST.ordinal()] = dates;
+        mKeys[Sort.RATING.ordinal()] = ratings;
+    }
+
+    public int size()
+    {
+        return mBooks.size();
+    }
+
+    /**
+     * The books that match the filter, in the order of the sort.
+     */
+    public List<Book> query(Filter filter, Sort sort)
+    {
+        int[] order = order(sort);
+        if (filter.isEmpty()) {
+            List<Book> books = new ArrayList<Book>(order.length);
+            for (int position : order) {
+                books.add(mBooks.get(position));
+            }
+            return books;
+        }
+        long[] match = match(filter, null);
+        List<Book> books = new ArrayList<Book>(count(match));
+        for (int position : order) {
+            if ((match[position >>> 6] & (1L << position)) != 0) {
+                books.add(mBooks.get(position));
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Number of books that match the filter.
+     */
+    public int count(Filter filter)
+    {
+        return filter.isEmpty() ? mBooks.size() : count(match(filter, null));
+    }
+
+    /**
+     * How many books each value of the facet would show: the books with the value that match
+     * the filter, not counting the facet's own selection, so selecting another value of the
+     * same facet adds exactly that many. Values without any book are left out.
+     */
+    public Map<String, Integer> facetCounts(Facet facet, Filter filter)
+    {
+        long[] match = match(filter, facet);
+        LinkedHashMap<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        for (Map.Entry<String, long[]> value : mFacets.get(facet).entrySet()) {
+            int count = countAnd(value.getValue(), match);
+            if (count > 0) {
+                counts.put(value.getKey(), count);
+            }
+        }
+        return counts;
+    }
+
+    private synchronized int[] order(Sort sort)
+    {
+        int[] order = mOrders[sort.ordinal()];
+        if (order == null) {
+            if (sort == Sort.RELEVANCE) {
+                order = new int[mBooks.size()];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+            } else if (sort == Sort.TITLE) {
+                order = titleOrder(mTitleKeys);
+            } else {
+                order = orderOf(mKeys[sort.ordinal()]);
+            }
+            mOrders[sort.ordinal()] = order;
+        }
+        return order;
+    }
+
+    // The books that match the filter, ignoring the selection of the excluded facet
+    private long[] match(Filter filter, Facet excluded)
+    {
+        long[] match = mAll.clone();
+        for (Facet facet : Facet.values()) {
+            Set<String> selected = filter.getSelected(facet);
+            if (facet == excluded || selected.isEmpty()) {
+                continue;
+            }
+            long[] any = new long[mWords];
+            LinkedHashMap<String, long[]> values = mFacets.get(facet);
+            for (String value : selected) {
+                long[] bits = values.get(value);
+                if (bits != null) {
+                    for (int w = 0; w < mWords; w++) {
+                        any[w] |= bits[w];
+                    }
+                }
+            }
+            for (int w = 0; w < mWords; w++) {
+                match[w] &= any[w];
+            }
+        }
+        if (filter.getMinStars() > 0) {
+            long[] rated = mStarsAtLeast[filter.getMinStars()];
+            for (int w = 0; w < mWords; w++) {
+                match[w] &= rated[w];
+            }
+        }
+        return match;
+    }
+
+    private long[] valueBits(Facet facet, String value)
+    {
+        LinkedHashMap<String, long[]> values = mFacets.get(facet);
+        long[] bits = values.get(value);
+        if (bits == null) {
+            bits = new long[mWords];
+            values.put(value, bits);
+        }
+        return bits;
+    }
+
+    private static void set(long[] bits, int position)
+    {
+        bits[position >>> 6] |= 1L << position;
+    }
+
+    private static int count(long[] bits)
+    {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    private static int countAnd(long[] a, long[] b)
+    {
+        int count = 0;
+        for (int w = 0; w < a.length; w++) {
+            count += Long.bitCount(a[w] & b[w]);
+        }
+        return count;
+    }
+
+    /**
+     * Positions sorted by key, equal keys keep the list order. Key and position are packed
+     * into one long, so this is a primitive sort without a comparator.
+     */
+    private static int[] orderOf(int[] keys)
+    {
+        long[] packed = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            packed[i] = ((long) keys[i] << 32) | i;
+        }
+        Arrays.sort(packed);
+        int[] order = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = (int) packed[i];
+        }
+        return order;
+    }
+
+    /**
+     * Positions in the order of the titles, ignoring case and accents. Compares the folded
+     * titles made with the index, a Collator would cost more than the whole rest of it.
+     */
+    private static int[] titleOrder(final String[] keys)
+    {
+        Integer[] positions = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            positions[i] = i;
+        }
+        Arrays.sort(positions, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byTitle = keys[a].compareTo(keys[b]);
+                return byTitle != 0 ? byTitle : Integer.compare(a, b);
+            }
+        });
+        int[] order = new int[positions.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = positions[i];
+        }
+        return order;
+    }
+
+    // Lower case without accents, "Cafe" for "Caf\u00e9". Only titles with non-ASCII characters are normalized.
+    static String foldTitle(String title)
+    {
+        for (int i = 0; i < title.length(); i++) {
+            if (title.charAt(i) >= 0x80) {
+                String decomposed = Normalizer.normalize(title, Normalizer.Form.NFD);
+                StringBuilder folded = new StringBuilder(decomposed.length());
+                for (int j = 0; j < decomposed.length(); j++) {
+                    char c = decomposed.charAt(j);
+                    if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                        folded.append(c);
+                    }
+                }
+                return folded.toString().toLowerCase(Locale.ROOT);
+            }
+        }
+        return title.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,378 @@
+package com.example.booklistingapp;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Streaming parser for the Google Books volumes response.
+ * Reads the response token by token straight from the connection's {@link InputStream},
+ * skips every subtree that {@link Book} does not need and emits books as soon as
+ * a single item has been read, so the full response body is never held in memory.
+ * <p>
+ * Every item is parsed on its own: a field with an unexpected type is skipped like an unknown
+ * one, and missing fields get a default, so a bad volume never costs the rest of the page.
+ * Only items without a volume id are dropped.
+ */
+public final class BookJsonParser {
+
+    /**
+     * Receives each {@link Book} as soon as its item has been parsed.
+     */
+    public interface OnBookParsedListener {
+        void onBookParsed(Book book);
+    }
+
+    /**
+     * The response broke off or is not valid JSON. The books that were read
+     * before the error are kept, but they are not the whole page.
+     */
+    public static final class PartialResultException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BookResultSet mBooks;
+
+        PartialResultException(BookResultSet books, Throwable cause)
+        {
+            super("Response ended after " + books.size() + " books", cause);
+            mBooks = books;
+        }
+
+        public BookResultSet getBooks()
+        {
+            return mBooks;
+        }
+    }
+
+    static final String DEFAULT_TITLE = "No title";
+    static final String DEFAULT_AUTHOR = "No author";
+
+    private static final Metrics.Counter sItems = Metrics.counter("parser.items");
+    private static final Metrics.Counter sSkippedItems = Metrics.counter("parser.items.skipped");
+    private static final Metrics.Counter sDefaultedFields = Metrics.counter("parser.fields.defaulted");
+    private static final Metrics.Counter sBrokenResponses = Metrics.counter("parser.responses.broken");
+
+    private BookJsonParser()
+    {
+
+    }
+
+    /**
+     * Parse the whole response and return the {@link Book}s as a compact result set.
+     * The result set records how many items of the response were skipped.
+     *
+     * @throws PartialResultException if the response is broken, with the books read until then
+     */
+    public static BookResultSet parse(InputStream inputStream) throws IOException {
+        // Sized for a full page of results, it grows if there are more
+        final BookResultSet.Builder books = new BookResultSet.Builder(20);
+        Counts counts = new Counts();
+        try {
+            parse(inputStream, new OnBookParsedListener() {
+                @Override
+                public void onBookParsed(Book book) {
+                    books.add(book);
+                }
+            }, counts);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // IllegalStateException: the top level is not the expected object,
+            // NumberFormatException: a broken unicode escape in a string
+            throw new PartialResultException(books.setSkippedCount(counts.items - counts.books).build(), e);
+        }
+        return books.setSkippedCount(counts.items - counts.books).build();
+    }
+
+    /**
+     * Parse the response and hand every {@link Book} to the listener as it is read.
+     * Returns the number of books emitted.
+     */
+    public static int parse(InputStream inputStream, OnBookParsedListener listener) throws IOException {
+        Counts counts = new Counts();
+        parse(inputStream, listener, counts);
+        return counts.books;
+    }
+
+    private static void parse(InputStream inputStream, OnBookParsedListener listener, Counts counts) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                // Only the "items" array is interesting, "kind" and "totalItems" are skipped
+                if ("items".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        counts.items++;
+                        sItems.increment();
+                        Book book = readItem(reader);
+                        if (book != null) {
+                            listener.onBookParsed(book);
+                            counts.books++;
+                        } else {
+                            sSkippedItems.increment();
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            sBrokenResponses.increment();
+            throw e;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Read a single element of the "items" array. Returns null if the item
+     * is not an object or has no volume id.
+     */
+    private static Book readItem(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+
+        String volumeId = null;
+        String title = null;
+        String author = null;
+        String imageUrl = null;
+        String buyLink = null;
+        long priceMicros = Book.NO_PRICE;
+        String currency = "";
+        String language = "";
+        int publishedDate = Book.NO_DATE;
+        List<String> categories = Collections.emptyList();
+        float rating = 0;
+        String isbn = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("id".equals(name) && reader.peek() == JsonToken.STRING) {
+                volumeId = reader.nextString();
+            } else if ("volumeInfo".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String volumeField = reader.nextName();
+                    if ("title".equals(volumeField) && reader.peek() == JsonToken.STRING) {
+                        title = reader.nextString();
+                    } else if ("authors".equals(volumeField) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        author = readAuthors(reader);
+                    } else if ("imageLinks".equals(volumeField) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        imageUrl = readStringField(reader, "smallThumbnail");
+                    } else if ("language".equals(volumeField) && reader.peek() == JsonToken.STRING) {
+                        language = reader.nextString();
+                    } else if ("publishedDate".equals(volumeField) && reader.peek() == JsonToken.STRING) {
+                        publishedDate = Book.parseDate(reader.nextString());
+                    } else if ("categories".equals(volumeField) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        categories = readStrings(reader, Integer.MAX_VALUE);
+                    } else if ("averageRating".equals(volumeField) && reader.peek() == JsonToken.NUMBER) {
+                        rating = (float) reader.nextDouble();
+                    } else if ("industryIdentifiers".equals(volumeField) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        isbn = readIsbn(reader);
+                    } else {
+                        // description, panelizationSummary etc.
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if ("saleInfo".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String saleField = reader.nextName();
+                    if ("buyLink".equals(saleField) && reader.peek() == JsonToken.STRING) {
+                        buyLink = reader.nextString();
+                    } else if ("retailPrice".equals(saleField) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String priceField = reader.nextName();
+                            if ("amount".equals(priceField) && reader.peek() == JsonToken.NUMBER) {
+                                priceMicros = Math.round(reader.nextDouble() * 1000000);
+                            } else if ("currencyCode".equals(priceField) && reader.peek() == JsonToken.STRING) {
+                                currency = reader.nextString();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    } else {
+                        // saleability, listPrice, offers etc.
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                // accessInfo, searchInfo, layerInfo etc.
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // The volume id is the key of the book everywhere, there is no default for it
+        if (volumeId == null || volumeId.isEmpty()) {
+            return null;
+        }
+        if (title == null) {
+            title = DEFAULT_TITLE;
+            sDefaultedFields.increment();
+        }
+        if (author == null) {
+            author = DEFAULT_AUTHOR;
+            sDefaultedFields.increment();
+        }
+        // The cover and the book page can be addressed by the volume id alone
+        if (imageUrl == null) {
+            imageUrl = BooksApi.coverUrl(volumeId);
+            sDefaultedFields.increment();
+        } else {
+            imageUrl = toCoverUrl(imageUrl);
+        }
+        if (buyLink == null) {
+            buyLink = BooksApi.infoUrl(volumeId);
+            sDefaultedFields.increment();
+        }
+        return new Book(volumeId, title, author, imageUrl, buyLink,
+                priceMicros, currency, language, publishedDate, categories, rating, isbn);
+    }
+
+    /**
+     * Read the "industryIdentifiers" array, [{"type": "ISBN_13", "identifier": "..."}, ...].
+     * Returns the canonical ISBN-13 of the first ISBN, empty if there is none.
+     */
+    private static String readIsbn(JsonReader reader) throws IOException {
+        String isbn = "";
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            String type = null;
+            String identifier = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("type".equals(name) && reader.peek() == JsonToken.STRING) {
+                    type = reader.nextString();
+                } else if ("identifier".equals(name) && reader.peek() == JsonToken.STRING) {
+                    identifier = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            // Both forms of an edition have the same canonical ISBN, the first one will do
+            if (isbn.isEmpty() && identifier != null && type != null && type.startsWith("ISBN")) {
+                String canonical = Isbn.canonical(identifier);
+                isbn = canonical != null ? canonical : "";
+            }
+        }
+        reader.endArray();
+        return isbn;
+    }
+
+    /**
+     * Read the first {@code max} non-empty strings of an array, skipping everything else.
+     * Returns an unmodifiable list.
+     */
+    static List<String> readStrings(JsonReader reader, int max) throws IOException {
+        List<String> strings = null;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.STRING) {
+                reader.skipValue();
+                continue;
+            }
+            String string = reader.nextString().trim();
+            if (string.isEmpty() || (strings != null && strings.size() >= max)) {
+                continue;
+            }
+            if (strings == null) {
+                strings = new ArrayList<String>(2);
+            }
+            strings.add(string);
+        }
+        reader.endArray();
+        if (strings == null) {
+            return Collections.emptyList();
+        }
+        return strings.size() == 1 ? Collections.singletonList(strings.get(0)) : Collections.unmodifiableList(strings);
+    }
+
+    /**
+     * Read all author names of an array, joined with ", ". Returns null if there is none.
+     */
+    private static String readAuthors(JsonReader reader) throws IOException {
+        String first = null;
+        StringBuilder authors = null;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.STRING) {
+                reader.skipValue();
+                continue;
+            }
+            String author = reader.nextString().trim();
+            if (author.isEmpty()) {
+                continue;
+            }
+            if (first == null) {
+                first = author;
+            } else {
+                // Most books have a single author, only build a string for the others
+                if (authors == null) {
+                    authors = new StringBuilder(first);
+                }
+                authors.append(", ").append(author);
+            }
+        }
+        reader.endArray();
+        return authors != null ? authors.toString() : first;
+    }
+
+    /**
+     * Read a single string field of an object and skip all other fields.
+     */
+    private static String readStringField(JsonReader reader, String field) throws IOException {
+        String value = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (field.equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                value = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return value;
+    }
+
+    /**
+     * Rewrite the "smallThumbnail" link into the front cover URL of the same volume.
+     */
+    public static String toCoverUrl(String thumbnailUrl)
+    {
+        int idIndex = thumbnailUrl.indexOf("id=");
+        if (idIndex < 0 || idIndex + 15 > thumbnailUrl.length()) {
+            return thumbnailUrl;
+        }
+        return BooksApi.coverUrl(thumbnailUrl.substring(idIndex + 3, idIndex + 15));
+    }
+
+    // Items in the response and books emitted from them
+    private static final class Counts {
+
+        int items;
+        int books;
+    }
+}
@@ -0,0 +1,426 @@
+package com.example.booklistingapp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Paging data source for a single search.
+ * Decides which page of results ({@code startIndex}/{@code maxResults}) to request next while
+ * the list is scrolled, and keeps at most {@link #MAX_PAGES_IN_MEMORY} pages loaded. Pages
+ * that fall out of the window are dropped and requested again when the user scrolls back,
+ * and so are the pages that no longer fit the memory budget, see {@link #dropFarthestPage}.
+ * A page is made of the results of several {@link BookSource}s, and grows as they answer.
+ * A page that was topped up with extra results for skipped items moves the start of all
+ * following pages in that source, so every page remembers where the next one starts.
+ * The size of the following pages and how early they are loaded follow the network, see
+ * {@link #setPageSize}; a page keeps the size it was first requested with.
+ * Which page showed a book is only remembered for pages near the loaded ones, see
+ * {@link #DEDUPE_WINDOW}; the starts and sizes of all pages of the search are kept,
+ * their memory is counted by {@link #estimatedBytes()}.
+ */
+public final class BookPager {
+
+    // A small first page renders quickly, the following pages are larger. The first page
+    // keeps its size on every network, it is the one the caches and the warm start share.
+    static final int FIRST_PAGE_SIZE = 10;
+    static final int PAGE_SIZE = 20;
+    // On a metered or slow network, and on fast Wi-Fi (the most the volumes API returns)
+    static final int SMALL_PAGE_SIZE = 10;
+    static final int LARGE_PAGE_SIZE = 40;
+
+    static final int MAX_PAGES_IN_MEMORY = 5;
+    // Books are only deduplicated against pages this close to a loaded page. A book that
+    // another source ranks that much lower is shown again, which is rare and harmless.
+    static final int DEDUPE_WINDOW = MAX_PAGES_IN_MEMORY;
+
+    // A HashMap entry with a boxed key and value
+    private static final int ENTRY_BYTES = 32 + 16 + 16 + 8;
+    // Title keys of books that have an ISBN, a character no title key starts with
+    private static final String WITH_ISBN = "+";
+
+    // Start loading a neighbouring page when this many rows are left before the edge
+    static final int PREFETCH_DISTANCE = 5;
+    static final int LARGE_PREFETCH_DISTANCE = 15;
+
+    private final ArrayDeque<Page> mPages = new ArrayDeque<Page>();
+    // Start index in its source of the page after each loaded page, by key(page, source)
+    private final HashMap<Long, Integer> mStartIndexes = new HashMap<Long, Integer>();
+    // The page and source that first showed each book, by FederatedSearch.keyOf(Book); books
+    // with an ISBN are also there by WITH_ISBN and their title key, see withoutDuplicates
+    private final HashMap<String, Long> mShownBy = new HashMap<String, Long>();
+    // The keys each page added to mShownBy, by page number, to forget them with the page
+    private final HashMap<Integer, ArrayList<String>> mShownKeys = new HashMap<Integer, ArrayList<String>>();
+    private long mShownKeyChars;
+    // Size each page was first requested with, by page number
+    private final HashMap<Integer, Integer> mPageSizes = new HashMap<Integer, Integer>();
+    private int mPageSize = PAGE_SIZE;
+    private int mPrefetchDistance = PREFETCH_DISTANCE;
+    private boolean mLoading;
+    private boolean mEndReached;
+
+    /**
+     * A loaded page of results.
+     */
+    static final class Page {
+
+        final int number;
+        int size;
+
+        Page(int number, int size)
+        {
+            this.number = number;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Size of the pages after the first that are not requested yet, and how many rows before
+     * the edge of the list the next one is loaded.
+     */
+    void setPageSize(int pageSize, int prefetchDistance)
+    {
+        mPageSize = pageSize;
+        mPrefetchDistance = prefetchDistance;
+    }
+
+    /**
+     * Index of the first result of the given page in the whole result set,
+     * if no page before it consumed more results than it asked for.
+     */
+    private int startIndexOf(int page)
+    {
+        int start = 0;
+        for (int i = 0; i < page; i++) {
+            start += sizeOf(i);
+        }
+        return start;
+    }
+
+    /**
+     * Number of results requested for the given page. Fixed once asked for, a page that is
+     * loaded again must not move the start of the pages after it.
+     */
+    int sizeOf(int page)
+    {
+        Integer size = mPageSizes.get(page);
+        if (size == null) {
+            size = page == 0 ? FIRST_PAGE_SIZE : mPageSize;
+            mPageSizes.put(page, size);
+        }
+        return size;
+    }
+
+    /**
+     * Index of the first result of the given page in the results of the source.
+     */
+    int startIndex(int page, int source)
+    {
+        Integer start = mStartIndexes.get(key(page, source));
+        return start != null ? start : startIndexOf(page);
+    }
+
+    /**
+     * Start index of the given page in each of the sources.
+     */
+    int[] startIndexes(int page, int sourceCount)
+    {
+        int[] startIndexes = new int[sourceCount];
+        for (int source = 0; source < sourceCount; source++) {
+            startIndexes[source] = startIndex(page, source);
+        }
+        return startIndexes;
+    }
+
+    /**
+     * A source answered for the page and used {@code consumedCount} of its results,
+     * so its next page starts after them.
+     */
+    void onSourceLoaded(int page, int source, int consumedCount)
+    {
+        mStartIndexes.put(key(page + 1, source), startIndex(page, source) + consumedCount);
+    }
+
+    /**
+     * Drop the books that another page or another source already showed. Sources rank
+     * differently, so the same book can come from two sources or on two pages. A page
+     * that is loaded again keeps its own books.
+     * Two books with ISBNs are the same if their ISBNs are, whatever their titles. A book
+     * without an ISBN is the same as any book with its title and authors.
+     */
+    List<Book> withoutDuplicates(int page, int source, List<Book> books)
+    {
+        Long shownBy = key(page, source);
+        ArrayList<Book> distinct = null;
+        for (int i = 0; i < books.size(); i++) {
+            Book book = books.get(i);
+            String key = FederatedSearch.keyOf(book);
+            boolean hasIsbn = !book.getIsbn().isEmpty();
+            String titleKey = hasIsbn ? FederatedSearch.titleKeyOf(book) : key;
+            // With an ISBN: the same ISBN, or the title of a book without one.
+            // Without: the title of any book.
+            Long first = mShownBy.get(hasIsbn ? key : WITH_ISBN + titleKey);
+            Long byTitle = mShownBy.get(titleKey);
+            boolean duplicate = (first != null && !first.equals(shownBy))
+                    || (byTitle != null && !byTitle.equals(shownBy));
+            if (!duplicate) {
+                remember(page, hasIsbn ? key : titleKey, shownBy);
+                if (hasIsbn) {
+                    remember(page, WITH_ISBN + titleKey, shownBy);
+                }
+            }
+            // Only copy once the first duplicate turns up
+            if (duplicate && distinct == null) {
+                distinct = new ArrayList<Book>(books.subList(0, i));
+            } else if (!duplicate && distinct != null) {
+                distinct.add(book);
+            }
+        }
+        return distinct != null ? distinct : books;
+    }
+
+    // Record the first page and source that showed the key
+    private void remember(int page, String key, Long shownBy)
+    {
+        if (mShownBy.containsKey(key)) {
+            return;
+        }
+        mShownBy.put(key, shownBy);
+        ArrayList<String> keys = mShownKeys.get(page);
+        if (keys == null) {
+            keys = new ArrayList<String>();
+            mShownKeys.put(page, keys);
+        }
+        keys.add(key);
+        mShownKeyChars += key.length();
+    }
+
+    private static long key(int page, int source)
+    {
+        return ((long) page << 32) | source;
+    }
+
+    /**
+     * Forget which books the pages more than {@link #DEDUPE_WINDOW} pages away from the
+     * loaded ones showed.
+     */
+    private void forgetFarPages()
+    {
+        if (mPages.isEmpty()) {
+            return;
+        }
+        int from = mPages.peekFirst().number - DEDUPE_WINDOW;
+        int to = mPages.peekLast().number + DEDUPE_WINDOW;
+        Iterator<Map.Entry<Integer, ArrayList<String>>> pages = mShownKeys.entrySet().iterator();
+        while (pages.hasNext()) {
+            Map.Entry<Integer, ArrayList<String>> page = pages.next();
+            if (page.getKey() >= from && page.getKey() <= to) {
+                continue;
+            }
+            for (String key : page.getValue()) {
+                mShownBy.remove(key);
+                mShownKeyChars -= key.length();
+            }
+            pages.remove();
+        }
+    }
+
+    /**
+     * Estimated heap size of what the pager remembers about the pages, not of their books.
+     */
+    long estimatedBytes()
+    {
+        // Every key is in mShownBy and in the list of its page
+        return (long) (mStartIndexes.size() + mPageSizes.size() + mShownBy.size()) * ENTRY_BYTES
+                + mShownBy.size() * (40 + 8) + 2 * mShownKeyChars;
+    }
+
+    /**
+     * Forget all pages, e.g. when a new search starts.
+     */
+    void reset()
+    {
+        mPages.clear();
+        mStartIndexes.clear();
+        mPageSizes.clear();
+        mShownBy.clear();
+        mShownKeys.clear();
+        mShownKeyChars = 0;
+        mLoading = false;
+        mEndReached = false;
+    }
+
+    boolean isEmpty()
+    {
+        return mPages.isEmpty();
+    }
+
+    /**
+     * While a page is loading no other page is asked for. Set back when all sources have answered.
+     */
+    void setLoading(boolean loading)
+    {
+        mLoading = loading;
+    }
+
+    /**
+     * Return the page to load for the given scroll position of the list,
+     * or -1 if nothing needs to be loaded.
+     */
+    int pageToLoad(int firstVisible, int lastVisible, int loadedCount)
+    {
+        if (mLoading || mPages.isEmpty()) {
+            return -1;
+        }
+        if (!mEndReached && lastVisible >= loadedCount - mPrefetchDistance) {
+            return mPages.peekLast().number + 1;
+        }
+        if (firstVisible < mPrefetchDistance && mPages.peekFirst().number > 0) {
+            return mPages.peekFirst().number - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Record a loaded page with the books of the first source that answered.
+     * Returns where its books go in the list, see {@link Placement}.
+     */
+    Placement onPageLoaded(int page, List<Book> books)
+    {
+        Placement placement = place(page, books);
+        forgetFarPages();
+        return placement;
+    }
+
+    private Placement place(int page, List<Book> books)
+    {
+        if (mPages.isEmpty() || page > mPages.peekLast().number + 1 || page < mPages.peekFirst().number - 1) {
+            // First page of a search, or one that does not continue the current window
+            mPages.clear();
+            mEndReached = books.isEmpty();
+            mPages.addLast(new Page(page, books.size()));
+            return new Placement(Placement.REPLACE, 0);
+        }
+
+        if (page == mPages.peekLast().number + 1) {
+            if (books.isEmpty()) {
+                // Past the last result
+                mEndReached = true;
+                return new Placement(Placement.APPEND, 0);
+            }
+            mPages.addLast(new Page(page, books.size()));
+            int dropped = 0;
+            if (mPages.size() > MAX_PAGES_IN_MEMORY) {
+                dropped = mPages.removeFirst().size;
+            }
+            return new Placement(Placement.APPEND, dropped);
+        }
+
+        if (page == mPages.peekFirst().number - 1) {
+            mPages.addFirst(new Page(page, books.size()));
+            int dropped = 0;
+            if (mPages.size() > MAX_PAGES_IN_MEMORY) {
+                dropped = mPages.removeLast().size;
+                // The dropped page can be loaded again
+                mEndReached = false;
+            }
+            return new Placement(Placement.PREPEND, dropped);
+        }
+
+        // Already loaded
+        return new Placement(Placement.IGNORE, 0);
+    }
+
+    /**
+     * Drop the loaded page farthest from the given row to give its memory back, never the page
+     * the row is on nor the page {@code keepPage}, e.g. the one that just arrived. Returns an
+     * APPEND or a PREPEND without books, whose dropped rows are removed from the start or the
+     * end of the list, or IGNORE if there is no page to drop.
+     */
+    Placement dropFarthestPage(int row, int keepPage)
+    {
+        Placement placement = dropFarthest(row, keepPage);
+        forgetFarPages();
+        return placement;
+    }
+
+    private Placement dropFarthest(int row, int keepPage)
+    {
+        if (mPages.size() < 2) {
+            return new Placement(Placement.IGNORE, 0);
+        }
+        int rows = 0;
+        for (Page page : mPages) {
+            rows += page.size;
+        }
+        Page first = mPages.peekFirst();
+        Page last = mPages.peekLast();
+        boolean onFirstPage = row < first.size;
+        boolean onLastPage = row >= rows - last.size;
+        if (!onFirstPage && (onLastPage || row > rows - row)) {
+            if (first.number == keepPage) {
+                return new Placement(Placement.IGNORE, 0);
+            }
+            mPages.removeFirst();
+            return new Placement(Placement.APPEND, first.size);
+        }
+        if (last.number == keepPage) {
+            return new Placement(Placement.IGNORE, 0);
+        }
+        mPages.removeLast();
+        // The dropped page can be loaded again
+        mEndReached = false;
+        return new Placement(Placement.PREPEND, last.size);
+    }
+
+    /**
+     * Add the books of another source to a page that is already in the list.
+     * They go after the page's current rows.
+     */
+    Placement onPageExtended(int page, List<Book> books)
+    {
+        int position = 0;
+        for (Page loaded : mPages) {
+            position += loaded.size;
+            if (loaded.number == page) {
+                loaded.size += books.size();
+                return new Placement(Placement.INSERT, 0, position);
+            }
+        }
+        // The page left the window in the meantime
+        return new Placement(Placement.IGNORE, 0);
+    }
+
+    /**
+     * Where a loaded page goes in the list and how many rows have to be removed from
+     * the opposite end to keep the window bounded.
+     */
+    static final class Placement {
+
+        static final int REPLACE = 0;
+        static final int APPEND = 1;
+        static final int PREPEND = 2;
+        static final int IGNORE = 3;
+        static final int INSERT = 4;
+
+        final int mode;
+        final int droppedCount;
+        // Row the books of an INSERT go before
+        final int position;
+
+        Placement(int mode, int droppedCount)
+        {
+            this(mode, droppedCount, 0);
+        }
+
+        Placement(int mode, int droppedCount, int position)
+        {
+            this.mode = mode;
+            this.droppedCount = droppedCount;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,553 @@
+package com.example.booklistingapp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A search of the Google Books volumes API: the words of the query, words that must be in
+ * one field (intitle:, inauthor:, subject:, isbn:), the filter, ordering, language, page and
+ * projection. Immutable; {@link #buildUpon()} returns a builder to derive another query.
+ * <p>
+ * Everything is kept in canonical form: words in Unicode NFC and lower case, ISBNs without
+ * hyphens, the field words after the free words in a fixed order. Two queries that search
+ * the same thing have the same {@link #getKey() key}, an encoded parameter string that
+ * request URLs, and so the caches and the de-duplication of requests in flight, are built from.
+ */
+public final class BookQuery {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    // The API's limits for maxResults
+    public static final int MAX_RESULTS_LIMIT = 40;
+    public static final int DEFAULT_MAX_RESULTS = 10;
+
+    /**
+     * Fields a word can be restricted to, by the prefix that marks them in a query.
+     */
+    public enum Field {
+        // Declaration order is the order in the canonical query
+        TITLE("intitle"),
+        AUTHOR("inauthor"),
+        SUBJECT("subject"),
+        ISBN("isbn");
+
+        final String prefix;
+
+        Field(String prefix)
+        {
+            this.prefix = prefix;
+        }
+    }
+
+    public enum Filter {
+        PARTIAL("partial"),
+        FULL("full"),
+        FREE_EBOOKS("free-ebooks"),
+        PAID_EBOOKS("paid-ebooks"),
+        EBOOKS("ebooks");
+
+        final String value;
+
+        Filter(String value)
+        {
+            this.value = value;
+        }
+    }
+
+    public enum OrderBy {
+        RELEVANCE("relevance"),
+        NEWEST("newest");
+
+        final String value;
+
+        OrderBy(String value)
+        {
+            this.value = value;
+        }
+    }
+
+    public enum Projection {
+        FULL("full"),
+        LITE("lite");
+
+        final String value;
+
+        Projection(String value)
+        {
+            this.value = value;
+        }
+    }
+
+    private final List<String> mWords;
+    private final EnumMap<Field, List<String>> mFieldWords;
+    private final Filter mFilter;
+    private final OrderBy mOrderBy;
+    private final String mLanguage;
+    private final int mStartIndex;
+    private final int mMaxResults;
+    private final Projection mProjection;
+    private final String mKey;
+
+    private BookQuery(Builder builder)
+    {
+        mWords = Collections.unmodifiableList(new ArrayList<String>(builder.mWords));
+        mFieldWords = new EnumMap<Field, List<String>>(Field.class);
+        for (Field field : Field.values()) {
+            mFieldWords.put(field, Collections.unmodifiableList(
+                    new ArrayList<String>(builder.mFieldWords.get(field))));
+        }
+        mFilter = builder.mFilter;
+        mOrderBy = builder.mOrderBy;
+        mLanguage = builder.mLanguage;
+        mStartIndex = builder.mStartIndex;
+        mMaxResults = builder.mMaxResults;
+        mProjection = builder.mProjection;
+        mKey = buildKey();
+    }
+
+    /**
+     * Parse a query as typed by the user. Words of the form {@code intitle:word} are
+     * restricted to their field, a quoted value ({@code inauthor:"le guin"}) restricts
+     * all of its words. Everything else is searched in all fields.
+     */
+    public static BookQuery parse(String text)
+    {
+        Builder builder = new Builder();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && !Character.isWhitespace(text.charAt(i)) && text.charAt(i) != '"') {
+                i++;
+            }
+            String token = text.substring(start, i);
+
+            Field field = null;
+            int colon = token.indexOf(':');
+            if (colon > 0) {
+                field = fieldOf(token.substring(0, colon));
+            }
+            String value = field != null ? token.substring(colon + 1) : token;
+
+            // A quote right after the token opens a phrase that ends at the next quote
+            if (i < length && text.charAt(i) == '"') {
+                int end = text.indexOf('"', i + 1);
+                if (end < 0) {
+                    end = length;
+                }
+                value = value + " " + text.substring(i + 1, end);
+                i = Math.min(end + 1, length);
+            }
+
+            if (field != null) {
+                builder.addWords(field, value);
+            } else {
+                builder.addWords(value);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * A builder that starts out with everything of this query.
+     */
+    public Builder buildUpon()
+    {
+        return new Builder(this);
+    }
+
+    /**
+     * This query for another page of its results.
+     */
+    public BookQuery withPage(int startIndex, int maxResults)
+    {
+        if (startIndex == mStartIndex && maxResults == mMaxResults) {
+            return this;
+        }
+        return buildUpon().setPage(startIndex, maxResults).build();
+    }
+
+    /**
+     * The words that are searched in all fields.
+     */
+    public List<String> getWords()
+    {
+        return mWords;
+    }
+
+    /**
+     * The words that are searched in the given field only.
+     */
+    public List<String> getWords(Field field)
+    {
+        return mFieldWords.get(field);
+    }
+
+    /**
+     * True if the query has no words at all, a search for everything.
+     */
+    public boolean isEmpty()
+    {
+        if (!mWords.isEmpty()) {
+            return false;
+        }
+        for (List<String> words : mFieldWords.values()) {
+            if (!words.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The filter, or null for none.
+     */
+    public Filter getFilter()
+    {
+        return mFilter;
+    }
+
+    /**
+     * The order, or null for the API's default (relevance).
+     */
+    public OrderBy getOrderBy()
+    {
+        return mOrderBy;
+    }
+
+    /**
+     * The two-letter language code results are restricted to, or null for any language.
+     */
+    public String getLanguage()
+    {
+        return mLanguage;
+    }
+
+    public int getStartIndex()
+    {
+        return mStartIndex;
+    }
+
+    public int getMaxResults()
+    {
+        return mMaxResults;
+    }
+
+    /**
+     * The projection, or null for the API's default (full).
+     */
+    public Projection getProjection()
+    {
+        return mProjection;
+    }
+
+    /**
+     * The canonical "q" parameter, e.g. "lord rings inauthor:tolkien", not encoded.
+     */
+    public String getTerms()
+    {
+        StringBuilder terms = new StringBuilder();
+        for (String word : mWords) {
+            appendTerm(terms, null, word);
+        }
+        for (Field field : Field.values()) {
+            for (String word : mFieldWords.get(field)) {
+                appendTerm(terms, field.prefix, word);
+            }
+        }
+        return terms.toString();
+    }
+
+    /**
+     * The canonical, encoded request parameters of the query, e.g.
+     * "q=lord+rings+inauthor%3Atolkien&filter=paid-ebooks&startIndex=0&maxResults=20".
+     * Equal for queries that search the same thing, and a valid URL query string.
+     */
+    public String getKey()
+    {
+        return mKey;
+    }
+
+    private String buildKey()
+    {
+        StringBuilder key = new StringBuilder(64);
+        key.append("q=");
+        encode(getTerms(), key);
+        if (mFilter != null) {
+            key.append("&filter=").append(mFilter.value);
+        }
+        if (mOrderBy != null) {
+            key.append("&orderBy=").append(mOrderBy.value);
+        }
+        if (mLanguage != null) {
+            key.append("&langRestrict=");
+            encode(mLanguage, key);
+        }
+        key.append("&startIndex=").append(mStartIndex).append("&maxResults=").append(mMaxResults);
+        if (mProjection != null) {
+            key.append("&projection=").append(mProjection.value);
+        }
+        return key.toString();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof BookQuery && mKey.equals(((BookQuery) o).mKey);
+    }
+
+    /**
+     * The hash of the key, the same in every process and on every device.
+     */
+    @Override
+    public int hashCode()
+    {
+        return mKey.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return mKey;
+    }
+
+    private static void appendTerm(StringBuilder terms, String prefix, String word)
+    {
+        if (terms.length() > 0) {
+            terms.append(' ');
+        }
+        if (prefix != null) {
+            terms.append(prefix).append(':').append(word);
+            return;
+        }
+        int colon = word.indexOf(':');
+        if (colon > 0 && fieldOf(word.substring(0, colon)) != null) {
+            // A quoted word is never read as a field, so the terms parse back into this query
+            terms.append('"').append(word).append('"');
+        } else {
+            terms.append(word);
+        }
+    }
+
+    static Field fieldOf(String prefix)
+    {
+        for (Field field : Field.values()) {
+            if (field.prefix.equalsIgnoreCase(prefix)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Percent-encode the text as UTF-8 for a URL query string, a space becomes "+".
+     * Only the unreserved characters of RFC 3986 are left as they are.
+     */
+    static void encode(String text, StringBuilder out)
+    {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isUnreserved(c)) {
+                out.append(c);
+            } else if (c == ' ') {
+                out.append('+');
+            } else {
+                // Encode the whole run of reserved characters at once, a surrogate pair needs both halves
+                int end = i + 1;
+                while (end < text.length() && !isUnreserved(text.charAt(end)) && text.charAt(end) != ' ') {
+                    end++;
+                }
+                for (byte b : text.substring(i, end).getBytes(UTF_8)) {
+                    out.append('%').append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+                }
+                i = end - 1;
+            }
+        }
+    }
+
+    /**
+     * Undo {@link #encode}. Malformed escapes are kept as they are.
+     */
+    static String decode(String text)
+    {
+        if (text.indexOf('%') < 0 && text.indexOf('+') < 0) {
+            return text;
+        }
+        StringBuilder decoded = new StringBuilder(text.length());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '%') {
+                // Collect the bytes of a run of escapes, together they are UTF-8
+                bytes.reset();
+                int high;
+                int low;
+                while (i + 2 < text.length() && text.charAt(i) == '%'
+                        && (high = Character.digit(text.charAt(i + 1), 16)) >= 0
+                        && (low = Character.digit(text.charAt(i + 2), 16)) >= 0) {
+                    bytes.write((high << 4) | low);
+                    i += 3;
+                }
+                if (bytes.size() > 0) {
+                    decoded.append(new String(bytes.toByteArray(), UTF_8));
+                } else {
+                    decoded.append(c);
+                    i++;
+                }
+            } else {
+                decoded.append(c == '+' ? ' ' : c);
+                i++;
+            }
+        }
+        return decoded.toString();
+    }
+
+    private static boolean isUnreserved(char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    /**
+     * Collects the parts of a {@link BookQuery}. Words are normalized as they are added.
+     */
+    public static final class Builder {
+
+        private final List<String> mWords = new ArrayList<String>();
+        private final EnumMap<Field, List<String>> mFieldWords = new EnumMap<Field, List<String>>(Field.class);
+        private Filter mFilter;
+        private OrderBy mOrderBy;
+        private String mLanguage;
+        private int mStartIndex;
+        private int mMaxResults = DEFAULT_MAX_RESULTS;
+        private Projection mProjection;
+
+        public Builder()
+        {
+            for (Field field : Field.values()) {
+                mFieldWords.put(field, new ArrayList<String>());
+            }
+        }
+
+        Builder(BookQuery query)
+        {
+            this();
+            mWords.addAll(query.mWords);
+            for (Field field : Field.values()) {
+                mFieldWords.get(field).addAll(query.mFieldWords.get(field));
+            }
+            mFilter = query.mFilter;
+            mOrderBy = query.mOrderBy;
+            mLanguage = query.mLanguage;
+            mStartIndex = query.mStartIndex;
+            mMaxResults = query.mMaxResults;
+            mProjection = query.mProjection;
+        }
+
+        /**
+         * Add the whitespace separated words of the text, searched in all fields.
+         */
+        public Builder addWords(String text)
+        {
+            for (String word : splitWords(text)) {
+                mWords.add(word);
+            }
+            return this;
+        }
+
+        /**
+         * Add the whitespace separated words of the text, searched in the field only.
+         */
+        public Builder addWords(Field field, String text)
+        {
+            for (String word : splitWords(text)) {
+                if (field == Field.ISBN) {
+                    word = word.replace("-", "");
+                    if (word.isEmpty()) {
+                        continue;
+                    }
+                }
+                mFieldWords.get(field).add(word);
+            }
+            return this;
+        }
+
+        public Builder setFilter(Filter filter)
+        {
+            mFilter = filter;
+            return this;
+        }
+
+        public Builder setOrderBy(OrderBy orderBy)
+        {
+            // Relevance is what the API does without the parameter, one key for both
+            mOrderBy = orderBy == OrderBy.RELEVANCE ? null : orderBy;
+            return this;
+        }
+
+        /**
+         * Restrict the results to a language, e.g. "en". Null or empty for any language.
+         */
+        public Builder setLanguage(String language)
+        {
+            mLanguage = language == null || language.trim().isEmpty()
+                    ? null : language.trim().toLowerCase(Locale.ROOT);
+            return this;
+        }
+
+        /**
+         * The page of results, {@code maxResults} is clamped to what the API allows.
+         */
+        public Builder setPage(int startIndex, int maxResults)
+        {
+            mStartIndex = Math.max(0, startIndex);
+            mMaxResults = Math.max(1, Math.min(maxResults, MAX_RESULTS_LIMIT));
+            return this;
+        }
+
+        public Builder setProjection(Projection projection)
+        {
+            mProjection = projection == Projection.FULL ? null : projection;
+            return this;
+        }
+
+        public BookQuery build()
+        {
+            return new BookQuery(this);
+        }
+
+        private static List<String> splitWords(String text)
+        {
+            String normalized = Normalizer.normalize(text, Normalizer.Form.NFC).toLowerCase(Locale.ROOT).trim();
+            if (normalized.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<String> words = new ArrayList<String>(Arrays.asList(normalized.split("\\s+")));
+            // Quotes only group words in parse(), they are not searched
+            for (int i = words.size() - 1; i >= 0; i--) {
+                String word = words.get(i).replace("\"", "");
+                if (word.isEmpty()) {
+                    words.remove(i);
+                } else {
+                    words.set(i, word);
+                }
+            }
+            return words;
+        }
+    }
+}
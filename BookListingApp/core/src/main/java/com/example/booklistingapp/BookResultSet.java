@@ -0,0 +1,418 @@
+package com.example.booklistingapp;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable, columnar list of books as kept in the caches.
+ * Volume ids and titles are packed into one char buffer each with an offset array, authors,
+ * currencies, languages and categories are codes into a dictionary shared with the other result
+ * sets, and the cover and buy URLs are not stored at all when they follow the usual pattern for
+ * the volume id (see {@link BooksApi}). The other details are plain number columns.
+ * <p>
+ * A result set keeps the dictionary it was built with. New result sets share a dictionary
+ * until {@link #startNewDictionary()} is called, e.g. when it no longer fits the memory budget
+ * of the results; the old one is freed with the last result set that uses it.
+ * {@link #get(int)} builds a {@link Book} view of a row on demand, {@link BookCodec} reads the
+ * columns directly.
+ */
+public final class BookResultSet extends AbstractList<Book> implements RandomAccess {
+
+    // Author names repeat across searches and pages, so do the terms; new result sets share this table
+    private static volatile StringDictionary sStrings = new StringDictionary();
+
+    private static final BookResultSet EMPTY = new Builder(0).build();
+
+    private final int mSize;
+    // Null for an empty set, it has no strings to look up
+    private final StringDictionary mStrings;
+    private final char[] mIds;
+    private final int[] mIdOffsets;
+    private final char[] mTitles;
+    private final int[] mTitleOffsets;
+    private final int[] mAuthors;
+    // Null, or the URL of every row whose URL does not follow the pattern (null for the others)
+    private final String[] mImageUrls;
+    private final String[] mBookUrls;
+    private final long[] mPrices;
+    private final int[] mCurrencies;
+    private final int[] mLanguages;
+    private final int[] mDates;
+    private final float[] mRatings;
+    // The categories of row i are mCategories[mCategoryOffsets[i]] up to the next row's offset
+    private final int[] mCategories;
+    private final int[] mCategoryOffsets;
+    // ISBN-13 as a number, 0 for none
+    private final long[] mIsbns;
+    private final int mSkippedCount;
+
+    private BookResultSet(Builder builder)
+    {
+        mSize = builder.mSize;
+        mSkippedCount = builder.mSkippedCount;
+        mStrings = mSize > 0 ? builder.mStrings : null;
+        mIds = Arrays.copyOf(builder.mIds, builder.mIdOffsets[mSize]);
+        mIdOffsets = Arrays.copyOf(builder.mIdOffsets, mSize + 1);
+        mTitles = Arrays.copyOf(builder.mTitles, builder.mTitleOffsets[mSize]);
+        mTitleOffsets = Arrays.copyOf(builder.mTitleOffsets, mSize + 1);
+        mAuthors = Arrays.copyOf(builder.mAuthors, mSize);
+        mImageUrls = builder.mImageUrls != null ? Arrays.copyOf(builder.mImageUrls, mSize) : null;
+        mBookUrls = builder.mBookUrls != null ? Arrays.copyOf(builder.mBookUrls, mSize) : null;
+        mPrices = Arrays.copyOf(builder.mPrices, mSize);
+        mCurrencies = Arrays.copyOf(builder.mCurrencies, mSize);
+        mLanguages = Arrays.copyOf(builder.mLanguages, mSize);
+        mDates = Arrays.copyOf(builder.mDates, mSize);
+        mRatings = Arrays.copyOf(builder.mRatings, mSize);
+        mCategories = Arrays.copyOf(builder.mCategories, builder.mCategoryOffsets[mSize]);
+        mCategoryOffsets = Arrays.copyOf(builder.mCategoryOffsets, mSize + 1);
+        mIsbns = Arrays.copyOf(builder.mIsbns, mSize);
+    }
+
+    public static BookResultSet empty()
+    {
+        return EMPTY;
+    }
+
+    /**
+     * The books as a result set, the list itself if it already is one.
+     */
+    public static BookResultSet of(List<Book> books)
+    {
+        if (books instanceof BookResultSet) {
+            return (BookResultSet) books;
+        }
+        Builder builder = new Builder(books.size());
+        for (Book book : books) {
+            builder.add(book);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public Book get(int index) {
+        String volumeId = getVolumeId(index);
+        return new Book(volumeId, getTitle(index), getAuthor(index),
+                imageUrl(volumeId, index), bookUrl(volumeId, index), mPrices[index],
+                mStrings.get(mCurrencies[index]), mStrings.get(mLanguages[index]), mDates[index],
+                categories(index), mRatings[index],
+                mIsbns[index] != 0 ? String.valueOf(mIsbns[index]) : "");
+    }
+
+    /**
+     * Number of items of the response that could not be turned into a book. The page
+     * is that much shorter than requested even though there are more results.
+     */
+    public int getSkippedCount()
+    {
+        return mSkippedCount;
+    }
+
+    public String getVolumeId(int index)
+    {
+        checkIndex(index);
+        return new String(mIds, mIdOffsets[index], mIdOffsets[index + 1] - mIdOffsets[index]);
+    }
+
+    public String getTitle(int index)
+    {
+        checkIndex(index);
+        return new String(mTitles, mTitleOffsets[index], mTitleOffsets[index + 1] - mTitleOffsets[index]);
+    }
+
+    public String getAuthor(int index)
+    {
+        checkIndex(index);
+        return mStrings.get(mAuthors[index]);
+    }
+
+    /**
+     * Estimated heap size of this result set, not counting the shared dictionary.
+     */
+    public int estimatedRetainedBytes()
+    {
+        // Object headers and array headers, then the array contents
+        int size = 92 + 14 * 16;
+        size += 2 * (mIds.length + mTitles.length) + 4 * (mIdOffsets.length + mTitleOffsets.length + mAuthors.length);
+        size += 8 * (mPrices.length + mIsbns.length) + 4 * (mCurrencies.length + mLanguages.length + mDates.length + mRatings.length);
+        size += 4 * (mCategories.length + mCategoryOffsets.length);
+        size += overrideBytes(mImageUrls) + overrideBytes(mBookUrls);
+        return size;
+    }
+
+    /**
+     * Estimated heap size of the distinct author names and terms in the dictionary that new
+     * result sets share.
+     */
+    public static int estimatedDictionaryBytes()
+    {
+        return sStrings.estimatedBytes();
+    }
+
+    /**
+     * Let result sets built from now on share a new, empty dictionary.
+     */
+    public static void startNewDictionary()
+    {
+        sStrings = new StringDictionary();
+    }
+
+    // Column access for {@link BookCodec}, without building a Book and its URLs
+
+    String getImageUrlOverride(int index)
+    {
+        return mImageUrls != null ? mImageUrls[index] : null;
+    }
+
+    String getBookUrlOverride(int index)
+    {
+        return mBookUrls != null ? mBookUrls[index] : null;
+    }
+
+    long getPriceMicros(int index)
+    {
+        return mPrices[index];
+    }
+
+    String getCurrency(int index)
+    {
+        return mStrings.get(mCurrencies[index]);
+    }
+
+    String getLanguage(int index)
+    {
+        return mStrings.get(mLanguages[index]);
+    }
+
+    int getPublishedDate(int index)
+    {
+        return mDates[index];
+    }
+
+    float getRating(int index)
+    {
+        return mRatings[index];
+    }
+
+    int getCategoryCount(int index)
+    {
+        return mCategoryOffsets[index + 1] - mCategoryOffsets[index];
+    }
+
+    String getCategory(int index, int category)
+    {
+        return mStrings.get(mCategories[mCategoryOffsets[index] + category]);
+    }
+
+    // The ISBN-13 as a number, 0 for none
+    long getIsbnNumber(int index)
+    {
+        return mIsbns[index];
+    }
+
+    private List<String> categories(int index)
+    {
+        int start = mCategoryOffsets[index];
+        int end = mCategoryOffsets[index + 1];
+        if (start == end) {
+            return Collections.emptyList();
+        }
+        if (end - start == 1) {
+            return Collections.singletonList(mStrings.get(mCategories[start]));
+        }
+        List<String> categories = new ArrayList<String>(end - start);
+        for (int i = start; i < end; i++) {
+            categories.add(mStrings.get(mCategories[i]));
+        }
+        return Collections.unmodifiableList(categories);
+    }
+
+    private String imageUrl(String volumeId, int index)
+    {
+        String override = mImageUrls != null ? mImageUrls[index] : null;
+        return override != null ? override : BooksApi.coverUrl(volumeId);
+    }
+
+    private String bookUrl(String volumeId, int index)
+    {
+        String override = mBookUrls != null ? mBookUrls[index] : null;
+        return override != null ? override : BooksApi.buyUrl(volumeId);
+    }
+
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+        }
+    }
+
+    private static int overrideBytes(String[] urls)
+    {
+        if (urls == null) {
+            return 0;
+        }
+        int size = 16 + 4 * urls.length;
+        for (String url : urls) {
+            if (url != null) {
+                size += 40 + 2 * url.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Appends rows one at a time, the arrays grow as needed and are trimmed by {@link #build()}.
+     */
+    public static final class Builder {
+
+        private final StringDictionary mStrings = sStrings;
+        private int mSize;
+        private char[] mIds;
+        private int[] mIdOffsets;
+        private char[] mTitles;
+        private int[] mTitleOffsets;
+        private int[] mAuthors;
+        private String[] mImageUrls;
+        private String[] mBookUrls;
+        private long[] mPrices;
+        private int[] mCurrencies;
+        private int[] mLanguages;
+        private int[] mDates;
+        private float[] mRatings;
+        private int[] mCategories;
+        private int[] mCategoryOffsets;
+        private long[] mIsbns;
+        private int mSkippedCount;
+
+        public Builder(int expectedSize)
+        {
+            int capacity = Math.max(expectedSize, 1);
+            mIds = new char[capacity * 12];
+            mIdOffsets = new int[capacity + 1];
+            mTitles = new char[capacity * 32];
+            mTitleOffsets = new int[capacity + 1];
+            mAuthors = new int[capacity];
+            mPrices = new long[capacity];
+            mCurrencies = new int[capacity];
+            mLanguages = new int[capacity];
+            mDates = new int[capacity];
+            mRatings = new float[capacity];
+            mCategories = new int[capacity];
+            mCategoryOffsets = new int[capacity + 1];
+            mIsbns = new long[capacity];
+        }
+
+        public Builder add(Book book)
+        {
+            return add(book.getVolumeId(), book.getTitle(), book.getAuthor(), book.getUrlImage(), book.getUrlBook(),
+                    book.getPriceMicros(), book.getCurrency(), book.getLanguage(), book.getPublishedDate(),
+                    book.getCategories(), book.getRating(), book.getIsbn());
+        }
+
+        public Builder add(String volumeId, String title, String author, String urlImage, String urlBook,
+                           long priceMicros, String currency, String language, int publishedDate,
+                           List<String> categories, float rating, String isbn)
+        {
+            // Only URLs that cannot be rebuilt from the volume id are kept
+            String imageUrlOverride = urlImage.equals(BooksApi.coverUrl(volumeId)) ? null : urlImage;
+            String bookUrlOverride = urlBook.equals(BooksApi.buyUrl(volumeId)) ? null : urlBook;
+            // Canonical ISBNs are 13 digits, they fit in a long
+            long isbnNumber = isbn.isEmpty() ? 0 : Long.parseLong(isbn);
+            return addRow(volumeId, title, author, imageUrlOverride, bookUrlOverride, priceMicros, currency, language,
+                    publishedDate, categories, rating, isbnNumber);
+        }
+
+        /**
+         * Add a row as it is stored: the URLs are null if they follow the pattern for the volume id.
+         */
+        Builder addRow(String volumeId, String title, String author, String imageUrlOverride, String bookUrlOverride,
+                       long priceMicros, String currency, String language, int publishedDate,
+                       List<String> categories, float rating, long isbnNumber)
+        {
+            if (mSize == mAuthors.length) {
+                int capacity = mSize * 2;
+                mIdOffsets = Arrays.copyOf(mIdOffsets, capacity + 1);
+                mTitleOffsets = Arrays.copyOf(mTitleOffsets, capacity + 1);
+                mAuthors = Arrays.copyOf(mAuthors, capacity);
+                mPrices = Arrays.copyOf(mPrices, capacity);
+                mCurrencies = Arrays.copyOf(mCurrencies, capacity);
+                mLanguages = Arrays.copyOf(mLanguages, capacity);
+                mDates = Arrays.copyOf(mDates, capacity);
+                mRatings = Arrays.copyOf(mRatings, capacity);
+                mCategoryOffsets = Arrays.copyOf(mCategoryOffsets, capacity + 1);
+                mIsbns = Arrays.copyOf(mIsbns, capacity);
+                if (mImageUrls != null) {
+                    mImageUrls = Arrays.copyOf(mImageUrls, capacity);
+                }
+                if (mBookUrls != null) {
+                    mBookUrls = Arrays.copyOf(mBookUrls, capacity);
+                }
+            }
+
+            mIds = append(mIds, mIdOffsets, volumeId);
+            mTitles = append(mTitles, mTitleOffsets, title);
+            mAuthors[mSize] = mStrings.intern(author);
+            mPrices[mSize] = priceMicros;
+            mCurrencies[mSize] = mStrings.intern(currency);
+            mLanguages[mSize] = mStrings.intern(language);
+            mDates[mSize] = publishedDate;
+            mRatings[mSize] = rating;
+            int start = mCategoryOffsets[mSize];
+            if (start + categories.size() > mCategories.length) {
+                mCategories = Arrays.copyOf(mCategories, Math.max(start + categories.size(), mCategories.length * 2));
+            }
+            for (int i = 0; i < categories.size(); i++) {
+                mCategories[start + i] = mStrings.intern(categories.get(i));
+            }
+            mCategoryOffsets[mSize + 1] = start + categories.size();
+            mIsbns[mSize] = isbnNumber;
+
+            if (imageUrlOverride != null) {
+                if (mImageUrls == null) {
+                    mImageUrls = new String[mAuthors.length];
+                }
+                mImageUrls[mSize] = imageUrlOverride;
+            }
+            if (bookUrlOverride != null) {
+                if (mBookUrls == null) {
+                    mBookUrls = new String[mAuthors.length];
+                }
+                mBookUrls[mSize] = bookUrlOverride;
+            }
+            mSize++;
+            return this;
+        }
+
+        public Builder setSkippedCount(int skippedCount)
+        {
+            mSkippedCount = skippedCount;
+            return this;
+        }
+
+        public BookResultSet build()
+        {
+            return new BookResultSet(this);
+        }
+
+        // Copy the text after the last row and record where it ends
+        private char[] append(char[] buffer, int[] offsets, String text)
+        {
+            int start = offsets[mSize];
+            int end = start + text.length();
+            if (end > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(end, buffer.length * 2));
+            }
+            text.getChars(0, text.length(), buffer, start);
+            offsets[mSize + 1] = end;
+            return buffer;
+        }
+    }
+}
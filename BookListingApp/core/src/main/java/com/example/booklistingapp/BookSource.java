@@ -0,0 +1,37 @@
+package com.example.booklistingapp;
+
+import java.util.List;
+
+/**
+ * A catalog that can be searched for books, e.g. the Google Books API.
+ * {@link #search} runs on a fetch thread and blocks until the page is there; cancelling the
+ * token aborts it. {@link FederatedSearch} asks all sources at once and stops waiting for a
+ * source when its deadline has passed.
+ */
+public interface BookSource {
+
+    /**
+     * Short name of the source, used for its metrics.
+     */
+    String getName();
+
+    /**
+     * How long a search waits for this source before the page is shown without it.
+     */
+    long getDeadlineMillis();
+
+    /**
+     * The page of the source's results that the query asks for, or null if the search
+     * was cancelled. Parts of the query the source has no counterpart for are ignored.
+     *
+     * @throws QueryUtils.FetchException if the search failed
+     */
+    List<Book> search(BookQuery query, QueryUtils.ProgressListener listener, CancellationToken token)
+            throws QueryUtils.FetchException;
+
+    /**
+     * The page from the cache, fresh or expired, without going to the network, or null if it
+     * is not cached. Runs on a background thread, it may read from disk.
+     */
+    List<Book> getCached(BookQuery query);
+}
@@ -0,0 +1,202 @@
+package com.example.booklistingapp;
+
+import java.util.List;
+
+/**
+ * Request URLs of the Google Books volumes API, and of the Open Library search API
+ * that is asked alongside it. Open Library's books API serves the batch lookups by ISBN.
+ */
+public final class BooksApi {
+
+    private static final String VOLUMES_URL = "https://www.googleapis.com/books/v1/volumes";
+    private static final String COVER_URL_PREFIX = "https://books.google.com/books/content/images/frontcover/";
+    private static final String COVER_URL_SUFFIX = "?fife=w300";
+    private static final String BUY_URL_PREFIX = "https://play.google.com/store/books/details?id=";
+    private static final String INFO_URL_PREFIX = "https://books.google.com/books?id=";
+    private static final String OPEN_LIBRARY_SEARCH_URL = "https://openlibrary.org/search.json";
+    private static final String OPEN_LIBRARY_BOOKS_URL = "https://openlibrary.org/api/books";
+
+    // Only the parts of a volume that {@link Book} is built from, everything else is left out of the response
+    static final String BOOK_FIELDS = "items(id,volumeInfo(title,authors,imageLinks/smallThumbnail,language,publishedDate,"
+            + "categories,averageRating,industryIdentifiers),saleInfo(buyLink,retailPrice))";
+    // The same for the documents of an Open Library search, see {@link OpenLibraryJsonParser}
+    static final String OPEN_LIBRARY_FIELDS = "key,title,author_name,cover_i,language,first_publish_year,subject,ratings_average";
+
+    private BooksApi()
+    {
+
+    }
+
+    /**
+     * Build the Google Books request URL for the query. The URL only depends on the
+     * canonical form of the query, so the same search always hits the same cache entry.
+     */
+    public static String buildQueryUrl(BookQuery query)
+    {
+        String key = query.getKey();
+        StringBuilder stringBuilder = new StringBuilder(VOLUMES_URL.length() + key.length() + 128);
+        stringBuilder.append(VOLUMES_URL).append('?').append(key).append("&fields=").append(BOOK_FIELDS);
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Read the query back from a volumes request URL (or its query string alone).
+     * Parameters that are not part of a {@link BookQuery}, e.g. "fields", are ignored.
+     */
+    public static BookQuery parseQueryUrl(String url)
+    {
+        int queryStart = url.indexOf('?');
+        String queryString = queryStart >= 0 ? url.substring(queryStart + 1) : url;
+        String terms = "";
+        BookQuery.Filter filter = null;
+        BookQuery.OrderBy orderBy = null;
+        String language = null;
+        BookQuery.Projection projection = null;
+        int startIndex = 0;
+        int maxResults = BookQuery.DEFAULT_MAX_RESULTS;
+        for (String parameter : queryString.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals < 0) {
+                continue;
+            }
+            String name = parameter.substring(0, equals);
+            String value = BookQuery.decode(parameter.substring(equals + 1));
+            if ("q".equals(name)) {
+                terms = value;
+            } else if ("filter".equals(name)) {
+                filter = valueOf(BookQuery.Filter.values(), value);
+            } else if ("orderBy".equals(name)) {
+                orderBy = valueOf(BookQuery.OrderBy.values(), value);
+            } else if ("langRestrict".equals(name)) {
+                language = value;
+            } else if ("projection".equals(name)) {
+                projection = valueOf(BookQuery.Projection.values(), value);
+            } else if ("startIndex".equals(name)) {
+                startIndex = parseInt(value, startIndex);
+            } else if ("maxResults".equals(name)) {
+                maxResults = parseInt(value, maxResults);
+            }
+        }
+        return BookQuery.parse(terms).buildUpon()
+                .setFilter(filter)
+                .setOrderBy(orderBy)
+                .setLanguage(language)
+                .setProjection(projection)
+                .setPage(startIndex, maxResults)
+                .build();
+    }
+
+    /**
+     * Build the Open Library search URL for the same page of its own result set.
+     * Field words become Open Library's own field syntax, the filter has no counterpart there.
+     */
+    public static String buildOpenLibraryUrl(BookQuery query)
+    {
+        StringBuilder terms = new StringBuilder();
+        for (String word : query.getWords()) {
+            appendTerm(terms, null, word);
+        }
+        for (String word : query.getWords(BookQuery.Field.TITLE)) {
+            appendTerm(terms, "title", word);
+        }
+        for (String word : query.getWords(BookQuery.Field.AUTHOR)) {
+            appendTerm(terms, "author", word);
+        }
+        for (String word : query.getWords(BookQuery.Field.SUBJECT)) {
+            appendTerm(terms, "subject", word);
+        }
+        for (String word : query.getWords(BookQuery.Field.ISBN)) {
+            appendTerm(terms, "isbn", word);
+        }
+
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append(OPEN_LIBRARY_SEARCH_URL).append("?q=");
+        BookQuery.encode(terms.toString(), stringBuilder);
+        stringBuilder.append("&offset=").append(query.getStartIndex()).append("&limit=").append(query.getMaxResults());
+        if (query.getOrderBy() == BookQuery.OrderBy.NEWEST) {
+            stringBuilder.append("&sort=new");
+        }
+        stringBuilder.append("&fields=").append(OPEN_LIBRARY_FIELDS);
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Build the Open Library books API URL that looks up all the ISBNs in one request,
+     * see {@link OpenLibraryJsonParser#parseBooksApi(java.io.InputStream)}. The ISBNs should be
+     * in canonical form, so that the same batch always hits the same cache entry.
+     */
+    public static String buildOpenLibraryIsbnUrl(List<String> isbns)
+    {
+        StringBuilder stringBuilder = new StringBuilder(OPEN_LIBRARY_BOOKS_URL.length() + 19 * isbns.size() + 32);
+        stringBuilder.append(OPEN_LIBRARY_BOOKS_URL).append("?bibkeys=");
+        for (int i = 0; i < isbns.size(); i++) {
+            if (i > 0) {
+                stringBuilder.append(',');
+            }
+            stringBuilder.append("ISBN:").append(isbns.get(i));
+        }
+        stringBuilder.append("&format=json&jscmd=data");
+        return stringBuilder.toString();
+    }
+
+    private static void appendTerm(StringBuilder terms, String field, String word)
+    {
+        if (terms.length() > 0) {
+            terms.append(' ');
+        }
+        if (field != null) {
+            terms.append(field).append(':').append(word);
+        } else if (word.indexOf(':') >= 0) {
+            // Open Library would read it as a field
+            terms.append('"').append(word).append('"');
+        } else {
+            terms.append(word);
+        }
+    }
+
+    private static <T extends Enum<T>> T valueOf(T[] values, String value)
+    {
+        for (T candidate : values) {
+            if (candidate.name().replace('_', '-').equalsIgnoreCase(value)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static int parseInt(String value, int fallback)
+    {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Front cover URL of the volume, at the width the app asks for by default.
+     */
+    public static String coverUrl(String volumeId)
+    {
+        StringBuilder stringBuilder = new StringBuilder(COVER_URL_PREFIX.length() + volumeId.length() + COVER_URL_SUFFIX.length());
+        return stringBuilder.append(COVER_URL_PREFIX).append(volumeId).append(COVER_URL_SUFFIX).toString();
+    }
+
+    /**
+     * The Google Books page of a volume, for volumes that come without a buy link.
+     */
+    public static String infoUrl(String volumeId)
+    {
+        return INFO_URL_PREFIX + volumeId;
+    }
+
+    /**
+     * The "buyLink" the API returns for a volume that is for sale on Google Play.
+     */
+    public static String buyUrl(String volumeId)
+    {
+        StringBuilder stringBuilder = new StringBuilder(BUY_URL_PREFIX.length() + 2 * volumeId.length() + 32);
+        return stringBuilder.append(BUY_URL_PREFIX).append(volumeId).append("&rdid=book-").append(volumeId)
+                .append("&rdot=1&source=gbs_api").toString();
+    }
+}
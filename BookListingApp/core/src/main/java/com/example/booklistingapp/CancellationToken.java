@@ -0,0 +1,67 @@
+package com.example.booklistingapp;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cancels a single fetch. The owner of the fetch calls {@link #cancel()}, the code doing
+ * the work either polls {@link #isCanceled()} or registers a listener that aborts
+ * blocking I/O (e.g. disconnects the HTTP connection).
+ */
+public final class CancellationToken {
+
+    /**
+     * Called once, on the thread that cancels the token.
+     */
+    public interface OnCancelListener {
+        void onCancel();
+    }
+
+    private boolean mCanceled;
+    private OnCancelListener mListener;
+
+    public void cancel()
+    {
+        OnCancelListener listener;
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            mCanceled = true;
+            listener = mListener;
+            mListener = null;
+        }
+        // Called outside the lock, the listener may block on I/O
+        if (listener != null) {
+            listener.onCancel();
+        }
+    }
+
+    public synchronized boolean isCanceled()
+    {
+        return mCanceled;
+    }
+
+    /**
+     * Set the listener, or remove it with null. If the token is already cancelled
+     * the listener is called right away.
+     */
+    public void setOnCancelListener(OnCancelListener listener)
+    {
+        synchronized (this) {
+            if (!mCanceled) {
+                mListener = listener;
+                return;
+            }
+        }
+        if (listener != null) {
+            listener.onCancel();
+        }
+    }
+
+    public void throwIfCanceled()
+    {
+        if (isCanceled()) {
+            throw new CancellationException();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.booklistingapp;
+
+/**
+ * Stops sending requests to a host that keeps failing, so a search fails (or falls back to the
+ * cache) right away instead of waiting for timeouts, and the host is not hammered while it recovers.
+ * After {@code failureThreshold} failures in a row the circuit opens for {@code openMillis};
+ * a Retry-After of the server opens it for as long as the server asked. Once that time has passed
+ * a single probe request is let through: its success closes the circuit, its failure opens it again.
+ * Every request that was allowed must report exactly one outcome.
+ */
+public final class CircuitBreaker {
+
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+
+    private int mFailures;
+    private boolean mOpen;
+    private long mOpenUntilNanos;
+    private boolean mProbing;
+
+    public CircuitBreaker(int failureThreshold, long openMillis)
+    {
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * Whether a request may be sent now. While the circuit is half open only one caller gets true.
+     */
+    public synchronized boolean allowRequest()
+    {
+        if (!mOpen) {
+            return true;
+        }
+        if (System.nanoTime() - mOpenUntilNanos < 0 || mProbing) {
+            return false;
+        }
+        mProbing = true;
+        return true;
+    }
+
+    /**
+     * The host answered, even with an error that is not its fault, such as a 404.
+     */
+    public synchronized void onSuccess()
+    {
+        mFailures = 0;
+        mOpen = false;
+        mProbing = false;
+    }
+
+    /**
+     * The request failed because of the host or the network.
+     *
+     * @param retryAfterMillis the server's Retry-After, or -1 if it sent none
+     */
+    public synchronized void onFailure(long retryAfterMillis)
+    {
+        mFailures++;
+        if (retryAfterMillis > 0) {
+            open(retryAfterMillis);
+        } else if (mProbing || mFailures >= mFailureThreshold) {
+            open(mOpenMillis);
+        }
+        mProbing = false;
+    }
+
+    /**
+     * The request was cancelled before it had an outcome, another caller may probe.
+     */
+    public synchronized void onCancelled()
+    {
+        mProbing = false;
+    }
+
+    /**
+     * How long the circuit stays open, 0 if it is closed or a probe may be sent.
+     */
+    public synchronized long getRemainingOpenMillis()
+    {
+        if (!mOpen) {
+            return 0;
+        }
+        return Math.max(0, (mOpenUntilNanos - System.nanoTime()) / 1000000);
+    }
+
+    private void open(long millis)
+    {
+        long until = System.nanoTime() + millis * 1000000;
+        // A longer Retry-After is not cut short by a later failure
+        if (!mOpen || until - mOpenUntilNanos > 0) {
+            mOpenUntilNanos = until;
+        }
+        mOpen = true;
+    }
+}
@@ -0,0 +1,352 @@
+package com.example.booklistingapp;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches several {@link BookSource}s for the same page at once.
+ * Every source is a separate fetch of the {@link BookFetchEngine}, so they run in parallel,
+ * and each answer is handed to the listener as soon as it arrives. A source that has not
+ * answered by its deadline is cancelled, so a page never takes longer than the largest
+ * deadline, whatever the other sources do.
+ * A source whose page came back short because items were skipped is asked once more for
+ * as many results after the page, like a single source would be.
+ * Results are delivered on the delivery executor. Nothing in here depends on Android.
+ */
+public final class FederatedSearch {
+
+    /**
+     * Receives the answers of one search on the delivery executor, none once it is cancelled.
+     */
+    public interface Listener {
+
+        /**
+         * A source answered, or failed or ran out of time, then books is null.
+         * {@code consumedCount} is how many of the source's results the page used,
+         * more than the page size if the page was topped up.
+         */
+        void onSourceResult(int source, List<Book> books, int consumedCount);
+
+        /**
+         * A source failed and said why, called instead of {@link #onSourceResult}.
+         */
+        void onSourceFailed(int source, QueryUtils.FetchException failure);
+
+        /**
+         * Every source has answered or given up.
+         */
+        void onComplete();
+    }
+
+    private static final QueryUtils.ProgressListener NO_PROGRESS = new QueryUtils.ProgressListener() {
+        @Override
+        public void onProgress(Phase phase, long bytesRead) {
+            // Only the first source reports progress
+        }
+    };
+
+    private static final ScheduledExecutorService sDeadlines = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SourceDeadlines");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final BookFetchEngine mEngine;
+    private final List<BookSource> mSources;
+    private final Executor mDeliveryExecutor;
+    private final Metrics.Histogram[] mLatencies;
+    private final Metrics.Counter[] mTimeouts;
+
+    /**
+     * @param sources in order of importance, only the first one reports progress
+     */
+    public FederatedSearch(BookFetchEngine engine, List<BookSource> sources, Executor deliveryExecutor)
+    {
+        mEngine = engine;
+        mSources = new ArrayList<BookSource>(sources);
+        mDeliveryExecutor = deliveryExecutor;
+        mLatencies = new Metrics.Histogram[mSources.size()];
+        mTimeouts = new Metrics.Counter[mSources.size()];
+        for (int i = 0; i < mSources.size(); i++) {
+            String name = mSources.get(i).getName();
+            mLatencies[i] = Metrics.histogram("source." + name);
+            mTimeouts[i] = Metrics.counter("source." + name + ".timeouts");
+        }
+    }
+
+    public int getSourceCount()
+    {
+        return mSources.size();
+    }
+
+    public BookSource getSource(int index)
+    {
+        return mSources.get(index);
+    }
+
+    /**
+     * What each source has cached for {@code size} results of the query from its entry of
+     * {@code startIndexes}, null for a source without a cached page. Blocks on disk reads,
+     * so it must be called on a background thread.
+     */
+    public List<List<Book>> getCached(BookQuery query, int[] startIndexes, int size)
+    {
+        List<List<Book>> pages = new ArrayList<List<Book>>(mSources.size());
+        for (int i = 0; i < mSources.size(); i++) {
+            pages.add(mSources.get(i).getCached(query.withPage(startIndexes[i], size)));
+        }
+        return pages;
+    }
+
+    /**
+     * Ask every source for {@code size} results of the query, starting at its entry of
+     * {@code startIndexes}. Returns the token that cancels all of them.
+     */
+    public CancellationToken search(BookQuery query, int[] startIndexes, int size, BookFetchEngine.Priority priority,
+                                    QueryUtils.ProgressListener progress, Listener listener)
+    {
+        Request request = new Request(query, size, priority, listener);
+        for (int i = 0; i < mSources.size(); i++) {
+            request.start(i, startIndexes[i], i == 0 ? progress : NO_PROGRESS);
+        }
+        return request.mToken;
+    }
+
+    /**
+     * Key under which books of different sources count as the same book: the canonical ISBN
+     * if the book has one, else its {@link #titleKeyOf title key}. The sources share no ids.
+     */
+    static String keyOf(Book book)
+    {
+        return book.getIsbn().isEmpty() ? titleKeyOf(book) : "isbn:" + book.getIsbn();
+    }
+
+    /**
+     * The title and the authors in lower case letters and digits only, without accents, for
+     * books without an ISBN, e.g. from Open Library. Never equal to the key of an ISBN.
+     * The whole author is kept, "Smith, John" and "Smith, Jane" are different authors.
+     */
+    static String titleKeyOf(Book book)
+    {
+        String author = book.getAuthor();
+        StringBuilder key = new StringBuilder(book.getTitle().length() + author.length() + 1);
+        appendFolded(key, book.getTitle());
+        key.append('|');
+        appendFolded(key, author);
+        return key.toString();
+    }
+
+    private static void appendFolded(StringBuilder key, String text)
+    {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            // Accents are separate combining marks after NFD, they are not letters
+            if (Character.isLetterOrDigit(c)) {
+                key.append(Character.toLowerCase(c));
+            }
+        }
+    }
+
+    /**
+     * The fetches of a single search, one per source.
+     */
+    private final class Request {
+
+        private final BookQuery mQuery;
+        private final int mSize;
+        private final BookFetchEngine.Priority mPriority;
+        private final Listener mListener;
+        private final CancellationToken mToken = new CancellationToken();
+        private final SourceCall[] mCalls = new SourceCall[mSources.size()];
+        private int mPending = mSources.size();
+
+        Request(BookQuery query, int size, BookFetchEngine.Priority priority, Listener listener)
+        {
+            mQuery = query;
+            mSize = size;
+            mPriority = priority;
+            mListener = listener;
+
+            mToken.setOnCancelListener(new CancellationToken.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    List<CancellationToken> fetches = new ArrayList<CancellationToken>(mCalls.length);
+                    synchronized (Request.this) {
+                        for (SourceCall call : mCalls) {
+                            if (call != null && call.mFetch != null) {
+                                fetches.add(call.mFetch);
+                                call.mDeadline.cancel(false);
+                            }
+                        }
+                    }
+                    // Outside the lock, cancelling closes connections
+                    for (CancellationToken fetch : fetches) {
+                        fetch.cancel();
+                    }
+                }
+            });
+        }
+
+        void start(int index, int startIndex, final QueryUtils.ProgressListener progress)
+        {
+            final SourceCall call = new SourceCall(index, startIndex);
+            call.mDeadline = sDeadlines.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mDeliveryExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            onDeadline(call);
+                        }
+                    });
+                }
+            }, call.mSource.getDeadlineMillis(), TimeUnit.MILLISECONDS);
+            CancellationToken fetch = mEngine.submit(call.mSource, mQuery.withPage(startIndex, mSize), mPriority,
+                    new BookFetchEngine.Callback() {
+                        @Override
+                        public void onProgress(Phase phase, long bytesRead) {
+                            progress.onProgress(phase, bytesRead);
+                        }
+
+                        @Override
+                        public void onResult(List<Book> books) {
+                            onPage(call, books);
+                        }
+
+                        @Override
+                        public void onFailure(QueryUtils.FetchException failure) {
+                            finish(call, null, mSize, failure);
+                        }
+                    });
+            synchronized (this) {
+                mCalls[index] = call;
+                // With a direct delivery executor the fetch may already have answered, or be refilling
+                if (!call.mFinished && call.mFetch == null) {
+                    call.mFetch = fetch;
+                }
+            }
+        }
+
+        private void onPage(final SourceCall call, final List<Book> books)
+        {
+            int skipped = books instanceof BookResultSet ? ((BookResultSet) books).getSkippedCount() : 0;
+            if (skipped == 0 || books.isEmpty()) {
+                finish(call, books, mSize, null);
+                return;
+            }
+
+            // Items of the page could not be parsed, ask once for as many results after it.
+            // Items skipped in the refill are not made up for again.
+            final int refillSize = Math.min(skipped, BookQuery.MAX_RESULTS_LIMIT);
+            synchronized (this) {
+                if (call.mFinished || mToken.isCanceled()) {
+                    return;
+                }
+                call.mBooks = books;
+                BookQuery refillQuery = mQuery.withPage(call.mStartIndex + mSize, refillSize);
+                call.mFetch = mEngine.submit(call.mSource, refillQuery, mPriority,
+                        new BookFetchEngine.Callback() {
+                            @Override
+                            public void onProgress(Phase phase, long bytesRead) {
+                                // The page already arrived, its progress is over
+                            }
+
+                            @Override
+                            public void onResult(List<Book> refill) {
+                                if (refill == null) {
+                                    // Show what there is, the next page starts right after it
+                                    finish(call, books, mSize, null);
+                                    return;
+                                }
+                                List<Book> merged = new ArrayList<Book>(books.size() + refill.size());
+                                merged.addAll(books);
+                                merged.addAll(refill);
+                                finish(call, merged, mSize + refillSize, null);
+                            }
+
+                            @Override
+                            public void onFailure(QueryUtils.FetchException failure) {
+                                finish(call, books, mSize, null);
+                            }
+                        });
+            }
+        }
+
+        private void onDeadline(SourceCall call)
+        {
+            CancellationToken fetch;
+            synchronized (this) {
+                if (call.mFinished || mToken.isCanceled()) {
+                    return;
+                }
+                fetch = call.mFetch;
+            }
+            if (fetch != null) {
+                fetch.cancel();
+            }
+            mTimeouts[call.mIndex].increment();
+            // A page that is waiting for its refill is shown as it is
+            finish(call, call.mBooks, mSize, null);
+        }
+
+        private void finish(SourceCall call, List<Book> books, int consumedCount, QueryUtils.FetchException failure)
+        {
+            boolean complete;
+            synchronized (this) {
+                if (call.mFinished || mToken.isCanceled()) {
+                    return;
+                }
+                call.mFinished = true;
+                call.mDeadline.cancel(false);
+                complete = --mPending == 0;
+            }
+            if (books != null) {
+                mLatencies[call.mIndex].recordSince(call.mStartNanos);
+            }
+            if (failure != null) {
+                mListener.onSourceFailed(call.mIndex, failure);
+            } else {
+                mListener.onSourceResult(call.mIndex, books, consumedCount);
+            }
+            if (complete) {
+                mListener.onComplete();
+            }
+        }
+    }
+
+    /**
+     * The fetch of one source, replaced by the refill fetch if the page was short.
+     * The mutable fields are guarded by the request.
+     */
+    private final class SourceCall {
+
+        private final int mIndex;
+        private final BookSource mSource;
+        private final int mStartIndex;
+        private final long mStartNanos = System.nanoTime();
+        private CancellationToken mFetch;
+        private ScheduledFuture<?> mDeadline;
+        // The short page while its refill is running
+        private List<Book> mBooks;
+        private boolean mFinished;
+
+        SourceCall(int index, int startIndex)
+        {
+            mIndex = index;
+            mSource = mSources.get(index);
+            mStartIndex = startIndex;
+        }
+    }
+}
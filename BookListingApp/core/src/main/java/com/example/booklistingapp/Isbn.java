@@ -0,0 +1,109 @@
+package com.example.booklistingapp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * ISBNs in canonical form: the 13 digits of the ISBN-13, an ISBN-10 is converted to it.
+ * Both forms of the same edition become the same string, so they can be compared and used
+ * as keys.
+ */
+public final class Isbn {
+
+    private Isbn()
+    {
+
+    }
+
+    /**
+     * The canonical ISBN-13 of an ISBN-10 or ISBN-13, with or without hyphens and spaces.
+     * Null if it is neither, or its check digit is wrong.
+     */
+    public static String canonical(String text)
+    {
+        char[] digits = new char[13];
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '-' || c == ' ') {
+                continue;
+            }
+            boolean digit = c >= '0' && c <= '9';
+            // Only the check digit of an ISBN-10 may be an X
+            boolean checkX = (c == 'X' || c == 'x') && count == 9;
+            if (count == 13 || !(digit || checkX)) {
+                return null;
+            }
+            digits[count++] = checkX ? 'X' : c;
+        }
+        if (count == 10) {
+            return isValid10(digits) ? to13(digits) : null;
+        }
+        if (count == 13) {
+            return isValid13(digits) ? new String(digits) : null;
+        }
+        return null;
+    }
+
+    /**
+     * The distinct valid ISBNs in the text, e.g. a reading list or an inventory export,
+     * in canonical form and in the order they appear. Anything else is ignored.
+     */
+    public static List<String> findAll(String text)
+    {
+        LinkedHashSet<String> isbns = new LinkedHashSet<String>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            boolean part = (c >= '0' && c <= '9') || c == '-' || c == 'X' || c == 'x';
+            if (part && start < 0) {
+                start = i;
+            } else if (!part && start >= 0) {
+                String isbn = canonical(text.substring(start, i));
+                if (isbn != null) {
+                    isbns.add(isbn);
+                }
+                start = -1;
+            }
+        }
+        return new ArrayList<String>(isbns);
+    }
+
+    private static boolean isValid10(char[] digits)
+    {
+        int sum = 0;
+        for (int i = 0; i < 10; i++) {
+            int value = digits[i] == 'X' ? 10 : digits[i] - '0';
+            sum += (10 - i) * value;
+        }
+        return sum % 11 == 0;
+    }
+
+    private static boolean isValid13(char[] digits)
+    {
+        return checkDigit13(digits) == digits[12] - '0';
+    }
+
+    // The check digit of the first 12 digits
+    private static int checkDigit13(char[] digits)
+    {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            sum += (i % 2 == 0 ? 1 : 3) * (digits[i] - '0');
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    // "978" and the first nine digits, with a new check digit
+    private static String to13(char[] isbn10)
+    {
+        char[] digits = new char[13];
+        digits[0] = '9';
+        digits[1] = '7';
+        digits[2] = '8';
+        System.arraycopy(isbn10, 0, digits, 3, 9);
+        digits[12] = (char) ('0' + checkDigit13(digits));
+        return new String(digits);
+    }
+}
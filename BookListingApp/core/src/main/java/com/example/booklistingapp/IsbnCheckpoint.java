@@ -0,0 +1,205 @@
+package com.example.booklistingapp;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The answers of an ISBN lookup so far, appended to a file as they come, so a lookup of the
+ * same list can be resumed after the process was killed.
+ * <pre>
+ * file:   version listSize record*
+ * record: count (isbn found)* length books
+ * </pre>
+ * The books of a record are the found ones, encoded with {@link BookCodec}. A record that was
+ * cut off by the kill is dropped when the file is opened again, the ones before it are kept.
+ */
+public final class IsbnCheckpoint implements Closeable {
+
+    static final int VERSION = 2;
+
+    /**
+     * What an earlier run of the same list answered.
+     */
+    public static final class Contents {
+
+        private final List<Book> mBooks;
+        private final Set<String> mAnswered;
+        private final int mNotFoundCount;
+
+        Contents(List<Book> books, Set<String> answered, int notFoundCount)
+        {
+            mBooks = books;
+            mAnswered = answered;
+            mNotFoundCount = notFoundCount;
+        }
+
+        public List<Book> getBooks()
+        {
+            return mBooks;
+        }
+
+        /**
+         * The ISBNs that were found or not found, not those that failed.
+         */
+        public Set<String> getAnswered()
+        {
+            return mAnswered;
+        }
+
+        public int getNotFoundCount()
+        {
+            return mNotFoundCount;
+        }
+    }
+
+    private final File mFile;
+    private final int mListSize;
+    private DataOutputStream mOutput;
+
+    /**
+     * @param listSize the number of ISBNs in the list, a file of another list is started over
+     */
+    public IsbnCheckpoint(File file, int listSize)
+    {
+        mFile = file;
+        mListSize = listSize;
+    }
+
+    /**
+     * Read what the file holds and open it for appending. A file of another version or list,
+     * or one that cannot be read, is started over.
+     * Throws if the file cannot be written, the lookup then cannot be resumed.
+     */
+    public synchronized Contents open() throws IOException
+    {
+        List<Book> books = new ArrayList<Book>();
+        Set<String> answered = new HashSet<String>();
+        int notFound = 0;
+        long validLength = 0;
+        if (mFile.exists()) {
+            byte[] bytes = null;
+            try {
+                bytes = readFully(mFile);
+            } catch (IOException e) {
+                // Started over
+            }
+            DataInputStream input = bytes != null ? new DataInputStream(new ByteArrayInputStream(bytes)) : null;
+            try {
+                if (input != null && input.readInt() == VERSION && input.readInt() == mListSize) {
+                    validLength = bytes.length - input.available();
+                    while (input.available() > 0) {
+                        int count = input.readInt();
+                        List<String> isbns = new ArrayList<String>(count);
+                        int recordNotFound = 0;
+                        for (int i = 0; i < count; i++) {
+                            isbns.add(input.readUTF());
+                            recordNotFound += input.readBoolean() ? 0 : 1;
+                        }
+                        int length = input.readInt();
+                        int start = bytes.length - input.available();
+                        if (length < 0 || length > input.available()) {
+                            throw new EOFException();
+                        }
+                        books.addAll(BookCodec.decode(bytes, start, length));
+                        input.skipBytes(length);
+                        validLength = start + length;
+                        answered.addAll(isbns);
+                        notFound += recordNotFound;
+                    }
+                }
+            } catch (IOException e) {
+                // The last record was not written completely, the ones before it are kept
+            }
+        }
+
+        File dir = mFile.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(validLength);
+        } finally {
+            file.close();
+        }
+        mOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)));
+        if (validLength == 0) {
+            mOutput.writeInt(VERSION);
+            mOutput.writeInt(mListSize);
+            mOutput.flush();
+        }
+        return new Contents(books, answered, notFound);
+    }
+
+    /**
+     * Append the answers for the ISBNs, a null book means it was not found.
+     * The record is in the file when this returns, a kill of the process loses at most the one being written.
+     */
+    public synchronized void append(List<String> isbns, List<Book> books) throws IOException
+    {
+        if (mOutput == null) {
+            throw new IOException("Checkpoint is not open");
+        }
+        List<Book> found = new ArrayList<Book>(books.size());
+        mOutput.writeInt(isbns.size());
+        for (int i = 0; i < isbns.size(); i++) {
+            Book book = books.get(i);
+            mOutput.writeUTF(isbns.get(i));
+            mOutput.writeBoolean(book != null);
+            if (book != null) {
+                found.add(book);
+            }
+        }
+        byte[] encoded = BookCodec.encode(found);
+        mOutput.writeInt(encoded.length);
+        mOutput.write(encoded);
+        mOutput.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mOutput != null) {
+            DataOutputStream output = mOutput;
+            mOutput = null;
+            output.close();
+        }
+    }
+
+    /**
+     * Close the file and delete it, once every ISBN has an answer.
+     */
+    public synchronized void delete()
+    {
+        try {
+            close();
+        } catch (IOException ignored) {
+            // Deleted anyway
+        }
+        mFile.delete();
+    }
+
+    private static byte[] readFully(File file) throws IOException
+    {
+        DataInputStream input = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            input.readFully(bytes);
+            return bytes;
+        } finally {
+            input.close();
+        }
+    }
+}
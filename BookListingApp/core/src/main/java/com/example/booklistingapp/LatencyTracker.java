@@ -0,0 +1,52 @@
+package com.example.booklistingapp;
+
+import java.util.Arrays;
+
+/**
+ * The latest latencies of one host, the basis of its timeouts and of when a request is hedged.
+ * Unlike a {@link Metrics.Histogram} it records while metrics are off, and it only remembers
+ * the most recent samples, so it follows the network the device is on right now.
+ */
+public final class LatencyTracker {
+
+    private final long[] mSamples;
+    private int mCount;
+    private int mNext;
+
+    public LatencyTracker(int capacity)
+    {
+        mSamples = new long[capacity];
+    }
+
+    public synchronized void record(long millis)
+    {
+        mSamples[mNext] = millis;
+        mNext = (mNext + 1) % mSamples.length;
+        mCount = Math.min(mCount + 1, mSamples.length);
+    }
+
+    /**
+     * How many samples the percentiles are based on, at most the capacity.
+     */
+    public synchronized int getCount()
+    {
+        return mCount;
+    }
+
+    /**
+     * The given percentile of the remembered samples, or 0 if there are none.
+     */
+    public long percentile(double percent)
+    {
+        long[] sorted;
+        synchronized (this) {
+            if (mCount == 0) {
+                return 0;
+            }
+            sorted = Arrays.copyOf(mSamples, mCount);
+        }
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(rank, sorted.length) - 1)];
+    }
+}
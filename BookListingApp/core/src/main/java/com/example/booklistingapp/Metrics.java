@@ -0,0 +1,292 @@
+package com.example.booklistingapp;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters, latency histograms and hit ratios of the hot paths.
+ * Instruments are created once and kept in static fields by the code that records into them.
+ * While metrics are disabled (the default) recording is a single volatile read, so the
+ * instruments can stay in release builds. {@link #dump()} renders everything as plain text.
+ */
+public final class Metrics {
+
+    private static volatile boolean sEnabled;
+
+    private static final ConcurrentHashMap<String, Counter> sCounters = new ConcurrentHashMap<String, Counter>();
+    private static final ConcurrentHashMap<String, Histogram> sHistograms = new ConcurrentHashMap<String, Histogram>();
+    private static final ConcurrentHashMap<String, Ratio> sRatios = new ConcurrentHashMap<String, Ratio>();
+
+    private Metrics()
+    {
+
+    }
+
+    public static void setEnabled(boolean enabled)
+    {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled()
+    {
+        return sEnabled;
+    }
+
+    /**
+     * The counter with the given name, created on first use.
+     */
+    public static Counter counter(String name)
+    {
+        Counter counter = sCounters.get(name);
+        if (counter == null) {
+            sCounters.putIfAbsent(name, new Counter());
+            counter = sCounters.get(name);
+        }
+        return counter;
+    }
+
+    /**
+     * The latency histogram with the given name, recording every value.
+     */
+    public static Histogram histogram(String name)
+    {
+        return histogram(name, 1);
+    }
+
+    /**
+     * The latency histogram with the given name, recording one of every {@code sampleEvery} values.
+     * Sampling keeps the cost down on paths that run many times per frame.
+     */
+    public static Histogram histogram(String name, int sampleEvery)
+    {
+        Histogram histogram = sHistograms.get(name);
+        if (histogram == null) {
+            sHistograms.putIfAbsent(name, new Histogram(sampleEvery));
+            histogram = sHistograms.get(name);
+        }
+        return histogram;
+    }
+
+    /**
+     * Report the share of {@code part} in the sum of {@code all} as a ratio, e.g. the
+     * memory hits among all lookups of a cache.
+     */
+    public static void ratio(String name, Counter part, Counter... all)
+    {
+        sRatios.put(name, new Ratio(part, all));
+    }
+
+    /**
+     * Zero all counters and histograms. Instruments and ratios stay registered.
+     */
+    public static void reset()
+    {
+        for (Counter counter : sCounters.values()) {
+            counter.mValue.set(0);
+        }
+        for (Histogram histogram : sHistograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * All instruments as plain text, one per line, sorted by name.
+     */
+    public static String dump()
+    {
+        StringBuilder dump = new StringBuilder();
+        dump.append("metrics ").append(sEnabled ? "enabled" : "disabled").append('\n');
+
+        dump.append("\ncounters\n");
+        for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(sCounters).entrySet()) {
+            dump.append("  ").append(entry.getKey()).append(' ').append(entry.getValue().get()).append('\n');
+        }
+
+        dump.append("\nratios\n");
+        for (Map.Entry<String, Ratio> entry : new TreeMap<String, Ratio>(sRatios).entrySet()) {
+            dump.append("  ").append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+
+        dump.append("\nhistograms (ms)\n");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(sHistograms).entrySet()) {
+            dump.append("  ").append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return dump.toString();
+    }
+
+    /**
+     * A count of events.
+     */
+    public static final class Counter {
+
+        private final AtomicLong mValue = new AtomicLong();
+
+        private Counter()
+        {
+
+        }
+
+        public void increment()
+        {
+            if (sEnabled) {
+                mValue.incrementAndGet();
+            }
+        }
+
+        public void add(long delta)
+        {
+            if (sEnabled) {
+                mValue.addAndGet(delta);
+            }
+        }
+
+        public long get()
+        {
+            return mValue.get();
+        }
+    }
+
+    /**
+     * Distribution of durations in buckets of a quarter power of two microseconds,
+     * so percentiles are accurate to within 25% from a microsecond up to days.
+     */
+    public static final class Histogram {
+
+        private static final int BUCKETS = 160;
+
+        private final int mSampleEvery;
+        private final AtomicLong mSeen = new AtomicLong();
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSumMicros = new AtomicLong();
+        private final AtomicLong mMaxMicros = new AtomicLong();
+
+        private Histogram(int sampleEvery)
+        {
+            mSampleEvery = Math.max(1, sampleEvery);
+        }
+
+        public void recordNanos(long nanos)
+        {
+            if (!sEnabled) {
+                return;
+            }
+            if (mSampleEvery > 1 && mSeen.incrementAndGet() % mSampleEvery != 0) {
+                return;
+            }
+            long micros = Math.max(0, nanos / 1000);
+            mBuckets.incrementAndGet(bucketOf(micros));
+            mCount.incrementAndGet();
+            mSumMicros.addAndGet(micros);
+            long max;
+            while (micros > (max = mMaxMicros.get()) && !mMaxMicros.compareAndSet(max, micros)) {
+                // Another thread raised the maximum, compare again
+            }
+        }
+
+        /**
+         * Convenience for {@code recordNanos(System.nanoTime() - startNanos)}.
+         */
+        public void recordSince(long startNanos)
+        {
+            if (sEnabled) {
+                recordNanos(System.nanoTime() - startNanos);
+            }
+        }
+
+        public long getCount()
+        {
+            return mCount.get();
+        }
+
+        /**
+         * The given percentile in microseconds, the upper bound of its bucket.
+         */
+        public long percentileMicros(double percent)
+        {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percent / 100.0 * count);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += mBuckets.get(bucket);
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(bucket), mMaxMicros.get());
+                }
+            }
+            return mMaxMicros.get();
+        }
+
+        private void reset()
+        {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                mBuckets.set(bucket, 0);
+            }
+            mCount.set(0);
+            mSumMicros.set(0);
+            mMaxMicros.set(0);
+        }
+
+        // Values below 4 get a bucket each, above that every power of two is split in four
+        static int bucketOf(long micros)
+        {
+            if (micros < 4) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int sub = (int) (micros >>> (exponent - 2)) & 3;
+            return Math.min((exponent - 1) * 4 + sub, BUCKETS - 1);
+        }
+
+        static long upperBoundOf(int bucket)
+        {
+            if (bucket < 4) {
+                return bucket;
+            }
+            int exponent = bucket / 4 + 1;
+            int sub = bucket % 4;
+            return ((4L + sub + 1) << (exponent - 2)) - 1;
+        }
+
+        @Override
+        public String toString()
+        {
+            long count = mCount.get();
+            return String.format(Locale.ROOT, "count=%d mean=%.2f p50=%.2f p90=%.2f p99=%.2f max=%.2f",
+                    count, count > 0 ? mSumMicros.get() / 1000.0 / count : 0.0,
+                    percentileMicros(50) / 1000.0, percentileMicros(90) / 1000.0,
+                    percentileMicros(99) / 1000.0, mMaxMicros.get() / 1000.0);
+        }
+    }
+
+    private static final class Ratio {
+
+        private final Counter mPart;
+        private final Counter[] mAll;
+
+        Ratio(Counter part, Counter[] all)
+        {
+            mPart = part;
+            mAll = all.clone();
+        }
+
+        @Override
+        public String toString()
+        {
+            long total = 0;
+            for (Counter counter : mAll) {
+                total += counter.get();
+            }
+            if (total == 0) {
+                return "-";
+            }
+            return String.format(Locale.ROOT, "%.1f%% (%d/%d)", mPart.get() * 100.0 / total, mPart.get(), total);
+        }
+    }
+}
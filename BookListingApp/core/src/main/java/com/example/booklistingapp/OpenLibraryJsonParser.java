@@ -0,0 +1,355 @@
+package com.example.booklistingapp;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.MissingResourceException;
+
+/**
+ * Streaming parser for the Open Library search response, the same way {@link BookJsonParser}
+ * reads Google Books: token by token, skipping everything a {@link Book} does not need.
+ * The work key (e.g. "OL27448W") takes the place of the volume id. Open Library sells nothing,
+ * its books have no price; languages are turned into the two letter codes Google Books uses.
+ * Editions looked up by ISBN (see {@link #parseBooksApi(InputStream)}) use the edition key instead.
+ */
+public final class OpenLibraryJsonParser {
+
+    private static final String WORK_URL_PREFIX = "https://openlibrary.org/works/";
+    private static final String EDITION_URL_PREFIX = "https://openlibrary.org/books/";
+    private static final String COVER_URL_PREFIX = "https://covers.openlibrary.org/b/id/";
+    private static final String COVER_URL_SUFFIX = "-M.jpg";
+    private static final String ISBN_KEY_PREFIX = "ISBN:";
+
+    // A work lists dozens of subjects, the first ones are the most general
+    private static final int MAX_SUBJECTS = 3;
+
+    // ISO 639-2 ("eng") to ISO 639-1 ("en"), built on first use
+    private static HashMap<String, String> sLanguageCodes;
+
+    private static final Metrics.Counter sSkippedItems = Metrics.counter("parser.openlibrary.items.skipped");
+
+    private OpenLibraryJsonParser()
+    {
+
+    }
+
+    /**
+     * Parse the whole response and return the {@link Book}s as a compact result set.
+     * Works without a cover get an empty image URL.
+     *
+     * @throws BookJsonParser.PartialResultException if the response is broken, with the books read until then
+     */
+    public static BookResultSet parse(InputStream inputStream) throws IOException {
+        BookResultSet.Builder books = new BookResultSet.Builder(20);
+        int skipped = 0;
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                // Only the "docs" array is interesting, "numFound", "start" etc. are skipped
+                if ("docs".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (!readDoc(reader, books)) {
+                            skipped++;
+                            sSkippedItems.increment();
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // As in BookJsonParser, a broken unicode escape throws NumberFormatException
+            throw new BookJsonParser.PartialResultException(books.setSkippedCount(skipped).build(), e);
+        } finally {
+            reader.close();
+        }
+        return books.setSkippedCount(skipped).build();
+    }
+
+    /**
+     * Parse a response of the Open Library books API with "jscmd=data", an object of editions
+     * keyed by the requested bibkey (see {@link BooksApi#buildOpenLibraryIsbnUrl(List)}).
+     * ISBNs the API does not know are simply missing from the object. Each book carries the
+     * canonical form of the ISBN it was asked for.
+     *
+     * @throws BookJsonParser.PartialResultException if the response is broken, with the books read until then
+     */
+    public static BookResultSet parseBooksApi(InputStream inputStream) throws IOException {
+        BookResultSet.Builder books = new BookResultSet.Builder(20);
+        int skipped = 0;
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String bibkey = reader.nextName();
+                String isbn = bibkey.startsWith(ISBN_KEY_PREFIX)
+                        ? Isbn.canonical(bibkey.substring(ISBN_KEY_PREFIX.length())) : null;
+                if (isbn == null || !readEdition(reader, isbn, books)) {
+                    if (isbn == null) {
+                        reader.skipValue();
+                    }
+                    skipped++;
+                    sSkippedItems.increment();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new BookJsonParser.PartialResultException(books.setSkippedCount(skipped).build(), e);
+        } finally {
+            reader.close();
+        }
+        return books.setSkippedCount(skipped).build();
+    }
+
+    /**
+     * Read a single edition of a books API response into the builder. Returns false if
+     * it is not an object or has no edition key.
+     */
+    private static boolean readEdition(JsonReader reader, String isbn, BookResultSet.Builder books) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return false;
+        }
+
+        String editionId = null;
+        String url = null;
+        String title = null;
+        String author = null;
+        String coverUrl = "";
+        int publishedDate = Book.NO_DATE;
+        List<String> subjects = Collections.emptyList();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            JsonToken token = reader.peek();
+            if ("key".equals(name) && token == JsonToken.STRING) {
+                // "/books/OL7353617M"
+                String key = reader.nextString();
+                editionId = key.substring(key.lastIndexOf('/') + 1);
+            } else if ("url".equals(name) && token == JsonToken.STRING) {
+                url = reader.nextString();
+            } else if ("title".equals(name) && token == JsonToken.STRING) {
+                title = reader.nextString();
+            } else if ("authors".equals(name) && token == JsonToken.BEGIN_ARRAY) {
+                author = join(readNames(reader, Integer.MAX_VALUE));
+            } else if ("cover".equals(name) && token == JsonToken.BEGIN_OBJECT) {
+                coverUrl = readCover(reader);
+            } else if ("publish_date".equals(name) && token == JsonToken.STRING) {
+                publishedDate = parseYear(reader.nextString());
+            } else if ("subjects".equals(name) && token == JsonToken.BEGIN_ARRAY) {
+                subjects = readNames(reader, MAX_SUBJECTS);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (editionId == null || editionId.isEmpty()) {
+            return false;
+        }
+        books.add(editionId,
+                title != null ? title : BookJsonParser.DEFAULT_TITLE,
+                author != null ? author : BookJsonParser.DEFAULT_AUTHOR,
+                coverUrl, url != null ? url : EDITION_URL_PREFIX + editionId,
+                Book.NO_PRICE, "", "", publishedDate, subjects, 0, isbn);
+        return true;
+    }
+
+    /**
+     * Read the "name" of up to max objects of an array, e.g. [{"url": ..., "name": "Mark Twain"}].
+     */
+    private static List<String> readNames(JsonReader reader, int max) throws IOException {
+        List<String> names = Collections.emptyList();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT || names.size() == max) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("name".equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                    String name = reader.nextString().trim();
+                    if (!name.isEmpty()) {
+                        if (names.isEmpty()) {
+                            names = new ArrayList<String>(4);
+                        }
+                        names.add(name);
+                    }
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+        return names;
+    }
+
+    // The names joined with ", ", null if there is none
+    private static String join(List<String> names)
+    {
+        if (names.isEmpty()) {
+            return null;
+        }
+        StringBuilder joined = new StringBuilder(names.get(0));
+        for (int i = 1; i < names.size(); i++) {
+            joined.append(", ").append(names.get(i));
+        }
+        return joined.toString();
+    }
+
+    // The medium size of {"small": ..., "medium": ..., "large": ...}, empty if there is none
+    private static String readCover(JsonReader reader) throws IOException {
+        String coverUrl = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("medium".equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                coverUrl = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return coverUrl;
+    }
+
+    // Editions have free form dates ("1997", "March 1997", "1997-03-04"), only the year is kept
+    private static int parseYear(String date)
+    {
+        for (int i = 0; i + 4 <= date.length(); i++) {
+            boolean year = true;
+            for (int j = i; j < i + 4 && year; j++) {
+                year = Character.isDigit(date.charAt(j));
+            }
+            boolean alone = (i == 0 || !Character.isDigit(date.charAt(i - 1)))
+                    && (i + 4 == date.length() || !Character.isDigit(date.charAt(i + 4)));
+            if (year && alone) {
+                return Integer.parseInt(date.substring(i, i + 4)) * 10000;
+            }
+        }
+        return Book.NO_DATE;
+    }
+
+    /**
+     * Read a single element of the "docs" array into the builder. Returns false if the
+     * element is not an object or has no work key.
+     */
+    private static boolean readDoc(JsonReader reader, BookResultSet.Builder books) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return false;
+        }
+
+        String workId = null;
+        String title = null;
+        String author = null;
+        String coverUrl = "";
+        String language = "";
+        int publishedDate = Book.NO_DATE;
+        List<String> subjects = Collections.emptyList();
+        float rating = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            JsonToken token = reader.peek();
+            if ("key".equals(name) && token == JsonToken.STRING) {
+                // "/works/OL27448W"
+                String key = reader.nextString();
+                workId = key.substring(key.lastIndexOf('/') + 1);
+            } else if ("title".equals(name) && token == JsonToken.STRING) {
+                title = reader.nextString();
+            } else if ("author_name".equals(name) && token == JsonToken.BEGIN_ARRAY) {
+                author = readAuthors(reader);
+            } else if ("cover_i".equals(name) && token == JsonToken.NUMBER) {
+                coverUrl = COVER_URL_PREFIX + reader.nextLong() + COVER_URL_SUFFIX;
+            } else if ("language".equals(name) && token == JsonToken.BEGIN_ARRAY) {
+                List<String> languages = BookJsonParser.readStrings(reader, 1);
+                language = languages.isEmpty() ? "" : toLanguageCode(languages.get(0));
+            } else if ("first_publish_year".equals(name) && token == JsonToken.NUMBER) {
+                publishedDate = reader.nextInt() * 10000;
+            } else if ("subject".equals(name) && token == JsonToken.BEGIN_ARRAY) {
+                subjects = BookJsonParser.readStrings(reader, MAX_SUBJECTS);
+            } else if ("ratings_average".equals(name) && token == JsonToken.NUMBER) {
+                rating = (float) reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (workId == null || workId.isEmpty()) {
+            return false;
+        }
+        books.add(workId,
+                title != null ? title : BookJsonParser.DEFAULT_TITLE,
+                author != null ? author : BookJsonParser.DEFAULT_AUTHOR,
+                coverUrl, WORK_URL_PREFIX + workId,
+                Book.NO_PRICE, "", language, publishedDate, subjects, rating, "");
+        return true;
+    }
+
+    /**
+     * The two letter code of a three letter language code, the code itself if there is none.
+     */
+    static synchronized String toLanguageCode(String code)
+    {
+        if (sLanguageCodes == null) {
+            sLanguageCodes = new HashMap<String, String>();
+            for (String language : Locale.getISOLanguages()) {
+                try {
+                    sLanguageCodes.put(new Locale(language).getISO3Language(), language);
+                } catch (MissingResourceException e) {
+                    // No three letter code for this one
+                }
+            }
+            // Bibliographic codes that differ from the terminology ones Locale knows
+            sLanguageCodes.put("fre", "fr");
+            sLanguageCodes.put("ger", "de");
+            sLanguageCodes.put("chi", "zh");
+            sLanguageCodes.put("dut", "nl");
+            sLanguageCodes.put("gre", "el");
+            sLanguageCodes.put("cze", "cs");
+        }
+        String language = sLanguageCodes.get(code);
+        return language != null ? language : code;
+    }
+
+    /**
+     * Read all author names of an array, joined with ", ". Returns null if there is none.
+     */
+    private static String readAuthors(JsonReader reader) throws IOException {
+        StringBuilder authors = new StringBuilder();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.STRING) {
+                reader.skipValue();
+                continue;
+            }
+            String author = reader.nextString().trim();
+            if (!author.isEmpty()) {
+                if (authors.length() > 0) {
+                    authors.append(", ");
+                }
+                authors.append(author);
+            }
+        }
+        reader.endArray();
+        return authors.length() > 0 ? authors.toString() : null;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.booklistingapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * The Open Library search API, a second catalog asked alongside Google Books.
+ * Its pages are cached and coalesced like Google's (see {@link QueryUtils#fetchBookData}),
+ * but they are not added to the local catalog, which only holds Google volumes.
+ */
+public final class OpenLibrarySource implements BookSource {
+
+    // Only adds to the page, so a slow answer is not worth holding the page back for long
+    private static final long DEADLINE_MILLIS = 3000;
+
+    private static final QueryUtils.ResponseParser PARSER = new QueryUtils.ResponseParser() {
+        @Override
+        public BookResultSet parse(InputStream inputStream) throws IOException {
+            return OpenLibraryJsonParser.parse(inputStream);
+        }
+    };
+
+    private final BookCache mCache;
+
+    public OpenLibrarySource(BookCache cache)
+    {
+        mCache = cache;
+    }
+
+    @Override
+    public String getName() {
+        return "openlibrary";
+    }
+
+    @Override
+    public long getDeadlineMillis() {
+        return DEADLINE_MILLIS;
+    }
+
+    @Override
+    public List<Book> search(BookQuery query, QueryUtils.ProgressListener listener, CancellationToken token)
+            throws QueryUtils.FetchException {
+        String url = BooksApi.buildOpenLibraryUrl(query);
+        return QueryUtils.fetchBookData(mCache, url, PARSER, listener, token);
+    }
+
+    @Override
+    public List<Book> getCached(BookQuery query) {
+        BookCache.Entry entry = mCache.get(BooksApi.buildOpenLibraryUrl(query));
+        return entry != null ? entry.getBooks() : null;
+    }
+}
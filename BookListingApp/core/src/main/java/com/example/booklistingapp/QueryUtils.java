@@ -0,0 +1,938 @@
+package com.example.booklistingapp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+public final class QueryUtils {
+
+    public static final String LOG_TAG = "QueryUtils";
+    private static final Logger LOG = Logger.getLogger(LOG_TAG);
+
+    /**
+     * Receives the phases of a single fetch. Called on the fetching background thread.
+     */
+    interface ProgressListener {
+
+        enum Phase {
+            CONNECTING,
+            DOWNLOADING,
+            PARSING,
+            DONE
+        }
+
+        void onProgress(Phase phase, long bytesRead);
+    }
+
+    /**
+     * Turns the body of a successful response into books, see {@link BookJsonParser}.
+     */
+    interface ResponseParser {
+        BookResultSet parse(InputStream inputStream) throws IOException;
+    }
+
+    static final ResponseParser GOOGLE_BOOKS_PARSER = new ResponseParser() {
+        @Override
+        public BookResultSet parse(InputStream inputStream) throws IOException {
+            return BookJsonParser.parse(inputStream);
+        }
+    };
+
+    /**
+     * Why a fetch failed after its retries, so the user is told more than "No books found".
+     */
+    static final class FetchException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        enum Reason {
+            // No connection, a timeout or a response that broke off
+            NETWORK,
+            // HTTP 429
+            RATE_LIMITED,
+            // HTTP 408 and 5xx
+            UNAVAILABLE,
+            // Any other error response, trying again will not help
+            HTTP_ERROR
+        }
+
+        private final Reason mReason;
+        private final int mResponseCode;
+        private final long mRetryAfterMillis;
+
+        FetchException(Reason reason, int responseCode, long retryAfterMillis, Throwable cause)
+        {
+            super(reason + (responseCode != 0 ? " (HTTP " + responseCode + ")" : ""), cause);
+            mReason = reason;
+            mResponseCode = responseCode;
+            mRetryAfterMillis = retryAfterMillis;
+        }
+
+        Reason getReason()
+        {
+            return mReason;
+        }
+
+        /**
+         * The HTTP status, or 0 if there was no response.
+         */
+        int getResponseCode()
+        {
+            return mResponseCode;
+        }
+
+        /**
+         * How long the server asked to wait before the next request, or -1 if it did not say.
+         */
+        long getRetryAfterMillis()
+        {
+            return mRetryAfterMillis;
+        }
+
+        /**
+         * Failures the host or the network may recover from. They are retried and count
+         * against the host's circuit breaker.
+         */
+        boolean isTransient()
+        {
+            return mReason != Reason.HTTP_ERROR;
+        }
+    }
+
+    // Requests that are on the wire right now, keyed by URL. A second fetch of the same URL
+    // waits for the first one instead of opening another connection.
+    private static final HashMap<String, InFlightRequest> sInFlight = new HashMap<String, InFlightRequest>();
+
+    // Google only compresses responses for clients whose user agent contains "gzip"
+    private static final String USER_AGENT = "BookListingApp/1.0 (gzip)";
+
+    private static final int RECENT_METRICS_SIZE = 20;
+    private static final ArrayDeque<RequestMetrics> sRecentMetrics = new ArrayDeque<RequestMetrics>();
+
+    // Requests issued, cancelled while in flight and coalesced into an identical request already in flight
+    private static final Metrics.Counter sRequestsIssued = Metrics.counter("http.requests.issued");
+    private static final Metrics.Counter sRequestsCancelled = Metrics.counter("http.requests.cancelled");
+    private static final Metrics.Counter sRequestsCoalesced = Metrics.counter("http.requests.coalesced");
+
+    // HttpURLConnection does not report the name lookup on its own, it is part of the connect time
+    private static final Metrics.Histogram sConnectTime = Metrics.histogram("http.connect");
+    private static final Metrics.Histogram sFirstByteTime = Metrics.histogram("http.ttfb");
+    // Time blocked on the socket while reading the body, and the rest of the body time (gunzip and parse)
+    private static final Metrics.Histogram sDownloadTime = Metrics.histogram("http.download");
+    private static final Metrics.Histogram sParseTime = Metrics.histogram("http.parse");
+
+    // Three attempts, the retries after up to 0.5 and 1 s; a Retry-After of more than 5 s fails the search
+    private static final RetryPolicy RETRY_POLICY = new RetryPolicy(3, 500, 5000);
+    private static final Random sRandom = new Random();
+
+    // Timeouts before enough latencies are known, and the range they adapt in
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+    private static final int MIN_CONNECT_TIMEOUT_MILLIS = 3000;
+    private static final int MIN_READ_TIMEOUT_MILLIS = 4000;
+    // A timeout is this many times the p95 time to first byte
+    private static final int TIMEOUT_FACTOR = 3;
+    private static final int LATENCY_SAMPLES = 64;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MILLIS = 30000;
+
+    // Hedges are sent for at most one in twenty requests, so a slow server gets little extra load
+    private static final int HEDGE_RATIO = 20;
+    private static final long MIN_HEDGE_DELAY_MILLIS = 100;
+    private static final int MAX_HEDGES_IN_FLIGHT = 2;
+    private static volatile boolean sHedgingEnabled = true;
+    private static final AtomicLong sRequestCount = new AtomicLong();
+    private static final AtomicLong sHedgeCount = new AtomicLong();
+
+    private static final HashMap<String, HostState> sHosts = new HashMap<String, HostState>();
+
+    private static final ScheduledExecutorService sHedgeTimer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "HedgeTimer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    // No queue: a hedge that cannot start right away is not sent
+    private static final ThreadPoolExecutor sHedgeExecutor = new ThreadPoolExecutor(0, MAX_HEDGES_IN_FLIGHT,
+            30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicLong mCount = new AtomicLong();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Hedge-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                }
+            });
+
+    private static final Metrics.Counter sRequestsRetried = Metrics.counter("http.requests.retried");
+    private static final Metrics.Counter sRequestsHedged = Metrics.counter("http.requests.hedged");
+    private static final Metrics.Counter sHedgesWon = Metrics.counter("http.requests.hedgeWins");
+    private static final Metrics.Counter sCircuitRejected = Metrics.counter("http.circuit.rejected");
+    private static final Metrics.Counter sStaleFallbacks = Metrics.counter("http.fallback.stale");
+
+    private static final ProgressListener NO_PROGRESS = new ProgressListener() {
+        @Override
+        public void onProgress(Phase phase, long bytesRead) {
+            // The hedge does not report, the first request already did
+        }
+    };
+
+    private QueryUtils()
+    {
+
+    }
+
+    /**
+     * Metrics of the most recent HTTP requests, oldest first.
+     */
+    static List<RequestMetrics> getRecentRequestMetrics()
+    {
+        synchronized (sRecentMetrics) {
+            return new ArrayList<RequestMetrics>(sRecentMetrics);
+        }
+    }
+
+    /**
+     * Whether a second copy of a request is sent once it takes longer than the p95 of its host.
+     * On by default; the first answer wins and the other request is cancelled.
+     */
+    static void setHedgingEnabled(boolean enabled)
+    {
+        sHedgingEnabled = enabled;
+    }
+
+    /**
+     * Forget the latencies and the circuit state of every host, so a test starts from a host
+     * that has never been asked. Its hosts are all 127.0.0.1.
+     */
+    static void resetHosts()
+    {
+        synchronized (sHosts) {
+            sHosts.clear();
+        }
+    }
+
+    private static void recordMetrics(RequestMetrics metrics)
+    {
+        synchronized (sRecentMetrics) {
+            if (sRecentMetrics.size() == RECENT_METRICS_SIZE) {
+                sRecentMetrics.removeFirst();
+            }
+            sRecentMetrics.addLast(metrics);
+        }
+        sConnectTime.recordNanos(metrics.getConnectNanos());
+        sFirstByteTime.recordNanos(metrics.getFirstByteNanos());
+        if (metrics.getResponseCode() == HttpURLConnection.HTTP_OK) {
+            sDownloadTime.recordNanos(metrics.getDownloadNanos());
+            sParseTime.recordNanos(metrics.getParseNanos());
+        }
+        if (Metrics.isEnabled()) {
+            LOG.info(metrics.toString());
+        }
+    }
+
+    /**
+     * Query the Google Books API and return a list of {@link Book} objects.
+     */
+    static List<Book> fetchBookData(BookCache cache, String requestUrl, ProgressListener listener,
+                                    CancellationToken signal) throws FetchException {
+        return fetchBookData(cache, requestUrl, GOOGLE_BOOKS_PARSER, listener, signal);
+    }
+
+    /**
+     * Fetch the URL and return the {@link Book}s the parser reads from the response.
+     * Results are served from the {@link BookCache} while they are fresh, and
+     * revalidated with the server once they expire. If the same URL is already
+     * being fetched, the result of that request is shared instead of making another one.
+     * Transient failures are retried with backoff, a slow request is hedged, and while the
+     * host's circuit is open no request is sent at all. When the fetch fails in the end, an
+     * expired cache entry is returned if there is one.
+     * Cancelling the signal aborts the connection, and null is returned.
+     *
+     * @throws FetchException if the fetch failed and nothing is cached
+     */
+    static List<Book> fetchBookData(BookCache cache, String requestUrl, ResponseParser parser,
+                                    ProgressListener listener, CancellationToken signal) throws FetchException {
+
+        BookCache.Entry cached = cache.get(requestUrl);
+        if (cached != null && cached.isFresh()) {
+            listener.onProgress(ProgressListener.Phase.DONE, 0);
+            return cached.getBooks();
+        }
+
+        InFlightRequest request;
+        boolean owner;
+        synchronized (sInFlight) {
+            request = sInFlight.get(requestUrl);
+            owner = request == null;
+            if (owner) {
+                request = new InFlightRequest();
+                sInFlight.put(requestUrl, request);
+            }
+        }
+
+        if (!owner) {
+            sRequestsCoalesced.increment();
+            List<Book> books;
+            try {
+                books = request.await(signal);
+            } catch (FetchException e) {
+                // The request we joined already made its retries
+                listener.onProgress(ProgressListener.Phase.DONE, 0);
+                return fallBack(cached, e);
+            }
+            if (books != null || signal.isCanceled()) {
+                listener.onProgress(ProgressListener.Phase.DONE, 0);
+                return books;
+            }
+            // The request we joined was cancelled by its own caller, so make our own
+            return fetchBookData(cache, requestUrl, parser, listener, signal);
+        }
+
+        // Perform HTTP request to the URL and parse the JSON response while it is being received
+        List<Book> listBooks = null;
+        FetchException failure = null;
+        try {
+            // Create URL object
+            URL url = createUrl(requestUrl);
+            listBooks = fetchWithRetries(url, parser, cache, requestUrl, cached, listener, signal);
+        } catch (FetchException e) {
+            failure = e;
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Problem making the HTTP request.", e);
+        } finally {
+            synchronized (sInFlight) {
+                sInFlight.remove(requestUrl);
+            }
+            request.complete(listBooks, failure);
+        }
+        listener.onProgress(ProgressListener.Phase.DONE, 0);
+
+        if (failure != null) {
+            return fallBack(cached, failure);
+        }
+        // Return the list of {@link Book}s
+        return listBooks;
+    }
+
+    /**
+     * The books of the expired entry instead of the failure, or the failure if nothing is cached.
+     */
+    private static List<Book> fallBack(BookCache.Entry cached, FetchException failure) throws FetchException {
+        if (cached == null) {
+            throw failure;
+        }
+        // Older results are better than an error; the next search asks the server again
+        sStaleFallbacks.increment();
+        LOG.warning("Showing cached results, the request failed: " + failure.getMessage());
+        return cached.getBooks();
+    }
+
+    /**
+     * Make the request, and try it again after a transient failure, as long as the policy
+     * allows and the circuit of the host is closed. Returns null if the signal was cancelled.
+     */
+    private static List<Book> fetchWithRetries(URL url, ResponseParser parser, BookCache cache, String cacheKey,
+                                               BookCache.Entry cached, ProgressListener listener,
+                                               CancellationToken signal) throws IOException, FetchException {
+        // If the URL is null, then return early.
+        if (url == null) {
+            return null;
+        }
+
+        HostState host = hostState(url.getHost());
+        for (int attempt = 1; ; attempt++) {
+            if (!host.mBreaker.allowRequest()) {
+                sCircuitRejected.increment();
+                throw new FetchException(host.mLastFailure, 0, host.mBreaker.getRemainingOpenMillis(), null);
+            }
+
+            FetchException failure;
+            try {
+                List<Book> books = makeHedgedRequest(url, parser, cache, cacheKey, cached, host, listener, signal);
+                if (books != null) {
+                    host.mBreaker.onSuccess();
+                } else {
+                    host.mBreaker.onCancelled();
+                }
+                return books;
+            } catch (FetchException e) {
+                failure = e;
+            } catch (IOException | RuntimeException e) {
+                host.mBreaker.onCancelled();
+                throw e;
+            }
+
+            if (!failure.isTransient()) {
+                // The host is fine, the request is not
+                host.mBreaker.onSuccess();
+                throw failure;
+            }
+            host.mBreaker.onFailure(failure.getRetryAfterMillis());
+            host.mLastFailure = failure.getReason();
+            if (attempt >= RETRY_POLICY.getMaxAttempts()) {
+                throw failure;
+            }
+            long delay = RETRY_POLICY.delayMillis(attempt, failure.getRetryAfterMillis(), sRandom);
+            if (delay < 0) {
+                // The server asked for a longer break than a search can wait
+                throw failure;
+            }
+            LOG.warning("Retrying in " + delay + " ms: " + failure.getMessage());
+            sRequestsRetried.increment();
+            if (!sleep(delay, signal)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Make the request, and if it has not answered once the p95 latency of its host has passed,
+     * send the same request once more. The first answer is returned and the other request is
+     * cancelled. Hedging only starts once enough latencies of the host are known, and within
+     * a budget of one hedge per {@link #HEDGE_RATIO} requests.
+     */
+    private static List<Book> makeHedgedRequest(final URL url, final ResponseParser parser, final BookCache cache,
+                                                final String cacheKey, final BookCache.Entry cached,
+                                                final HostState host, ProgressListener listener,
+                                                CancellationToken signal) throws IOException, FetchException {
+        sRequestCount.incrementAndGet();
+        long hedgeDelay = host.getHedgeDelayMillis();
+        if (!sHedgingEnabled || hedgeDelay <= 0) {
+            return makeHttpRequest(url, parser, cache, cacheKey, cached, host, listener, signal);
+        }
+
+        final HedgedRequest hedged = new HedgedRequest();
+        signal.setOnCancelListener(new CancellationToken.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                hedged.mPrimary.cancel();
+                hedged.mHedge.cancel();
+            }
+        });
+        ScheduledFuture<?> timer = sHedgeTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (sHedgeCount.get() * HEDGE_RATIO >= sRequestCount.get() || !hedged.startHedge()) {
+                    return;
+                }
+                try {
+                    sHedgeExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                hedged.onHedgeFinished(makeHttpRequest(url, parser, cache, cacheKey, cached, host,
+                                        NO_PROGRESS, hedged.mHedge), null);
+                            } catch (FetchException e) {
+                                hedged.onHedgeFinished(null, e);
+                            } catch (IOException | RuntimeException e) {
+                                hedged.onHedgeFinished(null, null);
+                            }
+                        }
+                    });
+                    sHedgeCount.incrementAndGet();
+                    sRequestsHedged.increment();
+                } catch (RejectedExecutionException e) {
+                    // Enough hedges in flight already
+                    hedged.onHedgeFinished(null, null);
+                }
+            }
+        }, hedgeDelay, TimeUnit.MILLISECONDS);
+
+        try {
+            List<Book> books = null;
+            FetchException failure = null;
+            try {
+                books = makeHttpRequest(url, parser, cache, cacheKey, cached, host, listener, hedged.mPrimary);
+            } catch (FetchException e) {
+                failure = e;
+            }
+            timer.cancel(false);
+            return hedged.onPrimaryFinished(books, failure, signal);
+        } finally {
+            signal.setOnCancelListener(null);
+        }
+    }
+
+    private static HostState hostState(String host)
+    {
+        synchronized (sHosts) {
+            HostState state = sHosts.get(host);
+            if (state == null) {
+                state = new HostState();
+                sHosts.put(host, state);
+            }
+            return state;
+        }
+    }
+
+    /**
+     * Wait for the given time, or return false as soon as the signal is cancelled.
+     */
+    private static boolean sleep(long millis, CancellationToken signal)
+    {
+        long end = System.nanoTime() + millis * 1000000;
+        try {
+            long remaining;
+            while ((remaining = end - System.nanoTime()) > 0) {
+                if (signal.isCanceled()) {
+                    return false;
+                }
+                // Rounded up, waking up early would find a circuit opened by Retry-After still open
+                Thread.sleep(Math.min((remaining + 999999) / 1000000, 50));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !signal.isCanceled();
+    }
+
+    /**
+     * Returns new URL object from the given string URL.
+     */
+    private static URL createUrl(String stringUrl)
+    {
+        URL url = null;
+        try
+        {
+            url = new URL(stringUrl);
+        }catch(MalformedURLException e)
+        {
+            LOG.log(Level.SEVERE, "Problem building the URL", e);
+        }
+        return url;
+    }
+
+    /**
+     * Make an HTTP request to the given URL and return the list of {@link Book}s
+     * parsed straight from the response stream, or null if the signal was cancelled.
+     * If an expired cache entry is passed in, the request is made conditional on
+     * its validators and the entry is reused when the server answers 304.
+     * The timeouts follow the latencies of the host, which successful requests update.
+     *
+     * @throws FetchException for an error response, or if the connection failed before any book arrived
+     */
+    private static List<Book> makeHttpRequest(URL url, ResponseParser parser, BookCache cache, String cacheKey,
+                                              BookCache.Entry cached, HostState host, ProgressListener listener,
+                                              CancellationToken signal) throws IOException, FetchException {
+        List<Book> books = null;
+
+        HttpURLConnection urlConnection = null;
+        InputStream inputStream = null;
+        // The connection goes back to the keep-alive pool unless the request went wrong
+        boolean reusable = false;
+        RequestMetrics metrics = new RequestMetrics(url.toString());
+        try {
+            listener.onProgress(ProgressListener.Phase.CONNECTING, 0);
+            urlConnection = (HttpURLConnection) url.openConnection();
+            // Cancelling closes the socket, which makes the blocked read on this thread fail right away
+            final HttpURLConnection connection = urlConnection;
+            signal.setOnCancelListener(new CancellationToken.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    connection.disconnect();
+                }
+            });
+            signal.throwIfCanceled();
+            sRequestsIssued.increment();
+            urlConnection.setReadTimeout(host.getReadTimeoutMillis());
+            urlConnection.setConnectTimeout(host.getConnectTimeoutMillis());
+            urlConnection.setRequestMethod("GET");
+            // Setting Accept-Encoding ourselves turns off transparent decompression,
+            // so the compressed size on the wire can be measured
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+            urlConnection.setRequestProperty("User-Agent", USER_AGENT);
+            if (cached != null && cached.canRevalidate()) {
+                if (cached.getETag() != null) {
+                    urlConnection.setRequestProperty("If-None-Match", cached.getETag());
+                }
+                if (cached.getLastModified() != null) {
+                    urlConnection.setRequestProperty("If-Modified-Since", cached.getLastModified());
+                }
+            }
+            urlConnection.connect();
+            metrics.onConnected();
+
+            // If the request was successful (response code 200),
+            // then parse the response while reading the input stream.
+            int responseCode = urlConnection.getResponseCode();
+            boolean gzip = "gzip".equalsIgnoreCase(urlConnection.getContentEncoding());
+            metrics.onFirstByte(responseCode, gzip);
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                ProgressInputStream wireStream = new ProgressInputStream(urlConnection.getInputStream(), listener,
+                        urlConnection.getContentLength());
+                wireStream.setTimed(Metrics.isEnabled());
+                ProgressInputStream decodedStream = new ProgressInputStream(
+                        gzip ? new GZIPInputStream(wireStream) : wireStream, null, -1);
+                inputStream = decodedStream;
+                books = parser.parse(inputStream);
+                metrics.onFinished(wireStream.getBytesRead(), decodedStream.getBytesRead(), wireStream.getReadNanos());
+                cache.put(cacheKey, books, urlConnection.getHeaderField("ETag"),
+                        urlConnection.getHeaderField("Last-Modified"));
+                host.onAnswered(metrics);
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                // Our copy is still current, start a new TTL period for it
+                metrics.onFinished(0, 0, 0);
+                books = cache.revalidate(cacheKey, cached).getBooks();
+                host.onAnswered(metrics);
+            } else {
+                metrics.onFinished(0, 0, 0);
+                LOG.severe("Error response code: " + responseCode);
+                long retryAfter = RetryPolicy.parseRetryAfter(urlConnection.getHeaderField("Retry-After"),
+                        System.currentTimeMillis());
+                // Closing the (small) error body keeps the connection reusable
+                InputStream errorStream = urlConnection.getErrorStream();
+                if (errorStream != null) {
+                    errorStream.close();
+                }
+                reusable = true;
+                recordMetrics(metrics);
+                throw new FetchException(reasonOf(responseCode), responseCode, retryAfter, null);
+            }
+            reusable = true;
+            recordMetrics(metrics);
+        } catch (BookJsonParser.PartialResultException e) {
+            if (signal.isCanceled()) {
+                sRequestsCancelled.increment();
+            } else if (!e.getBooks().isEmpty()) {
+                // Show the books that arrived, but an incomplete page is not cached
+                LOG.log(Level.SEVERE, "The response broke off, keeping the books read so far.", e);
+                books = e.getBooks();
+            } else {
+                LOG.log(Level.SEVERE, "Problem parsing the book JSON results.", e);
+                throw new FetchException(FetchException.Reason.NETWORK, 0, -1, e);
+            }
+        } catch (IOException e) {
+            if (signal.isCanceled()) {
+                sRequestsCancelled.increment();
+                books = null;
+                if (Metrics.isEnabled()) {
+                    LOG.info("Request cancelled: " + url);
+                }
+            } else {
+                LOG.log(Level.SEVERE, "Problem retrieving the book JSON results.", e);
+                throw new FetchException(FetchException.Reason.NETWORK, 0, -1, e);
+            }
+        } catch (CancellationException e) {
+            // Cancelled before the request went out
+            sRequestsCancelled.increment();
+        } finally {
+            signal.setOnCancelListener(null);
+            // disconnect() would close the socket, only do that when it is in an unknown state
+            if (urlConnection != null && !reusable) {
+                urlConnection.disconnect();
+            }
+            if (inputStream != null) {
+                // Closing the input stream could throw an IOException, which is why
+                // the makeHttpRequest(URL url) method signature specifies than an IOException
+                // could be thrown.
+                inputStream.close();
+            }
+        }
+        return books;
+    }
+
+    private static FetchException.Reason reasonOf(int responseCode)
+    {
+        if (responseCode == 429) {
+            return FetchException.Reason.RATE_LIMITED;
+        }
+        if (responseCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT || responseCode >= 500) {
+            return FetchException.Reason.UNAVAILABLE;
+        }
+        return FetchException.Reason.HTTP_ERROR;
+    }
+
+    /**
+     * Result of a request that other callers of the same URL are waiting for.
+     */
+    private static final class InFlightRequest {
+
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile List<Book> mBooks;
+        private volatile FetchException mFailure;
+
+        void complete(List<Book> books, FetchException failure)
+        {
+            mBooks = books;
+            mFailure = failure;
+            mDone.countDown();
+        }
+
+        /**
+         * Wait for the result, or return null as soon as the waiting caller is cancelled.
+         *
+         * @throws FetchException if the request failed
+         */
+        List<Book> await(CancellationToken signal) throws FetchException {
+            try {
+                while (!mDone.await(50, TimeUnit.MILLISECONDS)) {
+                    if (signal.isCanceled()) {
+                        return null;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (mFailure != null) {
+                throw mFailure;
+            }
+            return mBooks;
+        }
+    }
+
+    /**
+     * What is known about one host: its circuit breaker and its recent latencies,
+     * from which the timeouts and the hedge delay of its requests follow.
+     */
+    private static final class HostState {
+
+        private final CircuitBreaker mBreaker = new CircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MILLIS);
+        private final LatencyTracker mFirstByte = new LatencyTracker(LATENCY_SAMPLES);
+        private final LatencyTracker mTotal = new LatencyTracker(LATENCY_SAMPLES);
+        // Reported while the circuit is open
+        private volatile FetchException.Reason mLastFailure = FetchException.Reason.UNAVAILABLE;
+
+        void onAnswered(RequestMetrics metrics)
+        {
+            mFirstByte.record(metrics.getTimeToFirstByteMillis());
+            mTotal.record(metrics.getTotalMillis());
+        }
+
+        int getConnectTimeoutMillis()
+        {
+            return timeout(DEFAULT_CONNECT_TIMEOUT_MILLIS, MIN_CONNECT_TIMEOUT_MILLIS);
+        }
+
+        int getReadTimeoutMillis()
+        {
+            return timeout(DEFAULT_READ_TIMEOUT_MILLIS, MIN_READ_TIMEOUT_MILLIS);
+        }
+
+        /**
+         * How long a request may take before it is hedged, or 0 while too little is known.
+         */
+        long getHedgeDelayMillis()
+        {
+            if (mTotal.getCount() < MIN_LATENCY_SAMPLES) {
+                return 0;
+            }
+            return Math.max(MIN_HEDGE_DELAY_MILLIS, mTotal.percentile(95));
+        }
+
+        // A few times the usual wait, never longer than the fixed timeout used before
+        private int timeout(int defaultMillis, int minMillis)
+        {
+            if (mFirstByte.getCount() < MIN_LATENCY_SAMPLES) {
+                return defaultMillis;
+            }
+            long adaptive = TIMEOUT_FACTOR * mFirstByte.percentile(95);
+            return (int) Math.max(minMillis, Math.min(defaultMillis, adaptive));
+        }
+    }
+
+    /**
+     * A request and its hedge, each with its own token, so the loser can be cancelled.
+     */
+    private static final class HedgedRequest {
+
+        private final CancellationToken mPrimary = new CancellationToken();
+        private final CancellationToken mHedge = new CancellationToken();
+        private final CountDownLatch mHedgeDone = new CountDownLatch(1);
+        private boolean mPrimaryFinished;
+        private boolean mHedgeStarted;
+        private volatile List<Book> mHedgeBooks;
+        private volatile FetchException mHedgeFailure;
+
+        /**
+         * Called on the timer, returns false if the first request has answered in the meantime.
+         */
+        synchronized boolean startHedge()
+        {
+            if (mPrimaryFinished) {
+                return false;
+            }
+            mHedgeStarted = true;
+            return true;
+        }
+
+        /**
+         * Both null if the hedge was cancelled or could not be sent.
+         */
+        void onHedgeFinished(List<Book> books, FetchException failure)
+        {
+            mHedgeBooks = books;
+            mHedgeFailure = failure;
+            if (books != null) {
+                // The hedge won, the first request is given up
+                mPrimary.cancel();
+            }
+            mHedgeDone.countDown();
+        }
+
+        /**
+         * Called on the fetching thread once the first request is over. If it did not bring
+         * the books, the outcome of the hedge decides, if one was sent.
+         */
+        List<Book> onPrimaryFinished(List<Book> books, FetchException failure, CancellationToken signal)
+                throws FetchException {
+            boolean hedgeStarted;
+            synchronized (this) {
+                mPrimaryFinished = true;
+                hedgeStarted = mHedgeStarted;
+            }
+            if (books != null || !hedgeStarted || signal.isCanceled()) {
+                mHedge.cancel();
+                if (failure != null) {
+                    throw failure;
+                }
+                return books;
+            }
+
+            try {
+                mHedgeDone.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                mHedge.cancel();
+                return null;
+            }
+            if (mHedgeBooks != null) {
+                sHedgesWon.increment();
+                return mHedgeBooks;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (mHedgeFailure != null) {
+                throw mHedgeFailure;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Counts the bytes the parser pulls from the connection and reports them as
+     * {@link ProgressListener.Phase#DOWNLOADING}. Parsing runs alongside the download,
+     * so once the body is fully received only the {@link ProgressListener.Phase#PARSING}
+     * of the last buffered items is left. The parser stops at the closing brace and never
+     * reads the end of the stream, so the body counts as received once its Content-Length
+     * has been read.
+     */
+    private static final class ProgressInputStream extends FilterInputStream {
+
+        // Report at most once per this many bytes, so the UI thread is not flooded
+        private static final int REPORT_STEP_BYTES = 8 * 1024;
+
+        // Null if the bytes are only counted
+        private final ProgressListener mListener;
+        // -1 if unknown, then only the end of the stream is
+        private final long mContentLength;
+        private long mBytesRead;
+        private long mLastReported;
+        private boolean mFinished;
+        private boolean mTimed;
+        private long mReadNanos;
+
+        ProgressInputStream(InputStream inputStream, ProgressListener listener, long contentLength)
+        {
+            super(inputStream);
+            mListener = listener;
+            mContentLength = contentLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = mTimed ? System.nanoTime() : 0;
+            int value = super.read();
+            if (mTimed) {
+                mReadNanos += System.nanoTime() - start;
+            }
+            onRead(value == -1 ? -1 : 1);
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = mTimed ? System.nanoTime() : 0;
+            int read = super.read(buffer, offset, count);
+            if (mTimed) {
+                mReadNanos += System.nanoTime() - start;
+            }
+            onRead(read);
+            return read;
+        }
+
+        /**
+         * Also measure the time spent blocked in the underlying stream.
+         */
+        void setTimed(boolean timed)
+        {
+            mTimed = timed;
+        }
+
+        long getBytesRead()
+        {
+            return mBytesRead;
+        }
+
+        long getReadNanos()
+        {
+            return mReadNanos;
+        }
+
+        private void onRead(int read)
+        {
+            if (mListener == null) {
+                mBytesRead += Math.max(read, 0);
+                return;
+            }
+            if (read == -1) {
+                if (!mFinished) {
+                    mFinished = true;
+                    mListener.onProgress(ProgressListener.Phase.PARSING, mBytesRead);
+                }
+                return;
+            }
+            mBytesRead += read;
+            if (mLastReported == 0 || mBytesRead - mLastReported >= REPORT_STEP_BYTES) {
+                mLastReported = mBytesRead;
+                mListener.onProgress(ProgressListener.Phase.DOWNLOADING, mBytesRead);
+            }
+            if (!mFinished && mContentLength > 0 && mBytesRead >= mContentLength) {
+                mFinished = true;
+                mListener.onProgress(ProgressListener.Phase.PARSING, mBytesRead);
+            }
+        }
+    }
+}
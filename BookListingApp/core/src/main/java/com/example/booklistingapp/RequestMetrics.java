@@ -0,0 +1,132 @@
+package com.example.booklistingapp;
+
+import java.util.Locale;
+
+/**
+ * Timings and sizes of a single HTTP request to the books API.
+ * All times are measured from the start of the request.
+ */
+public final class RequestMetrics {
+
+    private final String mUrl;
+    private final long mStartNanos;
+
+    private int mResponseCode;
+    private long mConnectNanos;
+    private long mFirstByteNanos;
+    private long mTotalNanos;
+    private long mReadNanos;
+    private long mWireBytes;
+    private long mDecodedBytes;
+    private boolean mGzip;
+
+    public RequestMetrics(String url)
+    {
+        mUrl = url;
+        mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * The connection is established (or was taken from the pool).
+     */
+    void onConnected()
+    {
+        mConnectNanos = System.nanoTime() - mStartNanos;
+    }
+
+    /**
+     * The status line and headers have arrived.
+     */
+    void onFirstByte(int responseCode, boolean gzip)
+    {
+        mFirstByteNanos = System.nanoTime() - mStartNanos;
+        mResponseCode = responseCode;
+        mGzip = gzip;
+    }
+
+    /**
+     * The body has been read, with its size on the wire and after decompression, and the
+     * time spent waiting for the socket while reading it (0 if it was not measured).
+     */
+    void onFinished(long wireBytes, long decodedBytes, long readNanos)
+    {
+        mTotalNanos = System.nanoTime() - mStartNanos;
+        mWireBytes = wireBytes;
+        mDecodedBytes = decodedBytes;
+        mReadNanos = readNanos;
+    }
+
+    public String getUrl()
+    {
+        return mUrl;
+    }
+
+    public int getResponseCode()
+    {
+        return mResponseCode;
+    }
+
+    long getConnectNanos()
+    {
+        return mConnectNanos;
+    }
+
+    long getFirstByteNanos()
+    {
+        return mFirstByteNanos;
+    }
+
+    /**
+     * Time blocked on the socket while reading the body.
+     */
+    long getDownloadNanos()
+    {
+        return mReadNanos;
+    }
+
+    /**
+     * Time of the body that was not spent waiting for the socket, i.e. decompressing and parsing.
+     */
+    long getParseNanos()
+    {
+        return Math.max(0, mTotalNanos - mFirstByteNanos - mReadNanos);
+    }
+
+    public long getConnectMillis()
+    {
+        return mConnectNanos / 1000000;
+    }
+
+    public long getTimeToFirstByteMillis()
+    {
+        return mFirstByteNanos / 1000000;
+    }
+
+    public long getTotalMillis()
+    {
+        return mTotalNanos / 1000000;
+    }
+
+    public long getWireBytes()
+    {
+        return mWireBytes;
+    }
+
+    public long getDecodedBytes()
+    {
+        return mDecodedBytes;
+    }
+
+    public boolean isGzip()
+    {
+        return mGzip;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(Locale.ROOT, "HTTP %d connect=%dms ttfb=%dms total=%dms wire=%dB decoded=%dB%s",
+                mResponseCode, getConnectMillis(), getTimeToFirstByteMillis(), getTotalMillis(),
+                mWireBytes, mDecodedBytes, mGzip ? " gzip" : "");
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.booklistingapp;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * How often and after how long a failed request is tried again.
+ * The delays grow exponentially with "full jitter": each one is a random time up to the
+ * exponential bound, so clients that failed together do not all come back at the same moment.
+ * A Retry-After of the server is a lower bound on the delay.
+ */
+public final class RetryPolicy {
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+
+    /**
+     * @param maxAttempts    attempts in total, including the first one
+     * @param baseDelayMillis bound of the delay before the first retry, doubled for every further one
+     * @param maxDelayMillis longest delay, also the longest Retry-After that is waited for
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis)
+    {
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+
+    public int getMaxAttempts()
+    {
+        return mMaxAttempts;
+    }
+
+    /**
+     * The delay before the given retry (1 for the first one), or -1 if the server asked to wait
+     * longer than this policy is willing to, so the request should fail now.
+     *
+     * @param retryAfterMillis the server's Retry-After, or -1 if it sent none
+     */
+    public long delayMillis(int retry, long retryAfterMillis, Random random)
+    {
+        if (retryAfterMillis > mMaxDelayMillis) {
+            return -1;
+        }
+        // Capped before shifting, so many retries cannot overflow
+        long bound = Math.min(mMaxDelayMillis, mBaseDelayMillis << Math.min(retry - 1, 20));
+        long jittered = (long) (random.nextDouble() * bound);
+        return Math.max(jittered, retryAfterMillis);
+    }
+
+    /**
+     * The value of a Retry-After header in milliseconds from now, either delta seconds ("120")
+     * or an HTTP date. Returns -1 if the header is missing or cannot be read.
+     */
+    public static long parseRetryAfter(String value, long nowMillis)
+    {
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds >= 0 ? seconds * 1000 : -1;
+        } catch (NumberFormatException e) {
+            // Not delta seconds, try a date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return Math.max(0, format.parse(value).getTime() - nowMillis);
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
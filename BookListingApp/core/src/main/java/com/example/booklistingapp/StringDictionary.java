@@ -0,0 +1,57 @@
+package com.example.booklistingapp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Thread safe table of distinct strings, each string is stored once and referred to by an int code.
+ * Codes stay valid for the lifetime of the table, nothing is ever removed; a table that has grown
+ * too big is replaced by a new one, see {@link BookResultSet#startNewDictionary()}.
+ * Looking up a code takes no lock.
+ */
+final class StringDictionary {
+
+    private final HashMap<String, Integer> mCodes = new HashMap<String, Integer>();
+    // Published again after every add, so whoever got a code from intern() finds its string
+    private volatile String[] mStrings = new String[16];
+    private int mSize;
+    private int mCharCount;
+
+    /**
+     * The code of the string, added to the table if it is new.
+     */
+    synchronized int intern(String string)
+    {
+        Integer code = mCodes.get(string);
+        if (code == null) {
+            String[] strings = mStrings;
+            if (mSize == strings.length) {
+                strings = Arrays.copyOf(strings, mSize * 2);
+            }
+            strings[mSize] = string;
+            mStrings = strings;
+            code = mSize++;
+            mCodes.put(string, code);
+            mCharCount += string.length();
+        }
+        return code;
+    }
+
+    String get(int code)
+    {
+        return mStrings[code];
+    }
+
+    synchronized int size()
+    {
+        return mSize;
+    }
+
+    /**
+     * Estimated heap size of the strings and of the table itself.
+     */
+    synchronized int estimatedBytes()
+    {
+        return 2 * mCharCount + mSize * (40 + 48 + 4);
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.booklistingapp;
+
+/**
+ * Token bucket rate limiter. Up to {@code capacity} requests may go out at once, after that
+ * they are spaced to the refill rate, so a batch of requests stays within a quota no matter
+ * how many threads send them. A caller that has to wait reserves its token first, so waiting
+ * callers are served in the order they came.
+ */
+public final class TokenBucket {
+
+    private final int mCapacity;
+    private final double mTokensPerNano;
+
+    // Negative while callers are waiting for reserved tokens
+    private double mTokens;
+    private long mRefilledAtNanos;
+
+    public TokenBucket(int capacity, double tokensPerSecond)
+    {
+        mCapacity = capacity;
+        mTokensPerNano = tokensPerSecond / 1e9;
+        mTokens = capacity;
+        mRefilledAtNanos = System.nanoTime();
+    }
+
+    /**
+     * Take a token, waiting until there is one.
+     * Returns false, without taking it, if the signal is cancelled while waiting.
+     */
+    public boolean acquire(CancellationToken signal)
+    {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            mTokens -= 1;
+            waitNanos = mTokens >= 0 ? 0 : (long) Math.ceil(-mTokens / mTokensPerNano);
+        }
+        if (waitNanos == 0) {
+            return true;
+        }
+
+        long end = System.nanoTime() + waitNanos;
+        try {
+            long remaining;
+            while ((remaining = end - System.nanoTime()) > 0) {
+                if (signal.isCanceled()) {
+                    break;
+                }
+                Thread.sleep(Math.min((remaining + 999999) / 1000000, 50));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (signal.isCanceled() || Thread.currentThread().isInterrupted()) {
+            // Give the reservation back, the callers behind it need not wait for it
+            synchronized (this) {
+                mTokens += 1;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Tokens that can be taken right now without waiting.
+     */
+    public synchronized int available()
+    {
+        refill();
+        return Math.max(0, (int) mTokens);
+    }
+
+    private void refill()
+    {
+        long now = System.nanoTime();
+        mTokens = Math.min(mCapacity, mTokens + (now - mRefilledAtNanos) * mTokensPerNano);
+        mRefilledAtNanos = now;
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.booklistingapp;
+
+/**
+ * Something that keeps data in memory that it can load again. The app's memory budget tells
+ * each one how much it may keep.
+ */
+public interface Trimmable {
+
+    /**
+     * Estimated heap size of what is kept right now.
+     */
+    long getRetainedBytes();
+
+    /**
+     * Keep at most this many bytes from now on, dropping what is least likely needed first.
+     */
+    void setBudget(long maxBytes);
+}
@@ -0,0 +1,200 @@
+package com.example.booklistingapp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Books written with {@link BookCodec} read back the same, and broken bytes, generated from
+ * fixed seeds so a failure can be replayed, are an {@link IOException} and nothing else.
+ */
+public class BookCodecTest {
+
+    private static final int RUNS = 2000;
+
+    private static final String[] AUTHORS = {
+            "Frank Herbert", "Stanis\u0142aw Lem", "Jane Austen", "\u6751\u4e0a\u6625\u6a39", "Smith, John"
+    };
+
+    @Test
+    public void everyFieldReadsBackTheSame() throws IOException {
+        List<Book> books = books(new Random(1), 40);
+
+        BookResultSet decoded = BookCodec.decode(BookCodec.encode(books));
+
+        assertEquals(books, new ArrayList<Book>(decoded));
+        assertEquals(0, decoded.getSkippedCount());
+    }
+
+    @Test
+    public void skippedCountAndEmptyListReadBack() throws IOException {
+        BookResultSet.Builder builder = new BookResultSet.Builder(1);
+        builder.add(new Book("B1", "Dune", "Frank Herbert", "", "")).setSkippedCount(3);
+
+        assertEquals(3, BookCodec.decode(BookCodec.encode(builder.build())).getSkippedCount());
+        assertTrue(BookCodec.decode(BookCodec.encode(Collections.<Book>emptyList())).isEmpty());
+    }
+
+    @Test
+    public void surrogatesReadBackTheSame() throws IOException {
+        String[] texts = {
+                // A pair is one four byte character, lone or reversed halves are kept as they are
+                "Books \ud83d\udcda", "\ud83d\udcda", "lone high \ud83d", "\ud83d", "lone low \udcda end",
+                "reversed \udcda\ud83d", "\ud83d\ud83d\udcda", "\u0000nul", "\u07ff\u0800\uffff"
+        };
+        List<Book> books = new ArrayList<Book>();
+        for (int i = 0; i < texts.length; i++) {
+            books.add(new Book("V" + i, texts[i], texts[texts.length - 1 - i], "", ""));
+        }
+
+        assertEquals(books, new ArrayList<Book>(BookCodec.decode(BookCodec.encode(books))));
+    }
+
+    @Test
+    public void resultSetIsWrittenLikeTheListOfItsBooks() throws IOException {
+        List<Book> books = books(new Random(2), 20);
+        byte[] encoded = BookCodec.encode(books);
+
+        assertArrayEquals(encoded, BookCodec.encode(BookResultSet.of(books)));
+        assertArrayEquals(encoded, BookCodec.encode(BookCodec.decode(encoded)));
+    }
+
+    @Test
+    public void rangeOfALargerArrayIsRead() throws IOException {
+        List<Book> books = books(new Random(3), 10);
+        byte[] encoded = BookCodec.encode(books);
+        // Other records before and after, the way the ISBN checkpoint stores its lists
+        byte[] file = new byte[encoded.length + 64];
+        Arrays.fill(file, (byte) 0x80);
+        System.arraycopy(encoded, 0, file, 17, encoded.length);
+
+        assertEquals(books, new ArrayList<Book>(BookCodec.decode(file, 17, encoded.length)));
+    }
+
+    @Test
+    public void everyTruncationIsAnIOException() {
+        byte[] encoded = BookCodec.encode(books(new Random(4), 5));
+        // The bytes after the range are still there and must not be read
+        byte[] file = new byte[encoded.length + 8];
+        System.arraycopy(encoded, 0, file, 8, encoded.length);
+
+        for (int length = 0; length < encoded.length; length++) {
+            try {
+                BookCodec.decode(file, 8, length);
+                fail("Cut at " + length + " of " + encoded.length + " was read");
+            } catch (IOException expected) {
+                // Cut off
+            }
+        }
+    }
+
+    @Test
+    public void otherVersionIsNotRead() {
+        byte[] encoded = BookCodec.encode(books(new Random(5), 3));
+        encoded[0] = (byte) (BookCodec.VERSION + 1);
+
+        try {
+            BookCodec.decode(encoded);
+            fail("A list of another version was read");
+        } catch (IOException expected) {
+            // Not this version
+        }
+    }
+
+    @Test
+    public void negativeLengthIsAnIOException() {
+        // Version, one book, none skipped, then a volume id of length -1000: ten bytes of varint
+        byte[] bytes = {(byte) BookCodec.VERSION, 1, 0, -104, -8, -1, -1, -1, -1, -1, -1, -1, 1, 'x'};
+
+        try {
+            BookCodec.decode(bytes);
+            fail("A negative length was read");
+        } catch (IOException expected) {
+            // Malformed
+        }
+    }
+
+    @Test
+    public void corruptedBytesNeverThrowRuntimeExceptions() {
+        for (int seed = 0; seed < RUNS; seed++) {
+            Random random = new Random(seed);
+            byte[] bytes = BookCodec.encode(books(random, 1 + random.nextInt(10)));
+            int mutations = 1 + random.nextInt(8);
+            for (int m = 0; m < mutations; m++) {
+                bytes = mutate(bytes, random);
+            }
+
+            try {
+                BookResultSet books = BookCodec.decode(bytes);
+                // What was read can be used
+                for (Book book : books) {
+                    book.estimatedRetainedBytes();
+                }
+            } catch (IOException e) {
+                // Broken
+            } catch (RuntimeException e) {
+                throw new AssertionError("seed " + seed + ": " + Arrays.toString(bytes), e);
+            }
+        }
+    }
+
+    // Books with and without each of the optional fields, their authors and categories repeat
+    private static List<Book> books(Random random, int count)
+    {
+        List<Book> books = new ArrayList<Book>(count);
+        for (int i = 0; i < count; i++) {
+            String volumeId = "vol" + Integer.toString(random.nextInt(1 << 30), 36);
+            boolean full = random.nextBoolean();
+            String imageUrl = random.nextBoolean() ? BooksApi.coverUrl(volumeId) : "https://example.com/" + i + ".jpg";
+            String bookUrl = random.nextBoolean() ? BooksApi.buyUrl(volumeId) : "https://example.com/" + i;
+            List<String> categories = full
+                    ? Arrays.asList("Fiction", random.nextBoolean() ? "Science Fiction" : "History")
+                    : Collections.<String>emptyList();
+            books.add(new Book(volumeId, "Title \ud83d\udcda " + random.nextInt(1000),
+                    AUTHORS[random.nextInt(AUTHORS.length)], imageUrl, bookUrl,
+                    full ? random.nextInt(100000000) : Book.NO_PRICE, full ? "EUR" : "",
+                    full ? "en" : "", full ? 19000101 + random.nextInt(1200000) : Book.NO_DATE,
+                    categories, full ? random.nextInt(10) / 2f : 0, full ? "9780306406157" : ""));
+        }
+        return books;
+    }
+
+    // Flip, drop, duplicate or insert a byte, or cut the bytes short
+    private static byte[] mutate(byte[] bytes, Random random)
+    {
+        if (bytes.length == 0) {
+            return bytes;
+        }
+        int at = random.nextInt(bytes.length);
+        switch (random.nextInt(5)) {
+            case 0: {
+                byte[] flipped = bytes.clone();
+                flipped[at] ^= 1 << random.nextInt(8);
+                return flipped;
+            }
+            case 1: {
+                byte[] shorter = new byte[bytes.length - 1];
+                System.arraycopy(bytes, 0, shorter, 0, at);
+                System.arraycopy(bytes, at + 1, shorter, at, bytes.length - at - 1);
+                return shorter;
+            }
+            case 2:
+            case 3: {
+                byte[] longer = new byte[bytes.length + 1];
+                System.arraycopy(bytes, 0, longer, 0, at);
+                longer[at] = random.nextBoolean() ? bytes[at] : (byte) random.nextInt(256);
+                System.arraycopy(bytes, at, longer, at + 1, bytes.length - at);
+                return longer;
+            }
+            default:
+                return Arrays.copyOf(bytes, at);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.example.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Queue order, cancellation and backpressure of {@link BookFetchEngine} with stub sources,
+ * and the overlap of its requests to a {@link FakeVolumesServer}. Results are delivered on the
+ * worker thread.
+ */
+public class BookFetchEngineTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder mCacheDir = new TemporaryFolder();
+
+    private BookFetchEngine mEngine;
+    private FakeVolumesServer mServer;
+
+    @Before
+    public void setUp() {
+        // Count every fetch once, without hedges
+        QueryUtils.resetHosts();
+        QueryUtils.setHedgingEnabled(false);
+    }
+
+    @After
+    public void tearDown() {
+        if (mEngine != null) {
+            mEngine.shutdown();
+        }
+        if (mServer != null) {
+            mServer.stop();
+        }
+        QueryUtils.setHedgingEnabled(true);
+        QueryUtils.resetHosts();
+    }
+
+    @Test
+    public void visibleFetchesOvertakeWaitingPrefetches() throws Exception {
+        mEngine = new BookFetchEngine(1, 10, DIRECT);
+        BlockingSource blocker = new BlockingSource();
+        mEngine.submit(blocker, query(0), BookFetchEngine.Priority.VISIBLE, new Result());
+        blocker.mStarted.await();
+
+        RecordingSource source = new RecordingSource();
+        Result done = new Result(6);
+        mEngine.submit(source, query(1), BookFetchEngine.Priority.PREFETCH, done);
+        mEngine.submit(source, query(2), BookFetchEngine.Priority.PREFETCH, done);
+        mEngine.submit(source, query(3), BookFetchEngine.Priority.VISIBLE, done);
+        mEngine.submit(source, query(4), BookFetchEngine.Priority.PREFETCH, done);
+        mEngine.submit(source, query(5), BookFetchEngine.Priority.VISIBLE, done);
+        mEngine.submit(source, query(6), BookFetchEngine.Priority.VISIBLE, done);
+        blocker.mRelease.countDown();
+        done.await();
+
+        // First in, first out within a priority
+        assertEquals(pages(3, 5, 6, 1, 2, 4), source.pages());
+    }
+
+    @Test
+    public void cancellingAWaitingFetchTakesItOutOfTheQueue() throws Exception {
+        mEngine = new BookFetchEngine(1, 10, DIRECT);
+        BlockingSource blocker = new BlockingSource();
+        mEngine.submit(blocker, query(0), BookFetchEngine.Priority.VISIBLE, new Result());
+        blocker.mStarted.await();
+        RecordingSource source = new RecordingSource();
+        Result cancelled = new Result();
+        Result kept = new Result();
+
+        CancellationToken token = mEngine.submit(source, query(1), BookFetchEngine.Priority.VISIBLE, cancelled);
+        mEngine.submit(source, query(2), BookFetchEngine.Priority.VISIBLE, kept);
+        token.cancel();
+
+        assertEquals(1, mEngine.getQueuedCount());
+        assertEquals(1, mEngine.getCancelledCount());
+        blocker.mRelease.countDown();
+        kept.await();
+        assertEquals(pages(2), source.pages());
+        assertEquals(0, cancelled.mCalls.get());
+    }
+
+    @Test
+    public void cancellingARunningFetchAbortsItWithoutAResult() throws Exception {
+        mEngine = new BookFetchEngine(1, 10, DIRECT);
+        BlockingSource source = new BlockingSource();
+        Result result = new Result();
+
+        CancellationToken token = mEngine.submit(source, query(0), BookFetchEngine.Priority.VISIBLE, result);
+        source.mStarted.await();
+        token.cancel();
+
+        // The source sees the cancellation and gives up without anyone releasing it
+        assertTrue(source.mAborted.await(5, TimeUnit.SECONDS));
+        waitFor(mEngine, 1);
+        assertEquals(1, mEngine.getCancelledCount());
+        assertEquals(0, mEngine.getCompletedCount());
+        assertEquals(0, result.mCalls.get());
+    }
+
+    @Test
+    public void fullQueueRejectsPrefetchesFirst() throws Exception {
+        mEngine = new BookFetchEngine(1, 2, DIRECT);
+        BlockingSource blocker = new BlockingSource();
+        mEngine.submit(blocker, query(0), BookFetchEngine.Priority.VISIBLE, new Result());
+        blocker.mStarted.await();
+        RecordingSource source = new RecordingSource();
+        Result first = new Result();
+        Result second = new Result();
+        Result rejected = new Result();
+        Result visible = new Result();
+
+        mEngine.submit(source, query(1), BookFetchEngine.Priority.PREFETCH, first);
+        mEngine.submit(source, query(2), BookFetchEngine.Priority.PREFETCH, second);
+        // No room for another prefetch
+        mEngine.submit(source, query(3), BookFetchEngine.Priority.PREFETCH, rejected);
+        assertEquals(1, rejected.mCalls.get());
+        assertNull(rejected.mBooks);
+        // A visible fetch pushes out the newest waiting prefetch
+        mEngine.submit(source, query(4), BookFetchEngine.Priority.VISIBLE, visible);
+        assertEquals(1, second.mCalls.get());
+        assertNull(second.mBooks);
+        assertEquals(2, mEngine.getRejectedCount());
+
+        blocker.mRelease.countDown();
+        first.await();
+        visible.await();
+        assertEquals(pages(4, 1), source.pages());
+    }
+
+    @Test
+    public void workersOverlapTheirWaitForTheServer() throws Exception {
+        final int threads = 4;
+        final int fetches = 40;
+        // Each request waits long enough at the server for every worker to send its own meanwhile
+        mServer = new FakeVolumesServer.Builder().setLatency(FakeVolumesServer.fixed(100)).start();
+        BookSource source = new ServerSource(new BookCache(mCacheDir.getRoot()));
+
+        runFetches(source, threads, "garden", fetches);
+
+        assertEquals(fetches, mServer.getRequestCount());
+        assertEquals(threads, mServer.getMaxConcurrentRequests());
+    }
+
+    @Test
+    public void shutdownCancelsRunningFetches() throws Exception {
+        mEngine = new BookFetchEngine(1, 10, DIRECT);
+        BlockingSource source = new BlockingSource();
+        Result running = new Result();
+        Result waiting = new Result();
+        CancellationToken runningToken = mEngine.submit(source, query(0), BookFetchEngine.Priority.VISIBLE, running);
+        CancellationToken waitingToken = mEngine.submit(new RecordingSource(), query(1),
+                BookFetchEngine.Priority.VISIBLE, waiting);
+        source.mStarted.await();
+
+        mEngine.shutdown();
+
+        assertTrue(runningToken.isCanceled());
+        assertTrue(waitingToken.isCanceled());
+        // The running fetch ends on the cancellation or on the interrupt, without a result either way
+        waitFor(mEngine, 1);
+        assertEquals(1, mEngine.getCancelledCount());
+        assertEquals(0, running.mCalls.get());
+        assertEquals(0, waiting.mCalls.get());
+    }
+
+    private static BookQuery query(int page)
+    {
+        return query("garden", page);
+    }
+
+    private static BookQuery query(String search, int page)
+    {
+        return BookQuery.parse(search).withPage(page * BookPager.PAGE_SIZE, BookPager.PAGE_SIZE);
+    }
+
+    private static List<Integer> pages(Integer... pages)
+    {
+        List<Integer> list = new ArrayList<Integer>();
+        Collections.addAll(list, pages);
+        return list;
+    }
+
+    /**
+     * Run the fetches of a whole engine, a third of them visible, and wait for all of them.
+     */
+    private void runFetches(BookSource source, int threads, String search, int fetches) throws InterruptedException {
+        mEngine = new BookFetchEngine(threads, fetches, DIRECT);
+        Result done = new Result(fetches);
+        for (int i = 0; i < fetches; i++) {
+            mEngine.submit(source, query(search, i), i % 3 == 0 ? BookFetchEngine.Priority.VISIBLE
+                    : BookFetchEngine.Priority.PREFETCH, done);
+        }
+        done.await();
+        assertEquals(fetches, mEngine.getCompletedCount());
+        assertEquals(0, mEngine.getRejectedCount());
+    }
+
+    private static void waitFor(BookFetchEngine engine, int cancelled) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (engine.getCancelledCount() < cancelled && System.nanoTime() < end) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Counts the results it gets, and lets a test wait for the expected number.
+     */
+    private static class Result implements BookFetchEngine.Callback {
+
+        final AtomicInteger mCalls = new AtomicInteger();
+        final CountDownLatch mDone;
+        volatile List<Book> mBooks;
+
+        Result()
+        {
+            this(1);
+        }
+
+        Result(int expected)
+        {
+            mDone = new CountDownLatch(expected);
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("Fetches still running", mDone.await(30, TimeUnit.SECONDS));
+        }
+
+        @Override
+        public void onResult(List<Book> books) {
+            mBooks = books;
+            mCalls.incrementAndGet();
+            mDone.countDown();
+        }
+
+        @Override
+        public void onFailure(QueryUtils.FetchException failure) {
+            mCalls.incrementAndGet();
+            mDone.countDown();
+        }
+
+        @Override
+        public void onProgress(Phase phase, long bytesRead) {
+
+        }
+    }
+
+    private abstract static class StubSource implements BookSource {
+
+        @Override
+        public String getName() {
+            return "stub";
+        }
+
+        @Override
+        public long getDeadlineMillis() {
+            return 1000;
+        }
+
+        @Override
+        public List<Book> getCached(BookQuery query) {
+            return null;
+        }
+    }
+
+    /**
+     * Holds the worker until released, or until its fetch is cancelled.
+     */
+    private static final class BlockingSource extends StubSource {
+
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mRelease = new CountDownLatch(1);
+        final CountDownLatch mAborted = new CountDownLatch(1);
+
+        @Override
+        public List<Book> search(BookQuery query, QueryUtils.ProgressListener listener, CancellationToken token) {
+            mStarted.countDown();
+            try {
+                while (!mRelease.await(5, TimeUnit.MILLISECONDS)) {
+                    if (token.isCanceled()) {
+                        mAborted.countDown();
+                        return null;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Answers at once and remembers the order of the pages it was asked for.
+     */
+    private static final class RecordingSource extends StubSource {
+
+        private final List<Integer> mPages = new ArrayList<Integer>();
+
+        @Override
+        public synchronized List<Book> search(BookQuery query, QueryUtils.ProgressListener listener,
+                                              CancellationToken token) {
+            mPages.add(query.getStartIndex() / BookPager.PAGE_SIZE);
+            return Collections.emptyList();
+        }
+
+        synchronized List<Integer> pages()
+        {
+            return new ArrayList<Integer>(mPages);
+        }
+    }
+
+    /**
+     * Searches the fake server through the app's fetch path.
+     */
+    private final class ServerSource extends StubSource {
+
+        private final BookCache mCache;
+
+        ServerSource(BookCache cache)
+        {
+            mCache = cache;
+        }
+
+        @Override
+        public List<Book> search(BookQuery query, QueryUtils.ProgressListener listener, CancellationToken token)
+                throws QueryUtils.FetchException {
+            return QueryUtils.fetchBookData(mCache, mServer.url(query), listener, token);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.booklistingapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Filters, facet counts, price bands and the orders of the sorts of {@link BookIndex}.
+ */
+public class BookIndexTest {
+
+    private static final Book DUNE = book("A", "Dune", 9990000, "en", 19650801, 4.5f, "Fiction / Science Fiction");
+    private static final Book EMMA = book("B", "Emma", 0, "en", 18151223, 4f, "Fiction / Classics");
+    private static final Book SOLARIS = book("C", "Solaris", 15000000, "pl", 19610101, 4.5f, "Fiction / Science Fiction");
+    private static final Book SAPIENS = book("D", "Sapiens", 30000000, "en", 20110101, 0, "History");
+    private static final Book ECOLE = book("E", "\u00c9cole", Book.NO_PRICE, "fr", Book.NO_DATE, 3f, "History", "Fiction");
+
+    private static final List<Book> BOOKS = Arrays.asList(DUNE, EMMA, SOLARIS, SAPIENS, ECOLE);
+
+    @Test
+    public void queryAndsTheFacetsAndOrsTheirValues() {
+        BookIndex index = new BookIndex(BOOKS);
+        BookIndex.Filter fiction = BookIndex.Filter.NONE
+                .with(BookIndex.Facet.CATEGORY, Collections.singleton("Fiction"));
+
+        assertEquals(Arrays.asList(DUNE, EMMA, SOLARIS, ECOLE), index.query(fiction, BookIndex.Sort.RELEVANCE));
+        BookIndex.Filter fictionInEnglishOrPolish = fiction.with(BookIndex.Facet.LANGUAGE, set("en", "pl"));
+        assertEquals(Arrays.asList(DUNE, EMMA, SOLARIS),
+                index.query(fictionInEnglishOrPolish, BookIndex.Sort.RELEVANCE));
+        assertEquals(Arrays.asList(DUNE, SOLARIS),
+                index.query(fictionInEnglishOrPolish.withMinStars(4).with(
+                        BookIndex.Facet.PRICE, set("UNDER_15", "UNDER_30")), BookIndex.Sort.RELEVANCE));
+        assertEquals(3, index.count(fictionInEnglishOrPolish));
+        assertEquals(BOOKS.size(), index.count(BookIndex.Filter.NONE));
+    }
+
+    @Test
+    public void unknownValueMatchesNothingAndNoSelectionMatchesEverything() {
+        BookIndex index = new BookIndex(BOOKS);
+
+        assertTrue(index.query(BookIndex.Filter.NONE.with(BookIndex.Facet.LANGUAGE, set("xx")),
+                BookIndex.Sort.TITLE).isEmpty());
+        BookIndex.Filter cleared = BookIndex.Filter.NONE.with(BookIndex.Facet.LANGUAGE, set("en"))
+                .with(BookIndex.Facet.LANGUAGE, Collections.<String>emptySet());
+        assertTrue(cleared.isEmpty());
+        assertEquals(BOOKS, index.query(cleared, BookIndex.Sort.RELEVANCE));
+    }
+
+    @Test
+    public void facetCountsLeaveOutTheFacetsOwnSelection() {
+        BookIndex index = new BookIndex(BOOKS);
+        BookIndex.Filter filter = BookIndex.Filter.NONE
+                .with(BookIndex.Facet.LANGUAGE, set("en"))
+                .with(BookIndex.Facet.CATEGORY, set("History"));
+
+        // Every language of the history books, not only the selected one
+        Map<String, Integer> languages = new LinkedHashMap<String, Integer>();
+        languages.put("en", 1);
+        languages.put("fr", 1);
+        assertEquals(languages, index.facetCounts(BookIndex.Facet.LANGUAGE, filter));
+        // Every category of the English books
+        Map<String, Integer> categories = new LinkedHashMap<String, Integer>();
+        categories.put("Fiction", 2);
+        categories.put("History", 1);
+        assertEquals(categories, index.facetCounts(BookIndex.Facet.CATEGORY, filter));
+        // Other facets count what the filter shows
+        assertEquals(Collections.singletonMap("OVER_30", 1), index.facetCounts(BookIndex.Facet.PRICE, filter));
+    }
+
+    @Test
+    public void priceBandsIncludeTheirLowerLimit() {
+        assertEquals(BookIndex.PriceBand.FREE, band(0));
+        assertEquals(BookIndex.PriceBand.UNDER_5, band(1));
+        assertEquals(BookIndex.PriceBand.UNDER_5, band(4999999));
+        assertEquals(BookIndex.PriceBand.UNDER_15, band(5000000));
+        assertEquals(BookIndex.PriceBand.UNDER_15, band(14999999));
+        assertEquals(BookIndex.PriceBand.UNDER_30, band(15000000));
+        assertEquals(BookIndex.PriceBand.UNDER_30, band(29999999));
+        assertEquals(BookIndex.PriceBand.OVER_30, band(30000000));
+        assertEquals(BookIndex.PriceBand.OVER_30, band(Long.MAX_VALUE));
+        assertEquals(BookIndex.PriceBand.NONE, band(Book.NO_PRICE));
+    }
+
+    @Test
+    public void sortsPutTheMissingValuesLastAndKeepTiesInListOrder() {
+        BookIndex index = new BookIndex(BOOKS);
+
+        assertEquals(Arrays.asList(EMMA, DUNE, SOLARIS, SAPIENS, ECOLE),
+                index.query(BookIndex.Filter.NONE, BookIndex.Sort.PRICE_LOW));
+        // The keys of these sorts are negated, ties and missing values must still come out right
+        assertEquals(Arrays.asList(SAPIENS, SOLARIS, DUNE, EMMA, ECOLE),
+                index.query(BookIndex.Filter.NONE, BookIndex.Sort.PRICE_HIGH));
+        assertEquals(Arrays.asList(SAPIENS, DUNE, SOLARIS, EMMA, ECOLE),
+                index.query(BookIndex.Filter.NONE, BookIndex.Sort.NEWEST));
+        assertEquals(Arrays.asList(DUNE, SOLARIS, EMMA, ECOLE, SAPIENS),
+                index.query(BookIndex.Filter.NONE, BookIndex.Sort.RATING));
+        // Accents and case are ignored
+        assertEquals(Arrays.asList(DUNE, ECOLE, EMMA, SAPIENS, SOLARIS),
+                index.query(BookIndex.Filter.NONE, BookIndex.Sort.TITLE));
+    }
+
+    @Test
+    public void largeListKeepsEveryBookInEverySort() {
+        List<Book> books = new ArrayList<Book>();
+        for (int i = 0; i < 1000; i++) {
+            // Crosses the words of the bitsets, and many equal negative keys
+            books.add(book("V" + i, "Title " + (i % 7), i % 3 == 0 ? Book.NO_PRICE : (i % 50) * 1000000L,
+                    "en", i % 5 == 0 ? Book.NO_DATE : 20000101 + i % 10, (i % 11) / 2f, "Fiction"));
+        }
+        BookIndex index = new BookIndex(books);
+
+        for (BookIndex.Sort sort : BookIndex.Sort.values()) {
+            List<Book> sorted = index.query(BookIndex.Filter.NONE, sort);
+            assertEquals(sort.name(), new HashSet<Book>(books), new HashSet<Book>(sorted));
+            assertEquals(sort.name(), books.size(), sorted.size());
+        }
+        List<Book> newest = index.query(BookIndex.Filter.NONE, BookIndex.Sort.NEWEST);
+        for (int i = 1; i < newest.size(); i++) {
+            int previous = newest.get(i - 1).getPublishedDate();
+            int date = newest.get(i).getPublishedDate();
+            assertTrue(date == Book.NO_DATE || (previous != Book.NO_DATE && previous >= date));
+            if (previous == date) {
+                assertTrue(books.indexOf(newest.get(i - 1)) < books.indexOf(newest.get(i)));
+            }
+        }
+    }
+
+    private static BookIndex.PriceBand band(long priceMicros)
+    {
+        return BookIndex.PriceBand.of(book("P", "Priced", priceMicros, "en", Book.NO_DATE, 0));
+    }
+
+    private static HashSet<String> set(String... values)
+    {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+
+    private static Book book(String volumeId, String title, long priceMicros, String language, int publishedDate,
+                             float rating, String... categories)
+    {
+        return new Book(volumeId, title, "Author", "", "", priceMicros,
+                priceMicros == Book.NO_PRICE ? "" : "EUR", language, publishedDate,
+                Arrays.asList(categories), rating, "");
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.booklistingapp;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Mutated volumes responses, generated from fixed seeds so a failure can be replayed.
+ * Whatever the bytes, the parser returns books or throws an {@link IOException}, and a
+ * broken item never costs the others of its page.
+ */
+public class BookJsonParserTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int RUNS = 500;
+    private static final int ITEMS = 20;
+
+    @Test
+    public void validResponseGivesEveryItem() throws IOException {
+        JsonObject response = response(new Random(1));
+
+        BookResultSet books = parse(response.toString());
+
+        assertEquals(ITEMS, books.size());
+        assertEquals(0, books.getSkippedCount());
+        for (int i = 0; i < ITEMS; i++) {
+            assertEquals(id(response, i), books.get(i).getVolumeId());
+        }
+    }
+
+    @Test
+    public void brokenUnicodeEscapeIsABrokenResponse() throws IOException {
+        String json = response(new Random(2)).toString();
+        int second = json.indexOf("\"volumeInfo\"", json.indexOf("\"volumeInfo\"") + 1);
+        // Found by mutatedBytesNeverThrowRuntimeExceptions, the JSON reader throws NumberFormatException
+        String broken = json.substring(0, second + 4) + "\\u" + json.substring(second + 4);
+
+        try {
+            parse(broken);
+            fail("A response with a broken escape parsed");
+        } catch (BookJsonParser.PartialResultException e) {
+            assertEquals(1, e.getBooks().size());
+        }
+    }
+
+    @Test
+    public void brokenItemsDoNotCostTheOthers() throws IOException {
+        for (int seed = 0; seed < RUNS; seed++) {
+            Random random = new Random(seed);
+            JsonObject response = response(random);
+            BookResultSet original = parse(response.toString());
+            JsonArray items = response.getAsJsonArray("items");
+
+            Set<Integer> touched = new HashSet<Integer>();
+            for (int m = 0; m < 3; m++) {
+                int item = random.nextInt(ITEMS);
+                touched.add(item);
+                mutateItem(items, item, random);
+            }
+
+            String mutated = response.toString();
+            BookResultSet books = parse(mutated);
+            assertEquals("seed " + seed, ITEMS, books.size() + books.getSkippedCount());
+            Map<String, Book> byId = new HashMap<String, Book>();
+            for (Book book : books) {
+                byId.put(book.getVolumeId(), book);
+            }
+            for (int i = 0; i < ITEMS; i++) {
+                if (!touched.contains(i)) {
+                    assertEquals("seed " + seed + ": " + mutated, original.get(i), byId.get(original.get(i).getVolumeId()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void truncatedResponseKeepsTheBooksBeforeTheCut() throws IOException {
+        for (int seed = 0; seed < RUNS; seed++) {
+            Random random = new Random(seed);
+            String json = response(random).toString();
+            BookResultSet original = parse(json);
+            String truncated = json.substring(0, random.nextInt(json.length()));
+
+            try {
+                parse(truncated);
+                fail("seed " + seed + ": a truncated response parsed");
+            } catch (BookJsonParser.PartialResultException e) {
+                List<Book> books = e.getBooks();
+                for (int i = 0; i < books.size(); i++) {
+                    assertEquals("seed " + seed, original.get(i), books.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void mutatedBytesNeverThrowRuntimeExceptions() {
+        for (int seed = 0; seed < RUNS; seed++) {
+            Random random = new Random(seed);
+            byte[] bytes = response(random).toString().getBytes(UTF_8);
+            int mutations = 1 + random.nextInt(8);
+            for (int m = 0; m < mutations; m++) {
+                bytes = mutateBytes(bytes, random);
+            }
+
+            try {
+                BookJsonParser.parse(new ByteArrayInputStream(bytes));
+            } catch (IOException e) {
+                // Broken JSON, PartialResultException included
+            } catch (RuntimeException e) {
+                throw new AssertionError("seed " + seed + ": " + new String(bytes, UTF_8), e);
+            }
+        }
+    }
+
+    private static BookResultSet parse(String json) throws IOException {
+        return BookJsonParser.parse(new ByteArrayInputStream(json.getBytes(UTF_8)));
+    }
+
+    private static String id(JsonObject response, int item)
+    {
+        return response.getAsJsonArray("items").get(item).getAsJsonObject().get("id").getAsString();
+    }
+
+    // Replace or drop a field anywhere in the item, or the whole item
+    private static void mutateItem(JsonArray items, int item, Random random)
+    {
+        JsonElement[] replacements = {
+                JsonNull.INSTANCE, new JsonPrimitive(7), new JsonPrimitive(-1e300), new JsonPrimitive(true),
+                new JsonPrimitive(""), new JsonPrimitive("\u0000\ud83d\udcda"), new JsonArray(), new JsonObject()
+        };
+        if (random.nextInt(10) == 0 || !items.get(item).isJsonObject()) {
+            items.set(item, replacements[random.nextInt(replacements.length)]);
+            return;
+        }
+        List<JsonObject> objects = new ArrayList<JsonObject>();
+        collectObjects(items.get(item).getAsJsonObject(), objects);
+        JsonObject object = objects.get(random.nextInt(objects.size()));
+        List<String> names = new ArrayList<String>(object.keySet());
+        if (names.isEmpty()) {
+            return;
+        }
+        String name = names.get(random.nextInt(names.size()));
+        if (random.nextBoolean()) {
+            object.remove(name);
+        } else {
+            object.add(name, replacements[random.nextInt(replacements.length)]);
+        }
+    }
+
+    private static void collectObjects(JsonElement element, List<JsonObject> objects)
+    {
+        if (element.isJsonObject()) {
+            objects.add(element.getAsJsonObject());
+            for (Map.Entry<String, JsonElement> field : element.getAsJsonObject().entrySet()) {
+                collectObjects(field.getValue(), objects);
+            }
+        } else if (element.isJsonArray()) {
+            for (JsonElement child : element.getAsJsonArray()) {
+                collectObjects(child, objects);
+            }
+        }
+    }
+
+    // Flip, drop, duplicate or insert a byte, or cut the response short
+    private static byte[] mutateBytes(byte[] bytes, Random random)
+    {
+        if (bytes.length == 0) {
+            return bytes;
+        }
+        byte[] syntax = "{}[]:,\"\\-.0eE".getBytes(UTF_8);
+        int at = random.nextInt(bytes.length);
+        switch (random.nextInt(5)) {
+            case 0: {
+                byte[] flipped = bytes.clone();
+                flipped[at] ^= 1 << random.nextInt(8);
+                return flipped;
+            }
+            case 1: {
+                byte[] shorter = new byte[bytes.length - 1];
+                System.arraycopy(bytes, 0, shorter, 0, at);
+                System.arraycopy(bytes, at + 1, shorter, at, bytes.length - at - 1);
+                return shorter;
+            }
+            case 2:
+            case 3: {
+                byte[] longer = new byte[bytes.length + 1];
+                System.arraycopy(bytes, 0, longer, 0, at);
+                longer[at] = random.nextBoolean() ? bytes[at] : syntax[random.nextInt(syntax.length)];
+                System.arraycopy(bytes, at, longer, at + 1, bytes.length - at);
+                return longer;
+            }
+            default: {
+                byte[] cut = new byte[at];
+                System.arraycopy(bytes, 0, cut, 0, at);
+                return cut;
+            }
+        }
+    }
+
+    // A projected response, as the app requests it with fields=
+    private static JsonObject response(Random random)
+    {
+        List<GeneratedVolume> volumes = new ArrayList<GeneratedVolume>(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            volumes.add(new GeneratedVolume(random.nextLong()));
+        }
+        return FieldMask.parse(BooksApi.BOOK_FIELDS).apply(GeneratedVolume.response(volumes, ITEMS * 10))
+                .getAsJsonObject();
+    }
+}
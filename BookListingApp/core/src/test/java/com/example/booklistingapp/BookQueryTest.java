@@ -0,0 +1,220 @@
+package com.example.booklistingapp;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Properties of the canonical key and the request URL, over queries generated from fixed
+ * seeds: encoding round-trips whatever the text, a URL reads back as its query, and queries
+ * that only differ in the order they were put together in have the same key.
+ */
+public class BookQueryTest {
+
+    private static final int RUNS = 2000;
+
+    // Reserved characters, the query syntax itself, accents and text outside the BMP
+    private static final String[] PIECES = {
+            "a", "z", "Q", "7", "-", ".", "_", "~", "!", "#", "$", "%", "&", "'", "(", ")", "*", "+", ",",
+            "/", ":", ";", "=", "?", "@", "[", "]", "%20", "%zz", "\u00e9", "\u00df", "\u0416", "\u4e66",
+            "\u00ad", "\ud83d\udcda", "\ud801\udc00", "\ud835\udd04", "intitle:", "inauthor:", "isbn:"
+    };
+
+    @Test
+    public void encodingRoundTrips() {
+        for (int seed = 0; seed < RUNS; seed++) {
+            Random random = new Random(seed);
+            StringBuilder text = new StringBuilder();
+            for (int i = random.nextInt(12); i > 0; i--) {
+                text.append(random.nextInt(4) == 0 ? " " : PIECES[random.nextInt(PIECES.length)]);
+            }
+
+            StringBuilder encoded = new StringBuilder();
+            BookQuery.encode(text.toString(), encoded);
+
+            assertTrue("seed " + seed + ": " + encoded, isEncoded(encoded.toString()));
+            assertEquals("seed " + seed, text.toString(), BookQuery.decode(encoded.toString()));
+        }
+    }
+
+    @Test
+    public void urlReadsBackAsItsQuery() throws Exception {
+        for (int seed = 0; seed < RUNS; seed++) {
+            BookQuery query = query(new Random(seed));
+            String url = BooksApi.buildQueryUrl(query);
+
+            // A valid URL, with nothing but the escapes in it
+            new URI(url);
+            assertTrue("seed " + seed + ": " + query.getKey(), isEncoded(query.getKey()));
+            BookQuery parsed = BooksApi.parseQueryUrl(url);
+            assertEquals("seed " + seed + ": " + query.getTerms(), query.getKey(), parsed.getKey());
+            assertEquals(query, parsed);
+            // The terms are a query as the user would type it
+            assertEquals("seed " + seed, query.getKey(), BookQuery.parse(query.getTerms()).buildUpon()
+                    .setFilter(query.getFilter())
+                    .setOrderBy(query.getOrderBy())
+                    .setLanguage(query.getLanguage())
+                    .setProjection(query.getProjection())
+                    .setPage(query.getStartIndex(), query.getMaxResults())
+                    .build().getKey());
+        }
+    }
+
+    @Test
+    public void buildOrderDoesNotChangeTheKey() {
+        for (int seed = 0; seed < RUNS; seed++) {
+            Random random = new Random(seed);
+            List<Part> parts = parts(random);
+            BookQuery.Filter filter = pick(random, BookQuery.Filter.values());
+            String language = random.nextBoolean() ? "en" : null;
+            BookQuery expected = build(parts, filter, language, false);
+
+            for (int permutation = 0; permutation < 5; permutation++) {
+                List<Part> shuffled = interleave(parts, random);
+                BookQuery query = build(shuffled, filter, language, random.nextBoolean());
+                assertEquals("seed " + seed, expected.getKey(), query.getKey());
+                assertEquals(expected.hashCode(), query.hashCode());
+            }
+        }
+    }
+
+    @Test
+    public void typedOrderOfTheFieldsDoesNotChangeTheKey() {
+        String key = BookQuery.parse("lord rings inauthor:tolkien intitle:\"two towers\"").getKey();
+
+        assertEquals(key, BookQuery.parse("intitle:\"two towers\" lord inauthor:tolkien rings").getKey());
+        assertEquals(key, BookQuery.parse("inauthor:TOLKIEN  intitle:two lord intitle:towers rings").getKey());
+        assertEquals("q=lord+rings+intitle%3Atwo+intitle%3Atowers+inauthor%3Atolkien&startIndex=0&maxResults=10", key);
+    }
+
+    @Test
+    public void equivalentTextHasOneKey() {
+        // Decomposed and composed, upper and lower case, hyphenated ISBNs and default parameters
+        BookQuery query = new BookQuery.Builder()
+                .addWords("Cafe\u0301 \ud801\udc00")
+                .addWords(BookQuery.Field.ISBN, "978-0-306-40615-7")
+                .setOrderBy(BookQuery.OrderBy.RELEVANCE)
+                .setProjection(BookQuery.Projection.FULL)
+                .setLanguage(" EN ")
+                .build();
+
+        assertEquals(BookQuery.parse("caf\u00e9 \ud801\udc28 isbn:9780306406157").buildUpon().setLanguage("en").build(),
+                query);
+    }
+
+    private static boolean isEncoded(String text)
+    {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '%') {
+                if (i + 2 >= text.length() || Character.digit(text.charAt(i + 1), 16) < 0
+                        || Character.digit(text.charAt(i + 2), 16) < 0) {
+                    return false;
+                }
+                i += 2;
+            } else if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || "-._~+=&".indexOf(c) >= 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static BookQuery query(Random random)
+    {
+        return build(parts(random), pick(random, BookQuery.Filter.values()), random.nextBoolean() ? "fr" : null,
+                random.nextBoolean());
+    }
+
+    /**
+     * A word for all fields (field null) or for one field.
+     */
+    private static final class Part {
+
+        final BookQuery.Field mField;
+        final String mWord;
+
+        Part(BookQuery.Field field, String word)
+        {
+            mField = field;
+            mWord = word;
+        }
+    }
+
+    private static List<Part> parts(Random random)
+    {
+        List<Part> parts = new ArrayList<Part>();
+        for (int i = random.nextInt(8); i > 0; i--) {
+            BookQuery.Field field = random.nextInt(3) == 0 ? null : pick(random, BookQuery.Field.values());
+            parts.add(new Part(field, word(random)));
+        }
+        return parts;
+    }
+
+    // A word in canonical form already, so it is the same word after the builder normalized it
+    private static String word(Random random)
+    {
+        StringBuilder word = new StringBuilder();
+        for (int i = 1 + random.nextInt(4); i > 0; i--) {
+            word.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+        String canonical = Normalizer.normalize(word.toString(), Normalizer.Form.NFC).toLowerCase(Locale.ROOT);
+        return canonical.replace("\"", "");
+    }
+
+    /**
+     * The same parts in another order. Words of one field keep their order, that is part of the query.
+     */
+    private static List<Part> interleave(List<Part> parts, Random random)
+    {
+        List<BookQuery.Field> order = new ArrayList<BookQuery.Field>();
+        for (Part part : parts) {
+            order.add(part.mField);
+        }
+        Collections.shuffle(order, random);
+        List<Part> remaining = new ArrayList<Part>(parts);
+        List<Part> interleaved = new ArrayList<Part>();
+        for (BookQuery.Field field : order) {
+            for (int i = 0; i < remaining.size(); i++) {
+                if (remaining.get(i).mField == field) {
+                    interleaved.add(remaining.remove(i));
+                    break;
+                }
+            }
+        }
+        return interleaved;
+    }
+
+    private static BookQuery build(List<Part> parts, BookQuery.Filter filter, String language, boolean settingsFirst)
+    {
+        BookQuery.Builder builder = new BookQuery.Builder();
+        if (settingsFirst) {
+            builder.setPage(20, 20).setLanguage(language).setFilter(filter);
+        }
+        for (Part part : parts) {
+            if (part.mField == null) {
+                builder.addWords(part.mWord);
+            } else {
+                builder.addWords(part.mField, part.mWord);
+            }
+        }
+        if (!settingsFirst) {
+            builder.setFilter(filter).setLanguage(language).setPage(20, 20);
+        }
+        return builder.build();
+    }
+
+    private static <T> T pick(Random random, T[] values)
+    {
+        int i = random.nextInt(values.length + 1);
+        return i < values.length ? values[i] : null;
+    }
+}
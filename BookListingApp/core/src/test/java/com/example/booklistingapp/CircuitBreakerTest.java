@@ -0,0 +1,115 @@
+package com.example.booklistingapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The states of a circuit: closed, open for a time, half open with a single probe.
+ */
+public class CircuitBreakerTest {
+
+    private static final int THRESHOLD = 3;
+    private static final long OPEN_MILLIS = 100;
+
+    private final CircuitBreaker mBreaker = new CircuitBreaker(THRESHOLD, OPEN_MILLIS);
+
+    @Test
+    public void staysClosedBelowTheThreshold() {
+        for (int i = 0; i < THRESHOLD - 1; i++) {
+            assertTrue(mBreaker.allowRequest());
+            mBreaker.onFailure(-1);
+        }
+        assertTrue(mBreaker.allowRequest());
+        assertEquals(0, mBreaker.getRemainingOpenMillis());
+    }
+
+    @Test
+    public void successResetsTheFailures() {
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < THRESHOLD - 1; i++) {
+                mBreaker.onFailure(-1);
+            }
+            mBreaker.onSuccess();
+        }
+        assertTrue(mBreaker.allowRequest());
+    }
+
+    @Test
+    public void opensAfterTheThreshold() {
+        failRequests(THRESHOLD);
+
+        assertFalse(mBreaker.allowRequest());
+        long remaining = mBreaker.getRemainingOpenMillis();
+        assertTrue(String.valueOf(remaining), remaining > 0 && remaining <= OPEN_MILLIS);
+    }
+
+    @Test
+    public void letsASingleProbeThroughOnceTheTimeIsUp() throws InterruptedException {
+        failRequests(THRESHOLD);
+        Thread.sleep(OPEN_MILLIS + 20);
+
+        assertEquals(0, mBreaker.getRemainingOpenMillis());
+        assertTrue(mBreaker.allowRequest());
+        // Half open, everyone else waits for the probe
+        assertFalse(mBreaker.allowRequest());
+        assertFalse(mBreaker.allowRequest());
+    }
+
+    @Test
+    public void probeSuccessCloses() throws InterruptedException {
+        failRequests(THRESHOLD);
+        Thread.sleep(OPEN_MILLIS + 20);
+        assertTrue(mBreaker.allowRequest());
+
+        mBreaker.onSuccess();
+
+        assertTrue(mBreaker.allowRequest());
+        assertTrue(mBreaker.allowRequest());
+        // The failures start again from zero
+        failRequests(THRESHOLD - 1);
+        assertTrue(mBreaker.allowRequest());
+    }
+
+    @Test
+    public void probeFailureOpensAgain() throws InterruptedException {
+        failRequests(THRESHOLD);
+        Thread.sleep(OPEN_MILLIS + 20);
+        assertTrue(mBreaker.allowRequest());
+
+        mBreaker.onFailure(-1);
+
+        assertFalse(mBreaker.allowRequest());
+        assertTrue(mBreaker.getRemainingOpenMillis() > 0);
+    }
+
+    @Test
+    public void cancelledProbeLetsAnotherOneThrough() throws InterruptedException {
+        failRequests(THRESHOLD);
+        Thread.sleep(OPEN_MILLIS + 20);
+        assertTrue(mBreaker.allowRequest());
+
+        mBreaker.onCancelled();
+
+        assertTrue(mBreaker.allowRequest());
+        assertFalse(mBreaker.allowRequest());
+    }
+
+    @Test
+    public void retryAfterOpensAtOnceForAsLongAsAsked() {
+        mBreaker.onFailure(5000);
+
+        assertFalse(mBreaker.allowRequest());
+        assertTrue(mBreaker.getRemainingOpenMillis() > OPEN_MILLIS);
+        // A later failure without Retry-After does not cut it short
+        failRequests(THRESHOLD);
+        assertTrue(mBreaker.getRemainingOpenMillis() > OPEN_MILLIS);
+    }
+
+    private void failRequests(int times)
+    {
+        for (int i = 0; i < times; i++) {
+            mBreaker.onFailure(-1);
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package com.example.booklistingapp;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local stand-in for the Google Books volumes endpoint, for load and latency tests of the
+ * app's real fetch path. It serves a catalog of {@link GeneratedVolume}s from a seed, with
+ * volume resources laid out and sized like recorded API answers, and answers {@code q}, {@code startIndex},
+ * {@code maxResults}, {@code filter}, {@code langRestrict}, {@code orderBy} and {@code fields}
+ * the way the API does. Every request waits for a latency drawn from a {@link Latency},
+ * is sent at a limited bandwidth, and can fail with a 503 or a 429 at a given rate, or
+ * with the errors a test asks for, see {@link #failNext}.
+ * Responses are gzipped for clients that accept it and carry an ETag.
+ * <p>
+ * The draws of a request only depend on the seed and on the order in which requests arrive,
+ * so a run of one client against the server always sees the same latencies and failures.
+ */
+final class FakeVolumesServer {
+
+    /**
+     * The time a request waits before its response starts, time to first byte on a real network.
+     */
+    interface Latency {
+        long nextMillis(Random random);
+    }
+
+    static final String PATH = "/books/v1/volumes";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static {
+        // The headers and the body are separate writes. With Nagle's algorithm the body waits
+        // for the ACK of the headers, which the client delays by 40 ms; API servers do not.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor;
+    private final GeneratedVolume[] mCatalog;
+    private final long mSeed;
+    private final Latency mLatency;
+    private final long mBytesPerSecond;
+    private final double mErrorRate;
+    private final double mRateLimitRate;
+    private final int mRetryAfterSeconds;
+    private final boolean mGzip;
+
+    // Status codes the next requests are answered with, before any drawn failure
+    private final ArrayDeque<Integer> mScriptedFailures = new ArrayDeque<Integer>();
+
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private final AtomicInteger mActive = new AtomicInteger();
+    private final AtomicInteger mMaxActive = new AtomicInteger();
+    // System.nanoTime() when the last request arrived, and when its response started after the latency
+    private volatile long mLastArrivalNanos;
+    private volatile long mLastResponseNanos;
+
+    private FakeVolumesServer(Builder builder) throws IOException
+    {
+        mSeed = builder.mSeed;
+        mLatency = builder.mLatency;
+        mBytesPerSecond = builder.mBytesPerSecond;
+        mErrorRate = builder.mErrorRate;
+        mRateLimitRate = builder.mRateLimitRate;
+        mRetryAfterSeconds = builder.mRetryAfterSeconds;
+        mGzip = builder.mGzip;
+        mCatalog = new GeneratedVolume[builder.mCatalogSize];
+        for (int i = 0; i < mCatalog.length; i++) {
+            mCatalog[i] = new GeneratedVolume(mSeed * 1000003L + i);
+        }
+
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        mServer.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mLastArrivalNanos = System.nanoTime();
+                int active = mActive.incrementAndGet();
+                int max;
+                while (active > (max = mMaxActive.get()) && !mMaxActive.compareAndSet(max, active)) {
+                    // Raced with another request, look again
+                }
+                try {
+                    serve(exchange);
+                } finally {
+                    mActive.decrementAndGet();
+                    exchange.close();
+                }
+            }
+        });
+        mExecutor = Executors.newFixedThreadPool(builder.mThreads);
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    /**
+     * A latency that is always the same.
+     */
+    static Latency fixed(final long millis)
+    {
+        return new Latency() {
+            @Override
+            public long nextMillis(Random random) {
+                return millis;
+            }
+        };
+    }
+
+    /**
+     * A latency spread evenly between the bounds.
+     */
+    static Latency uniform(final long minMillis, final long maxMillis)
+    {
+        return new Latency() {
+            @Override
+            public long nextMillis(Random random) {
+                return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+            }
+        };
+    }
+
+    /**
+     * A log-normal latency with the given median and 99th percentile, the long tail of
+     * latencies measured on mobile networks.
+     */
+    static Latency logNormal(long medianMillis, long p99Millis)
+    {
+        final double mu = Math.log(medianMillis);
+        // The 99th percentile of the standard normal distribution is 2.326 sigmas
+        final double sigma = Math.log((double) p99Millis / medianMillis) / 2.326;
+        return new Latency() {
+            @Override
+            public long nextMillis(Random random) {
+                return Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+            }
+        };
+    }
+
+    /**
+     * The URL of this server for an API URL, e.g. of {@link BooksApi#buildQueryUrl(BookQuery)}.
+     */
+    String url(String apiUrl)
+    {
+        int path = apiUrl.indexOf(PATH);
+        if (path < 0) {
+            throw new IllegalArgumentException("Not a volumes URL: " + apiUrl);
+        }
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + apiUrl.substring(path);
+    }
+
+    String url(BookQuery query)
+    {
+        return url(BooksApi.buildQueryUrl(query));
+    }
+
+    /**
+     * The ids of the volumes the query finds, in the order of the response, all pages.
+     */
+    List<String> volumeIds(BookQuery query)
+    {
+        List<String> ids = new ArrayList<String>();
+        for (GeneratedVolume volume : search(query)) {
+            ids.add(volume.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Answer the next {@code count} requests with the given error, e.g. 400, 503 or 429 (with the
+     * Retry-After of {@link Builder#setRateLimitRate}), whatever the rates say.
+     */
+    void failNext(int count, int responseCode)
+    {
+        synchronized (mScriptedFailures) {
+            for (int i = 0; i < count; i++) {
+                mScriptedFailures.addLast(responseCode);
+            }
+        }
+    }
+
+    /**
+     * How many requests arrived, including the ones that were answered with an error.
+     */
+    long getRequestCount()
+    {
+        return mRequests.get();
+    }
+
+    /**
+     * The most requests that were being served at the same time.
+     */
+    int getMaxConcurrentRequests()
+    {
+        return mMaxActive.get();
+    }
+
+    /**
+     * When the last request arrived, on the clock of {@link System#nanoTime()}.
+     */
+    long getLastArrivalNanos()
+    {
+        return mLastArrivalNanos;
+    }
+
+    /**
+     * When the response to the last request started, after its latency and before its
+     * first byte was sent, on the clock of {@link System#nanoTime()}.
+     */
+    long getLastResponseNanos()
+    {
+        return mLastResponseNanos;
+    }
+
+    /**
+     * Bytes of response bodies sent, after compression.
+     */
+    long getBytesSent()
+    {
+        return mBytesSent.get();
+    }
+
+    void stop()
+    {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException
+    {
+        // A new generator for every request, so the draws do not depend on what other threads do
+        Random random = new Random(mSeed ^ (mRequests.incrementAndGet() * 0x9E3779B97F4A7C15L));
+        sleep(mLatency.nextMillis(random));
+        mLastResponseNanos = System.nanoTime();
+
+        Integer scripted;
+        synchronized (mScriptedFailures) {
+            scripted = mScriptedFailures.pollFirst();
+        }
+        if (scripted != null) {
+            if (scripted == 429) {
+                exchange.getResponseHeaders().set("Retry-After", Integer.toString(mRetryAfterSeconds));
+            }
+            sendError(exchange, scripted,
+                    scripted == 429 ? "rateLimitExceeded" : scripted >= 500 ? "backendError" : "invalid");
+            return;
+        }
+
+        double fault = random.nextDouble();
+        if (fault < mRateLimitRate) {
+            exchange.getResponseHeaders().set("Retry-After", Integer.toString(mRetryAfterSeconds));
+            sendError(exchange, 429, "rateLimitExceeded");
+            return;
+        }
+        if (fault < mRateLimitRate + mErrorRate) {
+            sendError(exchange, 503, "backendError");
+            return;
+        }
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            sendError(exchange, 405, "methodNotAllowed");
+            return;
+        }
+
+        byte[] body;
+        try {
+            body = respond(exchange.getRequestURI().getRawQuery());
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, "invalid");
+            return;
+        }
+
+        String eTag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+        exchange.getResponseHeaders().set("ETag", eTag);
+        if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (mGzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            body = gzip(body);
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        send(exchange.getResponseBody(), body);
+    }
+
+    private byte[] respond(String queryString)
+    {
+        String fields = null;
+        if (queryString != null) {
+            for (String parameter : queryString.split("&")) {
+                if (parameter.startsWith("fields=")) {
+                    fields = decode(parameter.substring("fields=".length()));
+                }
+            }
+        }
+        BookQuery query = BooksApi.parseQueryUrl(queryString == null ? "" : queryString);
+        if (query.getStartIndex() < 0 || query.getMaxResults() < 1
+                || query.getMaxResults() > BookQuery.MAX_RESULTS_LIMIT) {
+            throw new IllegalArgumentException("Bad page");
+        }
+
+        List<GeneratedVolume> found = search(query);
+        int end = Math.min(found.size(), query.getStartIndex() + query.getMaxResults());
+        JsonObject response = GeneratedVolume.response(
+                found.subList(Math.min(query.getStartIndex(), end), end), found.size());
+        JsonElement projected = fields == null ? response : FieldMask.parse(fields).apply(response);
+        return projected.toString().getBytes(UTF_8);
+    }
+
+    private List<GeneratedVolume> search(BookQuery query)
+    {
+        List<GeneratedVolume> found = new ArrayList<GeneratedVolume>();
+        for (GeneratedVolume volume : mCatalog) {
+            if (volume.matches(query)) {
+                found.add(volume);
+            }
+        }
+        if (query.getOrderBy() == BookQuery.OrderBy.NEWEST) {
+            Collections.sort(found, new Comparator<GeneratedVolume>() {
+                @Override
+                public int compare(GeneratedVolume a, GeneratedVolume b) {
+                    return b.getPublishedDate().compareTo(a.getPublishedDate());
+                }
+            });
+        }
+        return found;
+    }
+
+    private void sendError(HttpExchange exchange, int code, String reason) throws IOException
+    {
+        byte[] body = ("{\"error\":{\"code\":" + code + ",\"errors\":[{\"reason\":\"" + reason + "\"}]}}")
+                .getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(code, body.length);
+        send(exchange.getResponseBody(), body);
+    }
+
+    /**
+     * Write the body in slices of 50 ms worth of bandwidth, or all at once if it is unlimited.
+     */
+    private void send(OutputStream output, byte[] body) throws IOException
+    {
+        int slice = mBytesPerSecond > 0 ? (int) Math.max(1, mBytesPerSecond / 20) : body.length;
+        for (int offset = 0; offset < body.length; offset += slice) {
+            int length = Math.min(slice, body.length - offset);
+            output.write(body, offset, length);
+            output.flush();
+            mBytesSent.addAndGet(length);
+            if (mBytesPerSecond > 0) {
+                sleep(length * 1000L / mBytesPerSecond);
+            }
+        }
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(body);
+        gzip.close();
+        return compressed.toByteArray();
+    }
+
+    private static String decode(String value)
+    {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void sleep(long millis)
+    {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Settings of a server. The defaults answer at once, at full speed and without failures.
+     */
+    static final class Builder {
+
+        private int mCatalogSize = 2000;
+        private long mSeed = 1;
+        private Latency mLatency = fixed(0);
+        private long mBytesPerSecond;
+        private double mErrorRate;
+        private double mRateLimitRate;
+        private int mRetryAfterSeconds = 1;
+        private boolean mGzip = true;
+        private int mThreads = 16;
+
+        Builder setCatalog(int size, long seed)
+        {
+            mCatalogSize = size;
+            mSeed = seed;
+            return this;
+        }
+
+        Builder setLatency(Latency latency)
+        {
+            mLatency = latency;
+            return this;
+        }
+
+        /**
+         * The bandwidth of every response on its own, 0 for unlimited.
+         */
+        Builder setBandwidth(long bytesPerSecond)
+        {
+            mBytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * The share of requests answered with a 503.
+         */
+        Builder setErrorRate(double rate)
+        {
+            mErrorRate = rate;
+            return this;
+        }
+
+        /**
+         * The share of requests answered with a 429 and the given Retry-After.
+         */
+        Builder setRateLimitRate(double rate, int retryAfterSeconds)
+        {
+            mRateLimitRate = rate;
+            mRetryAfterSeconds = retryAfterSeconds;
+            return this;
+        }
+
+        Builder setGzip(boolean gzip)
+        {
+            mGzip = gzip;
+            return this;
+        }
+
+        /**
+         * How many requests are served at the same time.
+         */
+        Builder setThreads(int threads)
+        {
+            mThreads = threads;
+            return this;
+        }
+
+        FakeVolumesServer start() throws IOException
+        {
+            return new FakeVolumesServer(this);
+        }
+    }
+}
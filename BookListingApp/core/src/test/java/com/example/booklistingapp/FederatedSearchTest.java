@@ -0,0 +1,278 @@
+package com.example.booklistingapp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Deadlines and partial results of {@link FederatedSearch}, with stub sources that answer
+ * after the latency each test gives them. Answers are delivered on the worker threads.
+ */
+public class FederatedSearchTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private static final QueryUtils.ProgressListener NO_PROGRESS = new QueryUtils.ProgressListener() {
+        @Override
+        public void onProgress(Phase phase, long bytesRead) {
+
+        }
+    };
+
+    private static final int SIZE = 10;
+
+    private final BookFetchEngine mEngine = new BookFetchEngine(4, 16, DIRECT);
+
+    @After
+    public void tearDown() {
+        mEngine.shutdown();
+    }
+
+    @Test
+    public void slowSourceDoesNotHoldBackTheFirstPage() throws Exception {
+        StubSource fast = new StubSource("fast", 20, 5000);
+        StubSource slow = new StubSource("slow", 1000, 5000);
+        Answers answers = search(fast, slow);
+
+        answers.await();
+
+        assertEquals(SIZE, answers.mBooks.get(0).size());
+        assertEquals(SIZE, answers.mBooks.get(1).size());
+        assertTrue(answers.mMillis[0] + " ms", answers.mMillis[0] < 500);
+        assertTrue(answers.mMillis[1] + " ms", answers.mMillis[1] >= 1000);
+        assertEquals(1, answers.mOrder.indexOf(1));
+    }
+
+    @Test
+    public void sourcePastItsDeadlineIsCancelled() throws Exception {
+        StubSource fast = new StubSource("fast", 20, 5000);
+        StubSource late = new StubSource("late", 5000, 200);
+        Answers answers = search(fast, late);
+
+        answers.await();
+
+        assertEquals(SIZE, answers.mBooks.get(0).size());
+        // Given up at its deadline, without books
+        assertTrue(answers.mAnswered[1]);
+        assertNull(answers.mBooks.get(1));
+        assertTrue(answers.mMillis[1] + " ms", answers.mMillis[1] >= 200 && answers.mMillis[1] < 1000);
+        assertTrue(late.mCancelled.await(5, TimeUnit.SECONDS));
+        assertTrue(answers.mCompleteMillis < 1000);
+    }
+
+    @Test
+    public void failingSourceLeavesThePartialResults() throws Exception {
+        StubSource failing = new StubSource("failing", 50, 5000);
+        failing.mFailure = new QueryUtils.FetchException(QueryUtils.FetchException.Reason.UNAVAILABLE, 503, -1, null);
+        StubSource good = new StubSource("good", 100, 5000);
+        StubSource empty = new StubSource("empty", 10, 5000);
+        empty.mCount = 0;
+        Answers answers = search(failing, good, empty);
+
+        answers.await();
+
+        assertSame(failing.mFailure, answers.mFailures[0]);
+        assertNull(answers.mBooks.get(0));
+        assertEquals(SIZE, answers.mBooks.get(1).size());
+        assertEquals("good 0", answers.mBooks.get(1).get(0).getTitle());
+        assertEquals(0, answers.mBooks.get(2).size());
+    }
+
+    @Test
+    public void cancelledSearchAnswersNothing() throws Exception {
+        StubSource first = new StubSource("first", 500, 5000);
+        StubSource second = new StubSource("second", 500, 5000);
+        Answers answers = new Answers(2);
+        CancellationToken token = new FederatedSearch(mEngine, Arrays.<BookSource>asList(first, second), DIRECT)
+                .search(BookQuery.parse("garden"), new int[2], SIZE, BookFetchEngine.Priority.VISIBLE, NO_PROGRESS,
+                        answers);
+        first.mStarted.await(5, TimeUnit.SECONDS);
+        second.mStarted.await(5, TimeUnit.SECONDS);
+
+        token.cancel();
+
+        assertTrue(first.mCancelled.await(5, TimeUnit.SECONDS));
+        assertTrue(second.mCancelled.await(5, TimeUnit.SECONDS));
+        assertFalse(answers.mComplete.await(700, TimeUnit.MILLISECONDS));
+        assertTrue(answers.mOrder.isEmpty());
+    }
+
+    @Test
+    public void booksAreTheSameByIsbnElseByTitleAndAuthors() {
+        Book dune = isbnBook("G1", "Dune", "Frank Herbert", "9780441013593");
+        Book duneOtherEdition = isbnBook("G2", "Dune (Ace)", "Herbert, Frank", "9780441013593");
+        Book duneOtherIsbn = isbnBook("G3", "Dune", "Frank Herbert", "9780340960196");
+        Book duneWithoutIsbn = new Book("OL1", "D\u00fcne", "Frank HERBERT", "", "");
+
+        assertEquals(FederatedSearch.keyOf(dune), FederatedSearch.keyOf(duneOtherEdition));
+        assertFalse(FederatedSearch.keyOf(dune).equals(FederatedSearch.keyOf(duneOtherIsbn)));
+        assertEquals(FederatedSearch.titleKeyOf(dune), FederatedSearch.keyOf(duneWithoutIsbn));
+        // The whole author counts, not only the family name
+        assertFalse(FederatedSearch.keyOf(new Book("A", "Poems", "Smith, John", "", "")).equals(
+                FederatedSearch.keyOf(new Book("B", "Poems", "Smith, Jane", "", ""))));
+    }
+
+    @Test
+    public void pagerDropsTheBooksShownByAnotherSource() {
+        Book dune = isbnBook("G1", "Dune", "Frank Herbert", "9780441013593");
+        Book duneOtherIsbn = isbnBook("G3", "Dune", "Frank Herbert", "9780340960196");
+        Book duneWithoutIsbn = new Book("OL1", "Dune", "Frank Herbert", "", "");
+        Book emma = isbnBook("G4", "Emma", "Jane Austen", "9780141439587");
+        BookPager pager = new BookPager();
+
+        assertEquals(Arrays.asList(dune, duneOtherIsbn), pager.withoutDuplicates(0, 0, Arrays.asList(dune, duneOtherIsbn)));
+        assertEquals(Collections.singletonList(emma), pager.withoutDuplicates(0, 1, Arrays.asList(duneWithoutIsbn, emma)));
+        // Loaded again, a page keeps its own books
+        assertEquals(Arrays.asList(dune, duneOtherIsbn), pager.withoutDuplicates(0, 0, Arrays.asList(dune, duneOtherIsbn)));
+
+        // A book without an ISBN shown first hides the books with its title, whatever their ISBN
+        pager.reset();
+        assertEquals(Collections.singletonList(duneWithoutIsbn),
+                pager.withoutDuplicates(0, 1, Collections.singletonList(duneWithoutIsbn)));
+        assertTrue(pager.withoutDuplicates(1, 0, Arrays.asList(dune, duneOtherIsbn)).isEmpty());
+    }
+
+    private static Book isbnBook(String volumeId, String title, String author, String isbn)
+    {
+        return new Book(volumeId, title, author, "", "", Book.NO_PRICE, "", "", Book.NO_DATE,
+                Collections.<String>emptyList(), 0, isbn);
+    }
+
+    private Answers search(BookSource... sources)
+    {
+        Answers answers = new Answers(sources.length);
+        new FederatedSearch(mEngine, Arrays.asList(sources), DIRECT).search(BookQuery.parse("garden"),
+                new int[sources.length], SIZE, BookFetchEngine.Priority.VISIBLE, NO_PROGRESS, answers);
+        return answers;
+    }
+
+    /**
+     * What each source answered and when, in milliseconds since the search started.
+     */
+    private static final class Answers implements FederatedSearch.Listener {
+
+        private final long mStartNanos = System.nanoTime();
+        final List<List<Book>> mBooks;
+        final QueryUtils.FetchException[] mFailures;
+        final boolean[] mAnswered;
+        final long[] mMillis;
+        final List<Integer> mOrder = new ArrayList<Integer>();
+        final CountDownLatch mComplete = new CountDownLatch(1);
+        volatile long mCompleteMillis;
+
+        Answers(int sources)
+        {
+            mBooks = new ArrayList<List<Book>>(Collections.<List<Book>>nCopies(sources, null));
+            mFailures = new QueryUtils.FetchException[sources];
+            mAnswered = new boolean[sources];
+            mMillis = new long[sources];
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("Sources still running", mComplete.await(10, TimeUnit.SECONDS));
+        }
+
+        @Override
+        public synchronized void onSourceResult(int source, List<Book> books, int consumedCount) {
+            answer(source);
+            mBooks.set(source, books);
+        }
+
+        @Override
+        public synchronized void onSourceFailed(int source, QueryUtils.FetchException failure) {
+            answer(source);
+            mFailures[source] = failure;
+        }
+
+        @Override
+        public void onComplete() {
+            mCompleteMillis = (System.nanoTime() - mStartNanos) / 1000000;
+            mComplete.countDown();
+        }
+
+        private void answer(int source)
+        {
+            assertFalse("Source " + source + " answered twice", mAnswered[source]);
+            mAnswered[source] = true;
+            mMillis[source] = (System.nanoTime() - mStartNanos) / 1000000;
+            mOrder.add(source);
+        }
+    }
+
+    /**
+     * Answers a page of made up books after its latency, or fails if it was given a failure.
+     */
+    private static final class StubSource implements BookSource {
+
+        private final String mName;
+        private final long mLatencyMillis;
+        private final long mDeadlineMillis;
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mCancelled = new CountDownLatch(1);
+        volatile QueryUtils.FetchException mFailure;
+        volatile int mCount = SIZE;
+
+        StubSource(String name, long latencyMillis, long deadlineMillis)
+        {
+            mName = name;
+            mLatencyMillis = latencyMillis;
+            mDeadlineMillis = deadlineMillis;
+        }
+
+        @Override
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        public long getDeadlineMillis() {
+            return mDeadlineMillis;
+        }
+
+        @Override
+        public List<Book> search(BookQuery query, QueryUtils.ProgressListener listener, CancellationToken token)
+                throws QueryUtils.FetchException {
+            mStarted.countDown();
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mLatencyMillis);
+            while (System.nanoTime() < end) {
+                if (token.isCanceled()) {
+                    mCancelled.countDown();
+                    return null;
+                }
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            if (mFailure != null) {
+                throw mFailure;
+            }
+            List<Book> books = new ArrayList<Book>(mCount);
+            for (int i = 0; i < mCount; i++) {
+                books.add(new Book(mName + "-" + (query.getStartIndex() + i), mName + " " + i, "Author " + i, "", ""));
+            }
+            return books;
+        }
+
+        @Override
+        public List<Book> getCached(BookQuery query) {
+            return null;
+        }
+    }
+}
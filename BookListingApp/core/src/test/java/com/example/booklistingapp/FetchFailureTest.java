@@ -0,0 +1,150 @@
+package com.example.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Retries, Retry-After and the circuit breaker of {@link QueryUtils#fetchBookData}, against
+ * a {@link FakeVolumesServer} that fails the requests each test asks for.
+ */
+public class FetchFailureTest {
+
+    private static final QueryUtils.ProgressListener NO_PROGRESS = new QueryUtils.ProgressListener() {
+        @Override
+        public void onProgress(Phase phase, long bytesRead) {
+
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder mCacheDir = new TemporaryFolder();
+
+    private FakeVolumesServer mServer;
+    private BookCache mCache;
+
+    @Before
+    public void setUp() {
+        // Every server of every test is 127.0.0.1, start with a closed circuit
+        QueryUtils.resetHosts();
+        mCache = new BookCache(mCacheDir.getRoot());
+    }
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.stop();
+        }
+        QueryUtils.resetHosts();
+    }
+
+    @Test
+    public void retriesUntilTheServerAnswers() throws Exception {
+        mServer = new FakeVolumesServer.Builder().start();
+        mServer.failNext(2, 503);
+
+        List<Book> books = fetch("garden");
+
+        assertEquals(BookQuery.DEFAULT_MAX_RESULTS, books.size());
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void failsWithTheReasonOnceEveryAttemptFailed() throws Exception {
+        mServer = new FakeVolumesServer.Builder().start();
+        mServer.failNext(3, 503);
+
+        try {
+            fetch("garden");
+            fail("Three 503s in a row gave books");
+        } catch (QueryUtils.FetchException e) {
+            assertEquals(QueryUtils.FetchException.Reason.UNAVAILABLE, e.getReason());
+            assertEquals(503, e.getResponseCode());
+        }
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void waitsForTheRetryAfterOfA429() throws Exception {
+        mServer = new FakeVolumesServer.Builder().setRateLimitRate(0, 1).start();
+        mServer.failNext(1, 429);
+
+        long start = System.nanoTime();
+        List<Book> books = fetch("garden");
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(BookQuery.DEFAULT_MAX_RESULTS, books.size());
+        assertEquals(2, mServer.getRequestCount());
+        assertTrue(elapsedMillis + " ms", elapsedMillis >= 1000);
+    }
+
+    @Test
+    public void longRetryAfterFailsAtOnceAndKeepsTheCircuitOpen() throws Exception {
+        mServer = new FakeVolumesServer.Builder().setRateLimitRate(0, 30).start();
+        mServer.failNext(1, 429);
+
+        try {
+            fetch("garden");
+            fail("A 429 with Retry-After 30 gave books");
+        } catch (QueryUtils.FetchException e) {
+            assertEquals(QueryUtils.FetchException.Reason.RATE_LIMITED, e.getReason());
+            assertEquals(30000, e.getRetryAfterMillis());
+        }
+        // Another search does not reach the server while it asked for a break
+        try {
+            fetch("ocean");
+            fail("A search went out while the circuit was open");
+        } catch (QueryUtils.FetchException e) {
+            assertEquals(QueryUtils.FetchException.Reason.RATE_LIMITED, e.getReason());
+            assertEquals(0, e.getResponseCode());
+            assertTrue(e.getRetryAfterMillis() > 25000);
+        }
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void repeatedFailuresOpenTheCircuit() throws Exception {
+        mServer = new FakeVolumesServer.Builder().start();
+        mServer.failNext(100, 503);
+
+        // Three attempts, then two more until the fifth failure in a row opens the circuit
+        for (int i = 0; i < 3; i++) {
+            try {
+                fetch("garden");
+                fail("A failing server gave books");
+            } catch (QueryUtils.FetchException e) {
+                assertEquals(QueryUtils.FetchException.Reason.UNAVAILABLE, e.getReason());
+            }
+        }
+        assertEquals(5, mServer.getRequestCount());
+    }
+
+    @Test
+    public void clientErrorsAreNotRetriedAndLeaveTheCircuitClosed() throws Exception {
+        mServer = new FakeVolumesServer.Builder().start();
+        mServer.failNext(6, 400);
+
+        for (int i = 0; i < 6; i++) {
+            try {
+                fetch("garden");
+                fail("A bad request gave books");
+            } catch (QueryUtils.FetchException e) {
+                assertEquals(QueryUtils.FetchException.Reason.HTTP_ERROR, e.getReason());
+                assertEquals(400, e.getResponseCode());
+            }
+        }
+        assertEquals(6, mServer.getRequestCount());
+        assertEquals(BookQuery.DEFAULT_MAX_RESULTS, fetch("garden").size());
+    }
+
+    private List<Book> fetch(String search) throws QueryUtils.FetchException {
+        return QueryUtils.fetchBookData(mCache, mServer.url(BookQuery.parse(search)), NO_PROGRESS,
+                new CancellationToken());
+    }
+}
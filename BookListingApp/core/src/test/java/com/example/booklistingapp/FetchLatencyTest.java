@@ -0,0 +1,128 @@
+package com.example.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * End-to-end latency of {@link QueryUtils#fetchBookData} against a {@link FakeVolumesServer}
+ * with a known latency: the network time plus the parse time, nothing added on top, and the
+ * progress phases reported as they happen. Phases are compared with when the server saw the
+ * request and started its response, not with a fixed allowance of wall-clock time.
+ */
+public class FetchLatencyTest {
+
+    private static final long LATENCY_MILLIS = 300;
+
+    @Rule
+    public final TemporaryFolder mCacheDir = new TemporaryFolder();
+
+    private FakeVolumesServer mServer;
+    private BookCache mCache;
+
+    @Before
+    public void setUp() {
+        // Every request is measured once, without hedges
+        QueryUtils.resetHosts();
+        QueryUtils.setHedgingEnabled(false);
+        mCache = new BookCache(mCacheDir.getRoot());
+    }
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.stop();
+        }
+        QueryUtils.setHedgingEnabled(true);
+        QueryUtils.resetHosts();
+    }
+
+    @Test
+    public void latencyIsTheNetworkAndParseTime() throws Exception {
+        mServer = new FakeVolumesServer.Builder().setLatency(FakeVolumesServer.fixed(LATENCY_MILLIS)).start();
+        fetch("warm", new Phases());
+
+        Phases phases = new Phases();
+        List<Book> books = fetch("garden", phases);
+
+        List<RequestMetrics> recent = QueryUtils.getRecentRequestMetrics();
+        RequestMetrics metrics = recent.get(recent.size() - 1);
+        assertEquals(BookQuery.DEFAULT_MAX_RESULTS, books.size());
+        assertTrue(metrics.getUrl(), metrics.getUrl().contains("q=garden"));
+        // The request goes out at once and the books follow the response; a fixed wait on
+        // either side would take longer than the server itself
+        long beforeRequest = millisBetween(phases.mStartNanos, mServer.getLastArrivalNanos());
+        long afterResponse = millisBetween(mServer.getLastResponseNanos(),
+                phases.nanosOf(QueryUtils.ProgressListener.Phase.DONE));
+        assertTrue(beforeRequest + " ms before the request, " + afterResponse + " ms after the response; " + metrics,
+                beforeRequest + afterResponse < LATENCY_MILLIS);
+        assertTrue(phases.nanosOf(QueryUtils.ProgressListener.Phase.PARSING) >= mServer.getLastResponseNanos());
+    }
+
+    @Test
+    public void progressIsReportedAsItHappens() throws Exception {
+        mServer = new FakeVolumesServer.Builder().setLatency(FakeVolumesServer.fixed(LATENCY_MILLIS)).start();
+        Phases phases = new Phases();
+
+        fetch("garden", phases);
+
+        List<QueryUtils.ProgressListener.Phase> order = phases.mPhases;
+        assertEquals(QueryUtils.ProgressListener.Phase.CONNECTING, order.get(0));
+        assertEquals(QueryUtils.ProgressListener.Phase.DONE, order.get(order.size() - 1));
+        assertTrue(order.toString(), order.contains(QueryUtils.ProgressListener.Phase.DOWNLOADING));
+        assertTrue(order.toString(), order.indexOf(QueryUtils.ProgressListener.Phase.PARSING)
+                > order.indexOf(QueryUtils.ProgressListener.Phase.DOWNLOADING));
+        // The spinner shows before the server has the request, not after it answered
+        assertTrue(phases.nanosOf(QueryUtils.ProgressListener.Phase.CONNECTING) <= mServer.getLastArrivalNanos());
+        // Bytes are reported as they arrive, only once the response started
+        assertTrue(phases.nanosOf(QueryUtils.ProgressListener.Phase.DOWNLOADING) >= mServer.getLastResponseNanos());
+        // Bytes only ever go up
+        for (int i = 1; i < phases.mBytes.size(); i++) {
+            if (order.get(i) != QueryUtils.ProgressListener.Phase.DONE) {
+                assertTrue(phases.mBytes.toString(), phases.mBytes.get(i) >= phases.mBytes.get(i - 1));
+            }
+        }
+    }
+
+    private List<Book> fetch(String search, Phases phases) throws QueryUtils.FetchException {
+        return QueryUtils.fetchBookData(mCache, mServer.url(BookQuery.parse(search)), phases, new CancellationToken());
+    }
+
+    private static long millisBetween(long startNanos, long endNanos)
+    {
+        return (endNanos - startNanos) / 1000000;
+    }
+
+    /**
+     * Every progress call, with its bytes and its System.nanoTime().
+     */
+    private static final class Phases implements QueryUtils.ProgressListener {
+
+        final long mStartNanos = System.nanoTime();
+        final List<Phase> mPhases = new ArrayList<Phase>();
+        final List<Long> mBytes = new ArrayList<Long>();
+        final List<Long> mNanos = new ArrayList<Long>();
+
+        @Override
+        public synchronized void onProgress(Phase phase, long bytesRead) {
+            mPhases.add(phase);
+            mBytes.add(bytesRead);
+            mNanos.add(System.nanoTime());
+        }
+
+        // When the phase was first reported
+        synchronized long nanosOf(Phase phase)
+        {
+            int index = mPhases.indexOf(phase);
+            assertTrue(phase + " not in " + mPhases, index >= 0);
+            return mNanos.get(index);
+        }
+    }
+}
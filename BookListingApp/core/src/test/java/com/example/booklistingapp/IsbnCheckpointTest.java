@@ -0,0 +1,147 @@
+package com.example.booklistingapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writing answers to a checkpoint and reading them back, also from a file that was cut off
+ * in the middle of a record by a kill of the process.
+ */
+public class IsbnCheckpointTest {
+
+    private static final int LIST_SIZE = 5;
+
+    private static final Book DUNE = new Book("B1", "Dune", "Frank Herbert", "https://example.com/dune.jpg",
+            "https://example.com/dune", Book.NO_PRICE, "", "en", 19650801,
+            Collections.singletonList("Fiction / Science Fiction"), 4.5f, "9780441013593");
+    private static final Book SOLARIS = new Book("B2", "Solaris", "Stanis\u0142aw Lem", "", "");
+    private static final Book EMMA = new Book("B3", "Emma", "Jane Austen", "", "");
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void answersReadBackAfterAReopen() throws Exception {
+        File file = new File(mFolder.getRoot(), "lookup.bin");
+        IsbnCheckpoint checkpoint = new IsbnCheckpoint(file, LIST_SIZE);
+        IsbnCheckpoint.Contents empty = checkpoint.open();
+        assertTrue(empty.getBooks().isEmpty());
+        assertTrue(empty.getAnswered().isEmpty());
+
+        writeRecords(checkpoint);
+        checkpoint.close();
+        IsbnCheckpoint.Contents contents = readBack(file);
+
+        assertEquals(Arrays.asList(DUNE, SOLARIS, EMMA), new ArrayList<Book>(contents.getBooks()));
+        assertEquals(new HashSet<String>(Arrays.asList("9780441013593", "9788374800051", "9780000000002",
+                "9780141439587")), contents.getAnswered());
+        assertEquals(1, contents.getNotFoundCount());
+    }
+
+    @Test
+    public void recordCutOffAnywhereIsDroppedAndTheRestKept() throws Exception {
+        File file = new File(mFolder.getRoot(), "lookup.bin");
+        IsbnCheckpoint checkpoint = new IsbnCheckpoint(file, LIST_SIZE);
+        checkpoint.open();
+        checkpoint.append(Collections.singletonList("9780441013593"), Collections.singletonList(DUNE));
+        checkpoint.close();
+        long firstRecordEnd = file.length();
+        checkpoint = new IsbnCheckpoint(file, LIST_SIZE);
+        checkpoint.open();
+        checkpoint.append(Arrays.asList("9788374800051", "9780000000002"), Arrays.asList(SOLARIS, null));
+        checkpoint.close();
+        byte[] full = readFully(file);
+
+        for (int length = (int) firstRecordEnd; length < full.length; length++) {
+            writePrefix(file, full, length);
+            checkpoint = new IsbnCheckpoint(file, LIST_SIZE);
+            IsbnCheckpoint.Contents contents = checkpoint.open();
+
+            assertEquals("cut at " + length, Collections.singletonList(DUNE), new ArrayList<Book>(contents.getBooks()));
+            assertEquals(Collections.singleton("9780441013593"), contents.getAnswered());
+            assertEquals(0, contents.getNotFoundCount());
+            // Appending goes on right after the last whole record
+            checkpoint.append(Collections.singletonList("9780141439587"), Collections.singletonList(EMMA));
+            checkpoint.close();
+            assertEquals(Arrays.asList(DUNE, EMMA),
+                    new ArrayList<Book>(readBack(file).getBooks()));
+        }
+    }
+
+    @Test
+    public void checkpointOfAnotherListStartsOver() throws Exception {
+        File file = new File(mFolder.getRoot(), "lookup.bin");
+        IsbnCheckpoint checkpoint = new IsbnCheckpoint(file, LIST_SIZE);
+        checkpoint.open();
+        writeRecords(checkpoint);
+        checkpoint.close();
+
+        IsbnCheckpoint other = new IsbnCheckpoint(file, LIST_SIZE + 1);
+        assertTrue(other.open().getBooks().isEmpty());
+        other.close();
+        assertTrue(readBack(file).getAnswered().isEmpty());
+    }
+
+    @Test
+    public void deleteRemovesTheFile() throws Exception {
+        File file = new File(new File(mFolder.getRoot(), "lookups"), "lookup.bin");
+        IsbnCheckpoint checkpoint = new IsbnCheckpoint(file, LIST_SIZE);
+        checkpoint.open();
+        writeRecords(checkpoint);
+        assertTrue(file.exists());
+
+        checkpoint.delete();
+
+        assertFalse(file.exists());
+    }
+
+    private static void writeRecords(IsbnCheckpoint checkpoint) throws Exception
+    {
+        checkpoint.append(Arrays.asList("9780441013593", "9788374800051", "9780000000002"),
+                Arrays.asList(DUNE, SOLARIS, null));
+        checkpoint.append(Collections.singletonList("9780141439587"), Collections.singletonList(EMMA));
+    }
+
+    private static IsbnCheckpoint.Contents readBack(File file) throws Exception
+    {
+        IsbnCheckpoint checkpoint = new IsbnCheckpoint(file, LIST_SIZE);
+        try {
+            return checkpoint.open();
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    private static byte[] readFully(File file) throws Exception
+    {
+        RandomAccessFile access = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) access.length()];
+            access.readFully(bytes);
+            return bytes;
+        } finally {
+            access.close();
+        }
+    }
+
+    private static void writePrefix(File file, byte[] bytes, int length) throws Exception
+    {
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try {
+            access.setLength(0);
+            access.write(bytes, 0, length);
+        } finally {
+            access.close();
+        }
+    }
+}
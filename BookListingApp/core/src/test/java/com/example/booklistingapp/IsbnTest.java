@@ -0,0 +1,66 @@
+package com.example.booklistingapp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check digits of both ISBN forms, the conversion to ISBN-13 and finding ISBNs in free text.
+ */
+public class IsbnTest {
+
+    @Test
+    public void acceptsBothFormsWithOrWithoutSeparators() {
+        assertEquals("9780306406157", Isbn.canonical("9780306406157"));
+        assertEquals("9780306406157", Isbn.canonical("978-0-306-40615-7"));
+        assertEquals("9780306406157", Isbn.canonical("978 0 306 40615 7"));
+        assertEquals("9780306406157", Isbn.canonical("0306406152"));
+        assertEquals("9780306406157", Isbn.canonical("0-306-40615-2"));
+    }
+
+    @Test
+    public void checkDigitXOnlyAtTheEndOfAnIsbn10() {
+        assertEquals("9780804429573", Isbn.canonical("0-8044-2957-X"));
+        assertEquals("9780804429573", Isbn.canonical("080442957x"));
+        assertNull(Isbn.canonical("08044X9570"));
+        assertNull(Isbn.canonical("978030640615X"));
+    }
+
+    @Test
+    public void rejectsWrongLengthsAndCharacters() {
+        assertNull(Isbn.canonical(""));
+        assertNull(Isbn.canonical("030640615"));
+        assertNull(Isbn.canonical("97803064061570"));
+        assertNull(Isbn.canonical("978-0-306-4O615-7"));
+        assertNull(Isbn.canonical("978/0/306/40615/7"));
+    }
+
+    @Test
+    public void everySingleDigitChangeIsCaught() {
+        String[] valid = {"9780306406157", "0306406152", "9781861972712", "080442957X"};
+        for (String isbn : valid) {
+            assertNotNull(isbn, Isbn.canonical(isbn));
+            for (int i = 0; i < isbn.length(); i++) {
+                for (char digit = '0'; digit <= '9'; digit++) {
+                    if (digit == isbn.charAt(i)) {
+                        continue;
+                    }
+                    String changed = isbn.substring(0, i) + digit + isbn.substring(i + 1);
+                    assertNull(changed, Isbn.canonical(changed));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void findAllKeepsTheValidOnesOnceInOrder() {
+        String list = "Reading list:\n1. 978-1-86197-271-2 (paperback)\n2. 0-306-40615-2, 3. 9780306406157 again\n"
+                + "4. 978-0-306-40615-8 is a typo, 5. call 555-0100\n6. 080442957X";
+
+        assertEquals(Arrays.asList("9781861972712", "9780306406157", "9780804429573"), Isbn.findAll(list));
+        assertEquals(Collections.<String>emptyList(), Isbn.findAll("no numbers here"));
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The app's requests, gzipped, projected to the fields of {@link Book} and on kept-alive
+ * connections, against plain requests for whole volume resources on a new connection each,
+ * both to a {@link FakeVolumesServer} that serves responses shaped like recorded API answers
+ * over a mobile-like link. The sizes of the app's requests are the ones {@link RequestMetrics}
+ * reports.
+ */
+public class PayloadBenchmarkTest {
+
+    private static final int SEARCHES = 24;
+    private static final long LATENCY_MILLIS = 50;
+    private static final long BYTES_PER_SECOND = 256 * 1024;
+
+    private static final QueryUtils.ProgressListener NO_PROGRESS = new QueryUtils.ProgressListener() {
+        @Override
+        public void onProgress(Phase phase, long bytesRead) {
+
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder mCacheDir = new TemporaryFolder();
+
+    private FakeVolumesServer mServer;
+
+    @Before
+    public void setUp() {
+        // One request per search, without hedges
+        QueryUtils.resetHosts();
+        QueryUtils.setHedgingEnabled(false);
+    }
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.stop();
+        }
+        QueryUtils.setHedgingEnabled(true);
+        QueryUtils.resetHosts();
+    }
+
+    @Test
+    public void projectedGzippedRequestsAreSmallerAndFaster() throws Exception {
+        mServer = new FakeVolumesServer.Builder()
+                .setLatency(FakeVolumesServer.fixed(LATENCY_MILLIS))
+                .setBandwidth(BYTES_PER_SECOND)
+                .start();
+        BookCache cache = new BookCache(mCacheDir.getRoot());
+        // Warm up both paths, on a word that is not measured
+        fetchPlain(mServer.url(search(SEARCHES)));
+        QueryUtils.fetchBookData(cache, mServer.url(search(SEARCHES + 1)), NO_PROGRESS, new CancellationToken());
+
+        LatencyTracker plainLatencies = new LatencyTracker(SEARCHES);
+        long plainBytes = 0;
+        for (int i = 0; i < SEARCHES; i++) {
+            long start = System.nanoTime();
+            plainBytes += fetchPlain(mServer.url(search(i)));
+            plainLatencies.record((System.nanoTime() - start) / 1000000);
+        }
+
+        LatencyTracker latencies = new LatencyTracker(SEARCHES);
+        long wireBytes = 0;
+        long decodedBytes = 0;
+        for (int i = 0; i < SEARCHES; i++) {
+            long start = System.nanoTime();
+            List<Book> books = QueryUtils.fetchBookData(cache, mServer.url(search(i)), NO_PROGRESS,
+                    new CancellationToken());
+            latencies.record((System.nanoTime() - start) / 1000000);
+            assertEquals(BookPager.PAGE_SIZE, books.size());
+            List<RequestMetrics> recent = QueryUtils.getRecentRequestMetrics();
+            RequestMetrics metrics = recent.get(recent.size() - 1);
+            assertTrue(metrics.isGzip());
+            wireBytes += metrics.getWireBytes();
+            decodedBytes += metrics.getDecodedBytes();
+        }
+
+        assertEquals(SEARCHES * 2 + 2, mServer.getRequestCount());
+        assertTrue(plainBytes + " B against " + wireBytes + " B", wireBytes * 10 <= plainBytes);
+        assertTrue(plainBytes + " B against " + decodedBytes + " B decoded", decodedBytes < plainBytes);
+        assertTrue(plainLatencies.percentile(50) + " ms against " + latencies.percentile(50) + " ms",
+                latencies.percentile(50) * 2 <= plainLatencies.percentile(50));
+    }
+
+    // A different URL for every search, one page each
+    private static BookQuery search(int i)
+    {
+        return BookQuery.parse(GeneratedVolume.WORDS[i % GeneratedVolume.WORDS.length]).buildUpon()
+                .setPage(i / GeneratedVolume.WORDS.length * BookPager.PAGE_SIZE, BookPager.PAGE_SIZE)
+                .build();
+    }
+
+    /**
+     * Fetch the whole volume resources, uncompressed and on a connection of their own, as the
+     * app did before its requests were tuned. Returns the size of the response body.
+     */
+    private static long fetchPlain(String url) throws IOException {
+        String wholeResources = url.substring(0, url.indexOf("&fields="));
+        HttpURLConnection connection = (HttpURLConnection) new URL(wholeResources).openConnection();
+        try {
+            connection.setRequestProperty("Connection", "close");
+            assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+            InputStream body = connection.getInputStream();
+            byte[] buffer = new byte[8192];
+            long size = 0;
+            for (int read = body.read(buffer); read != -1; read = body.read(buffer)) {
+                size += read;
+            }
+            body.close();
+            return size;
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
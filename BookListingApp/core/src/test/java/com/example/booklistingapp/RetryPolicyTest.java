@@ -0,0 +1,100 @@
+package com.example.booklistingapp;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Backoff bounds, jitter and the Retry-After of the server.
+ */
+public class RetryPolicyTest {
+
+    private static final int DRAWS = 2000;
+
+    private final RetryPolicy mPolicy = new RetryPolicy(5, 100, 1000);
+    private final Random mRandom = new Random(17);
+
+    @Test
+    public void delaysStayWithinTheExponentialBound() {
+        long[] bounds = {100, 200, 400, 800, 1000, 1000};
+        for (int retry = 1; retry <= bounds.length; retry++) {
+            long longest = 0;
+            for (int i = 0; i < DRAWS; i++) {
+                long delay = mPolicy.delayMillis(retry, -1, mRandom);
+                assertTrue("retry " + retry + ": " + delay, delay >= 0 && delay <= bounds[retry - 1]);
+                longest = Math.max(longest, delay);
+            }
+            // Full jitter uses the whole range up to the bound
+            assertTrue("retry " + retry + ": " + longest, longest >= bounds[retry - 1] * 9 / 10);
+        }
+    }
+
+    @Test
+    public void delaysAreSpreadOut() {
+        Set<Long> delays = new HashSet<Long>();
+        for (int i = 0; i < 100; i++) {
+            delays.add(mPolicy.delayMillis(3, -1, mRandom));
+        }
+        // Clients that failed together do not come back together
+        assertTrue(delays.size() > 50);
+    }
+
+    @Test
+    public void manyRetriesDoNotOverflow() {
+        for (int retry : new int[] {21, 63, 64, 1000, Integer.MAX_VALUE}) {
+            long delay = mPolicy.delayMillis(retry, -1, mRandom);
+            assertTrue("retry " + retry + ": " + delay, delay >= 0 && delay <= 1000);
+        }
+    }
+
+    @Test
+    public void retryAfterIsALowerBound() {
+        for (int i = 0; i < DRAWS; i++) {
+            long delay = mPolicy.delayMillis(1, 700, mRandom);
+            assertTrue(String.valueOf(delay), delay >= 700 && delay <= 1000);
+        }
+        assertEquals(1000, mPolicy.delayMillis(1, 1000, mRandom));
+    }
+
+    @Test
+    public void retryAfterLongerThanThePolicyWaitsFails() {
+        assertEquals(-1, mPolicy.delayMillis(1, 1001, mRandom));
+        assertEquals(-1, mPolicy.delayMillis(4, 60000, mRandom));
+    }
+
+    @Test
+    public void parsesDeltaSeconds() {
+        assertEquals(120000, RetryPolicy.parseRetryAfter("120", 0));
+        assertEquals(5000, RetryPolicy.parseRetryAfter(" 5 ", 0));
+        assertEquals(0, RetryPolicy.parseRetryAfter("0", 0));
+    }
+
+    @Test
+    public void parsesHttpDates() {
+        long now = 1600000000000L;
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        assertEquals(30000, RetryPolicy.parseRetryAfter(format.format(new Date(now + 30000)), now));
+        // A date in the past means now
+        assertEquals(0, RetryPolicy.parseRetryAfter(format.format(new Date(now - 30000)), now));
+        assertEquals(4000, RetryPolicy.parseRetryAfter("Sun, 13 Sep 2020 12:26:44 GMT", now));
+    }
+
+    @Test
+    public void unreadableRetryAfterIsMissing() {
+        assertEquals(-1, RetryPolicy.parseRetryAfter(null, 0));
+        assertEquals(-1, RetryPolicy.parseRetryAfter("", 0));
+        assertEquals(-1, RetryPolicy.parseRetryAfter("-1", 0));
+        assertEquals(-1, RetryPolicy.parseRetryAfter("soon", 0));
+        assertEquals(-1, RetryPolicy.parseRetryAfter("1.5", 0));
+    }
+}
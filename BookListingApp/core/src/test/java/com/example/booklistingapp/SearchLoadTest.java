@@ -0,0 +1,118 @@
+package com.example.booklistingapp;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Searches through the app's real fetch path, {@link QueryUtils#fetchBookData} with its cache,
+ * retries, hedging and streaming parser, against a {@link FakeVolumesServer} on this machine.
+ */
+public class SearchLoadTest {
+
+    private static final int SEARCHES = 240;
+    private static final int CLIENTS = 8;
+
+    private static final QueryUtils.ProgressListener NO_PROGRESS = new QueryUtils.ProgressListener() {
+        @Override
+        public void onProgress(Phase phase, long bytesRead) {
+
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder mCacheDir = new TemporaryFolder();
+
+    private FakeVolumesServer mServer;
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.stop();
+        }
+    }
+
+    @Test
+    public void fetchesTheRequestedPage() throws Exception {
+        mServer = new FakeVolumesServer.Builder().start();
+        BookCache cache = new BookCache(mCacheDir.getRoot());
+        BookQuery query = BookQuery.parse("garden").buildUpon()
+                .setFilter(BookQuery.Filter.EBOOKS)
+                .setPage(20, 20)
+                .build();
+
+        List<Book> books = QueryUtils.fetchBookData(cache, mServer.url(query), NO_PROGRESS, new CancellationToken());
+
+        List<String> expected = mServer.volumeIds(query).subList(20, 40);
+        List<String> ids = new ArrayList<String>();
+        for (Book book : books) {
+            ids.add(book.getVolumeId());
+            // Kept by the fields the app asks for
+            assertFalse(book.getIsbn().isEmpty());
+        }
+        assertEquals(expected, ids);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void searchLatencyUnderLoad() throws Exception {
+        mServer = new FakeVolumesServer.Builder()
+                .setLatency(FakeVolumesServer.logNormal(80, 400))
+                .setBandwidth(128 * 1024)
+                .setErrorRate(0.02)
+                .start();
+        final BookCache cache = new BookCache(mCacheDir.getRoot());
+        final LatencyTracker latencies = new LatencyTracker(SEARCHES);
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(CLIENTS);
+
+        for (int client = 0; client < CLIENTS; client++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = next.getAndIncrement(); i < SEARCHES; i = next.getAndIncrement()) {
+                            long searchStart = System.nanoTime();
+                            try {
+                                QueryUtils.fetchBookData(cache, mServer.url(search(i)), NO_PROGRESS,
+                                        new CancellationToken());
+                            } catch (QueryUtils.FetchException e) {
+                                failed.incrementAndGet();
+                            }
+                            latencies.record((System.nanoTime() - searchStart) / 1000000);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+
+        assertEquals(SEARCHES, latencies.getCount());
+        // A 503 is retried, a search only fails if all of its attempts do
+        assertTrue(failed.get() + " failed", failed.get() <= SEARCHES / 20);
+        // Every search waited for the server, none was answered from the cache
+        assertTrue("p50 " + latencies.percentile(50) + " ms", latencies.percentile(50) >= 40);
+    }
+
+    // A different URL for every search: 24 words, two orders and five pages
+    private static BookQuery search(int i)
+    {
+        int words = GeneratedVolume.WORDS.length;
+        return BookQuery.parse(GeneratedVolume.WORDS[i % words]).buildUpon()
+                .setOrderBy(i / words % 2 == 0 ? BookQuery.OrderBy.RELEVANCE : BookQuery.OrderBy.NEWEST)
+                .setPage(i / (2 * words) * BookPager.PAGE_SIZE, BookPager.PAGE_SIZE)
+                .build();
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.booklistingapp;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * The burst, the refill rate and giving the reservation back when a waiting caller is cancelled.
+ * Only lower bounds of time are asserted, a slow machine makes the waits longer, not shorter.
+ */
+public class TokenBucketTest {
+
+    @Test
+    public void fullBucketGoesOutAtOnce() {
+        TokenBucket bucket = new TokenBucket(5, 0.01);
+        CancellationToken signal = new CancellationToken();
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.acquire(signal));
+        }
+        assertEquals(0, bucket.available());
+    }
+
+    @Test
+    public void requestsAfterTheBurstAreSpacedToTheRate() {
+        TokenBucket bucket = new TokenBucket(2, 20);
+        CancellationToken signal = new CancellationToken();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 12; i++) {
+            assertTrue(bucket.acquire(signal));
+        }
+
+        // Two out of the bucket, the other ten at 20 a second
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        assertTrue(elapsedMillis + " ms", elapsedMillis >= 450);
+    }
+
+    @Test
+    public void cancelledSignalDoesNotWait() {
+        TokenBucket bucket = new TokenBucket(1, 0.01);
+        CancellationToken signal = new CancellationToken();
+        assertTrue(bucket.acquire(signal));
+
+        signal.cancel();
+
+        assertFalse(bucket.acquire(signal));
+    }
+
+    @Test
+    public void cancellingAWaitingCallerGivesItsReservationBack() throws Exception {
+        final TokenBucket bucket = new TokenBucket(1, 1);
+        final CancellationToken signal = new CancellationToken();
+        assertTrue(bucket.acquire(signal));
+        long start = System.nanoTime();
+        final AtomicBoolean acquired = new AtomicBoolean(true);
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acquired.set(bucket.acquire(signal));
+                done.countDown();
+            }
+        }).start();
+
+        Thread.sleep(50);
+        signal.cancel();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertFalse(acquired.get());
+        // The token that refills after a second is free again, not promised to the cancelled caller
+        Thread.sleep(Math.max(0, 1100 - (System.nanoTime() - start) / 1000000));
+        assertEquals(1, bucket.available());
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.booklistingapp;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The {@code fields} parameter: a comma separated list of paths like {@code a/b}, each of which
+ * may select sub-fields in parentheses, {@code items(id,volumeInfo(title))}. Only the selected
+ * parts of the response are sent; a selection applies to every element of an array.
+ */
+public final class FieldMask {
+
+    // Null for a field that is sent whole
+    private final Map<String, FieldMask> mChildren = new LinkedHashMap<String, FieldMask>();
+
+    static FieldMask parse(String fields)
+    {
+        FieldMask mask = new FieldMask();
+        int end = mask.parseList(fields, 0);
+        if (end != fields.length()) {
+            throw new IllegalArgumentException("Bad fields: " + fields);
+        }
+        return mask;
+    }
+
+    // Returns the index after the list, at a ')' or the end
+    private int parseList(String fields, int index)
+    {
+        while (true) {
+            index = parseSelector(fields, index);
+            if (index < fields.length() && fields.charAt(index) == ',') {
+                index++;
+            } else {
+                return index;
+            }
+        }
+    }
+
+    private int parseSelector(String fields, int index)
+    {
+        FieldMask parent = this;
+        while (true) {
+            int start = index;
+            while (index < fields.length() && "/,()".indexOf(fields.charAt(index)) < 0) {
+                index++;
+            }
+            if (index == start) {
+                throw new IllegalArgumentException("Bad fields: " + fields);
+            }
+            String name = fields.substring(start, index);
+            if (index < fields.length() && fields.charAt(index) == '/') {
+                parent = parent.child(name);
+                index++;
+            } else if (index < fields.length() && fields.charAt(index) == '(') {
+                index = parent.child(name).parseList(fields, index + 1);
+                if (index >= fields.length() || fields.charAt(index) != ')') {
+                    throw new IllegalArgumentException("Bad fields: " + fields);
+                }
+                return index + 1;
+            } else {
+                parent.mChildren.put(name, null);
+                return index;
+            }
+        }
+    }
+
+    private FieldMask child(String name)
+    {
+        if (mChildren.containsKey(name) && mChildren.get(name) == null) {
+            // Already sent whole, a selection cannot narrow it again; select into a throwaway
+            return new FieldMask();
+        }
+        FieldMask child = mChildren.get(name);
+        if (child == null) {
+            child = new FieldMask();
+            mChildren.put(name, child);
+        }
+        return child;
+    }
+
+    JsonElement apply(JsonElement value)
+    {
+        if (value.isJsonArray()) {
+            JsonArray projected = new JsonArray();
+            for (JsonElement element : value.getAsJsonArray()) {
+                projected.add(apply(element));
+            }
+            return projected;
+        }
+        if (!value.isJsonObject()) {
+            return value;
+        }
+        JsonObject object = value.getAsJsonObject();
+        JsonObject projected = new JsonObject();
+        for (Map.Entry<String, FieldMask> field : mChildren.entrySet()) {
+            JsonElement child = object.get(field.getKey());
+            if (child != null) {
+                projected.add(field.getKey(), field.getValue() == null ? child : field.getValue().apply(child));
+            }
+        }
+        return projected;
+    }
+}
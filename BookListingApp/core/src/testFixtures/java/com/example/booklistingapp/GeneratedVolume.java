@@ -0,0 +1,317 @@
+package com.example.booklistingapp;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A Google Books volume resource generated from a seed, laid out and sized like recorded API
+ * answers, for {@code FakeVolumesServer} and the benchmarks' {@code ResponseCorpus}. The same
+ * seed always gives the same volume.
+ */
+public final class GeneratedVolume {
+
+    // Title words of the catalogs, every search for one of them has results
+    static final String[] WORDS = {
+            "android", "garden", "history", "kotlin", "ocean", "winter", "letters", "empire",
+            "silent", "river", "machine", "learning", "city", "night", "stories", "journey",
+            "mountain", "island", "music", "secret", "summer", "stone", "glass", "harbor"
+    };
+    static final String[] NAMES = {
+            "Maria Ivanova", "John Smith", "Elena Petrova", "Stefan Dimitrov",
+            "Anna M\u00fcller", "Kenji Sato", "Laura Garc\u00eda", "Peter O'Neil"
+    };
+
+    private static final String[] CATEGORIES = {
+            "Fiction", "Science Fiction", "Fantasy", "History", "Computers", "Cooking", "Travel", "Poetry",
+            "Science", "Art"
+    };
+    private static final String[] LANGUAGES = {"en", "en", "en", "de", "fr", "bg", "es", "ja"};
+    private static final String[] VIEWABILITIES = {"NO_PAGES", "PARTIAL", "PARTIAL", "ALL_PAGES"};
+    private static final String[] SALEABILITIES = {"NOT_FOR_SALE", "FOR_SALE", "FOR_SALE", "FREE"};
+
+    private final long mSeed;
+    private final String mId;
+    private final String mTitle;
+    private final Set<String> mTitleWords = new HashSet<String>();
+    private final List<String> mAuthors = new ArrayList<String>();
+    private final String mCategory;
+    private final String mLanguage;
+    private final String mPublishedDate;
+    private final String mIsbn;
+    private final String mViewability;
+    private final String mSaleability;
+    private final boolean mEbook;
+
+    public GeneratedVolume(long seed)
+    {
+        mSeed = seed;
+        Random random = new Random(seed);
+        mId = volumeId(random);
+        StringBuilder title = new StringBuilder();
+        int words = 1 + random.nextInt(4);
+        for (int i = 0; i < words; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            mTitleWords.add(word);
+            title.append(i == 0 ? capitalize(word) : " " + word);
+        }
+        mTitle = title.toString();
+        int authors = 1 + random.nextInt(3);
+        for (int i = 0; i < authors; i++) {
+            mAuthors.add(NAMES[random.nextInt(NAMES.length)]);
+        }
+        mCategory = CATEGORIES[random.nextInt(CATEGORIES.length)];
+        mLanguage = LANGUAGES[random.nextInt(LANGUAGES.length)];
+        mPublishedDate = String.format(Locale.ROOT, "%d-%02d-%02d",
+                1950 + random.nextInt(72), 1 + random.nextInt(12), 1 + random.nextInt(28));
+        mIsbn = isbn(random);
+        mViewability = VIEWABILITIES[random.nextInt(VIEWABILITIES.length)];
+        mSaleability = SALEABILITIES[random.nextInt(SALEABILITIES.length)];
+        mEbook = !"NOT_FOR_SALE".equals(mSaleability) || random.nextBoolean();
+    }
+
+    /**
+     * A volumes response with a page of the volumes found, whole; {@link FieldMask} projects it.
+     * Like the API, a page past the end has no "items" at all.
+     */
+    static JsonObject response(List<GeneratedVolume> page, int totalItems)
+    {
+        JsonObject response = new JsonObject();
+        response.addProperty("kind", "books#volumes");
+        response.addProperty("totalItems", totalItems);
+        if (!page.isEmpty()) {
+            JsonArray items = new JsonArray();
+            for (GeneratedVolume volume : page) {
+                items.add(volume.toJson());
+            }
+            response.add("items", items);
+        }
+        return response;
+    }
+
+    String getId()
+    {
+        return mId;
+    }
+
+    /**
+     * The date as the API sends it, e.g. "1987-04-23"; later dates sort after earlier ones.
+     */
+    String getPublishedDate()
+    {
+        return mPublishedDate;
+    }
+
+    /**
+     * Whether the volume is among the results of the query, as the API would find it.
+     */
+    boolean matches(BookQuery query)
+    {
+        for (String word : query.getWords()) {
+            if (!mTitleWords.contains(word) && !mCategory.toLowerCase(Locale.ROOT).contains(word)) {
+                return false;
+            }
+        }
+        for (String word : query.getWords(BookQuery.Field.TITLE)) {
+            if (!mTitleWords.contains(word)) {
+                return false;
+            }
+        }
+        for (String word : query.getWords(BookQuery.Field.AUTHOR)) {
+            if (!hasAuthorWord(word)) {
+                return false;
+            }
+        }
+        for (String word : query.getWords(BookQuery.Field.SUBJECT)) {
+            if (!mCategory.toLowerCase(Locale.ROOT).contains(word)) {
+                return false;
+            }
+        }
+        for (String isbn : query.getWords(BookQuery.Field.ISBN)) {
+            if (!mIsbn.equals(isbn)) {
+                return false;
+            }
+        }
+        if (query.getLanguage() != null && !query.getLanguage().equals(mLanguage)) {
+            return false;
+        }
+        return query.getFilter() == null || matches(query.getFilter());
+    }
+
+    private boolean matches(BookQuery.Filter filter)
+    {
+        switch (filter) {
+            case PARTIAL:
+                return !"NO_PAGES".equals(mViewability);
+            case FULL:
+                return "ALL_PAGES".equals(mViewability);
+            case FREE_EBOOKS:
+                return mEbook && "FREE".equals(mSaleability);
+            case PAID_EBOOKS:
+                return mEbook && "FOR_SALE".equals(mSaleability);
+            default:
+                return mEbook;
+        }
+    }
+
+    private boolean hasAuthorWord(String word)
+    {
+        for (String author : mAuthors) {
+            for (String name : author.toLowerCase(Locale.ROOT).split(" ")) {
+                if (name.equals(word)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The full volume resource, about 3 KB like the ones the API sends.
+     */
+    JsonObject toJson()
+    {
+        // A generator of its own, so the parts above stay as they were drawn
+        Random random = new Random(mSeed ^ 0x5DEECE66DL);
+        JsonObject volume = new JsonObject();
+        volume.addProperty("kind", "books#volume");
+        volume.addProperty("id", mId);
+        volume.addProperty("etag", volumeId(random));
+        volume.addProperty("selfLink", "https://www.googleapis.com/books/v1/volumes/" + mId);
+
+        JsonObject info = new JsonObject();
+        info.addProperty("title", mTitle);
+        info.addProperty("subtitle", capitalize(words(random, 4)));
+        JsonArray authors = new JsonArray();
+        for (String author : mAuthors) {
+            authors.add(author);
+        }
+        info.add("authors", authors);
+        info.addProperty("publisher", capitalize(words(random, 2)) + " Press");
+        info.addProperty("publishedDate", mPublishedDate);
+        info.addProperty("description", capitalize(words(random, 60 + random.nextInt(80))) + ".");
+        JsonArray identifiers = new JsonArray();
+        identifiers.add(identifier("ISBN_13", mIsbn));
+        identifiers.add(identifier("ISBN_10", mIsbn.substring(3, 12) + "X"));
+        info.add("industryIdentifiers", identifiers);
+        JsonObject readingModes = new JsonObject();
+        readingModes.addProperty("text", true);
+        readingModes.addProperty("image", false);
+        info.add("readingModes", readingModes);
+        info.addProperty("pageCount", 80 + random.nextInt(800));
+        info.addProperty("printType", "BOOK");
+        JsonArray categories = new JsonArray();
+        categories.add(mCategory);
+        info.add("categories", categories);
+        if (random.nextInt(3) != 0) {
+            info.addProperty("averageRating", (2 + random.nextInt(7)) / 2.0);
+            info.addProperty("ratingsCount", 1 + random.nextInt(500));
+        }
+        info.addProperty("maturityRating", "NOT_MATURE");
+        info.addProperty("allowAnonLogging", true);
+        info.addProperty("contentVersion", "1.2.3.0.preview.2");
+        JsonObject imageLinks = new JsonObject();
+        imageLinks.addProperty("smallThumbnail", "http://books.google.com/books/content?id=" + mId
+                + "&printsec=frontcover&img=1&zoom=5&edge=curl&source=gbs_api");
+        imageLinks.addProperty("thumbnail", "http://books.google.com/books/content?id=" + mId
+                + "&printsec=frontcover&img=1&zoom=1&edge=curl&source=gbs_api");
+        info.add("imageLinks", imageLinks);
+        info.addProperty("language", mLanguage);
+        info.addProperty("previewLink", "http://books.google.com/books?id=" + mId
+                + "&printsec=frontcover&dq=test&hl=&cd=1&source=gbs_api");
+        info.addProperty("infoLink", "https://play.google.com/store/books/details?id=" + mId + "&source=gbs_api");
+        info.addProperty("canonicalVolumeLink", "https://play.google.com/store/books/details?id=" + mId);
+        volume.add("volumeInfo", info);
+
+        JsonObject sale = new JsonObject();
+        sale.addProperty("country", "BG");
+        sale.addProperty("saleability", mSaleability);
+        sale.addProperty("isEbook", mEbook);
+        if ("FOR_SALE".equals(mSaleability)) {
+            double amount = 2 + random.nextInt(4000) / 100.0;
+            sale.add("listPrice", price(amount));
+            sale.add("retailPrice", price(amount));
+            sale.addProperty("buyLink", "https://play.google.com/store/books/details?id=" + mId
+                    + "&rdid=book-" + mId + "&rdot=1&source=gbs_api");
+        }
+        volume.add("saleInfo", sale);
+
+        JsonObject access = new JsonObject();
+        access.addProperty("country", "BG");
+        access.addProperty("viewability", mViewability);
+        access.addProperty("embeddable", true);
+        access.addProperty("publicDomain", false);
+        access.addProperty("textToSpeechPermission", "ALLOWED");
+        access.addProperty("accessViewStatus", "SAMPLE");
+        access.addProperty("quoteSharingAllowed", false);
+        volume.add("accessInfo", access);
+
+        JsonObject searchInfo = new JsonObject();
+        searchInfo.addProperty("textSnippet", capitalize(words(random, 20)) + " &hellip;");
+        volume.add("searchInfo", searchInfo);
+        return volume;
+    }
+
+    private static JsonObject identifier(String type, String value)
+    {
+        JsonObject identifier = new JsonObject();
+        identifier.addProperty("type", type);
+        identifier.addProperty("identifier", value);
+        return identifier;
+    }
+
+    private static JsonObject price(double amount)
+    {
+        JsonObject price = new JsonObject();
+        price.addProperty("amount", amount);
+        price.addProperty("currencyCode", "BGN");
+        return price;
+    }
+
+    // Volume ids are 12 characters of [A-Za-z0-9_-]
+    private static String volumeId(Random random)
+    {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789_-";
+        char[] id = new char[12];
+        for (int i = 0; i < id.length; i++) {
+            id[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+        }
+        return new String(id);
+    }
+
+    // A valid ISBN-13, the check digit is the one of the twelve random digits
+    private static String isbn(Random random)
+    {
+        StringBuilder digits = new StringBuilder("978");
+        int sum = 9 + 3 * 7 + 8;
+        for (int i = 3; i < 12; i++) {
+            int digit = random.nextInt(10);
+            sum += (i % 2 == 0 ? 1 : 3) * digit;
+            digits.append(digit);
+        }
+        return digits.append((10 - sum % 10) % 10).toString();
+    }
+
+    static String words(Random random, int count)
+    {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                words.append(' ');
+            }
+            words.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return words.toString();
+    }
+
+    static String capitalize(String text)
+    {
+        return Character.toUpperCase(text.charAt(0)) + text.substring(1);
+    }
+}